@@ -56,6 +56,20 @@ public final class InstrumentTask extends Task {
 
     private boolean autoSerializable = true;
 
+    private boolean pruneNonSuspendingCalls = false;
+
+    private boolean outlineSaveBlocks = false;
+
+    private boolean reuseStorageArrays = false;
+
+    private boolean generateFrameClasses = false;
+
+    private int workerCount = 1;
+
+    private File stateFile;
+
+    private File hierarchyCacheDirectory;
+
     private String classpath;
 
     private File sourceDirectory;
@@ -99,6 +113,68 @@ public final class InstrumentTask extends Task {
         this.autoSerializable = autoSerializable;
     }
 
+    /**
+     * Sets the prune non-suspending calls flag. Defaults to {@code false}. If set, calls to methods that can be proven to never suspend
+     * (by analyzing all class files in the source directory) aren't instrumented.
+     * @param pruneNonSuspendingCalls prune non-suspending calls
+     */
+    public void setPruneNonSuspendingCalls(boolean pruneNonSuspendingCalls) {
+        this.pruneNonSuspendingCalls = pruneNonSuspendingCalls;
+    }
+
+    /**
+     * Sets the outline save blocks flag. Defaults to {@code false}. If set, the code that saves a method's state when it suspends is
+     * moved out in to synthetic helper methods, making instrumented methods smaller.
+     * @param outlineSaveBlocks outline save blocks
+     */
+    public void setOutlineSaveBlocks(boolean outlineSaveBlocks) {
+        this.outlineSaveBlocks = outlineSaveBlocks;
+    }
+
+    /**
+     * Sets the reuse storage arrays flag. Defaults to {@code false}. If set, a method that suspends again at the same point it was resumed
+     * from saves its state in to the arrays it was resumed from instead of allocating new ones.
+     * @param reuseStorageArrays reuse storage arrays
+     */
+    public void setReuseStorageArrays(boolean reuseStorageArrays) {
+        this.reuseStorageArrays = reuseStorageArrays;
+    }
+
+    /**
+     * Sets the generate frame classes flag. Defaults to {@code false}. If set, a class with one typed field per saved slot is generated for
+     * each instrumented method and its state is saved in to an instance of that class instead of in to arrays.
+     * @param generateFrameClasses generate frame classes
+     */
+    public void setGenerateFrameClasses(boolean generateFrameClasses) {
+        this.generateFrameClasses = generateFrameClasses;
+    }
+
+    /**
+     * Sets the number of threads to instrument classes on. Defaults to {@code 1}.
+     * @param workerCount worker count
+     */
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Sets the file used to track what was instrumented in between runs. If set, only class files that changed since the last run (or
+     * that have supertypes that changed) are instrumented. Defaults to {@code null} (everything is instrumented on every run).
+     * @param stateFile state file (should not be inside of the source or target directory)
+     */
+    public void setStateFile(File stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Sets the directory used to cache the class hierarchy information of classpath JARs in between runs. The directory may be shared
+     * between builds. Defaults to {@code null} (JARs are re-read on every run).
+     * @param hierarchyCacheDirectory hierarchy cache directory
+     */
+    public void setHierarchyCacheDirectory(File hierarchyCacheDirectory) {
+        this.hierarchyCacheDirectory = hierarchyCacheDirectory;
+    }
+
     /**
      * Sets the classpath -- required by instrumenter when instrumenting class files.
      * @param classpath semicolon delimited classpath
@@ -168,6 +244,9 @@ public final class InstrumentTask extends Task {
         if (markerType == null) {
             throw new BuildException("Marker type not set");
         }
+        if (workerCount < 1) {
+            throw new BuildException("Worker count must be at least 1: " + workerCount);
+        }
 
         List<File> combinedClasspath;
         try {
@@ -177,23 +256,30 @@ public final class InstrumentTask extends Task {
                     .filter(x -> !x.isEmpty())
                     .map(x -> new File(x))
                     .collect(Collectors.toList());
-            log("Getting bootstrap classpath", Project.MSG_DEBUG);
-            combinedClasspath.addAll(FileUtils.listFiles(jdkLibsDirectory, new String[]{"jar"}, true));
 
-            log("Classpath for instrumentation is as follows: " + combinedClasspath, Project.MSG_DEBUG);
+            log("Classpath for instrumentation is as follows: " + combinedClasspath + " (plus JDK classes from "
+                    + jdkLibsDirectory.getAbsolutePath() + ")", Project.MSG_DEBUG);
         } catch (Exception ex) {
             throw new BuildException("Unable to get compile classpath elements", ex);
         }
 
-        Instrumenter instrumenter;
-        try {
-            log("Creating instrumenter...", Project.MSG_DEBUG);
+        log("Creating instrumenter...", Project.MSG_DEBUG);
+        try (Instrumenter instrumenter = PluginHelper.createInstrumenter(combinedClasspath, jdkLibsDirectory, hierarchyCacheDirectory)) {
             MarkerType markerTypeEnum = MarkerType.valueOf(markerType);
-            instrumenter = new Instrumenter(combinedClasspath);
-            InstrumentationSettings settings = new InstrumentationSettings(markerTypeEnum, debugMode, autoSerializable);
+            InstrumentationSettings settings = new InstrumentationSettings.Builder(markerTypeEnum, debugMode, autoSerializable)
+                    .pruneNonSuspendingCalls(pruneNonSuspendingCalls)
+                    .outlineSaveBlocks(outlineSaveBlocks)
+                    .reuseStorageArrays(reuseStorageArrays)
+                    .generateFrameClasses(generateFrameClasses)
+                    .build();
             
             log("Processing " + sourceDirectory.getAbsolutePath() + " ... ", Project.MSG_DEBUG);
-            PluginHelper.instrument(instrumenter, settings, sourceDirectory, targetDirectory, this::log);
+            if (stateFile != null) {
+                PluginHelper.instrumentIncrementally(instrumenter, settings, sourceDirectory, targetDirectory, stateFile, workerCount,
+                        this::log);
+            } else {
+                PluginHelper.instrument(instrumenter, settings, sourceDirectory, targetDirectory, workerCount, this::log);
+            }
         } catch (Exception ex) {
             throw new BuildException("Failed to instrument", ex);
         }
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.gradleplugin;
+
+import com.as.suspension.instrumenter.InstrumentationSettings;
+import com.as.suspension.instrumenter.PluginHelper;
+import com.as.suspension.instrumenter.generators.DebugGenerators.MarkerType;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.inject.Inject;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.Validate;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkerExecutor;
+
+//CHECKSTYLE.OFF:DesignForExtension - Gradle needs to be able to extend task classes
+/**
+ * Coroutines instrumentation task. Reads the class files output by the compiler from an input directory and writes them out (instrumented
+ * if needed) to an output directory.
+ * <p>
+ * The task declares all of its inputs and outputs, so it participates in up-to-date checks and the build cache. When run incrementally,
+ * only class files that changed (along with class files for their subtypes) are processed again. Class files are instrumented on a Gradle
+ * worker, using {@link CoroutinesPluginConfiguration#getWorkerCount() } threads that share a single instrumenter.
+ * @author Kasra Faghihi
+ */
+@CacheableTask
+public abstract class CoroutinesInstrumentTask extends DefaultTask {
+
+    private static final String CLASS_EXTENSION = ".class";
+    private static final String DETAILS_EXTENSION = ".coroutinesinfo";
+    private static final String FRAME_CLASS_INFIX = "$__COROUTINES_FRAME_"; // see FrameStorage.getFrameClassName()
+
+    private CoroutinesPluginConfiguration config;
+
+    /**
+     * Get the worker executor. Injected by Gradle.
+     * @return worker executor
+     */
+    @Inject
+    public abstract WorkerExecutor getWorkerExecutor();
+
+    /**
+     * Get the plugin configuration that instrumentation settings are taken from.
+     * @return plugin configuration
+     */
+    @Internal
+    public CoroutinesPluginConfiguration getConfig() {
+        return config;
+    }
+
+    /**
+     * Set the plugin configuration that instrumentation settings are taken from.
+     * @param config plugin configuration
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void setConfig(CoroutinesPluginConfiguration config) {
+        Validate.notNull(config);
+        this.config = config;
+    }
+
+    /**
+     * Get the directory containing class files to instrument.
+     * @return input directory
+     */
+    @Incremental
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getInputDirectory();
+
+    /**
+     * Get the directory to write class files to.
+     * @return output directory
+     */
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    /**
+     * Get the classpath that the class files in the input directory were compiled against.
+     * @return classpath
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getClasspath();
+
+    /**
+     * Get JDK library directory (see {@link CoroutinesPluginConfiguration#getJdkLibsDirectory() }).
+     * @return JDK library directory
+     */
+    @Input
+    public String getJdkLibsDirectory() {
+        return config.getJdkLibsDirectory();
+    }
+
+    /**
+     * Get marker type (see {@link CoroutinesPluginConfiguration#getMarkerType() }).
+     * @return marker type
+     */
+    @Input
+    public String getMarkerType() {
+        return config.getMarkerType();
+    }
+
+    /**
+     * Get debug mode (see {@link CoroutinesPluginConfiguration#isDebugMode() }).
+     * @return debug mode
+     */
+    @Input
+    public boolean isDebugMode() {
+        return config.isDebugMode();
+    }
+
+    /**
+     * Get auto-serializable (see {@link CoroutinesPluginConfiguration#isAutoSerializable() }).
+     * @return auto-serializable
+     */
+    @Input
+    public boolean isAutoSerializable() {
+        return config.isAutoSerializable();
+    }
+
+    /**
+     * Get prune non-suspending calls (see {@link CoroutinesPluginConfiguration#isPruneNonSuspendingCalls() }).
+     * @return prune non-suspending calls
+     */
+    @Input
+    public boolean isPruneNonSuspendingCalls() {
+        return config.isPruneNonSuspendingCalls();
+    }
+
+    /**
+     * Get outline save blocks (see {@link CoroutinesPluginConfiguration#isOutlineSaveBlocks() }).
+     * @return outline save blocks
+     */
+    @Input
+    public boolean isOutlineSaveBlocks() {
+        return config.isOutlineSaveBlocks();
+    }
+
+    /**
+     * Get reuse storage arrays (see {@link CoroutinesPluginConfiguration#isReuseStorageArrays() }).
+     * @return reuse storage arrays
+     */
+    @Input
+    public boolean isReuseStorageArrays() {
+        return config.isReuseStorageArrays();
+    }
+
+    /**
+     * Get generate frame classes (see {@link CoroutinesPluginConfiguration#isGenerateFrameClasses() }).
+     * @return generate frame classes
+     */
+    @Input
+    public boolean isGenerateFrameClasses() {
+        return config.isGenerateFrameClasses();
+    }
+
+    /**
+     * Get worker count (see {@link CoroutinesPluginConfiguration#getWorkerCount() }). Doesn't affect the output, so it isn't an input.
+     * @return number of threads to instrument classes on
+     */
+    @Internal
+    public int getWorkerCount() {
+        return config.getWorkerCount();
+    }
+
+    /**
+     * Get hierarchy cache directory (see {@link CoroutinesPluginConfiguration#getHierarchyCacheDirectory() }). Doesn't affect the output,
+     * so it isn't an input.
+     * @return directory to cache classpath JAR class hierarchy information in ({@code null} if disabled)
+     */
+    @Internal
+    public String getHierarchyCacheDirectory() {
+        return config.getHierarchyCacheDirectory();
+    }
+
+    /**
+     * Instruments class files.
+     * @param inputs changes to inputs since the last run
+     * @throws IOException on IO error
+     */
+    @TaskAction
+    public void instrument(InputChanges inputs) throws IOException {
+        File inputDirectory = getInputDirectory().get().getAsFile();
+        File outputDirectory = getOutputDirectory().get().getAsFile();
+
+        // Gradle only runs incrementally if nothing other than the input directory changed (e.g. the classpath or the settings).
+        //
+        // Pruning non-suspending calls requires analyzing all classes together, and a change to one class can change how the classes
+        // that call in to it get instrumented -- everything needs to be instrumented again.
+        Set<File> changedFiles = new LinkedHashSet<>();
+        Set<File> removedFiles = new LinkedHashSet<>();
+        boolean fullRun = !inputs.isIncremental() || isPruneNonSuspendingCalls();
+        if (!fullRun) {
+            for (FileChange change : inputs.getFileChanges(getInputDirectory())) {
+                if (change.getFileType() == FileType.DIRECTORY) {
+                    continue;
+                }
+
+                // If anything other than the class files changed, everything needs to be instrumented again
+                if (!change.getFile().getName().endsWith(CLASS_EXTENSION)) {
+                    fullRun = true;
+                    break;
+                }
+
+                if (change.getChangeType() == ChangeType.REMOVED) {
+                    removedFiles.add(change.getFile());
+                } else {
+                    changedFiles.add(change.getFile());
+                }
+            }
+        }
+
+        Collection<File> inputFiles = inputDirectory.isDirectory()
+                ? FileUtils.listFiles(inputDirectory, new String[] {"class"}, true)
+                : new ArrayList<>();
+        Set<File> dirtyFiles;
+        if (fullRun) {
+            FileUtils.forceMkdir(outputDirectory);
+            FileUtils.cleanDirectory(outputDirectory);
+            dirtyFiles = new LinkedHashSet<>(inputFiles);
+        } else {
+            // Classes that extend/implement changed classes need to be instrumented again as well
+            Set<String> changedClassNames = new HashSet<>();
+            for (File file : concat(changedFiles, removedFiles)) {
+                changedClassNames.add(toClassName(inputDirectory, file));
+                deleteOutputs(inputDirectory, outputDirectory, file);
+            }
+
+            dirtyFiles = new LinkedHashSet<>(changedFiles);
+            for (File file : PluginHelper.findSubtypeClassFiles(inputFiles, changedClassNames)) {
+                deleteOutputs(inputDirectory, outputDirectory, file);
+                dirtyFiles.add(file);
+            }
+        }
+
+        if (dirtyFiles.isEmpty()) {
+            return;
+        }
+
+        // The instrumenter only writes out classes that it instruments, so copy everything over first
+        Map<File, File> srcDstMapping = new HashMap<>();
+        for (File file : dirtyFiles) {
+            File outputFile = toOutputFile(inputDirectory, outputDirectory, file, CLASS_EXTENSION);
+            FileUtils.copyFile(file, outputFile);
+            srcDstMapping.put(file, outputFile);
+        }
+
+        List<File> instrumentClasspath = new ArrayList<>();
+        instrumentClasspath.add(inputDirectory);
+        instrumentClasspath.addAll(getClasspath().getFiles());
+        instrumentClasspath.removeIf(f -> !f.exists());
+
+        getLogger().debug("Instrumenting {} of {} class files", dirtyFiles.size(), inputFiles.size());
+
+        InstrumentationSettings settings = new InstrumentationSettings.Builder(MarkerType.valueOf(getMarkerType()), isDebugMode(),
+                isAutoSerializable())
+                .pruneNonSuspendingCalls(isPruneNonSuspendingCalls())
+                .outlineSaveBlocks(isOutlineSaveBlocks())
+                .reuseStorageArrays(isReuseStorageArrays())
+                .generateFrameClasses(isGenerateFrameClasses())
+                .build();
+        String hierarchyCacheDirectory = getHierarchyCacheDirectory();
+        getWorkerExecutor().noIsolation().submit(InstrumentWorker.class, params -> {
+            params.getClasspath().set(instrumentClasspath);
+            params.getJdkLibsDirectory().set(new File(getJdkLibsDirectory()));
+            params.getSrcDstMapping().set(srcDstMapping);
+            params.getSettings().set(settings);
+            params.getWorkerCount().set(getWorkerCount());
+            if (hierarchyCacheDirectory != null) {
+                params.getHierarchyCacheDirectory().set(new File(hierarchyCacheDirectory));
+            }
+        });
+    }
+
+    private static String toClassName(File inputDirectory, File inputFile) {
+        String relativePath = inputDirectory.toPath().relativize(inputFile.toPath()).toString().replace(File.separatorChar, '/');
+        return relativePath.substring(0, relativePath.length() - CLASS_EXTENSION.length());
+    }
+
+    private static File toOutputFile(File inputDirectory, File outputDirectory, File inputFile, String extension) {
+        String relativePath = inputDirectory.toPath().relativize(inputFile.toPath()).toString();
+        String relativePathNoExt = relativePath.substring(0, relativePath.length() - CLASS_EXTENSION.length());
+        return outputDirectory.toPath().resolve(relativePathNoExt + extension).toFile();
+    }
+
+    private static void deleteOutputs(File inputDirectory, File outputDirectory, File inputFile) {
+        File outputFile = toOutputFile(inputDirectory, outputDirectory, inputFile, CLASS_EXTENSION);
+        FileUtils.deleteQuietly(outputFile);
+        FileUtils.deleteQuietly(toOutputFile(inputDirectory, outputDirectory, inputFile, DETAILS_EXTENSION));
+
+        // Frame classes are named after the IDs of the methods they were generated for, and those IDs change when the methods change --
+        // match them by prefix rather than trying to figure out what methods were there last time
+        String outputName = outputFile.getName();
+        String frameClassPrefix = outputName.substring(0, outputName.length() - CLASS_EXTENSION.length()) + FRAME_CLASS_INFIX;
+        File[] frameClassFiles = outputFile.getParentFile().listFiles(
+                (dir, name) -> name.startsWith(frameClassPrefix) && name.endsWith(CLASS_EXTENSION));
+        if (frameClassFiles != null) {
+            for (File frameClassFile : frameClassFiles) {
+                FileUtils.deleteQuietly(frameClassFile);
+            }
+        }
+    }
+
+    private static List<File> concat(Collection<File> a, Collection<File> b) {
+        List<File> ret = new ArrayList<>(a.size() + b.size());
+        ret.addAll(a);
+        ret.addAll(b);
+        return ret;
+    }
+}
+//CHECKSTYLE.ON:DesignForExtension
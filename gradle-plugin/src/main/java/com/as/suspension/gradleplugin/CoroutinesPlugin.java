@@ -16,24 +16,16 @@
  */
 package com.as.suspension.gradleplugin;
 
-import com.as.suspension.instrumenter.InstrumentationSettings;
-import com.as.suspension.instrumenter.Instrumenter;
-import com.as.suspension.instrumenter.PluginHelper;
-import com.as.suspension.instrumenter.generators.DebugGenerators.MarkerType;
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import static java.util.stream.Collectors.toList;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.jxpath.JXPathContext;
-import org.apache.commons.lang3.reflect.MethodUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
-import org.gradle.api.Task;
-import org.gradle.api.logging.Logger;
+import org.gradle.api.file.Directory;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.SourceSetContainer;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.compile.JavaCompile;
 
 //CHECKSTYLE.OFF:DesignForExtension - Gradle likely needs these classes to be extendable
 /**
@@ -57,6 +49,8 @@ import org.gradle.api.logging.Logger;
  * coroutines {
  *     // Uncomment if you'll be stepping through your coroutines in an IDE.
  *     // debugMode = true 
+ *     // Uncomment to instrument classes on multiple threads.
+ *     // workerCount = 4
  * }
  * 
  * repositories {
@@ -64,91 +58,50 @@ import org.gradle.api.logging.Logger;
  * }
  * 
  * dependencies {
- *     compile group: 'com.offbynull.coroutines', name: 'user', version: 'PUT_CORRECT_VERSION_HERE'
+ *     implementation group: 'com.offbynull.coroutines', name: 'user', version: 'PUT_CORRECT_VERSION_HERE'
  * }
  * </pre>
+ * Classes are compiled to an intermediate directory and then instrumented in to the source set's normal classes directory by a
+ * {@link CoroutinesInstrumentTask} ({@code coroutinesInstrument} for main classes and {@code coroutinesInstrumentTest} for test classes).
+ * Requires Gradle 6.1 or later.
  * @author Kasra Faghihi
  */
 public class CoroutinesPlugin implements Plugin<Project> {
 
-    private Logger log;
-
-    @SuppressWarnings("unchecked")
     @Override
     public void apply(Project target) {
         // Add config block
         CoroutinesPluginConfiguration config = new CoroutinesPluginConfiguration();
         target.getExtensions().add("coroutines", config);
 
-        Set<Task> compileJavaTasks = target.getTasksByName("compileJava", true);
-        for (Task task : compileJavaTasks) {
-            addInstrumentActionToTask("main", task, config);
-        }
-
-        Set<Task> compileJavaTestTasks = target.getTasksByName("compileTestJava", true);
-        for (Task task : compileJavaTestTasks) {
-            addInstrumentActionToTask("test", task, config);
-        }
-
-        log = target.getLogger();
+        target.getPlugins().withType(JavaPlugin.class, javaPlugin -> {
+            SourceSetContainer sourceSets = target.getExtensions().getByType(SourceSetContainer.class);
+            addInstrumentTask(target, sourceSets.getByName(SourceSet.MAIN_SOURCE_SET_NAME), config);
+            addInstrumentTask(target, sourceSets.getByName(SourceSet.TEST_SOURCE_SET_NAME), config);
+        });
     }
 
-    @SuppressWarnings("unchecked")
-    private void addInstrumentActionToTask(String sourceType, Task task, CoroutinesPluginConfiguration config) {
-        task.doLast(x -> {
-            try {
-                // Get source sets -- since we don't have access to the normal Gradle plugins API (artifact can't be found on any repo) we
-                // have to use Java reflections to access the data.
-                Project proj = task.getProject();
-
-                Object sourceSets = JXPathContext.newContext(proj).getValue("properties/sourceSets");
-
-                // can't use JXPath for this because jxpath can't read inherited properties (getAsMap is inherited??)
-                Map<String, Object> sourceSetsMap = (Map<String, Object>) MethodUtils.invokeMethod(sourceSets, "getAsMap");
-
-                if (sourceSetsMap.containsKey(sourceType)) {
-                    JXPathContext ctx = JXPathContext.newContext(sourceSetsMap);
-                    File classesDir = (File) ctx.getValue(sourceType + "/output/classesDir");
-                    Set<File> compileClasspath = (Set<File>) ctx.getValue(sourceType + "/compileClasspath/files");
-                    
-                    if (classesDir.isDirectory()) {
-                        instrument(classesDir, compileClasspath, config);
-                    }
-                }
-            } catch (Exception e) {
-                throw new IllegalStateException("Coroutines instrumentation failed", e);
-            }
-        });        
-    }
-    
-    private void instrument(File classesDir, Set<File> compileClasspath, CoroutinesPluginConfiguration config) {
-        try {
-            List<File> classpath = new ArrayList<>();
-            classpath.add(classesDir); // change to destinationDir?
-            log.debug("Getting compile classpath");
-            classpath.addAll(compileClasspath);
-            log.debug("Getting bootstrap classpath");
-            classpath.addAll(FileUtils.listFiles(new File(config.getJdkLibsDirectory()), new String[]{"jar"}, true));
-
-            classpath = classpath.stream()
-                    .filter(x -> x.exists())
-                    .collect(toList());
-            
-            log.debug("Classpath for instrumentation is as follows: " + classpath);
-
-            log.debug("Creating instrumenter...");
-            MarkerType markerType = MarkerType.valueOf(config.getMarkerType());
-            boolean debugMode = config.isDebugMode();
-            boolean autoSerializable = config.isAutoSerializable();
-            InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable);
-            Instrumenter instrumenter = new Instrumenter(classpath);
+    private void addInstrumentTask(Project project, SourceSet sourceSet, CoroutinesPluginConfiguration config) {
+        // Compile to an intermediate directory and have a separate instrumentation task write out to the directory that the compile task
+        // would normally write to. Instrumenting in place (as part of the compile task) breaks up-to-date checks and the build cache.
+        String sourceType = sourceSet.getName();
+        String suffix = SourceSet.MAIN_SOURCE_SET_NAME.equals(sourceType) ? "" : StringUtils.capitalize(sourceType);
+        TaskProvider<JavaCompile> compileTask = project.getTasks().named(sourceSet.getCompileJavaTaskName(), JavaCompile.class);
+        TaskProvider<CoroutinesInstrumentTask> instrumentTask = project.getTasks().register("coroutinesInstrument" + suffix,
+                CoroutinesInstrumentTask.class, task -> {
+                    task.setDescription("Instruments " + sourceType + " classes for coroutines.");
+                    task.setConfig(config);
+                    task.getInputDirectory().set(compileTask.flatMap(JavaCompile::getDestinationDirectory));
+                    task.getClasspath().from(sourceSet.getCompileClasspath());
+                });
 
-            // This logs to info by default, but info won't show up unless you pass -i to gradle. If you want logs to show up by default,
-            // pass in log::lifecycle instead.
-            PluginHelper.instrument(instrumenter, settings, classesDir, classesDir, log::info);
-        } catch (IOException ioe) {
-            throw new IllegalStateException("Failed to instrument", ioe);
-        }
+        // Make the instrumentation task (rather than the compile task) the producer of the source set's classes directory -- anything that
+        // consumes the source set's output (e.g. the jar and test tasks) gets the instrumented classes and depends on the instrumentation
+        // task. The classes task depends on the compile task directly, so it needs to be pointed at the instrumentation task explicitly.
+        Provider<Directory> uninstrumentedDir = project.getLayout().getBuildDirectory().dir("coroutines/uninstrumented/" + sourceType);
+        sourceSet.getJava().compiledBy(instrumentTask, CoroutinesInstrumentTask::getOutputDirectory);
+        compileTask.configure(task -> task.getDestinationDirectory().set(uninstrumentedDir));
+        project.getTasks().named(sourceSet.getClassesTaskName()).configure(task -> task.dependsOn(instrumentTask));
     }
 
 }
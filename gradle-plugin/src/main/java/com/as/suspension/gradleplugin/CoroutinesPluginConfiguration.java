@@ -28,6 +28,12 @@ public final class CoroutinesPluginConfiguration {
     private String markerType;
     private boolean debugMode;
     private boolean autoSerializable;
+    private boolean pruneNonSuspendingCalls;
+    private boolean outlineSaveBlocks;
+    private boolean reuseStorageArrays;
+    private boolean generateFrameClasses;
+    private int workerCount;
+    private String hierarchyCacheDirectory;
 
     /**
      * Constructs a {@link CoroutinesPluginConfiguration} object.
@@ -37,6 +43,12 @@ public final class CoroutinesPluginConfiguration {
         markerType = "NONE";
         debugMode = false;
         autoSerializable = true;
+        pruneNonSuspendingCalls = false;
+        outlineSaveBlocks = false;
+        reuseStorageArrays = false;
+        generateFrameClasses = false;
+        workerCount = 1;
+        hierarchyCacheDirectory = null;
     }
 
     /**
@@ -112,5 +124,108 @@ public final class CoroutinesPluginConfiguration {
     public void setAutoSerializable(boolean autoSerializable) {
         this.autoSerializable = autoSerializable;
     }
+
+    /**
+     * Get prune non-suspending calls.
+     * @return prune non-suspending calls
+     */
+    public boolean isPruneNonSuspendingCalls() {
+        return pruneNonSuspendingCalls;
+    }
+
+    /**
+     * Set prune non-suspending calls. If set, calls to methods that can be proven to never suspend (by analyzing all classes being
+     * instrumented) aren't instrumented.
+     * @param pruneNonSuspendingCalls prune non-suspending calls
+     */
+    public void setPruneNonSuspendingCalls(boolean pruneNonSuspendingCalls) {
+        this.pruneNonSuspendingCalls = pruneNonSuspendingCalls;
+    }
+
+    /**
+     * Get outline save blocks.
+     * @return outline save blocks
+     */
+    public boolean isOutlineSaveBlocks() {
+        return outlineSaveBlocks;
+    }
+
+    /**
+     * Set outline save blocks. If set, the code that saves a method's state when it suspends is moved out in to synthetic helper
+     * methods, making instrumented methods smaller.
+     * @param outlineSaveBlocks outline save blocks
+     */
+    public void setOutlineSaveBlocks(boolean outlineSaveBlocks) {
+        this.outlineSaveBlocks = outlineSaveBlocks;
+    }
+
+    /**
+     * Get reuse storage arrays.
+     * @return reuse storage arrays
+     */
+    public boolean isReuseStorageArrays() {
+        return reuseStorageArrays;
+    }
+
+    /**
+     * Set reuse storage arrays. If set, a method that suspends again at the same point it was resumed from saves its state in to the
+     * arrays it was resumed from instead of allocating new ones.
+     * @param reuseStorageArrays reuse storage arrays
+     */
+    public void setReuseStorageArrays(boolean reuseStorageArrays) {
+        this.reuseStorageArrays = reuseStorageArrays;
+    }
+
+    /**
+     * Get generate frame classes.
+     * @return generate frame classes
+     */
+    public boolean isGenerateFrameClasses() {
+        return generateFrameClasses;
+    }
+
+    /**
+     * Set generate frame classes. If set, a class with one typed field per saved slot is generated for each instrumented method and its
+     * state is saved in to an instance of that class instead of in to arrays.
+     * @param generateFrameClasses generate frame classes
+     */
+    public void setGenerateFrameClasses(boolean generateFrameClasses) {
+        this.generateFrameClasses = generateFrameClasses;
+    }
+
+    /**
+     * Get worker count.
+     * @return number of threads to instrument classes on
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Set worker count.
+     * @param workerCount number of threads to instrument classes on
+     * @throws IllegalArgumentException if {@code workerCount < 1}
+     */
+    public void setWorkerCount(int workerCount) {
+        Validate.isTrue(workerCount >= 1);
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Get hierarchy cache directory.
+     * @return directory to cache classpath JAR class hierarchy information in between builds ({@code null} if disabled)
+     */
+    public String getHierarchyCacheDirectory() {
+        return hierarchyCacheDirectory;
+    }
+
+    /**
+     * Set hierarchy cache directory. The directory may be shared between builds. Defaults to {@code null} (JARs are re-read on every
+     * build).
+     * @param hierarchyCacheDirectory directory to cache classpath JAR class hierarchy information in ({@code null} to disable)
+     */
+    public void setHierarchyCacheDirectory(String hierarchyCacheDirectory) {
+        this.hierarchyCacheDirectory = hierarchyCacheDirectory;
+    }
     
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.gradleplugin;
+
+import com.as.suspension.instrumenter.InstrumentationSettings;
+import com.as.suspension.instrumenter.Instrumenter;
+import com.as.suspension.instrumenter.PluginHelper;
+import java.io.File;
+import java.io.IOException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+//CHECKSTYLE.OFF:DesignForExtension - Gradle needs to be able to extend work action classes
+/**
+ * Gradle work action that instruments class files for {@link CoroutinesInstrumentTask}. A single {@link Instrumenter} (and the class
+ * hierarchy information it loads from the classpath) is shared between all of the threads that class files are instrumented on.
+ * @author Kasra Faghihi
+ */
+public abstract class InstrumentWorker implements WorkAction<InstrumentWorker.Parameters> {
+
+    private static final Logger LOG = Logging.getLogger(InstrumentWorker.class);
+
+    @Override
+    public void execute() {
+        Parameters params = getParameters();
+        File cacheDirectory = params.getHierarchyCacheDirectory().getAsFile().getOrNull();
+        try (Instrumenter instrumenter = PluginHelper.createInstrumenter(params.getClasspath().get(), params.getJdkLibsDirectory().get(),
+                cacheDirectory)) {
+            // This logs to info by default, but info won't show up unless you pass -i to gradle. If you want logs to show up by default,
+            // pass in LOG::lifecycle instead.
+            PluginHelper.instrument(instrumenter, params.getSettings().get(), params.getSrcDstMapping().get(),
+                    params.getWorkerCount().get(), LOG::info);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Failed to instrument", ioe);
+        }
+    }
+
+    /**
+     * Parameters passed in by {@link CoroutinesInstrumentTask}.
+     */
+    public interface Parameters extends WorkParameters {
+        /**
+         * Get classpath for classes being instrumented (not including the JDK).
+         * @return classpath
+         */
+        ListProperty<File> getClasspath();
+
+        /**
+         * Get JDK libs directory.
+         * @return JDK libs directory
+         */
+        Property<File> getJdkLibsDirectory();
+
+        /**
+         * Get class files to instrument mapped to destination files. If pruning non-suspending calls, must contain all classes being
+         * instrumented.
+         * @return source class to destination class mapping
+         */
+        MapProperty<File, File> getSrcDstMapping();
+
+        /**
+         * Get instrumentation settings.
+         * @return instrumentation settings
+         */
+        Property<InstrumentationSettings> getSettings();
+
+        /**
+         * Get number of threads to instrument classes on.
+         * @return worker count
+         */
+        Property<Integer> getWorkerCount();
+
+        /**
+         * Get directory to cache classpath JAR class hierarchy information in.
+         * @return hierarchy cache directory (not set if disabled)
+         */
+        DirectoryProperty getHierarchyCacheDirectory();
+    }
+}
+//CHECKSTYLE.ON:DesignForExtension
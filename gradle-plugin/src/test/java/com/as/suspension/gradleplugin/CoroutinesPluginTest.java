@@ -1,9 +1,204 @@
 package com.as.suspension.gradleplugin;
 
+import com.as.suspension.user.Suspendable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
 public final class CoroutinesPluginTest {
-    
-    // It's difficult to write tests for this plugin. The proper classes aren't made available in the Gradle repo, and trying to mock them
-    // out or otherwise create fake stubs results is too burdensome and results in failure (missing class dependencies in the gradle core
-    // api)?
-    
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File projectDir;
+
+    @Before
+    public void before() throws Exception {
+        projectDir = tempFolder.getRoot();
+
+        File userJar = new File(Suspendable.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        write("settings.gradle", "rootProject.name = 'test'");
+        write("build.gradle",
+                "plugins {",
+                "    id 'java'",
+                "    id 'coroutines'",
+                "}",
+                "java {", // instrumenter only supports up to Java 8 class files
+                "    sourceCompatibility = JavaVersion.VERSION_1_8",
+                "    targetCompatibility = JavaVersion.VERSION_1_8",
+                "}",
+                "dependencies {",
+                "    implementation files('" + userJar.getAbsolutePath().replace('\\', '/') + "')",
+                "}");
+        write("src/main/java/test/Echo.java",
+                "package test;",
+                "import com.as.suspension.user.Suspendable;",
+                "import com.as.suspension.user.SuspendableContext;",
+                "public class Echo implements Suspendable {",
+                "    public void run(SuspendableContext ctx) {",
+                "        for (int i = 0; i < 10; i++) {",
+                "            System.out.println(i);",
+                "            ctx.suspend();",
+                "        }",
+                "    }",
+                "}");
+        writePlainClass("Plain");
+    }
+
+    @Test
+    public void mustInstrumentInToClassesDirectory() throws Exception {
+        BuildResult result = run("classes");
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":compileJava").getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, result.task(":coroutinesInstrument").getOutcome());
+        assertTrue(outputFile("Echo.coroutinesinfo").isFile());
+        assertFalse(outputFile("Plain.coroutinesinfo").exists());
+        assertFalse(Arrays.equals(
+                FileUtils.readFileToByteArray(uninstrumentedFile("Echo.class")),
+                FileUtils.readFileToByteArray(outputFile("Echo.class"))));
+        assertTrue(Arrays.equals(
+                FileUtils.readFileToByteArray(uninstrumentedFile("Plain.class")),
+                FileUtils.readFileToByteArray(outputFile("Plain.class"))));
+    }
+
+    @Test
+    public void mustPackageInstrumentedClasses() throws Exception {
+        BuildResult result = run("jar");
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":coroutinesInstrument").getOutcome());
+        try (ZipFile zipFile = new ZipFile(new File(projectDir, "build/libs/test.jar"))) {
+            assertNotNull(zipFile.getEntry("test/Echo.coroutinesinfo"));
+        }
+    }
+
+    @Test
+    public void mustBeUpToDateIfNothingChanged() throws Exception {
+        run("classes");
+        BuildResult result = run("classes");
+
+        assertEquals(TaskOutcome.UP_TO_DATE, result.task(":coroutinesInstrument").getOutcome());
+    }
+
+    @Test
+    public void mustOnlyProcessChangedClassesWhenRunIncrementally() throws Exception {
+        run("classes");
+        File echoOutput = outputFile("Echo.class");
+        byte[] echoData = FileUtils.readFileToByteArray(echoOutput);
+        assertTrue(echoOutput.setLastModified(0L));
+
+        writePlainClass("Plain2");
+        FileUtils.forceDelete(new File(projectDir, "src/main/java/test/Plain.java"));
+        BuildResult result = run("classes");
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":coroutinesInstrument").getOutcome());
+        assertEquals(0L, echoOutput.lastModified());
+        assertTrue(Arrays.equals(echoData, FileUtils.readFileToByteArray(echoOutput)));
+        assertTrue(outputFile("Plain2.class").isFile());
+        assertFalse(outputFile("Plain.class").exists());
+    }
+
+    @Test
+    public void mustInstrumentEverythingAgainWhenSettingsChange() throws Exception {
+        run("classes");
+        File echoOutput = outputFile("Echo.class");
+        assertTrue(echoOutput.setLastModified(0L));
+
+        FileUtils.write(new File(projectDir, "build.gradle"), "\ncoroutines { debugMode = true }\n", StandardCharsets.UTF_8, true);
+        BuildResult result = run("classes");
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":coroutinesInstrument").getOutcome());
+        assertTrue(echoOutput.lastModified() != 0L);
+    }
+
+    @Test
+    public void mustRemoveStaleFrameClassesWhenRunIncrementally() throws Exception {
+        FileUtils.write(new File(projectDir, "build.gradle"), "\ncoroutines { generateFrameClasses = true }\n", StandardCharsets.UTF_8,
+                true);
+        writeSuspendableClass("Echo2", "ctx.suspend();");
+        run("classes");
+        File[] oldFrameClassFiles = frameClassFiles("Echo");
+        assertEquals(1, oldFrameClassFiles.length);
+        assertEquals(1, frameClassFiles("Echo2").length);
+
+        // Change the method -- its ID changes, so the frame class generated for it gets a different name
+        writeSuspendableClass("Echo", "ctx.suspend();", "ctx.suspend();");
+        FileUtils.forceDelete(new File(projectDir, "src/main/java/test/Echo2.java"));
+        BuildResult result = run("classes");
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":coroutinesInstrument").getOutcome());
+        File[] newFrameClassFiles = frameClassFiles("Echo");
+        assertEquals(1, newFrameClassFiles.length);
+        assertFalse(oldFrameClassFiles[0].exists());
+        assertEquals(0, frameClassFiles("Echo2").length);
+        assertFalse(outputFile("Echo2.class").exists());
+    }
+
+    private BuildResult run(String task) {
+        GradleRunner runner = GradleRunner.create()
+                .withProjectDir(projectDir)
+                .withPluginClasspath()
+                .withArguments(task, "--stacktrace");
+        String gradleVersion = System.getProperty("coroutines.testGradleVersion"); // run against a specific Gradle version if set
+        if (gradleVersion != null) {
+            runner = runner.withGradleVersion(gradleVersion);
+        }
+        return runner.build();
+    }
+
+    private void writePlainClass(String name) throws IOException {
+        write("src/main/java/test/" + name + ".java",
+                "package test;",
+                "public class " + name + " {",
+                "    public String toString() {",
+                "        return \"" + name + "\";",
+                "    }",
+                "}");
+    }
+
+    private void writeSuspendableClass(String name, String... statements) throws IOException {
+        List<String> lines = new ArrayList<>(Arrays.asList(
+                "package test;",
+                "import com.as.suspension.user.Suspendable;",
+                "import com.as.suspension.user.SuspendableContext;",
+                "public class " + name + " implements Suspendable {",
+                "    public void run(SuspendableContext ctx) {"));
+        for (String statement : statements) {
+            lines.add("        " + statement);
+        }
+        lines.add("    }");
+        lines.add("}");
+        write("src/main/java/test/" + name + ".java", lines.toArray(new String[0]));
+    }
+
+    private File[] frameClassFiles(String name) {
+        return new File(projectDir, "build/classes/java/main/test").listFiles((dir, f) -> f.startsWith(name + "$__COROUTINES_FRAME_"));
+    }
+
+    private void write(String path, String... lines) throws IOException {
+        FileUtils.writeLines(new File(projectDir, path), StandardCharsets.UTF_8.name(), Arrays.asList(lines));
+    }
+
+    private File outputFile(String name) {
+        return new File(projectDir, "build/classes/java/main/test/" + name);
+    }
+
+    private File uninstrumentedFile(String name) {
+        return new File(projectDir, "build/coroutines/uninstrumented/main/test/" + name);
+    }
 }
@@ -49,7 +49,7 @@ final class AnalyzeInstrumentationPass implements InstrumentationPass {
         ClassInformationRepository classRepo = state.classInformationRepository();
         InstrumentationSettings settings = state.instrumentationSettings();
 
-        MethodAnalyzer analyzer = new MethodAnalyzer(classRepo);
+        MethodAnalyzer analyzer = new MethodAnalyzer(classRepo, state.suspendAnalysis());
 
         Set<MethodNode> methodNodes = new HashSet<>(state.methodAttributes().keySet()); // create a copy and iterate of that,
                                                                                        // otherwise we are modifying and iterating
@@ -24,6 +24,7 @@ import com.as.suspension.instrumenter.asm.MethodInvokeUtils;
 import com.as.suspension.instrumenter.asm.VariableTable;
 import com.as.suspension.instrumenter.generators.DebugGenerators;
 import com.as.suspension.instrumenter.generators.GenericGenerators;
+import com.as.suspension.user.FrameStorage;
 import com.as.suspension.user.SuspendableContext;
 
 import static com.as.suspension.user.SuspendableContext.MODE_NORMAL;
@@ -32,6 +33,8 @@ import com.as.suspension.user.LockState;
 import com.as.suspension.user.MethodState;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.IntStream;
 
 import org.apache.commons.lang3.Validate;
@@ -43,9 +46,14 @@ import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
 import org.objectweb.asm.tree.analysis.BasicValue;
 import org.objectweb.asm.tree.analysis.Frame;
 
@@ -75,12 +83,20 @@ final class ContinuationGenerators {
     private static final Constructor<MethodState> METHODSTATE_INIT_METHOD
             = ConstructorUtils.getAccessibleConstructor(MethodState.class, String.class, Integer.TYPE, Integer.TYPE,
                     Object[].class, LockState.class);
+    private static final Constructor<MethodState> METHODSTATE_INIT_FRAME_METHOD
+            = ConstructorUtils.getAccessibleConstructor(MethodState.class, String.class, Integer.TYPE, Integer.TYPE,
+                    Object.class, LockState.class);
     private static final Method METHODSTATE_GETCONTINUATIONPOINT_METHOD
             = MethodUtils.getAccessibleMethod(MethodState.class, "getContinuationPoint");
     private static final Method METHODSTATE_GETDATA_METHOD
             = MethodUtils.getAccessibleMethod(MethodState.class, "getData");
+    private static final Method METHODSTATE_GETFRAME_METHOD
+            = MethodUtils.getAccessibleMethod(MethodState.class, "getFrame");
     private static final Method METHODSTATE_GETLOCKSTATE_METHOD
             = MethodUtils.getAccessibleMethod(MethodState.class, "getLockState");
+
+    // A method descriptor can't have more than 255 slots worth of parameters
+    private static final int MAX_PARAMETER_SLOTS = 255;
     
     private ContinuationGenerators() {
         // do nothing
@@ -115,6 +131,12 @@ final class ContinuationGenerators {
                         0,
                         GenericGenerators.merge(
                                 DebugGenerators.debugMarker(markerType, dbgSig + "Case 0 -- Fresh invocation"),
+                                // no method state to reuse when saving if storage arrays are being reused (var is checked before saving)
+                                GenericGenerators.mergeIf(attrs.getSettings().isReuseStorageArrays(), () -> new Object[] {
+                                        DebugGenerators.debugMarker(markerType, dbgSig + "Clearing method state"),
+                                        GenericGenerators.loadNull(),
+                                        GenericGenerators.saveVar(methodStateVar)
+                                }),
                                 // create lockstate if method actually has monitorenter/exit in it (var != null if this were the case)
                                 GenericGenerators.mergeIf(lockStateVar != null, () -> new Object[] {
                                         DebugGenerators.debugMarker(markerType, "Creating monitors container"),
@@ -133,8 +155,7 @@ final class ContinuationGenerators {
                                 GenericGenerators.call(CONTINUATION_LOADNEXTMETHODSTATE_METHOD, GenericGenerators.loadVar(contArg)),
                                 GenericGenerators.saveVar(methodStateVar),
                                 DebugGenerators.debugMarker(markerType, dbgSig + "Getting method state data"),
-                                GenericGenerators.call(METHODSTATE_GETDATA_METHOD, GenericGenerators.loadVar(methodStateVar)),
-                                GenericGenerators.saveVar(storageContainerVar),
+                                loadStorageContainer(methodStateVar, storageContainerVar),
                                 // get lockstate if method actually has monitorenter/exit in it (var != null if this were the case)
                                 GenericGenerators.mergeIf(lockStateVar != null, () -> new Object[] {
                                         DebugGenerators.debugMarker(markerType, dbgSig + "Method has synch points, so loading lockstate as well"),
@@ -532,7 +553,7 @@ final class ContinuationGenerators {
     
     
     
-    public static InsnList saveState(MethodAttributes attrs, int idx) {
+    public static InsnList saveState(MethodAttributes attrs, int idx, MethodNode saveHelper) {
         Validate.notNull(attrs);
         Validate.isTrue(idx >= 0);
         ContinuationPoint continuationPoint = InternalUtils.validateAndGetContinuationPoint(attrs, idx, ContinuationPoint.class);
@@ -541,11 +562,11 @@ final class ContinuationGenerators {
                 
         InsnList saveInsnList;
         if (continuationPoint instanceof SuspendContinuationPoint) {
-            saveInsnList = saveStateFromSuspend(attrs, idx);
+            saveInsnList = saveStateFromSuspend(attrs, idx, saveHelper);
         } else if (continuationPoint instanceof NormalInvokeContinuationPoint) {
-            saveInsnList = saveStateFromNormalInvocation(attrs, idx);
+            saveInsnList = saveStateFromNormalInvocation(attrs, idx, saveHelper);
         } else if (continuationPoint instanceof TryCatchInvokeContinuationPoint) {
-            saveInsnList = saveStateFromInvocationWithinTryCatch(attrs, idx);
+            saveInsnList = saveStateFromInvocationWithinTryCatch(attrs, idx, saveHelper);
         } else {
             throw new IllegalArgumentException(); // should never happen
         }
@@ -553,21 +574,13 @@ final class ContinuationGenerators {
         return saveInsnList;
     }
     
-    private static InsnList saveStateFromSuspend(MethodAttributes attrs, int idx) {
+    private static InsnList saveStateFromSuspend(MethodAttributes attrs, int idx, MethodNode saveHelper) {
         Validate.notNull(attrs);
         Validate.isTrue(idx >= 0);
         SuspendContinuationPoint cp = InternalUtils.validateAndGetContinuationPoint(attrs, idx, SuspendContinuationPoint.class);
 
-        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
-        int methodId = attrs.getSignature().getMethodId();
-        
         Integer lineNumber = cp.getLineNumber();
 
-        VariableTable.Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
-        StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
-        StorageVariables savedStackVars = attrs.getStackStorageVariables();
-        VariableTable.Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
-        
         LockVariables lockVars = attrs.getLockVariables();
         VariableTable.Variable lockStateVar = lockVars.getLockStateVar();
         
@@ -593,31 +606,9 @@ final class ContinuationGenerators {
                     GenericGenerators.lineNumber(lineNumber)
                 }),
                 DebugGenerators.debugMarker(markerType, dbgSig + "Saving SUSPEND " + idx),
-                DebugGenerators.debugMarker(markerType, dbgSig + "Saving operand stack"),
-                saveOperandStack(markerType, savedStackVars, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS. ALSO, DON'T FORGET THAT
-                                                                     // SuspendableContext OBJECT WILL BE TOP ITEM, NEEDS TO BE DISCARDED ON LOAD
-                DebugGenerators.debugMarker(markerType, dbgSig + "Saving locals"),
-                LocalsStateGenerators.saveLocals(markerType, savedLocalsVars, frame),
-                DebugGenerators.debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
-                PackStateGenerators.packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars),
-                DebugGenerators.debugMarker(markerType, dbgSig + "Creating and pushing method state"),
-                GenericGenerators.call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, GenericGenerators.loadVar(contArg),
-                        GenericGenerators.construct(METHODSTATE_INIT_METHOD,
-                                GenericGenerators.loadStringConst(friendlyClassName),
-                                GenericGenerators.loadIntConst(methodId),
-                                GenericGenerators.loadIntConst(idx),
-                                GenericGenerators.loadVar(storageContainerVar),
-                                // load lockstate for last arg if method actually has monitorenter/exit in it
-                                // (var != null if this were the case), otherwise load null for that arg
-                                GenericGenerators.mergeIf(lockStateVar != null, () -> new Object[] {
-                                    GenericGenerators.loadVar(lockStateVar)
-                                }).mergeIf(lockStateVar == null, () -> new Object[] {
-                                    GenericGenerators.loadNull()
-                                }).generate()
-                        )
-                ),
-                DebugGenerators.debugMarker(markerType, dbgSig + "Setting mode to save"),
-                GenericGenerators.call(CONTINUATION_SETMODE_METHOD, GenericGenerators.loadVar(contArg), GenericGenerators.loadIntConst(MODE_SAVING)),
+                // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS. ALSO, DON'T FORGET THAT SuspendableContext OBJECT WILL BE TOP ITEM, NEEDS TO
+                // BE DISCARDED ON LOAD
+                saveFrame(attrs, idx, frame, saveHelper, true),
                 // attempt to exit monitors only if method has monitorenter/exit in it (var != null if this were the case)
                 GenericGenerators.mergeIf(lockStateVar != null, () -> new Object[]{
                     DebugGenerators.debugMarker(markerType, dbgSig + "Exiting monitors"),
@@ -633,20 +624,15 @@ final class ContinuationGenerators {
         );
     }
     
-    private static InsnList saveStateFromNormalInvocation(MethodAttributes attrs, int idx) {
+    private static InsnList saveStateFromNormalInvocation(MethodAttributes attrs, int idx, MethodNode saveHelper) {
         Validate.notNull(attrs);
         Validate.isTrue(idx >= 0);
         NormalInvokeContinuationPoint cp = InternalUtils.validateAndGetContinuationPoint(attrs, idx, NormalInvokeContinuationPoint.class);
 
-        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
-        int methodId = attrs.getSignature().getMethodId();
-
         Integer lineNumber = cp.getLineNumber();
 
         VariableTable.Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
-        StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
         StorageVariables savedStackVars = attrs.getStackStorageVariables();
-        VariableTable.Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
         
         LockVariables lockVars = attrs.getLockVariables();
         VariableTable.Variable lockStateVar = lockVars.getLockStateVar();
@@ -706,33 +692,12 @@ final class ContinuationGenerators {
                                         frame.getStackSize() - invokeArgCount,
                                         frame.getStackSize() - invokeArgCount,
                                         invokeArgCount),
-                                DebugGenerators.debugMarker(markerType, dbgSig + "Saving operand stack"),
-                                saveOperandStack(markerType, savedStackVars, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
-                                DebugGenerators.debugMarker(markerType, dbgSig + "Saving locals"),
-                                LocalsStateGenerators.saveLocals(markerType, savedLocalsVars, frame),
-                                DebugGenerators.debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
-                                PackStateGenerators.packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars),
+                                saveFrame(attrs, idx, frame, saveHelper, false), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
                                 // attempt to exit monitors only if method has monitorenter/exit in it (var != null if this were the case)
                                 GenericGenerators.mergeIf(lockStateVar != null, () -> new Object[]{
                                     DebugGenerators.debugMarker(markerType, dbgSig + "Exiting monitors"),
                                     exitStoredMonitors(markerType, lockVars),
                                 }),
-                                DebugGenerators.debugMarker(markerType, dbgSig + "Creating and pushing method state"),
-                                GenericGenerators.call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, GenericGenerators.loadVar(contArg),
-                                        GenericGenerators.construct(METHODSTATE_INIT_METHOD,
-                                                GenericGenerators.loadStringConst(friendlyClassName),
-                                                GenericGenerators.loadIntConst(methodId),
-                                                GenericGenerators.loadIntConst(idx),
-                                                GenericGenerators.loadVar(storageContainerVar),
-                                                // load lockstate for last arg if method actually has monitorenter/exit in it
-                                                // (var != null if this were the case), otherwise load null for that arg
-                                                GenericGenerators.mergeIf(lockStateVar != null, () -> new Object[] {
-                                                    GenericGenerators.loadVar(lockStateVar)
-                                                }).mergeIf(lockStateVar == null, () -> new Object[] {
-                                                    GenericGenerators.loadNull()
-                                                }).generate()
-                                        )
-                                ),
                                 DebugGenerators.debugMarker(markerType, dbgSig + "Returning (dummy return value if not void)"),
                                 returnDummy(returnType)
                         )
@@ -746,20 +711,15 @@ final class ContinuationGenerators {
         );
     }
     
-    private static InsnList saveStateFromInvocationWithinTryCatch(MethodAttributes attrs, int idx) {
+    private static InsnList saveStateFromInvocationWithinTryCatch(MethodAttributes attrs, int idx, MethodNode saveHelper) {
         Validate.notNull(attrs);
         Validate.isTrue(idx >= 0);
         TryCatchInvokeContinuationPoint cp = InternalUtils.validateAndGetContinuationPoint(attrs, idx, TryCatchInvokeContinuationPoint.class);
 
-        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
-        int methodId = attrs.getSignature().getMethodId();
-
         Integer lineNumber = cp.getLineNumber();
 
         VariableTable.Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
-        StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
         StorageVariables savedStackVars = attrs.getStackStorageVariables();
-        VariableTable.Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
         
         LockVariables lockVars = attrs.getLockVariables();
         VariableTable.Variable lockStateVar = lockVars.getLockStateVar();
@@ -802,33 +762,12 @@ final class ContinuationGenerators {
                                         frame.getStackSize() - invokeArgCount,
                                         frame.getStackSize() - invokeArgCount,
                                         invokeArgCount),
-                                DebugGenerators.debugMarker(markerType, dbgSig + "Saving operand stack"),
-                                saveOperandStack(markerType, savedStackVars, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
-                                DebugGenerators.debugMarker(markerType, dbgSig + "Saving locals"),
-                                LocalsStateGenerators.saveLocals(markerType, savedLocalsVars, frame),
-                                DebugGenerators.debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
-                                PackStateGenerators.packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars),
+                                saveFrame(attrs, idx, frame, saveHelper, false), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
                                 // attempt to exit monitors only if method has monitorenter/exit in it (var != null if this were the case)
                                 GenericGenerators.mergeIf(lockStateVar != null, () -> new Object[]{
                                     DebugGenerators.debugMarker(markerType, dbgSig + "Exiting monitors"),
                                     exitStoredMonitors(markerType, lockVars),
                                 }),
-                                DebugGenerators.debugMarker(markerType, dbgSig + "Creating and pushing method state"),
-                                GenericGenerators.call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, GenericGenerators.loadVar(contArg),
-                                        GenericGenerators.construct(METHODSTATE_INIT_METHOD,
-                                                GenericGenerators.loadStringConst(friendlyClassName),
-                                                GenericGenerators.loadIntConst(methodId),
-                                                GenericGenerators.loadIntConst(idx),
-                                                GenericGenerators.loadVar(storageContainerVar),
-                                                // load lockstate for last arg if method actually has monitorenter/exit in it
-                                                // (var != null if this were the case), otherwise load null for that arg
-                                                GenericGenerators.mergeIf(lockStateVar != null, () -> new Object[] {
-                                                    GenericGenerators.loadVar(lockStateVar)
-                                                }).mergeIf(lockStateVar == null, () -> new Object[] {
-                                                    GenericGenerators.loadNull()
-                                                }).generate()
-                                        )
-                                ),
                                 DebugGenerators.debugMarker(markerType, dbgSig + "Returning (dummy return value if not void)"),
                                 returnDummy(returnType)
                         )
@@ -860,6 +799,365 @@ final class ContinuationGenerators {
     
     
     
+    // Generates instructions to save the operand stack and the local variables table at a continuation point, and to push a method state
+    // containing them (as well as set the mode to saving if requested). The operand stack must be fully loaded, and it will be empty once
+    // these instructions run.
+    //
+    // If storage arrays are being reused and this method was restored from this same continuation point, the method state that it was
+    // restored from gets overwritten and pushed again instead of a new one being created. Its storage arrays are guaranteed to be the
+    // right size: the sizes are fixed per continuation point (see LocalsStateGenerators.computeSizes() and
+    // OperandStackStateGenerators.computeSizes()). That method state is no longer considered valid by SuspendableContext at this point
+    // (it was unloaded when the restore completed), so overwriting it is fine.
+    private static InsnList saveFrame(MethodAttributes attrs, int idx, Frame<BasicValue> frame, MethodNode saveHelper,
+            boolean setModeToSaving) {
+        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
+        int methodId = attrs.getSignature().getMethodId();
+
+        VariableTable.Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
+        VariableTable.Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
+        StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
+        StorageVariables savedStackVars = attrs.getStackStorageVariables();
+        VariableTable.Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
+        VariableTable.Variable lockStateVar = attrs.getLockVariables().getLockStateVar();
+
+        DebugGenerators.MarkerType markerType = attrs.getSettings().getMarkerType();
+        boolean reuseStorageArrays = attrs.getSettings().isReuseStorageArrays();
+        String dbgSig = getLogPrefix(attrs);
+
+        LabelNode savedLabelNode = new LabelNode();
+        return GenericGenerators.merge(
+                GenericGenerators.mergeIf(reuseStorageArrays, () -> new Object[] {
+                    ifRestoredFromContinuationPoint(methodStateVar, idx, GenericGenerators.merge(
+                            DebugGenerators.debugMarker(markerType, dbgSig + "Restored from this point, reusing method state"),
+                            loadStorageContainer(methodStateVar, storageContainerVar),
+                            DebugGenerators.debugMarker(markerType, dbgSig + "Unpacking storage arrays to save in to"),
+                            PackStateGenerators.unpackOperandStackStorageArrays(markerType, frame, storageContainerVar, savedStackVars),
+                            PackStateGenerators.unpackLocalsStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars),
+                            DebugGenerators.debugMarker(markerType, dbgSig + "Saving operand stack"),
+                            saveOperandStack(markerType, savedStackVars, frame, frame.getStackSize(), false),
+                            DebugGenerators.debugMarker(markerType, dbgSig + "Saving locals"),
+                            LocalsStateGenerators.saveLocals(markerType, savedLocalsVars, frame, false),
+                            DebugGenerators.debugMarker(markerType, dbgSig + "Pushing reused method state"),
+                            call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, GenericGenerators.loadVar(contArg),
+                                    GenericGenerators.loadVar(methodStateVar)),
+                            GenericGenerators.mergeIf(setModeToSaving, () -> new Object[] {
+                                DebugGenerators.debugMarker(markerType, dbgSig + "Setting mode to save"),
+                                call(CONTINUATION_SETMODE_METHOD, GenericGenerators.loadVar(contArg),
+                                        GenericGenerators.loadIntConst(MODE_SAVING))
+                            }),
+                            GenericGenerators.jumpTo(savedLabelNode)
+                    ))
+                }),
+                DebugGenerators.debugMarker(markerType, dbgSig + "Saving operand stack"),
+                saveOperandStack(markerType, savedStackVars, frame),
+                GenericGenerators.mergeIf(saveHelper == null, () -> new Object[] {
+                    DebugGenerators.debugMarker(markerType, dbgSig + "Saving locals"),
+                    LocalsStateGenerators.saveLocals(markerType, savedLocalsVars, frame),
+                    DebugGenerators.debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
+                    PackStateGenerators.packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars),
+                    DebugGenerators.debugMarker(markerType, dbgSig + "Creating and pushing method state"),
+                    pushNewMethodState(friendlyClassName, methodId, idx, contArg, storageContainerVar, lockStateVar),
+                    GenericGenerators.mergeIf(setModeToSaving, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, dbgSig + "Setting mode to save"),
+                        call(CONTINUATION_SETMODE_METHOD, GenericGenerators.loadVar(contArg),
+                                GenericGenerators.loadIntConst(MODE_SAVING))
+                    })
+                }),
+                // save helper saves locals, packs, pushes method state, and sets mode to save (if continuation point is a suspend)
+                GenericGenerators.mergeIf(saveHelper != null, () -> new Object[] {
+                    DebugGenerators.debugMarker(markerType, dbgSig + "Calling save helper"),
+                    callSaveHelper(attrs, frame, saveHelper)
+                }),
+                GenericGenerators.mergeIf(reuseStorageArrays, () -> new Object[] {
+                    GenericGenerators.addLabel(savedLabelNode)
+                })
+        );
+    }
+
+    // Generates instructions that get the storage container out of the method state in methodStateVar and assign it to
+    // storageContainerVar. If frame classes are being generated, the container is the frame class instance.
+    private static InsnList loadStorageContainer(VariableTable.Variable methodStateVar, VariableTable.Variable storageContainerVar) {
+        Type containerType = storageContainerVar.getType();
+        if (containerType.equals(Type.getType(Object[].class))) {
+            return GenericGenerators.merge(
+                    call(METHODSTATE_GETDATA_METHOD, GenericGenerators.loadVar(methodStateVar)),
+                    GenericGenerators.saveVar(storageContainerVar)
+            );
+        }
+
+        return GenericGenerators.merge(
+                call(METHODSTATE_GETFRAME_METHOD, GenericGenerators.loadVar(methodStateVar)),
+                new TypeInsnNode(Opcodes.CHECKCAST, containerType.getInternalName()),
+                GenericGenerators.saveVar(storageContainerVar)
+        );
+    }
+
+    // Generates instructions that perform some action if the method state in methodStateVar is non-null and was saved at continuation
+    // point idx.
+    private static InsnList ifRestoredFromContinuationPoint(VariableTable.Variable methodStateVar, int idx, InsnList action) {
+        LabelNode notRestoredLabelNode = new LabelNode();
+        return GenericGenerators.merge(
+                GenericGenerators.loadVar(methodStateVar),
+                new JumpInsnNode(Opcodes.IFNULL, notRestoredLabelNode),
+                GenericGenerators.ifIntegersEqual(
+                        call(METHODSTATE_GETCONTINUATIONPOINT_METHOD, GenericGenerators.loadVar(methodStateVar)),
+                        GenericGenerators.loadIntConst(idx),
+                        action),
+                notRestoredLabelNode
+        );
+    }
+
+    /**
+     * Creates a helper method that does the bulk of the work of the save block for a continuation point: saving the local variables
+     * table, packing the storage arrays in to a container, and pushing a new method state (as well as setting the mode to saving if the
+     * continuation point is a suspend). Call it using the instructions generated by {@link #saveState(MethodAttributes, int, MethodNode) }.
+     * <p>
+     * The helper's parameters mirror the local variables table of the method at the continuation point (slot for slot, so that the
+     * locals generator can be used as-is), followed by the operand stack storage arrays (or the frame class instance, if frame classes are
+     * being generated), the continuation, and the lockstate (if the method has synchronization points). The caller is still responsible
+     * for saving the operand stack and exiting monitors.
+     * @param classNode class that the instrumented method belongs to (the helper method gets added to this class)
+     * @param attrs attributes of the method being instrumented
+     * @param idx index of the continuation point to create the helper for
+     * @return helper method, or {@code null} if the helper would need more parameters than a method is allowed to have
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code idx} is not a valid continuation point index
+     */
+    public static MethodNode createSaveHelper(ClassNode classNode, MethodAttributes attrs, int idx) {
+        Validate.notNull(classNode);
+        Validate.notNull(attrs);
+        Validate.isTrue(idx >= 0);
+        ContinuationPoint cp = InternalUtils.validateAndGetContinuationPoint(attrs, idx, ContinuationPoint.class);
+
+        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
+        int methodId = attrs.getSignature().getMethodId();
+
+        StorageVariables methodLocalsVars = attrs.getLocalsStorageVariables();
+        boolean usingFrameClass = methodLocalsVars.isUsingFrameClass();
+        boolean hasLocks = attrs.getLockVariables().getLockStateVar() != null;
+
+        Frame<BasicValue> frame = cp.getFrame();
+        StorageSizes stackSizes = OperandStackStateGenerators.computeSizes(frame, 0, frame.getStackSize());
+
+        DebugGenerators.MarkerType markerType = attrs.getSettings().getMarkerType();
+        String dbgSig = getLogPrefix(attrs);
+
+        // Work out parameters
+        List<Type> paramTypes = new ArrayList<>(getSaveHelperLocalsTypes(frame));
+        int stackArgStart = paramTypes.size();
+        if (usingFrameClass) {
+            paramTypes.add(methodLocalsVars.getFrameStorageVar().getType());
+        } else {
+            if (stackSizes.getIntsSize() > 0) {
+                paramTypes.add(Type.getType(int[].class));
+            }
+            if (stackSizes.getLongsSize() > 0) {
+                paramTypes.add(Type.getType(long[].class));
+            }
+            if (stackSizes.getFloatsSize() > 0) {
+                paramTypes.add(Type.getType(float[].class));
+            }
+            if (stackSizes.getDoublesSize() > 0) {
+                paramTypes.add(Type.getType(double[].class));
+            }
+            if (stackSizes.getObjectsSize() > 0) {
+                paramTypes.add(Type.getType(Object[].class));
+            }
+        }
+        int contArgIdx = paramTypes.size();
+        paramTypes.add(Type.getType(SuspendableContext.class));
+        if (hasLocks) {
+            paramTypes.add(Type.getType(LockState.class));
+        }
+
+        int paramSlots = paramTypes.stream().mapToInt(x -> x.getSize()).sum();
+        if (paramSlots > MAX_PARAMETER_SLOTS) {
+            return null;
+        }
+
+        // Create method and add it to the class (needs to be in the class before a variable table can be created for it)
+        String name;
+        int nameSuffix = 0;
+        do {
+            name = InternalFields.INSTRUMENTED_SAVE_METHOD_PREFIX + nameSuffix;
+            nameSuffix++;
+        } while (containsMethodNamed(classNode, name));
+        String desc = Type.getMethodDescriptor(Type.VOID_TYPE, paramTypes.toArray(new Type[paramTypes.size()]));
+        MethodNode helperNode = new MethodNode(InternalFields.INSTRUMENTED_SAVE_METHOD_ACCESS, name, desc, null, null);
+        helperNode.maxLocals = paramSlots; // extra vars get allocated after the params
+        classNode.methods.add(helperNode);
+
+        VariableTable varTable = new VariableTable(classNode, helperNode);
+        
+        // Locals storage vars get created for the same types as they are in the method being instrumented -- the stack storage vars are
+        // the arrays passed in. If frame classes are being generated, the frame class instance passed in holds the locals, the operand
+        // stack, and is the container.
+        StorageVariables localsVars;
+        StorageVariables stackVars;
+        VariableTable.Variable containerVar;
+        int argIdx = stackArgStart;
+        if (usingFrameClass) {
+            VariableTable.Variable frameArg = varTable.getArgument(argIdx);
+            localsVars = new StorageVariables(frameArg, FrameStorage.LOCALS_SECTION);
+            stackVars = new StorageVariables(frameArg, FrameStorage.OPERANDS_SECTION);
+            containerVar = frameArg;
+        } else {
+            localsVars = new StorageVariables(
+                    methodLocalsVars.getIntStorageVar() == null ? null : varTable.acquireExtra(int[].class),
+                    methodLocalsVars.getLongStorageVar() == null ? null : varTable.acquireExtra(long[].class),
+                    methodLocalsVars.getFloatStorageVar() == null ? null : varTable.acquireExtra(float[].class),
+                    methodLocalsVars.getDoubleStorageVar() == null ? null : varTable.acquireExtra(double[].class),
+                    methodLocalsVars.getObjectStorageVar() == null ? null : varTable.acquireExtra(Object[].class));
+            VariableTable.Variable stackIntsVar = stackSizes.getIntsSize() > 0 ? varTable.getArgument(argIdx++) : null;
+            VariableTable.Variable stackLongsVar = stackSizes.getLongsSize() > 0 ? varTable.getArgument(argIdx++) : null;
+            VariableTable.Variable stackFloatsVar = stackSizes.getFloatsSize() > 0 ? varTable.getArgument(argIdx++) : null;
+            VariableTable.Variable stackDoublesVar = stackSizes.getDoublesSize() > 0 ? varTable.getArgument(argIdx++) : null;
+            VariableTable.Variable stackObjectsVar = stackSizes.getObjectsSize() > 0 ? varTable.getArgument(argIdx++) : null;
+            stackVars = new StorageVariables(stackIntsVar, stackLongsVar, stackFloatsVar, stackDoublesVar, stackObjectsVar);
+            containerVar = varTable.acquireExtra(Object[].class);
+        }
+        VariableTable.Variable contArg = varTable.getArgument(contArgIdx);
+        VariableTable.Variable lockStateArg = hasLocks ? varTable.getArgument(contArgIdx + 1) : null;
+
+        helperNode.instructions = GenericGenerators.merge(
+                DebugGenerators.debugMarker(markerType, dbgSig + "Save helper for " + idx),
+                DebugGenerators.debugMarker(markerType, dbgSig + "Saving locals"),
+                LocalsStateGenerators.saveLocals(markerType, localsVars, frame),
+                DebugGenerators.debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
+                PackStateGenerators.packStorageArrays(markerType, frame, containerVar, localsVars, stackVars),
+                DebugGenerators.debugMarker(markerType, dbgSig + "Creating and pushing method state"),
+                pushNewMethodState(friendlyClassName, methodId, idx, contArg, containerVar, lockStateArg),
+                GenericGenerators.mergeIf(cp instanceof SuspendContinuationPoint, () -> new Object[] {
+                    DebugGenerators.debugMarker(markerType, dbgSig + "Setting mode to save"),
+                    call(CONTINUATION_SETMODE_METHOD, GenericGenerators.loadVar(contArg),
+                            GenericGenerators.loadIntConst(MODE_SAVING))
+                }),
+                GenericGenerators.returnVoid()
+        );
+
+        return helperNode;
+    }
+
+    // Generates instructions to call a helper generated by createSaveHelper(). Expects the operand stack to have already been saved (and
+    // as such be empty).
+    private static InsnList callSaveHelper(MethodAttributes attrs, Frame<BasicValue> frame, MethodNode saveHelper) {
+        VariableTable.Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
+        StorageVariables savedStackVars = attrs.getStackStorageVariables();
+        VariableTable.Variable lockStateVar = attrs.getLockVariables().getLockStateVar();
+
+        StorageSizes stackSizes = OperandStackStateGenerators.computeSizes(frame, 0, frame.getStackSize());
+
+        List<InsnList> args = new ArrayList<>();
+        int slot = 0;
+        for (Type paramType : getSaveHelperLocalsTypes(frame)) {
+            // Slots that have nothing in them or are always null don't get saved, so pass in null as a placeholder
+            Type type = frame.getLocal(slot).getType();
+            if (type == null || "Lnull;".equals(type.getDescriptor())) {
+                args.add(GenericGenerators.loadNull());
+            } else {
+                InsnList arg = new InsnList();
+                arg.add(new VarInsnNode(paramType.getOpcode(Opcodes.ILOAD), slot));
+                args.add(arg);
+            }
+            slot += paramType.getSize();
+        }
+        if (savedStackVars.isUsingFrameClass()) {
+            args.add(GenericGenerators.loadVar(savedStackVars.getFrameStorageVar()));
+        } else {
+            if (stackSizes.getIntsSize() > 0) {
+                args.add(GenericGenerators.loadVar(savedStackVars.getIntStorageVar()));
+            }
+            if (stackSizes.getLongsSize() > 0) {
+                args.add(GenericGenerators.loadVar(savedStackVars.getLongStorageVar()));
+            }
+            if (stackSizes.getFloatsSize() > 0) {
+                args.add(GenericGenerators.loadVar(savedStackVars.getFloatStorageVar()));
+            }
+            if (stackSizes.getDoublesSize() > 0) {
+                args.add(GenericGenerators.loadVar(savedStackVars.getDoubleStorageVar()));
+            }
+            if (stackSizes.getObjectsSize() > 0) {
+                args.add(GenericGenerators.loadVar(savedStackVars.getObjectStorageVar()));
+            }
+        }
+        args.add(GenericGenerators.loadVar(contArg));
+        if (lockStateVar != null) {
+            args.add(GenericGenerators.loadVar(lockStateVar));
+        }
+
+        return call(attrs.getSignature().getClassName(), saveHelper, args.toArray(new InsnList[args.size()]));
+    }
+
+    // Types of the save helper parameters that mirror the local variables table in frame. Every slot in the frame gets a parameter of the
+    // same size, with references (and slots that are uninitialized or always null) passed in as Object.
+    private static List<Type> getSaveHelperLocalsTypes(Frame<BasicValue> frame) {
+        List<Type> ret = new ArrayList<>();
+        for (int i = 0; i < frame.getLocals(); i++) {
+            Type type = frame.getLocal(i).getType();
+            if (type == null) {
+                ret.add(Type.getType(Object.class));
+                continue;
+            }
+
+            switch (type.getSort()) {
+                case Type.BOOLEAN:
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.CHAR:
+                case Type.INT:
+                    ret.add(Type.INT_TYPE);
+                    break;
+                case Type.FLOAT:
+                    ret.add(Type.FLOAT_TYPE);
+                    break;
+                case Type.LONG:
+                    ret.add(Type.LONG_TYPE);
+                    i++; // second half of long
+                    break;
+                case Type.DOUBLE:
+                    ret.add(Type.DOUBLE_TYPE);
+                    i++; // second half of double
+                    break;
+                case Type.ARRAY:
+                case Type.OBJECT:
+                    ret.add(Type.getType(Object.class));
+                    break;
+                case Type.METHOD:
+                case Type.VOID:
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+        return ret;
+    }
+
+    private static boolean containsMethodNamed(ClassNode classNode, String name) {
+        return classNode.methods.stream().anyMatch(x -> x.name.equals(name));
+    }
+
+    private static InsnList pushNewMethodState(String friendlyClassName, int methodId, int idx, VariableTable.Variable contArg,
+            VariableTable.Variable storageContainerVar, VariableTable.Variable lockStateVar) {
+        // If frame classes are being generated, the container is the frame class instance
+        Constructor<MethodState> init = storageContainerVar.getType().equals(Type.getType(Object[].class))
+                ? METHODSTATE_INIT_METHOD
+                : METHODSTATE_INIT_FRAME_METHOD;
+        return call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, GenericGenerators.loadVar(contArg),
+                GenericGenerators.construct(init,
+                        GenericGenerators.loadStringConst(friendlyClassName),
+                        GenericGenerators.loadIntConst(methodId),
+                        GenericGenerators.loadIntConst(idx),
+                        GenericGenerators.loadVar(storageContainerVar),
+                        // load lockstate for last arg if method actually has monitorenter/exit in it
+                        // (var != null if this were the case), otherwise load null for that arg
+                        GenericGenerators.mergeIf(lockStateVar != null, () -> new Object[] {
+                            GenericGenerators.loadVar(lockStateVar)
+                        }).mergeIf(lockStateVar == null, () -> new Object[] {
+                            GenericGenerators.loadNull()
+                        }).generate()
+                )
+        );
+    }
+
     /**
      * Generates instructions that returns a dummy value. Return values are as follows:
      * <ul>
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter;
+
+import com.as.suspension.instrumenter.asm.VariableTable;
+import com.as.suspension.instrumenter.generators.DebugGenerators;
+import com.as.suspension.user.FrameStorage;
+import java.io.Serializable;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+/**
+ * Utility class to generate frame classes and the bytecode instructions that access them.
+ * @author Kasra Faghihi
+ */
+final class FrameStateGenerators {
+    private FrameStateGenerators() {
+        // do nothing
+    }
+
+    // Why generate a class per method? Saving to storage arrays means allocating up to 10 arrays + a container per suspend, and every
+    // store/load being an array access with a bounds check (plus a cast when the container gets unpacked). A frame class with a field per
+    // storage array index needs a single allocation, and stores/loads become plain PUTFIELDs/GETFIELDs on a known type. This is the same
+    // thing compilers that turn coroutines in to state machines do (e.g. Kotlin's continuation classes with their I$0/L$0 fields).
+    //
+    // Fields for objects are typed as Object rather than the type of the value they hold, because the same field index may hold values of
+    // different types at different continuation points. Objects still need a CHECKCAST when restored.
+    //
+    // See FrameClassesBenchmark class to see the benchmark used to measure this.
+
+    /**
+     * Get the internal name of the frame class generated for a method.
+     * @param signature signature of method
+     * @return internal name of frame class
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static String getFrameClassName(MethodSignature signature) {
+        Validate.notNull(signature);
+        return FrameStorage.getFrameClassName(signature.getClassName(), signature.getMethodId());
+    }
+
+    /**
+     * Generates a frame class for a method. The frame class has enough fields to hold the local variables table and operand stack at any
+     * of the method's continuation points.
+     * @param classNode class that the method belongs to
+     * @param attrs attributes of the method
+     * @return frame class bytecode
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static byte[] generateFrameClass(ClassNode classNode, MethodAttributes attrs) {
+        Validate.notNull(classNode);
+        Validate.notNull(attrs);
+
+        // Work out the sizes at each continuation point, and the max sizes across all of them (how many fields need to be generated)
+        int[] maxSizes = new int[10];
+        StringBuilder sizesStr = new StringBuilder();
+        for (ContinuationPoint cp : attrs.getContinuationPoints()) {
+            Frame<BasicValue> frame = cp.getFrame();
+            StorageSizes localsSizes = LocalsStateGenerators.computeSizes(frame);
+            StorageSizes stackSizes = OperandStackStateGenerators.computeSizes(frame, 0, frame.getStackSize());
+            int[] sizes = new int[] {
+                localsSizes.getIntsSize(),
+                localsSizes.getFloatsSize(),
+                localsSizes.getLongsSize(),
+                localsSizes.getDoublesSize(),
+                localsSizes.getObjectsSize(),
+                stackSizes.getIntsSize(),
+                stackSizes.getFloatsSize(),
+                stackSizes.getLongsSize(),
+                stackSizes.getDoublesSize(),
+                stackSizes.getObjectsSize()
+            };
+
+            if (sizesStr.length() > 0) {
+                sizesStr.append(';');
+            }
+            for (int i = 0; i < sizes.length; i++) {
+                if (i > 0) {
+                    sizesStr.append(',');
+                }
+                sizesStr.append(sizes[i]);
+                maxSizes[i] = Math.max(maxSizes[i], sizes[i]);
+            }
+        }
+
+        ClassNode frameNode = new ClassNode();
+        frameNode.version = classNode.version;
+        frameNode.access = Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC;
+        frameNode.name = getFrameClassName(attrs.getSignature());
+        frameNode.superName = Type.getInternalName(Object.class);
+        frameNode.interfaces.add(Type.getInternalName(Serializable.class));
+
+        frameNode.fields.add(new FieldNode(
+                InternalFields.INSTRUMENTED_SERIALIZEUID_FIELD_ACCESS,
+                InternalFields.INSTRUMENTED_SERIALIZEUID_FIELD_NAME,
+                InternalFields.INSTRUMENTED_SERIALIZEUID_FIELD_TYPE.getDescriptor(),
+                null,
+                InternalFields.INSTRUMENTED_SERIALIZEUID_FIELD_VALUE));
+        frameNode.fields.add(new FieldNode(
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+                FrameStorage.SIZES_FIELD_NAME,
+                Type.getDescriptor(String.class),
+                null,
+                sizesStr.toString()));
+
+        // Same order as the sizes above
+        Type[] types = new Type[] { Type.INT_TYPE, Type.FLOAT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.getType(Object.class) };
+        for (int i = 0; i < maxSizes.length; i++) {
+            char section = i < types.length ? FrameStorage.LOCALS_SECTION : FrameStorage.OPERANDS_SECTION;
+            Type type = types[i % types.length];
+            for (int j = 0; j < maxSizes[i]; j++) {
+                frameNode.fields.add(new FieldNode(
+                        Opcodes.ACC_PUBLIC,
+                        getFieldName(section, type, j),
+                        type.getDescriptor(),
+                        null,
+                        null));
+            }
+        }
+
+        MethodNode initNode = new MethodNode(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        initNode.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        initNode.instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, frameNode.superName, "<init>", "()V", false));
+        initNode.instructions.add(new InsnNode(Opcodes.RETURN));
+        frameNode.methods.add(initNode);
+
+        // No branches, so no stack map frames to compute
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        frameNode.accept(cw);
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates instructions to create a new frame class instance and assign it to a variable.
+     * @param markerType debug marker type
+     * @param frameVar variable to assign the frame class instance to
+     * @return instructions to create a new frame class instance
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code frameVar} isn't for an object
+     */
+    public static InsnList createFrame(DebugGenerators.MarkerType markerType, VariableTable.Variable frameVar) {
+        Validate.notNull(markerType);
+        Validate.notNull(frameVar);
+        Validate.isTrue(frameVar.getType().getSort() == Type.OBJECT);
+
+        String frameClassName = frameVar.getType().getInternalName();
+
+        InsnList ret = new InsnList();
+        ret.add(DebugGenerators.debugMarker(markerType, "Generating frame (" + frameClassName + ")"));
+        ret.add(new TypeInsnNode(Opcodes.NEW, frameClassName));                                            // [frame]
+        ret.add(new InsnNode(Opcodes.DUP));                                                               // [frame, frame]
+        ret.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, frameClassName, "<init>", "()V", false));       // [frame]
+        ret.add(new VarInsnNode(Opcodes.ASTORE, frameVar.getIndex()));                                    // []
+        return ret;
+    }
+
+    /**
+     * Generates an instruction that reads a frame class field. Expects the frame class instance to be on top of the stack.
+     * @param storageVars storage variables backed by a frame class
+     * @param type type of field ({@code int}, {@code float}, {@code long}, {@code double}, or {@link Object})
+     * @param index storage index the field is for
+     * @return instruction to read the field
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code storageVars} isn't backed by a frame class, or if {@code type} isn't one of the types
+     * listed above
+     */
+    public static FieldInsnNode getField(StorageVariables storageVars, Type type, int index) {
+        return fieldInsn(Opcodes.GETFIELD, storageVars, type, index);
+    }
+
+    /**
+     * Generates an instruction that writes a frame class field. Expects the frame class instance followed by the value to be on top of the
+     * stack.
+     * @param storageVars storage variables backed by a frame class
+     * @param type type of field ({@code int}, {@code float}, {@code long}, {@code double}, or {@link Object})
+     * @param index storage index the field is for
+     * @return instruction to write the field
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code storageVars} isn't backed by a frame class, or if {@code type} isn't one of the types
+     * listed above
+     */
+    public static FieldInsnNode putField(StorageVariables storageVars, Type type, int index) {
+        return fieldInsn(Opcodes.PUTFIELD, storageVars, type, index);
+    }
+
+    private static FieldInsnNode fieldInsn(int opcode, StorageVariables storageVars, Type type, int index) {
+        Validate.notNull(storageVars);
+        Validate.notNull(type);
+        Validate.isTrue(storageVars.isUsingFrameClass());
+
+        String owner = storageVars.getFrameStorageVar().getType().getInternalName();
+        String name = getFieldName(storageVars.getFrameSection(), type, index);
+        return new FieldInsnNode(opcode, owner, name, type.getDescriptor());
+    }
+
+    private static String getFieldName(char section, Type type, int index) {
+        switch (type.getSort()) {
+            case Type.INT:
+            case Type.FLOAT:
+            case Type.LONG:
+            case Type.DOUBLE:
+                return FrameStorage.getFieldName(section, type.getDescriptor().charAt(0), index);
+            case Type.OBJECT:
+                Validate.isTrue(type.equals(Type.getType(Object.class)));
+                return FrameStorage.getFieldName(section, 'L', index);
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Tracks what was instrumented by the last run of incremental instrumentation (see
+ * {@link PluginHelper#instrumentIncrementally(Instrumenter, InstrumentationSettings, Map, File, int, java.util.function.Consumer) }). The
+ * state is keyed on a fingerprint of the instrumentation settings and instrumenter code -- if the fingerprint doesn't match when loading,
+ * the state is discarded.
+ * @author Kasra Faghihi
+ */
+final class IncrementalState {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final String fingerprint;
+    private final Map<File, Record> records; // keyed by source file
+
+    IncrementalState(String fingerprint) {
+        Validate.notNull(fingerprint);
+        this.fingerprint = fingerprint;
+        this.records = new HashMap<>();
+    }
+
+    /**
+     * Loads state from a file. If the file doesn't exist, can't be read, or was written with a different fingerprint, empty state is
+     * returned.
+     * @param stateFile file to load from
+     * @param fingerprint fingerprint of the instrumentation settings currently in use
+     * @return loaded state
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    static IncrementalState load(File stateFile, String fingerprint) {
+        Validate.notNull(stateFile);
+        Validate.notNull(fingerprint);
+
+        IncrementalState state = new IncrementalState(fingerprint);
+        if (!stateFile.isFile()) {
+            return state;
+        }
+
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(stateFile.toPath()));
+                DataInputStream dis = new DataInputStream(is)) {
+            if (dis.readInt() != FORMAT_VERSION || !fingerprint.equals(dis.readUTF())) {
+                return state;
+            }
+
+            int recordCount = dis.readInt();
+            for (int i = 0; i < recordCount; i++) {
+                File srcFile = new File(dis.readUTF());
+                File dstFile = new File(dis.readUTF());
+                String inputHash = dis.readUTF();
+                String outputHash = dis.readUTF();
+                String className = dis.readUTF();
+                int superTypeCount = dis.readInt();
+                List<String> superTypes = new ArrayList<>(superTypeCount);
+                for (int j = 0; j < superTypeCount; j++) {
+                    superTypes.add(dis.readUTF());
+                }
+
+                state.records.put(srcFile, new Record(dstFile, inputHash, outputHash.isEmpty() ? null : outputHash, className, superTypes));
+            }
+        } catch (IOException | RuntimeException e) {
+            // corrupt or truncated -- treat as if there was no state
+            state.records.clear();
+        }
+
+        return state;
+    }
+
+    /**
+     * Saves state to a file. The file is written to a temporary location and then moved in to place.
+     * @param stateFile file to save to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException on IO error
+     */
+    void save(File stateFile) throws IOException {
+        Validate.notNull(stateFile);
+
+        File parentDir = stateFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parentDir.toPath());
+        File tempFile = File.createTempFile(stateFile.getName(), ".tmp", parentDir);
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tempFile.toPath()));
+                    DataOutputStream dos = new DataOutputStream(os)) {
+                dos.writeInt(FORMAT_VERSION);
+                dos.writeUTF(fingerprint);
+                dos.writeInt(records.size());
+                for (Map.Entry<File, Record> entry : records.entrySet()) {
+                    Record record = entry.getValue();
+                    dos.writeUTF(entry.getKey().getPath());
+                    dos.writeUTF(record.dstFile.getPath());
+                    dos.writeUTF(record.inputHash);
+                    dos.writeUTF(record.outputHash == null ? "" : record.outputHash);
+                    dos.writeUTF(record.className);
+                    dos.writeInt(record.superTypes.size());
+                    for (String superType : record.superTypes) {
+                        dos.writeUTF(superType);
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    Record get(File srcFile) {
+        Validate.notNull(srcFile);
+        return records.get(srcFile);
+    }
+
+    void put(File srcFile, Record record) {
+        Validate.notNull(srcFile);
+        Validate.notNull(record);
+        records.put(srcFile, record);
+    }
+
+    static final class Record {
+        private final File dstFile;
+        private final String inputHash;
+        private final String outputHash; // null if class wasn't instrumented (destination file not written)
+        private final String className;
+        private final List<String> superTypes;
+
+        Record(File dstFile, String inputHash, String outputHash, String className, List<String> superTypes) {
+            Validate.notNull(dstFile);
+            Validate.notNull(inputHash);
+            Validate.notNull(className);
+            Validate.notNull(superTypes);
+            Validate.noNullElements(superTypes);
+            this.dstFile = dstFile;
+            this.inputHash = inputHash;
+            this.outputHash = outputHash;
+            this.className = className;
+            this.superTypes = Collections.unmodifiableList(new ArrayList<>(superTypes));
+        }
+
+        File getDstFile() {
+            return dstFile;
+        }
+
+        String getInputHash() {
+            return inputHash;
+        }
+
+        String getOutputHash() {
+            return outputHash;
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        List<String> getSuperTypes() {
+            return superTypes;
+        }
+    }
+}
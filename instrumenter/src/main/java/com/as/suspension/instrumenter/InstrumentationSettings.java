@@ -22,26 +22,42 @@ import java.io.Serializable;
 import org.apache.commons.lang3.Validate;
 
 /**
- * Instrumentation settings.
+ * Instrumentation settings. Use {@link Builder} to set anything beyond the marker type, debug mode, and auto-serializable.
  * @author Kasra Faghihi
  */
-public final class InstrumentationSettings {
+public final class InstrumentationSettings implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final DebugGenerators.MarkerType markerType;
     private final boolean debugMode;
     private final boolean autoSerializable;
+    private final boolean pruneNonSuspendingCalls;
+    private final boolean outlineSaveBlocks;
+    private final boolean reuseStorageArrays;
+    private final boolean generateFrameClasses;
 
     /**
-     * Constructs a {@link InstrumentationSettings} object.
+     * Constructs a {@link InstrumentationSettings} object. Equivalent to calling...
+     * <pre>
+     * new InstrumentationSettings.Builder(markerType, debugMode, autoSerializable).build();
+     * </pre>
      * @param markerType marker type
      * @param debugMode debug mode
      * @param autoSerializable auto-serializable
      * @throws NullPointerException if any argument is {@code null}
      */
     public InstrumentationSettings(DebugGenerators.MarkerType markerType, boolean debugMode, boolean autoSerializable) {
-        Validate.notNull(markerType);
-        this.markerType = markerType;
-        this.debugMode = debugMode;
-        this.autoSerializable = autoSerializable;
+        this(new Builder(markerType, debugMode, autoSerializable));
+    }
+
+    private InstrumentationSettings(Builder builder) {
+        this.markerType = builder.markerType;
+        this.debugMode = builder.debugMode;
+        this.autoSerializable = builder.autoSerializable;
+        this.pruneNonSuspendingCalls = builder.pruneNonSuspendingCalls;
+        this.outlineSaveBlocks = builder.outlineSaveBlocks;
+        this.reuseStorageArrays = builder.reuseStorageArrays;
+        this.generateFrameClasses = builder.generateFrameClasses;
     }
 
     /**
@@ -74,4 +90,145 @@ public final class InstrumentationSettings {
         return autoSerializable;
     }
 
+    /**
+     * Get prune non-suspending calls. If set, invocations of methods that take a {@link com.as.suspension.user.SuspendableContext} but
+     * can never suspend aren't treated as continuation points (no state saving/restoring code is generated for them), and methods that
+     * can never suspend aren't instrumented at all. Which methods can never suspend is determined by a {@link SuspendAnalysis} over all
+     * classes being instrumented, so this setting has no effect unless one is provided to
+     * {@link Instrumenter#instrument(byte[], InstrumentationSettings, SuspendAnalysis) } (the plugin helpers do this automatically).
+     * @return prune non-suspending calls
+     */
+    public boolean isPruneNonSuspendingCalls() {
+        return pruneNonSuspendingCalls;
+    }
+
+    /**
+     * Get outline save blocks. If set, the code that saves a method's state when it suspends (copying the local variables table in to
+     * storage arrays and pushing a new method state) is moved in to a private synthetic helper method per continuation point, rather
+     * than being generated in-line at every continuation point. This keeps instrumented methods small enough for the JIT to inline, at
+     * the cost of an extra call when a coroutine suspends. Restore blocks are always generated in-line, because they need to write back
+     * to the method's own local variables table and operand stack.
+     * @return outline save blocks
+     */
+    public boolean isOutlineSaveBlocks() {
+        return outlineSaveBlocks;
+    }
+
+    /**
+     * Get reuse storage arrays. If set, a method that was restored from a continuation point and then suspends again at that same
+     * continuation point writes its state back in to the method state it was restored from (same storage arrays, same container, same
+     * {@link com.as.suspension.user.MethodState} object) rather than allocating new ones. The storage arrays are guaranteed to be the
+     * right shape because the shape of the saved state is fixed per continuation point. This makes the steady state of a coroutine that
+     * keeps suspending at the same point (e.g. a generator yielding in a loop) allocation-free.
+     * <p>
+     * The previous method state is overwritten in-place, so if an exception escapes the coroutine after that method's state has been
+     * saved, the saved execution stack will contain the new state rather than the old one.
+     * @return reuse storage arrays
+     */
+    public boolean isReuseStorageArrays() {
+        return reuseStorageArrays;
+    }
+
+    /**
+     * Get generate frame classes. If set, a small class is generated for each instrumented method (a frame class) with one field per
+     * saved local variable / operand stack slot. Rather than allocating storage arrays and a container to hold them, an instrumented
+     * method that suspends allocates a single instance of its frame class and writes its state directly in to that instance's fields.
+     * Restoring reads those fields back, with no array bounds checks and no casts for primitives. Frame class fields for objects are
+     * typed as {@link Object} (the same field may hold different types at different continuation points), so objects still get cast on
+     * restore.
+     * <p>
+     * Frame classes are returned as extra files by {@link Instrumenter#instrument(byte[], InstrumentationSettings, SuspendAnalysis) }
+     * and must be written out alongside the instrumented class (the plugin helpers do this automatically). Classes instrumented with this
+     * setting are marked as such, so {@link com.as.suspension.user.CoroutineWriter} and {@link com.as.suspension.user.CoroutineReader}
+     * convert between frame classes and the default layout as needed.
+     * @return generate frame classes
+     */
+    public boolean isGenerateFrameClasses() {
+        return generateFrameClasses;
+    }
+
+    // NOTE: The Java agent's instrumentation cache uses this as part of its cache key. Any new setting that changes the instrumented output
+    // must be included here, otherwise stale cache entries will get used.
+    @Override
+    public String toString() {
+        return "InstrumentationSettings{" + "markerType=" + markerType + ", debugMode=" + debugMode
+                + ", autoSerializable=" + autoSerializable + ", pruneNonSuspendingCalls=" + pruneNonSuspendingCalls
+                + ", outlineSaveBlocks=" + outlineSaveBlocks + ", reuseStorageArrays=" + reuseStorageArrays
+                + ", generateFrameClasses=" + generateFrameClasses + '}';
+    }
+
+    /**
+     * Builder for {@link InstrumentationSettings}. Settings that aren't explicitly set are left disabled.
+     */
+    public static final class Builder {
+        private final DebugGenerators.MarkerType markerType;
+        private final boolean debugMode;
+        private final boolean autoSerializable;
+        private boolean pruneNonSuspendingCalls;
+        private boolean outlineSaveBlocks;
+        private boolean reuseStorageArrays;
+        private boolean generateFrameClasses;
+
+        /**
+         * Constructs a {@link Builder} object.
+         * @param markerType marker type (see {@link InstrumentationSettings#getMarkerType() })
+         * @param debugMode debug mode (see {@link InstrumentationSettings#isDebugMode() })
+         * @param autoSerializable auto-serializable (see {@link InstrumentationSettings#isAutoSerializable() })
+         * @throws NullPointerException if any argument is {@code null}
+         */
+        public Builder(DebugGenerators.MarkerType markerType, boolean debugMode, boolean autoSerializable) {
+            Validate.notNull(markerType);
+            this.markerType = markerType;
+            this.debugMode = debugMode;
+            this.autoSerializable = autoSerializable;
+        }
+
+        /**
+         * Set prune non-suspending calls (see {@link InstrumentationSettings#isPruneNonSuspendingCalls() }).
+         * @param pruneNonSuspendingCalls prune non-suspending calls
+         * @return this builder
+         */
+        public Builder pruneNonSuspendingCalls(boolean pruneNonSuspendingCalls) {
+            this.pruneNonSuspendingCalls = pruneNonSuspendingCalls;
+            return this;
+        }
+
+        /**
+         * Set outline save blocks (see {@link InstrumentationSettings#isOutlineSaveBlocks() }).
+         * @param outlineSaveBlocks outline save blocks
+         * @return this builder
+         */
+        public Builder outlineSaveBlocks(boolean outlineSaveBlocks) {
+            this.outlineSaveBlocks = outlineSaveBlocks;
+            return this;
+        }
+
+        /**
+         * Set reuse storage arrays (see {@link InstrumentationSettings#isReuseStorageArrays() }).
+         * @param reuseStorageArrays reuse storage arrays
+         * @return this builder
+         */
+        public Builder reuseStorageArrays(boolean reuseStorageArrays) {
+            this.reuseStorageArrays = reuseStorageArrays;
+            return this;
+        }
+
+        /**
+         * Set generate frame classes (see {@link InstrumentationSettings#isGenerateFrameClasses() }).
+         * @param generateFrameClasses generate frame classes
+         * @return this builder
+         */
+        public Builder generateFrameClasses(boolean generateFrameClasses) {
+            this.generateFrameClasses = generateFrameClasses;
+            return this;
+        }
+
+        /**
+         * Build the {@link InstrumentationSettings} object.
+         * @return new settings object
+         */
+        public InstrumentationSettings build() {
+            return new InstrumentationSettings(this);
+        }
+    }
 }
@@ -18,26 +18,33 @@ package com.as.suspension.instrumenter;
 
 import com.as.suspension.instrumenter.asm.ClassInformationRepository;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.tree.MethodNode;
 
 final class InstrumentationState {
     private final InstrumentationSettings instrumentationSettings;
     private final ClassInformationRepository classInformationRepository;
+    private final SuspendAnalysis suspendAnalysis;
     
     private final Map<MethodNode, MethodAttributes> methodAttributes;
+    private final Set<MethodNode> addedMethods;
     private final Map<String, byte[]> extraFiles;
 
     private ControlFlag stop;
 
-    InstrumentationState(InstrumentationSettings instrumentationSettings, ClassInformationRepository classInformationRepository) {
+    InstrumentationState(InstrumentationSettings instrumentationSettings, ClassInformationRepository classInformationRepository,
+            SuspendAnalysis suspendAnalysis) {
         Validate.notNull(instrumentationSettings);
         Validate.notNull(classInformationRepository);
         this.instrumentationSettings = instrumentationSettings;
         this.classInformationRepository = classInformationRepository;
+        this.suspendAnalysis = suspendAnalysis; // null if non-suspending calls shouldn't be pruned
         
         this.methodAttributes = new HashMap<>();
+        this.addedMethods = new LinkedHashSet<>();
         this.extraFiles = new HashMap<>();
         
         this.stop = ControlFlag.CONTINUE_INSTRUMENT;
@@ -51,10 +58,18 @@ final class InstrumentationState {
         return classInformationRepository;
     }
 
+    SuspendAnalysis suspendAnalysis() {
+        return suspendAnalysis;
+    }
+
     Map<MethodNode, MethodAttributes> methodAttributes() {
         return methodAttributes;
     }
 
+    Set<MethodNode> addedMethods() {
+        return addedMethods;
+    }
+
     Map<String, byte[]> extraFiles() {
         return extraFiles;
     }
@@ -17,19 +17,39 @@
 package com.as.suspension.instrumenter;
 
 import com.as.suspension.instrumenter.asm.ClassInformationRepository;
+import com.as.suspension.instrumenter.asm.ConstantPoolUtils;
 import com.as.suspension.instrumenter.asm.FileSystemClassInformationRepository;
+import com.as.suspension.instrumenter.asm.FrameUtils;
+import com.as.suspension.instrumenter.asm.PassThroughClassVisitor;
 import com.as.suspension.instrumenter.asm.SimpleClassWriter;
 import com.as.suspension.instrumenter.asm.SimpleClassNode;
 import com.as.suspension.instrumenter.asm.SimpleVerifier;
+import com.as.suspension.user.SuspendableContext;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -43,11 +63,19 @@ import org.objectweb.asm.util.TraceMethodVisitor;
 /**
  * Instruments methods in Java classes that are intended to be run as coroutines. Tested with Java 1.4 and Java 8, so hopefully thing should
  * work with all versions of Java inbetween.
+ * <p>
+ * This class is thread-safe so long as the {@link ClassInformationRepository} it's backed by is thread-safe.
+ * <p>
+ * Closing an instrumenter closes the {@link ClassInformationRepository} it's backed by (if that repository is {@link Closeable}), such as
+ * the JARs held open by a {@link FileSystemClassInformationRepository}.
  * @author Kasra Faghihi
  */
-public final class Instrumenter {
+public final class Instrumenter implements Closeable {
 
-    private ClassInformationRepository classRepo;
+    private static final int MAJOR_VERSION_OFFSET = 6; // u4 magic, u2 minor_version, u2 major_version
+    private static final String SUSPENDABLE_CONTEXT_DESCRIPTOR = Type.getDescriptor(SuspendableContext.class);
+
+    private final ClassInformationRepository classRepo;
 
     /**
      * Constructs a {@link Instrumenter} object from a filesystem classpath (folders and JARs).
@@ -63,7 +91,8 @@ public final class Instrumenter {
     }
 
     /**
-     * Constructs a {@link Instrumenter} object.
+     * Constructs a {@link Instrumenter} object. The instrumenter takes ownership of {@code repo}: if it's {@link Closeable}, it gets closed
+     * when this instrumenter is closed.
      * @param repo class information repository (this is needed by ASM to generate stack map frames).
      * @throws NullPointerException if any argument is {@code null}
      */
@@ -73,6 +102,18 @@ public final class Instrumenter {
         classRepo = repo;
     }
 
+    /**
+     * Closes the {@link ClassInformationRepository} backing this instrumenter, if it's {@link Closeable}. Classes shouldn't be instrumented
+     * once this instrumenter has been closed.
+     * @throws IOException if an IO error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (classRepo instanceof Closeable) {
+            ((Closeable) classRepo).close();
+        }
+    }
+
     /**
      * Instruments a class.
      * @param input class file contents
@@ -86,12 +127,41 @@ public final class Instrumenter {
         Validate.notNull(settings);
         Validate.isTrue(input.length > 0);
 
+        return instrument(input, settings, null);
+    }
+
+    /**
+     * Instruments a class. If {@link InstrumentationSettings#isPruneNonSuspendingCalls() } is set, invocations that {@code suspendAnalysis}
+     * has proven to never suspend are left as-is.
+     * @param input class file contents
+     * @param settings instrumentation settings
+     * @param suspendAnalysis analysis of the classes being instrumented (may be {@code null}, in which case nothing is pruned)
+     * @return instrumentation results
+     * @throws IllegalArgumentException if the class could not be instrumented for some reason
+     * @throws NullPointerException if any argument other than {@code suspendAnalysis} is {@code null}
+     */
+    public InstrumentationResult instrument(byte[] input, InstrumentationSettings settings, SuspendAnalysis suspendAnalysis) {
+        Validate.notNull(input);
+        Validate.notNull(settings);
+        Validate.isTrue(input.length > 0);
+
+
+
+        // Check if class references SuspendableContext at all -- if it doesn't, it can't have any methods that need to be instrumented. This
+        // is a cheap scan of the constant pool that lets us skip building the tree model for the vast majority of classes.
+        if (!mayNeedInstrumentation(input)) {
+            return new InstrumentationResult(input);
+        }
+
 
 
-        // Read class as tree model -- because we're using SimpleClassNode, JSR blocks get inlined
+        // Read class as tree model -- because we're using SimpleClassNode, JSR blocks get inlined. Stack map frames are skipped: methods that
+        // don't get instrumented are copied over as-is from the original class when writing (frames included), and methods that do get
+        // instrumented have their frames regenerated.
         ClassReader cr = new ClassReader(input);
+        boolean patchFrames = cr.readUnsignedShort(MAJOR_VERSION_OFFSET) >= Opcodes.V1_6;
         ClassNode classNode = new SimpleClassNode();
-        cr.accept(classNode, 0);
+        cr.accept(classNode, ClassReader.SKIP_FRAMES);
 
 
 
@@ -104,7 +174,8 @@ public final class Instrumenter {
             new SerializationPostInstrumentationPass(), // add fields needed for serializer/deserializer to identify versioning info
             new AutoSerializableInstrumentationPass()   // make class serializable + give serializationuid
         };
-        InstrumentationState passState = new InstrumentationState(settings, classRepo);
+        SuspendAnalysis pruneAnalysis = settings.isPruneNonSuspendingCalls() ? suspendAnalysis : null;
+        InstrumentationState passState = new InstrumentationState(settings, classRepo, pruneAnalysis);
 
         for (InstrumentationPass pass : passes) {
             pass.pass(classNode, passState);
@@ -128,8 +199,25 @@ public final class Instrumenter {
         // RE-ENABLE ONLY IF JVM COMPLAINS ABOUT INSTRUMENTED CLASSES AND YOU NEED TO DEBUG, KEEP COMMENTED OUT FOR PRODUCTION
         // verifyClassIntegrity(classNode);
 
-        ClassWriter cw = new SimpleClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES, classRepo);
-        classNode.accept(cw);
+        // Only instrumented methods need to be written out from the tree model. All other methods get copied over as-is from the original
+        // class (ASM does this when the ClassWriter is created from the same ClassReader that drives it), meaning that the maxs/frame flags
+        // passed to the ClassWriter only apply to instrumented methods. If the class has frames, regenerate them for just the instrumented
+        // methods. Otherwise (or if frames couldn't be regenerated for one of the methods), have ASM compute them.
+        Set<MethodNode> instrumentedMethodNodes = new HashSet<>(passState.methodAttributes().keySet());
+        instrumentedMethodNodes.addAll(passState.addedMethods());
+        boolean computeFrames = !patchFrames;
+        if (patchFrames) {
+            for (MethodNode methodNode : instrumentedMethodNodes) {
+                if (!FrameUtils.recomputeFrames(classRepo, classNode.name, methodNode)) {
+                    computeFrames = true;
+                    break;
+                }
+            }
+        }
+
+        int writeFlags = ClassWriter.COMPUTE_MAXS | (computeFrames ? ClassWriter.COMPUTE_FRAMES : 0);
+        ClassWriter cw = new SimpleClassWriter(cr, writeFlags, classRepo);
+        cr.accept(new PassThroughClassVisitor(classNode, instrumentedMethodNodes, cw), 0);
         
         byte[] classData = cw.toByteArray();
         Map<String, byte[]> extraFiles = passState.extraFiles();
@@ -138,6 +226,67 @@ public final class Instrumenter {
     }
 
 
+    /**
+     * Checks to see if a class may need to be instrumented. This only scans the class file's constant pool for a reference to
+     * {@link SuspendableContext} in a descriptor, so it's much cheaper than calling {@link #instrument(byte[], InstrumentationSettings) }.
+     * If this method returns {@code false}, {@link #instrument(byte[], InstrumentationSettings) } is guaranteed to return the class
+     * unchanged.
+     * @param input class file contents
+     * @return {@code false} if the class definitely doesn't need to be instrumented, {@code true} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static boolean mayNeedInstrumentation(byte[] input) {
+        Validate.notNull(input);
+        return ConstantPoolUtils.mayContainUtf8(input, SUSPENDABLE_CONTEXT_DESCRIPTOR);
+    }
+
+    /**
+     * Gets a fingerprint of the instrumenter code that's running. Anything that persists instrumentation output across runs (e.g. an
+     * on-disk cache) should include this in its key, so that output produced by a different build of the instrumenter doesn't get reused.
+     * <p>
+     * If the instrumenter was loaded from a JAR, the fingerprint is a SHA-256 hash of that JAR. If it was loaded from a folder (e.g. a
+     * {@code target/classes} folder), the fingerprint is a SHA-256 hash of the class files in that folder. Otherwise, the fingerprint is
+     * the implementation version of this package, or a random value that's different every time the JVM is started if that isn't
+     * available either (meaning that nothing gets reused).
+     * @return instrumenter code fingerprint
+     */
+    public static String getCodeFingerprint() {
+        return CodeFingerprintHolder.CODE_FINGERPRINT;
+    }
+
+    private static String calculateCodeFingerprint() {
+        try {
+            CodeSource codeSource = Instrumenter.class.getProtectionDomain().getCodeSource();
+            if (codeSource != null && codeSource.getLocation() != null) {
+                File location = new File(codeSource.getLocation().toURI());
+                if (location.isFile()) {
+                    return DigestUtils.sha256Hex(FileUtils.readFileToByteArray(location));
+                } else if (location.isDirectory()) {
+                    Path locationPath = location.toPath();
+                    List<File> classFiles = new ArrayList<>(FileUtils.listFiles(location, new String[] {"class"}, true));
+                    Collections.sort(classFiles); // listing order isn't guaranteed
+                    MessageDigest digest = DigestUtils.getSha256Digest();
+                    for (File classFile : classFiles) {
+                        String relativePath = locationPath.relativize(classFile.toPath()).toString();
+                        DigestUtils.updateDigest(digest, relativePath.getBytes(StandardCharsets.UTF_8));
+                        DigestUtils.updateDigest(digest, FileUtils.readFileToByteArray(classFile));
+                    }
+                    return Hex.encodeHexString(digest.digest());
+                }
+            }
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            // fall through
+        }
+
+        String version = Instrumenter.class.getPackage().getImplementationVersion();
+        return version != null ? version : UUID.randomUUID().toString();
+    }
+
+    private static final class CodeFingerprintHolder {
+        // calculated on first use -- hashing a JAR or folder isn't something that should happen just because this class was loaded
+        private static final String CODE_FINGERPRINT = calculateCodeFingerprint();
+    }
+
     private void verifyClassIntegrity(ClassNode classNode) {
         // Do not COMPUTE_FRAMES. If you COMPUTE_FRAMES and you pop too many items off the stack or do other weird things that mess up the
         // stack map frames, it'll crash on classNode.accept(cw).
@@ -54,4 +54,16 @@ final class InternalFields {
     static final int INSTRUMENTED_METHODID_FIELD_ACCESS = Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_STATIC;
     static final Type INSTRUMENTED_METHODID_FIELD_TYPE = Type.INT_TYPE;
     static final Integer INSTRUMENTED_METHODID_FIELD_VALUE = 0;
+
+    // The following consts are used to mark classes that were instrumented to save state in to generated frame classes (see
+    // InstrumentationSettings.isGenerateFrameClasses()) -- this is used by the serialization logic to convert between frame classes and
+    // storage arrays. The name comes from FrameStorage.MARKER_FIELD_NAME.
+    static final int INSTRUMENTED_FRAME_CLASSES_FIELD_ACCESS = Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_STATIC;
+    static final Type INSTRUMENTED_FRAME_CLASSES_FIELD_TYPE = Type.INT_TYPE;
+    static final Integer INSTRUMENTED_FRAME_CLASSES_FIELD_VALUE = 0;
+
+    // The following consts are used for the helper methods that save blocks get moved in to when outlining is enabled (one helper method
+    // per continuation point). The name gets suffixed with a number to keep it unique within the class.
+    static final int INSTRUMENTED_SAVE_METHOD_ACCESS = Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC;
+    static final String INSTRUMENTED_SAVE_METHOD_PREFIX = "__COROUTINES_SAVE_";
 }
@@ -36,6 +36,8 @@ import org.objectweb.asm.tree.analysis.Frame;
  * @author Kasra Faghihi
  */
 final class LocalsStateGenerators {
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
+
     private LocalsStateGenerators() {
         // do nothing
     }
@@ -58,6 +60,8 @@ final class LocalsStateGenerators {
         VariableTable.Variable longsVar = storageVars.getLongStorageVar();
         VariableTable.Variable doublesVar = storageVars.getDoubleStorageVar();
         VariableTable.Variable objectsVar = storageVars.getObjectStorageVar();
+        VariableTable.Variable frameVar = storageVars.getFrameStorageVar();
+        boolean usingFrameClass = storageVars.isUsingFrameClass();
         
         int intsCounter = 0;
         int floatsCounter = 0;
@@ -101,42 +105,67 @@ final class LocalsStateGenerators {
                 case Type.CHAR:
                 case Type.INT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Loading int to LVT index " + i + " from storage index " + intsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, intsVar.getIndex()));    // [int[]]
-                    ret.add(new LdcInsnNode(intsCounter));                          // [int[], idx]
-                    ret.add(new InsnNode(Opcodes.IALOAD));                          // [val]
-                    ret.add(new VarInsnNode(Opcodes.ISTORE, i));                    // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                    // [frame]
+                        ret.add(FrameStateGenerators.getField(storageVars, Type.INT_TYPE, intsCounter)); // [val]
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, intsVar.getIndex()));      // [int[]]
+                        ret.add(new LdcInsnNode(intsCounter));                            // [int[], idx]
+                        ret.add(new InsnNode(Opcodes.IALOAD));                            // [val]
+                    }
+                    ret.add(new VarInsnNode(Opcodes.ISTORE, i));                          // []
                     intsCounter++;
                     break;
                 case Type.FLOAT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Loading float to LVT index " + i + " from storage index " + floatsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, floatsVar.getIndex()));  // [float[]]
-                    ret.add(new LdcInsnNode(floatsCounter));                        // [float[], idx]
-                    ret.add(new InsnNode(Opcodes.FALOAD));                          // [val]
-                    ret.add(new VarInsnNode(Opcodes.FSTORE, i));                    // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                        // [frame]
+                        ret.add(FrameStateGenerators.getField(storageVars, Type.FLOAT_TYPE, floatsCounter)); // [val]
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, floatsVar.getIndex()));    // [float[]]
+                        ret.add(new LdcInsnNode(floatsCounter));                          // [float[], idx]
+                        ret.add(new InsnNode(Opcodes.FALOAD));                            // [val]
+                    }
+                    ret.add(new VarInsnNode(Opcodes.FSTORE, i));                          // []
                     floatsCounter++;
                     break;
                 case Type.LONG:
                     ret.add(DebugGenerators.debugMarker(markerType, "Loading long to LVT index " + i + " from storage index " + longsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, longsVar.getIndex()));   // [long[]]
-                    ret.add(new LdcInsnNode(longsCounter));                         // [long[], idx]
-                    ret.add(new InsnNode(Opcodes.LALOAD));                          // [val_PART1, val_PART2]
-                    ret.add(new VarInsnNode(Opcodes.LSTORE, i));                    // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                      // [frame]
+                        ret.add(FrameStateGenerators.getField(storageVars, Type.LONG_TYPE, longsCounter)); // [val_PART1, val_PART2]
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, longsVar.getIndex())); // [long[]]
+                        ret.add(new LdcInsnNode(longsCounter));                       // [long[], idx]
+                        ret.add(new InsnNode(Opcodes.LALOAD));                        // [val_PART1, val_PART2]
+                    }
+                    ret.add(new VarInsnNode(Opcodes.LSTORE, i));                         // []
                     longsCounter++;
                     break;
                 case Type.DOUBLE:
                     ret.add(DebugGenerators.debugMarker(markerType, "Loading double to LVT index " + i + " from storage index " + doublesCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, doublesVar.getIndex())); // [double[]]
-                    ret.add(new LdcInsnNode(doublesCounter));                       // [double[], idx]
-                    ret.add(new InsnNode(Opcodes.DALOAD));                          // [val_PART1, val_PART2]
-                    ret.add(new VarInsnNode(Opcodes.DSTORE, i));                    // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                          // [frame]
+                        ret.add(FrameStateGenerators.getField(storageVars, Type.DOUBLE_TYPE, doublesCounter)); // [val_PART1, val_PART2]
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, doublesVar.getIndex()));   // [double[]]
+                        ret.add(new LdcInsnNode(doublesCounter));                         // [double[], idx]
+                        ret.add(new InsnNode(Opcodes.DALOAD));                            // [val_PART1, val_PART2]
+                    }
+                    ret.add(new VarInsnNode(Opcodes.DSTORE, i));                          // []
                     doublesCounter++;
                     break;
                 case Type.ARRAY:
                 case Type.OBJECT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Loading object to LVT index " + i + " from storage index " + objectsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex())); // [Object[]]
-                    ret.add(new LdcInsnNode(objectsCounter));                       // [Object[], idx]
-                    ret.add(new InsnNode(Opcodes.AALOAD));                          // [val]
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                     // [frame]
+                        ret.add(FrameStateGenerators.getField(storageVars, OBJECT_TYPE, objectsCounter)); // [val]
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex())); // [Object[]]
+                        ret.add(new LdcInsnNode(objectsCounter));                       // [Object[], idx]
+                        ret.add(new InsnNode(Opcodes.AALOAD));                          // [val]
+                    }
                     // must cast, otherwise the jvm won't know the type that's in the localvariable slot and it'll fail when the code tries
                     // to access a method/field on it
                     ret.add(new TypeInsnNode(Opcodes.CHECKCAST, basicValue.getType().getInternalName()));
@@ -162,6 +191,28 @@ final class LocalsStateGenerators {
      * @throws NullPointerException if any argument is {@code null}
      */
     public static InsnList saveLocals(DebugGenerators.MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame) {
+        return saveLocals(markerType, storageVars, frame, true);
+    }
+
+    /**
+     * Generates instructions to save the local variables table.
+     * <p>
+     * If {@code createStorageArrays} is {@code false}, the storage variables must already point to arrays that are the size required by
+     * {@code frame} (e.g. arrays unpacked from a method state that was saved at the same continuation point).
+     * <p>
+     * If the storage variables are backed by a frame class, nothing is created regardless of {@code createStorageArrays}. The frame class
+     * instance holds both the locals and the operand stack, and it gets created when the operand stack is saved (see
+     * {@link OperandStackStateGenerators#saveOperandStack(DebugGenerators.MarkerType, StorageVariables, Frame, int, boolean) }), which
+     * always happens before the locals are saved.
+     * @param markerType debug marker type
+     * @param storageVars variables to store locals in to
+     * @param frame execution frame at the instruction where the local variables table is to be saved
+     * @param createStorageArrays if {@code true}, new storage arrays are created and assigned to {@code storageVars} before saving
+     * @return instructions to save the local variables table in to an array
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList saveLocals(DebugGenerators.MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame,
+            boolean createStorageArrays) {
         Validate.notNull(markerType);
         Validate.notNull(storageVars);
         Validate.notNull(frame);
@@ -171,6 +222,8 @@ final class LocalsStateGenerators {
         VariableTable.Variable longsVar = storageVars.getLongStorageVar();
         VariableTable.Variable doublesVar = storageVars.getDoubleStorageVar();
         VariableTable.Variable objectsVar = storageVars.getObjectStorageVar();
+        VariableTable.Variable frameVar = storageVars.getFrameStorageVar();
+        boolean usingFrameClass = storageVars.isUsingFrameClass();
         
         int intsCounter = 0;
         int floatsCounter = 0;
@@ -186,35 +239,37 @@ final class LocalsStateGenerators {
         // Create storage arrays and save them in respective storage vars
         ret.add(GenericGenerators.merge(
                 DebugGenerators.debugMarker(markerType, "Saving locals"),
-                GenericGenerators.mergeIf(intsVar != null, () -> new Object[] {
-                    DebugGenerators.debugMarker(markerType, "Generating ints container (" + storageSizes.getIntsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getIntsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT),
-                    new VarInsnNode(Opcodes.ASTORE, intsVar.getIndex())
-                }),
-                GenericGenerators.mergeIf(floatsVar != null, () -> new Object[] {
-                    DebugGenerators.debugMarker(markerType, "Generating floats container (" + storageSizes.getFloatsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getFloatsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT),
-                    new VarInsnNode(Opcodes.ASTORE, floatsVar.getIndex())
-                }),
-                GenericGenerators.mergeIf(longsVar != null, () -> new Object[] {
-                    DebugGenerators.debugMarker(markerType, "Generating longs container (" + storageSizes.getLongsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getLongsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG),
-                    new VarInsnNode(Opcodes.ASTORE, longsVar.getIndex())
-                }),
-                GenericGenerators.mergeIf(doublesVar != null, () -> new Object[] {
-                    DebugGenerators.debugMarker(markerType, "Generating doubles container (" + storageSizes.getDoublesSize() + ")"),
-                    new LdcInsnNode(storageSizes.getDoublesSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE),
-                    new VarInsnNode(Opcodes.ASTORE, doublesVar.getIndex())
-                }),
-                GenericGenerators.mergeIf(objectsVar != null, () -> new Object[] {
-                    DebugGenerators.debugMarker(markerType, "Generating objects container (" + storageSizes.getObjectsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getObjectsSize()),
-                    new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
-                    new VarInsnNode(Opcodes.ASTORE, objectsVar.getIndex())
+                GenericGenerators.mergeIf(createStorageArrays && !usingFrameClass, () -> new Object[] {
+                    GenericGenerators.mergeIf(intsVar != null, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, "Generating ints container (" + storageSizes.getIntsSize() + ")"),
+                        new LdcInsnNode(storageSizes.getIntsSize()),
+                        new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT),
+                        new VarInsnNode(Opcodes.ASTORE, intsVar.getIndex())
+                    }),
+                    GenericGenerators.mergeIf(floatsVar != null, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, "Generating floats container (" + storageSizes.getFloatsSize() + ")"),
+                        new LdcInsnNode(storageSizes.getFloatsSize()),
+                        new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT),
+                        new VarInsnNode(Opcodes.ASTORE, floatsVar.getIndex())
+                    }),
+                    GenericGenerators.mergeIf(longsVar != null, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, "Generating longs container (" + storageSizes.getLongsSize() + ")"),
+                        new LdcInsnNode(storageSizes.getLongsSize()),
+                        new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG),
+                        new VarInsnNode(Opcodes.ASTORE, longsVar.getIndex())
+                    }),
+                    GenericGenerators.mergeIf(doublesVar != null, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, "Generating doubles container (" + storageSizes.getDoublesSize() + ")"),
+                        new LdcInsnNode(storageSizes.getDoublesSize()),
+                        new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE),
+                        new VarInsnNode(Opcodes.ASTORE, doublesVar.getIndex())
+                    }),
+                    GenericGenerators.mergeIf(objectsVar != null, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, "Generating objects container (" + storageSizes.getObjectsSize() + ")"),
+                        new LdcInsnNode(storageSizes.getObjectsSize()),
+                        new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
+                        new VarInsnNode(Opcodes.ASTORE, objectsVar.getIndex())
+                    })
                 })
         ));
 
@@ -247,43 +302,73 @@ final class LocalsStateGenerators {
                 case Type.CHAR:
                 case Type.INT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Inserting int at LVT index " + i + " to storage index " + intsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, intsVar.getIndex())); // [int[]]
-                    ret.add(new LdcInsnNode(intsCounter));                       // [int[], idx]
-                    ret.add(new VarInsnNode(Opcodes.ILOAD, i));                  // [int[], idx, val]
-                    ret.add(new InsnNode(Opcodes.IASTORE));                      // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                    // [frame]
+                        ret.add(new VarInsnNode(Opcodes.ILOAD, i));                                      // [frame, val]
+                        ret.add(FrameStateGenerators.putField(storageVars, Type.INT_TYPE, intsCounter)); // []
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, intsVar.getIndex()));      // [int[]]
+                        ret.add(new LdcInsnNode(intsCounter));                            // [int[], idx]
+                        ret.add(new VarInsnNode(Opcodes.ILOAD, i));                       // [int[], idx, val]
+                        ret.add(new InsnNode(Opcodes.IASTORE));                           // []
+                    }
                     intsCounter++;
                     break;
                 case Type.FLOAT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Inserting float at LVT index " + i + " to storage index " + floatsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, floatsVar.getIndex())); // [float[]]
-                    ret.add(new LdcInsnNode(floatsCounter));                       // [float[], idx]
-                    ret.add(new VarInsnNode(Opcodes.FLOAD, i));                    // [float[], idx, val]
-                    ret.add(new InsnNode(Opcodes.FASTORE));                        // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                        // [frame]
+                        ret.add(new VarInsnNode(Opcodes.FLOAD, i));                                          // [frame, val]
+                        ret.add(FrameStateGenerators.putField(storageVars, Type.FLOAT_TYPE, floatsCounter)); // []
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, floatsVar.getIndex()));    // [float[]]
+                        ret.add(new LdcInsnNode(floatsCounter));                          // [float[], idx]
+                        ret.add(new VarInsnNode(Opcodes.FLOAD, i));                       // [float[], idx, val]
+                        ret.add(new InsnNode(Opcodes.FASTORE));                           // []
+                    }
                     floatsCounter++;
                     break;
                 case Type.LONG:
                     ret.add(DebugGenerators.debugMarker(markerType, "Inserting long at LVT index " + i + " to storage index " + longsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, longsVar.getIndex())); // [long[]]
-                    ret.add(new LdcInsnNode(longsCounter));                       // [long[], idx]
-                    ret.add(new VarInsnNode(Opcodes.LLOAD, i));                   // [long[], idx, val]
-                    ret.add(new InsnNode(Opcodes.LASTORE));                       // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                      // [frame]
+                        ret.add(new VarInsnNode(Opcodes.LLOAD, i));                                        // [frame, val_PART1, val_PART2]
+                        ret.add(FrameStateGenerators.putField(storageVars, Type.LONG_TYPE, longsCounter)); // []
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, longsVar.getIndex())); // [long[]]
+                        ret.add(new LdcInsnNode(longsCounter));                       // [long[], idx]
+                        ret.add(new VarInsnNode(Opcodes.LLOAD, i));                   // [long[], idx, val]
+                        ret.add(new InsnNode(Opcodes.LASTORE));                       // []
+                    }
                     longsCounter++;
                     break;
                 case Type.DOUBLE:
                     ret.add(DebugGenerators.debugMarker(markerType, "Inserting double at LVT index " + i + " to storage index " + doublesCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, doublesVar.getIndex())); // [double[]]
-                    ret.add(new LdcInsnNode(doublesCounter));                       // [double[], idx]
-                    ret.add(new VarInsnNode(Opcodes.DLOAD, i));                     // [double[], idx, val]
-                    ret.add(new InsnNode(Opcodes.DASTORE));                         // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                          // [frame]
+                        ret.add(new VarInsnNode(Opcodes.DLOAD, i));                                            // [frame, val]
+                        ret.add(FrameStateGenerators.putField(storageVars, Type.DOUBLE_TYPE, doublesCounter)); // []
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, doublesVar.getIndex()));   // [double[]]
+                        ret.add(new LdcInsnNode(doublesCounter));                         // [double[], idx]
+                        ret.add(new VarInsnNode(Opcodes.DLOAD, i));                       // [double[], idx, val]
+                        ret.add(new InsnNode(Opcodes.DASTORE));                           // []
+                    }
                     doublesCounter++;
                     break;
                 case Type.ARRAY:
                 case Type.OBJECT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Inserting object at LVT index " + i + " to storage index " + objectsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex())); // [Object[]]
-                    ret.add(new LdcInsnNode(objectsCounter));                       // [Object[], idx]
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, i));                     // [Object[], idx, val]
-                    ret.add(new InsnNode(Opcodes.AASTORE));                         // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                     // [frame]
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, i));                                       // [frame, val]
+                        ret.add(FrameStateGenerators.putField(storageVars, OBJECT_TYPE, objectsCounter)); // []
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex())); // [Object[]]
+                        ret.add(new LdcInsnNode(objectsCounter));                       // [Object[], idx]
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, i));                     // [Object[], idx, val]
+                        ret.add(new InsnNode(Opcodes.AASTORE));                         // []
+                    }
                     objectsCounter++;
                     break;
                 case Type.METHOD:
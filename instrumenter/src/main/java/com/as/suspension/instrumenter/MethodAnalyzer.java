@@ -20,12 +20,15 @@ import com.as.suspension.instrumenter.asm.*;
 import com.as.suspension.instrumenter.asm.ClassInformationRepository;
 import com.as.suspension.instrumenter.asm.SimpleVerifier;
 import com.as.suspension.instrumenter.asm.VariableTable;
+import com.as.suspension.user.FrameStorage;
 import com.as.suspension.user.SuspendableContext;
 import com.as.suspension.user.LockState;
 import com.as.suspension.user.MethodState;
 import java.lang.reflect.Method;
+import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.stream.Collectors;
 import static org.apache.commons.collections4.CollectionUtils.union;
 
 import org.apache.commons.lang3.Validate;
@@ -36,7 +39,6 @@ import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
-import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.analysis.Analyzer;
@@ -50,11 +52,13 @@ final class MethodAnalyzer {
     private static final Method CONTINUATION_SUSPEND_METHOD = MethodUtils.getAccessibleMethod(SuspendableContext.class, "suspend");
     
     private final ClassInformationRepository classInfoRepo;
+    private final SuspendAnalysis suspendAnalysis;
     
-    MethodAnalyzer(ClassInformationRepository classInfoRepo) {
+    MethodAnalyzer(ClassInformationRepository classInfoRepo, SuspendAnalysis suspendAnalysis) {
         Validate.notNull(classInfoRepo);
 
         this.classInfoRepo = classInfoRepo;
+        this.suspendAnalysis = suspendAnalysis; // null if non-suspending calls shouldn't be pruned
     }
 
     public MethodAttributes analyze(ClassNode classNode, MethodNode methodNode, InstrumentationSettings settings) {
@@ -72,9 +76,12 @@ final class MethodAnalyzer {
         // Check if method is constructor -- we cannot instrument constructor
         Validate.isTrue(!"<init>".equals(methodNode.name), "Instrumentation of constructors not allowed");
 
+        // Index the instructions of interest (along with their line numbers and try/catch coverage) in a single pass
+        MethodScan scan = MethodScan.scan(methodNode, CONTINUATION_SUSPEND_METHOD, CONTINUATION_CLASS_TYPE);
+
         // Check for JSR blocks -- Emitted for finally blocks in older versions of the JDK. Should never happen since we already inlined
         // these blocks before coming to this point. This is a sanity check.
-        Validate.isTrue(SearchUtils.searchForOpcodes(methodNode.instructions, Opcodes.JSR).isEmpty(), "JSR instructions not allowed");
+        Validate.isTrue(!scan.isJsrFound(), "JSR instructions not allowed");
 
 
 
@@ -94,10 +101,16 @@ final class MethodAnalyzer {
         ///////////////////////////////////////////////////////////////////////////////////////////
         
         // Find invocations of continuation invocation/suspend
-        List<AbstractInsnNode> suspendInvocationInsnNodes
-                = SearchUtils.findInvocationsOf(methodNode.instructions, CONTINUATION_SUSPEND_METHOD);
-        List<AbstractInsnNode> contInvocationInsnNodes
-                = SearchUtils.findInvocationsWithParameter(methodNode.instructions, CONTINUATION_CLASS_TYPE);
+        List<AbstractInsnNode> suspendInvocationInsnNodes = scan.getSuspendInvocations();
+        List<AbstractInsnNode> contInvocationInsnNodes = scan.getContinuationInvocations();
+
+        // Drop invocations that have been proven to never suspend -- they don't need to be continuation points because execution can never
+        // pause within them
+        if (suspendAnalysis != null) {
+            contInvocationInsnNodes = contInvocationInsnNodes.stream()
+                    .filter(x -> !(x instanceof MethodInsnNode) || !suspendAnalysis.isNonSuspendingInvocation((MethodInsnNode) x))
+                    .collect(Collectors.toList());
+        }
 
         // If there are no continuation points, we don't need to instrument this method. It'll be like any other normal method
         // invocation because it won't have the potential to pause or call in to another method that may potentially pause.
@@ -111,7 +124,7 @@ final class MethodAnalyzer {
         validateNoInvokeDynamic(contInvocationInsnNodes);
 
         // Find MONITORENTER/MONITOREXIT instructions
-        List<AbstractInsnNode> monitorInsnNodes = SearchUtils.searchForOpcodes(methodNode.instructions, Opcodes.MONITORENTER, Opcodes.MONITOREXIT);
+        List<AbstractInsnNode> monitorInsnNodes = scan.getMonitorInstructions();
 
 
 
@@ -131,6 +144,37 @@ final class MethodAnalyzer {
 
 
 
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        // DETERMINE WHICH INDEX IN LOCAL VARIABLE TABLE CONTAINS CONTINUATION OBJECT
+        ///////////////////////////////////////////////////////////////////////////////////////////
+
+        // Find index of continuation object
+        int contArgIdx = getLocalVariableIndexOfContinuationParameter(methodNode);
+
+
+
+
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        // REMOVE DEAD LOCALS FROM FRAMES AT SUSPEND / CONTINUATION POINTS
+        ///////////////////////////////////////////////////////////////////////////////////////////
+
+        // Locals that won't be read again after a suspend / continuation point don't need to be saved or restored. Mark them as
+        // uninitialized in the frames for those points so that everything further down the line (storage variable allocation, the
+        // save/load generators, serialization details) ignores them.
+        //
+        // This is skipped in debug mode, where locals get restored so they can be inspected in a debugger -- it would be confusing if
+        // some of them were missing.
+        if (!settings.isDebugMode()) {
+            BitSet[] liveLocals = LivenessAnalyzer.computeLiveLocals(methodNode);
+            for (AbstractInsnNode invokeInsnNode : union(contInvocationInsnNodes, suspendInvocationInsnNodes)) {
+                int instructionIndex = scan.getIndex(invokeInsnNode);
+                frames[instructionIndex] = removeDeadLocals(frames[instructionIndex], liveLocals[instructionIndex], contArgIdx);
+            }
+        }
+
+
+
+
         ///////////////////////////////////////////////////////////////////////////////////////////
         // CREATE SUSPEND/CONTINUATION/SYNCHRONIZATION OBJECTS
         ///////////////////////////////////////////////////////////////////////////////////////////
@@ -139,11 +183,10 @@ final class MethodAnalyzer {
         // Create SuspendContinuationPoint objects for suspend points
         
         for (AbstractInsnNode suspendInvocationInsnNode : suspendInvocationInsnNodes) {
-            int instructionIndex = methodNode.instructions.indexOf(suspendInvocationInsnNode);
+            int instructionIndex = scan.getIndex(suspendInvocationInsnNode);
             Frame<BasicValue> frame = frames[instructionIndex];
             
-            LineNumberNode lineNumberNode = SearchUtils.findLineNumberForInstruction(methodNode.instructions, suspendInvocationInsnNode);
-            Integer lineNumber = lineNumberNode != null ? lineNumberNode.line : null;
+            Integer lineNumber = scan.getLineNumber(suspendInvocationInsnNode);
             
             SuspendContinuationPoint suspendPoint = new SuspendContinuationPoint(
                     lineNumber, (MethodInsnNode) suspendInvocationInsnNode, frame);
@@ -152,15 +195,11 @@ final class MethodAnalyzer {
 
         // Create NormalInvokeContinuationPoint / TryCatchInvokeContinuationPoint objects for suspend points
         for (AbstractInsnNode contInvocationInsnNode : contInvocationInsnNodes) {
-            int instructionIndex = methodNode.instructions.indexOf(contInvocationInsnNode);
-            boolean withinTryCatch = SearchUtils.findTryCatchBlockNodesEncompassingInstruction(
-                    methodNode.instructions,
-                    methodNode.tryCatchBlocks,
-                    contInvocationInsnNode).size() > 0;
+            int instructionIndex = scan.getIndex(contInvocationInsnNode);
+            boolean withinTryCatch = scan.isWithinTryCatch(contInvocationInsnNode);
             Frame<BasicValue> frame = frames[instructionIndex];
             
-            LineNumberNode lineNumberNode = SearchUtils.findLineNumberForInstruction(methodNode.instructions, contInvocationInsnNode);
-            Integer lineNumber = lineNumberNode != null ? lineNumberNode.line : null;
+            Integer lineNumber = scan.getLineNumber(contInvocationInsnNode);
 
             ContinuationPoint continuationPoint;
             if (withinTryCatch) {
@@ -176,7 +215,7 @@ final class MethodAnalyzer {
         // Create SynchronizationPoint objects for MONITORENTER/MONITOREXIT opcodes
         List<SynchronizationPoint> synchPoints = new LinkedList<>();
         for (AbstractInsnNode monitorInsnNode : monitorInsnNodes) {
-            int instructionIndex = methodNode.instructions.indexOf(monitorInsnNode);
+            int instructionIndex = scan.getIndex(monitorInsnNode);
             Frame<BasicValue> frame = frames[instructionIndex];
             
             SynchronizationPoint synchPoint = new SynchronizationPoint((InsnNode) monitorInsnNode, frame);
@@ -200,10 +239,7 @@ final class MethodAnalyzer {
         TypeTracker invocationReturnTypes = new TypeTracker();
         boolean invocationFoundWrappedInTryCatch = false;
         for (AbstractInsnNode invokeInsnNode : contInvocationInsnNodes) {
-            if (SearchUtils.findTryCatchBlockNodesEncompassingInstruction(
-                    methodNode.instructions,
-                    methodNode.tryCatchBlocks,
-                    invokeInsnNode).size() > 0) {
+            if (scan.isWithinTryCatch(invokeInsnNode)) {
                 invocationFoundWrappedInTryCatch = true;
             }
             
@@ -226,7 +262,7 @@ final class MethodAnalyzer {
         // storage containers for those types. The variable slots for these storage containers are assigned lower on in the code.
         TypeTracker localsTypes = new TypeTracker();
         for (AbstractInsnNode invokeInsnNode : union(contInvocationInsnNodes, suspendInvocationInsnNodes)) {
-            int instructionIndex = methodNode.instructions.indexOf(invokeInsnNode);
+            int instructionIndex = scan.getIndex(invokeInsnNode);
             Frame<BasicValue> frame = frames[instructionIndex];
 
             for (int i = 0; i < frame.getLocals(); i++) {
@@ -260,7 +296,7 @@ final class MethodAnalyzer {
         // storage containers for those types. The variable slots for these storage containers are assigned lower on in the code.
         TypeTracker operandStackTypes = new TypeTracker();
         for (AbstractInsnNode invokeInsnNode : union(contInvocationInsnNodes, suspendInvocationInsnNodes)) {
-            int instructionIndex = methodNode.instructions.indexOf(invokeInsnNode);
+            int instructionIndex = scan.getIndex(invokeInsnNode);
             Frame<BasicValue> frame = frames[instructionIndex];
 
             for (int i = 0; i < frame.getStackSize(); i++) {
@@ -282,16 +318,6 @@ final class MethodAnalyzer {
 
 
 
-        ///////////////////////////////////////////////////////////////////////////////////////////
-        // DETERMINE WHICH INDEX IN LOCAL VARIABLE TABLE CONTAINS CONTINUATION OBJECT
-        ///////////////////////////////////////////////////////////////////////////////////////////
-        
-        // Find index of continuation object
-        int contArgIdx = getLocalVariableIndexOfContinuationParameter(methodNode);
-
-
-
-
         ///////////////////////////////////////////////////////////////////////////////////////////
         // CALCULATE EXTRA VARIABLES REQUIRED BY INSTRUMENTATION
         ///////////////////////////////////////////////////////////////////////////////////////////
@@ -305,14 +331,26 @@ final class MethodAnalyzer {
                 continuationArgVar,
                 methodStateVar);
         
-        // Create variables for storing/loading locals -- only create ones we need
-        StorageVariables localsStorageVars = allocateStorageVariableSlots(varTable, localsTypes);
-
-        // Create variables for storing/loading operand stack -- only create ones we need
-        StorageVariables stackStorageVars = allocateStorageVariableSlots(varTable, operandStackTypes);
-        
-        // Create variables to locals and operand stack storage containers -- these must exist
-        StorageContainerVariables storageContainerVars = allocateStorageContainerVariableSlots(varTable);
+        StorageVariables localsStorageVars;
+        StorageVariables stackStorageVars;
+        StorageContainerVariables storageContainerVars;
+        if (settings.isGenerateFrameClasses()) {
+            // Create variable for the frame class instance -- locals and operand stack are both stored/loaded directly to/from its fields,
+            // and it gets placed in the method state as-is (it's the container)
+            VariableTable.Variable frameVar = varTable.acquireExtra(Type.getObjectType(FrameStateGenerators.getFrameClassName(signature)));
+            localsStorageVars = new StorageVariables(frameVar, FrameStorage.LOCALS_SECTION);
+            stackStorageVars = new StorageVariables(frameVar, FrameStorage.OPERANDS_SECTION);
+            storageContainerVars = new StorageContainerVariables(frameVar);
+        } else {
+            // Create variables for storing/loading locals -- only create ones we need
+            localsStorageVars = allocateStorageVariableSlots(varTable, localsTypes);
+
+            // Create variables for storing/loading operand stack -- only create ones we need
+            stackStorageVars = allocateStorageVariableSlots(varTable, operandStackTypes);
+
+            // Create variables to locals and operand stack storage containers -- these must exist
+            storageContainerVars = allocateStorageContainerVariableSlots(varTable);
+        }
 
         // Create variables to cache return values and thrown exceptions of invocations -- only create ones we need
         CacheVariables cacheVars = allocateCacheVariableSlots(varTable, invocationReturnTypes, invocationFoundWrappedInTryCatch);
@@ -341,6 +379,24 @@ final class MethodAnalyzer {
                 lockVars);
     }
     
+    private Frame<BasicValue> removeDeadLocals(Frame<BasicValue> frame, BitSet liveLocals, int contArgIdx) {
+        Frame<BasicValue> ret = new Frame<>(frame);
+        for (int i = 0; i < ret.getLocals(); i++) {
+            // The continuation object is always kept, the instrumentation logic reads it from its slot after the invocation has returned
+            // (to check the mode). It's already in that slot on method entry, so there's nothing special to do if it isn't restored, but
+            // keeping it in means the slot's type never changes across the restore path.
+            if (i == contArgIdx || liveLocals.get(i)) {
+                continue;
+            }
+            
+            // Dead slots are marked as uninitialized, which means they're skipped when saving and left untouched when restoring. This
+            // is fine because by definition nothing reads them before writing to them. For long/double, the 2nd slot is already
+            // uninitialized.
+            ret.setLocal(i, BasicValue.UNINITIALIZED_VALUE);
+        }
+        return ret;
+    }
+    
     private int getLocalVariableIndexOfContinuationParameter(MethodNode methodNode) {
         // If it is NOT static, the first index in the local variables table is always the "this" pointer, followed by the arguments passed
         // in to the method.
@@ -16,6 +16,7 @@
  */
 package com.as.suspension.instrumenter;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.as.suspension.instrumenter.generators.DebugGenerators;
@@ -29,7 +30,8 @@ import org.objectweb.asm.tree.ClassNode;
 
 final class MethodInstrumenter {
 
-    public void instrument(ClassNode classNode, MethodNode methodNode, MethodAttributes attrs) {
+    // Returns the helper methods that were added to classNode (if any)
+    public List<MethodNode> instrument(ClassNode classNode, MethodNode methodNode, MethodAttributes attrs) {
         Validate.notNull(classNode);
         Validate.notNull(methodNode);
         Validate.notNull(attrs);
@@ -57,13 +59,23 @@ final class MethodInstrumenter {
         InsnList entryPoint = ContinuationGenerators.entryPointLoader(attrs);
         methodNode.instructions.insert(entryPoint);
         
-        // Add continuation save points
+        // Add continuation save points (if outlining, the bulk of each save block goes in to a helper method -- saveHelper stays null if
+        // a helper couldn't be created for the continuation point, in which case the save block is generated in-line as usual)
+        List<MethodNode> addedMethodNodes = new ArrayList<>();
         List<ContinuationPoint> continuationPoints = attrs.getContinuationPoints();
         for (int i = 0; i < continuationPoints.size(); i++) {
             ContinuationPoint cp = continuationPoints.get(i);
 
+            MethodNode saveHelper = null;
+            if (attrs.getSettings().isOutlineSaveBlocks()) {
+                saveHelper = ContinuationGenerators.createSaveHelper(classNode, attrs, i);
+                if (saveHelper != null) {
+                    addedMethodNodes.add(saveHelper);
+                }
+            }
+
             AbstractInsnNode nodeToReplace = cp.getInvokeInstruction();
-            InsnList insnsToReplaceWith = ContinuationGenerators.saveState(attrs, i);
+            InsnList insnsToReplaceWith = ContinuationGenerators.saveState(attrs, i, saveHelper);
             
             methodNode.instructions.insertBefore(nodeToReplace, insnsToReplaceWith);
             methodNode.instructions.remove(nodeToReplace);
@@ -92,5 +104,7 @@ final class MethodInstrumenter {
             methodNode.instructions.insertBefore(nodeToReplace, insnsToReplaceWith);
             methodNode.instructions.remove(nodeToReplace);
         }
+        
+        return addedMethodNodes;
     }
 }
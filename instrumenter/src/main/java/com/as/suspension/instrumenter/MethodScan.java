@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+// Indexes everything MethodAnalyzer needs from a method's instruction list in a single pass. Finding each kind of instruction separately
+// (and then doing a linear search for the line number / try-catch blocks of each one) is quadratic, which hurts on huge generated methods.
+final class MethodScan {
+
+    private final List<AbstractInsnNode> suspendInvocations;
+    private final List<AbstractInsnNode> continuationInvocations;
+    private final List<AbstractInsnNode> monitorInstructions;
+    private final boolean jsrFound;
+    private final Map<AbstractInsnNode, Integer> pointIndices;
+    private final LineNumberNode[] lineNumbers;
+    private final int[] tryCatchCoverage;
+
+    private MethodScan(List<AbstractInsnNode> suspendInvocations, List<AbstractInsnNode> continuationInvocations,
+            List<AbstractInsnNode> monitorInstructions, boolean jsrFound, Map<AbstractInsnNode, Integer> pointIndices,
+            LineNumberNode[] lineNumbers, int[] tryCatchCoverage) {
+        this.suspendInvocations = suspendInvocations;
+        this.continuationInvocations = continuationInvocations;
+        this.monitorInstructions = monitorInstructions;
+        this.jsrFound = jsrFound;
+        this.pointIndices = pointIndices;
+        this.lineNumbers = lineNumbers;
+        this.tryCatchCoverage = tryCatchCoverage;
+    }
+
+    static MethodScan scan(MethodNode methodNode, Method suspendMethod, Type continuationType) {
+        Validate.notNull(methodNode);
+        Validate.notNull(suspendMethod);
+        Validate.notNull(continuationType);
+
+        // Matches the same way as SearchUtils.findInvocationsOf() -- owner and descriptor
+        String suspendOwner = Type.getInternalName(suspendMethod.getDeclaringClass());
+        String suspendDesc = Type.getMethodDescriptor(suspendMethod);
+        String continuationDesc = continuationType.getDescriptor();
+
+        List<AbstractInsnNode> suspendInvocations = new ArrayList<>();
+        List<AbstractInsnNode> continuationInvocations = new ArrayList<>();
+        List<AbstractInsnNode> monitorInstructions = new ArrayList<>();
+        boolean jsrFound = false;
+        Map<AbstractInsnNode, Integer> pointIndices = new IdentityHashMap<>();
+        Map<LabelNode, Integer> labelIndices = new IdentityHashMap<>();
+
+        int size = methodNode.instructions.size();
+        LineNumberNode[] lineNumbers = new LineNumberNode[size];
+        LineNumberNode currentLineNumber = null;
+        int idx = 0;
+        for (AbstractInsnNode insnNode = methodNode.instructions.getFirst(); insnNode != null; insnNode = insnNode.getNext(), idx++) {
+            lineNumbers[idx] = currentLineNumber; // line number node preceding the instruction
+            if (insnNode instanceof LineNumberNode) {
+                currentLineNumber = (LineNumberNode) insnNode;
+            } else if (insnNode instanceof LabelNode) {
+                labelIndices.put((LabelNode) insnNode, idx);
+            } else if (insnNode instanceof MethodInsnNode) {
+                MethodInsnNode methodInsnNode = (MethodInsnNode) insnNode;
+                if (suspendOwner.equals(methodInsnNode.owner) && suspendDesc.equals(methodInsnNode.desc)) {
+                    suspendInvocations.add(insnNode);
+                    pointIndices.put(insnNode, idx);
+                }
+                if (hasParameter(methodInsnNode.desc, continuationDesc)) {
+                    continuationInvocations.add(insnNode);
+                    pointIndices.put(insnNode, idx);
+                }
+            } else if (insnNode instanceof InvokeDynamicInsnNode) {
+                if (hasParameter(((InvokeDynamicInsnNode) insnNode).desc, continuationDesc)) {
+                    continuationInvocations.add(insnNode);
+                    pointIndices.put(insnNode, idx);
+                }
+            } else {
+                int opcode = insnNode.getOpcode();
+                if (opcode == Opcodes.MONITORENTER || opcode == Opcodes.MONITOREXIT) {
+                    monitorInstructions.add(insnNode);
+                    pointIndices.put(insnNode, idx);
+                } else if (opcode == Opcodes.JSR) {
+                    jsrFound = true;
+                }
+            }
+        }
+
+        // Number of try blocks covering each instruction, computed by marking where each block starts and ends and then taking a running
+        // sum -- same range check as SearchUtils.findTryCatchBlockNodesEncompassingInstruction() (start inclusive, end exclusive)
+        int[] tryCatchCoverage = new int[size + 1];
+        for (TryCatchBlockNode tryCatchBlockNode : methodNode.tryCatchBlocks) {
+            Integer startIdx = labelIndices.get(tryCatchBlockNode.start);
+            Integer endIdx = labelIndices.get(tryCatchBlockNode.end);
+            Validate.isTrue(startIdx != null);
+            Validate.isTrue(endIdx != null);
+            if (startIdx < endIdx) {
+                tryCatchCoverage[startIdx]++;
+                tryCatchCoverage[endIdx]--;
+            }
+        }
+        for (int i = 1; i < tryCatchCoverage.length; i++) {
+            tryCatchCoverage[i] += tryCatchCoverage[i - 1];
+        }
+
+        return new MethodScan(
+                Collections.unmodifiableList(suspendInvocations),
+                Collections.unmodifiableList(continuationInvocations),
+                Collections.unmodifiableList(monitorInstructions),
+                jsrFound,
+                pointIndices,
+                lineNumbers,
+                tryCatchCoverage);
+    }
+
+    private static boolean hasParameter(String methodDesc, String paramDesc) {
+        if (!methodDesc.contains(paramDesc)) { // quick check to avoid parsing the descriptor
+            return false;
+        }
+        return Arrays.asList(Type.getArgumentTypes(methodDesc)).contains(Type.getType(paramDesc));
+    }
+
+    List<AbstractInsnNode> getSuspendInvocations() {
+        return suspendInvocations;
+    }
+
+    List<AbstractInsnNode> getContinuationInvocations() {
+        return continuationInvocations;
+    }
+
+    List<AbstractInsnNode> getMonitorInstructions() {
+        return monitorInstructions;
+    }
+
+    boolean isJsrFound() {
+        return jsrFound;
+    }
+
+    int getIndex(AbstractInsnNode pointInsnNode) {
+        Integer idx = pointIndices.get(pointInsnNode);
+        Validate.isTrue(idx != null, "Not a suspend, continuation, or monitor instruction");
+        return idx;
+    }
+
+    Integer getLineNumber(AbstractInsnNode pointInsnNode) {
+        LineNumberNode lineNumberNode = lineNumbers[getIndex(pointInsnNode)];
+        return lineNumberNode != null ? lineNumberNode.line : null;
+    }
+
+    boolean isWithinTryCatch(AbstractInsnNode pointInsnNode) {
+        return tryCatchCoverage[getIndex(pointInsnNode)] > 0;
+    }
+}
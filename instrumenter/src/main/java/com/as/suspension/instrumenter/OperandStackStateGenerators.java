@@ -36,6 +36,8 @@ import org.objectweb.asm.tree.analysis.Frame;
  * @author Kasra Faghihi
  */
 final class OperandStackStateGenerators {
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
+
     private OperandStackStateGenerators() {
         // do nothing
     }
@@ -131,6 +133,8 @@ final class OperandStackStateGenerators {
         VariableTable.Variable longsVar = storageVars.getLongStorageVar();
         VariableTable.Variable doublesVar = storageVars.getDoubleStorageVar();
         VariableTable.Variable objectsVar = storageVars.getObjectStorageVar();
+        VariableTable.Variable frameVar = storageVars.getFrameStorageVar();
+        boolean usingFrameClass = storageVars.isUsingFrameClass();
 
         int intsCounter = 0;
         int floatsCounter = 0;
@@ -209,38 +213,63 @@ final class OperandStackStateGenerators {
                 case Type.CHAR:
                 case Type.INT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Loading int at " + i + " from storage index " + intsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, intsVar.getIndex())); // [int[]]
-                    ret.add(new LdcInsnNode(intsCounter));                       // [int[], idx]
-                    ret.add(new InsnNode(Opcodes.IALOAD));                       // [val]
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                    // [frame]
+                        ret.add(FrameStateGenerators.getField(storageVars, Type.INT_TYPE, intsCounter)); // [val]
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, intsVar.getIndex()));      // [int[]]
+                        ret.add(new LdcInsnNode(intsCounter));                            // [int[], idx]
+                        ret.add(new InsnNode(Opcodes.IALOAD));                            // [val]
+                    }
                     intsCounter++;
                     break;
                 case Type.FLOAT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Loading float at " + i + " from storage index " + floatsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, floatsVar.getIndex())); // [float[]]
-                    ret.add(new LdcInsnNode(floatsCounter));                       // [float[], idx]
-                    ret.add(new InsnNode(Opcodes.FALOAD));                         // [val]
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                        // [frame]
+                        ret.add(FrameStateGenerators.getField(storageVars, Type.FLOAT_TYPE, floatsCounter)); // [val]
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, floatsVar.getIndex()));    // [float[]]
+                        ret.add(new LdcInsnNode(floatsCounter));                          // [float[], idx]
+                        ret.add(new InsnNode(Opcodes.FALOAD));                            // [val]
+                    }
                     floatsCounter++;
                     break;
                 case Type.LONG:
                     ret.add(DebugGenerators.debugMarker(markerType, "Loading long at " + i + " from storage index " + longsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, longsVar.getIndex()));  // [long[]]
-                    ret.add(new LdcInsnNode(longsCounter));                        // [long[], idx]
-                    ret.add(new InsnNode(Opcodes.LALOAD));                         // [val_PART1, val_PART2]
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                      // [frame]
+                        ret.add(FrameStateGenerators.getField(storageVars, Type.LONG_TYPE, longsCounter)); // [val_PART1, val_PART2]
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, longsVar.getIndex())); // [long[]]
+                        ret.add(new LdcInsnNode(longsCounter));                       // [long[], idx]
+                        ret.add(new InsnNode(Opcodes.LALOAD));                        // [val_PART1, val_PART2]
+                    }
                     longsCounter++;
                     break;
                 case Type.DOUBLE:
                     ret.add(DebugGenerators.debugMarker(markerType, "Loading double at " + i + " from storage index " + doublesCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, doublesVar.getIndex()));  // [double[]]
-                    ret.add(new LdcInsnNode(doublesCounter));                        // [double[], idx]
-                    ret.add(new InsnNode(Opcodes.DALOAD));                           // [val_PART1, val_PART2]
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                          // [frame]
+                        ret.add(FrameStateGenerators.getField(storageVars, Type.DOUBLE_TYPE, doublesCounter)); // [val_PART1, val_PART2]
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, doublesVar.getIndex()));   // [double[]]
+                        ret.add(new LdcInsnNode(doublesCounter));                         // [double[], idx]
+                        ret.add(new InsnNode(Opcodes.DALOAD));                            // [val_PART1, val_PART2]
+                    }
                     doublesCounter++;
                     break;
                 case Type.ARRAY:
                 case Type.OBJECT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Loading object at " + i + " from storage index " + objectsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex())); // [Object[]]
-                    ret.add(new LdcInsnNode(objectsCounter));                       // [Object[], idx]
-                    ret.add(new InsnNode(Opcodes.AALOAD));                          // [val]
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                     // [frame]
+                        ret.add(FrameStateGenerators.getField(storageVars, OBJECT_TYPE, objectsCounter)); // [val]
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex())); // [Object[]]
+                        ret.add(new LdcInsnNode(objectsCounter));                       // [Object[], idx]
+                        ret.add(new InsnNode(Opcodes.AALOAD));                          // [val]
+                    }
                     ret.add(new TypeInsnNode(Opcodes.CHECKCAST, basicValue.getType().getInternalName()));
                     objectsCounter++;
                     break;
@@ -293,6 +322,32 @@ final class OperandStackStateGenerators {
      * or if {@code count} is larger than {@code top} (or is negative)
      */
     public static InsnList saveOperandStack(DebugGenerators.MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame, int count) {
+        return saveOperandStack(markerType, storageVars, frame, count, true);
+    }
+
+    /**
+     * Generates instructions to save a certain number of items from the top of the operand stack.
+     * <p>
+     * Same as {@link #saveOperandStack(DebugGenerators.MarkerType, StorageVariables, Frame, int) }, except that if
+     * {@code createStorageArrays} is {@code false} the storage variables must already point to arrays that are the size required to hold
+     * those items (e.g. arrays unpacked from a method state that was saved at the same continuation point).
+     * <p>
+     * If the storage variables are backed by a frame class, {@code createStorageArrays} creates a new frame class instance instead. That
+     * instance also holds the local variables table, so the operand stack must be saved before the locals are (see
+     * {@link LocalsStateGenerators#saveLocals(DebugGenerators.MarkerType, StorageVariables, Frame, boolean) }).
+     * @param markerType debug marker type
+     * @param storageVars variables to store operand stack in to
+     * @param frame execution frame at the instruction where the operand stack is to be saved
+     * @param count number of items to store from the stack
+     * @param createStorageArrays if {@code true}, new storage arrays (or a new frame class instance) are created and assigned to
+     * {@code storageVars} before saving
+     * @return instructions to save the operand stack to the storage variables
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code size} is larger than the number of items in the stack at {@code frame} (or is negative),
+     * or if {@code count} is larger than {@code top} (or is negative)
+     */
+    public static InsnList saveOperandStack(DebugGenerators.MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame, int count,
+            boolean createStorageArrays) {
         Validate.notNull(markerType);
         Validate.notNull(storageVars);
         Validate.notNull(frame);
@@ -305,6 +360,8 @@ final class OperandStackStateGenerators {
         VariableTable.Variable longsVar = storageVars.getLongStorageVar();
         VariableTable.Variable doublesVar = storageVars.getDoubleStorageVar();
         VariableTable.Variable objectsVar = storageVars.getObjectStorageVar();
+        VariableTable.Variable frameVar = storageVars.getFrameStorageVar();
+        boolean usingFrameClass = storageVars.isUsingFrameClass();
 
         StorageSizes storageSizes = computeSizes(frame, frame.getStackSize() - count, count);
 
@@ -320,35 +377,40 @@ final class OperandStackStateGenerators {
         // Create stack storage arrays and save them
         ret.add(GenericGenerators.merge(
                 DebugGenerators.debugMarker(markerType, "Saving operand stack (" + count + " items)"),
-                GenericGenerators.mergeIf(storageSizes.getIntsSize() > 0, () -> new Object[] {
-                    DebugGenerators.debugMarker(markerType, "Generating ints container (" + storageSizes.getIntsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getIntsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT),
-                    new VarInsnNode(Opcodes.ASTORE, intsVar.getIndex())
-                }),
-                GenericGenerators.mergeIf(storageSizes.getFloatsSize() > 0, () -> new Object[] {
-                    DebugGenerators.debugMarker(markerType, "Generating floats container (" + storageSizes.getFloatsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getFloatsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT),
-                    new VarInsnNode(Opcodes.ASTORE, floatsVar.getIndex())
-                }),
-                GenericGenerators.mergeIf(storageSizes.getLongsSize() > 0, () -> new Object[] {
-                    DebugGenerators.debugMarker(markerType, "Generating longs container (" + storageSizes.getLongsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getLongsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG),
-                    new VarInsnNode(Opcodes.ASTORE, longsVar.getIndex())
-                }),
-                GenericGenerators.mergeIf(storageSizes.getDoublesSize() > 0, () -> new Object[] {
-                    DebugGenerators.debugMarker(markerType, "Generating doubles container (" + storageSizes.getDoublesSize() + ")"),
-                    new LdcInsnNode(storageSizes.getDoublesSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE),
-                    new VarInsnNode(Opcodes.ASTORE, doublesVar.getIndex())
+                GenericGenerators.mergeIf(createStorageArrays && usingFrameClass, () -> new Object[] {
+                    FrameStateGenerators.createFrame(markerType, frameVar)
                 }),
-                GenericGenerators.mergeIf(storageSizes.getObjectsSize() > 0, () -> new Object[] {
-                    DebugGenerators.debugMarker(markerType, "Generating objects container (" + storageSizes.getObjectsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getObjectsSize()),
-                    new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
-                    new VarInsnNode(Opcodes.ASTORE, objectsVar.getIndex())
+                GenericGenerators.mergeIf(createStorageArrays && !usingFrameClass, () -> new Object[] {
+                    GenericGenerators.mergeIf(storageSizes.getIntsSize() > 0, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, "Generating ints container (" + storageSizes.getIntsSize() + ")"),
+                        new LdcInsnNode(storageSizes.getIntsSize()),
+                        new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT),
+                        new VarInsnNode(Opcodes.ASTORE, intsVar.getIndex())
+                    }),
+                    GenericGenerators.mergeIf(storageSizes.getFloatsSize() > 0, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, "Generating floats container (" + storageSizes.getFloatsSize() + ")"),
+                        new LdcInsnNode(storageSizes.getFloatsSize()),
+                        new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT),
+                        new VarInsnNode(Opcodes.ASTORE, floatsVar.getIndex())
+                    }),
+                    GenericGenerators.mergeIf(storageSizes.getLongsSize() > 0, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, "Generating longs container (" + storageSizes.getLongsSize() + ")"),
+                        new LdcInsnNode(storageSizes.getLongsSize()),
+                        new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG),
+                        new VarInsnNode(Opcodes.ASTORE, longsVar.getIndex())
+                    }),
+                    GenericGenerators.mergeIf(storageSizes.getDoublesSize() > 0, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, "Generating doubles container (" + storageSizes.getDoublesSize() + ")"),
+                        new LdcInsnNode(storageSizes.getDoublesSize()),
+                        new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE),
+                        new VarInsnNode(Opcodes.ASTORE, doublesVar.getIndex())
+                    }),
+                    GenericGenerators.mergeIf(storageSizes.getObjectsSize() > 0, () -> new Object[] {
+                        DebugGenerators.debugMarker(markerType, "Generating objects container (" + storageSizes.getObjectsSize() + ")"),
+                        new LdcInsnNode(storageSizes.getObjectsSize()),
+                        new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
+                        new VarInsnNode(Opcodes.ASTORE, objectsVar.getIndex())
+                    })
                 })
         ));
 
@@ -377,48 +439,80 @@ final class OperandStackStateGenerators {
                 case Type.CHAR:
                 case Type.INT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Popping/storing int at " + i + " to storage index " + intsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, intsVar.getIndex())); // [val, int[]]
-                    ret.add(new InsnNode(Opcodes.SWAP));                         // [int[], val]
-                    ret.add(new LdcInsnNode(intsCounter));                       // [int[], val, idx]
-                    ret.add(new InsnNode(Opcodes.SWAP));                         // [int[], idx, val]
-                    ret.add(new InsnNode(Opcodes.IASTORE));                      // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                    // [val, frame]
+                        ret.add(new InsnNode(Opcodes.SWAP));                                             // [frame, val]
+                        ret.add(FrameStateGenerators.putField(storageVars, Type.INT_TYPE, intsCounter)); // []
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, intsVar.getIndex()));      // [val, int[]]
+                        ret.add(new InsnNode(Opcodes.SWAP));                              // [int[], val]
+                        ret.add(new LdcInsnNode(intsCounter));                            // [int[], val, idx]
+                        ret.add(new InsnNode(Opcodes.SWAP));                              // [int[], idx, val]
+                        ret.add(new InsnNode(Opcodes.IASTORE));                           // []
+                    }
                     intsCounter--;
                     break;
                 case Type.FLOAT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Popping/storing float at " + i + " to storage index " + floatsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, floatsVar.getIndex())); // [val, float[]]
-                    ret.add(new InsnNode(Opcodes.SWAP));                           // [float[], val]
-                    ret.add(new LdcInsnNode(floatsCounter));                       // [float[], val, idx]
-                    ret.add(new InsnNode(Opcodes.SWAP));                           // [float[], idx, val]
-                    ret.add(new InsnNode(Opcodes.FASTORE));                        // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                        // [val, frame]
+                        ret.add(new InsnNode(Opcodes.SWAP));                                                 // [frame, val]
+                        ret.add(FrameStateGenerators.putField(storageVars, Type.FLOAT_TYPE, floatsCounter)); // []
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, floatsVar.getIndex()));    // [val, float[]]
+                        ret.add(new InsnNode(Opcodes.SWAP));                              // [float[], val]
+                        ret.add(new LdcInsnNode(floatsCounter));                          // [float[], val, idx]
+                        ret.add(new InsnNode(Opcodes.SWAP));                              // [float[], idx, val]
+                        ret.add(new InsnNode(Opcodes.FASTORE));                           // []
+                    }
                     floatsCounter--;
                     break;
                 case Type.LONG:
                     ret.add(DebugGenerators.debugMarker(markerType, "Popping/storing long at " + i + " to storage index " + longsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, longsVar.getIndex()));  // [val_PART1, val_PART2, long[]]
-                    ret.add(new LdcInsnNode(longsCounter));                        // [val_PART1, val_PART2, long[], idx]
-                    ret.add(new InsnNode(Opcodes.DUP2_X2));                        // [long[], idx, val_PART1, val_PART2, long[], idx]
-                    ret.add(new InsnNode(Opcodes.POP2));                           // [long[], idx, val_PART1, val_PART2]
-                    ret.add(new InsnNode(Opcodes.LASTORE));                        // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                      // [val_PART1, val_PART2, frame]
+                        ret.add(new InsnNode(Opcodes.DUP_X2));                                             // [frame, val_PART1, val_PART2, frame]
+                        ret.add(new InsnNode(Opcodes.POP));                                                // [frame, val_PART1, val_PART2]
+                        ret.add(FrameStateGenerators.putField(storageVars, Type.LONG_TYPE, longsCounter)); // []
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, longsVar.getIndex())); // [val_PART1, val_PART2, long[]]
+                        ret.add(new LdcInsnNode(longsCounter));                       // [val_PART1, val_PART2, long[], idx]
+                        ret.add(new InsnNode(Opcodes.DUP2_X2));                       // [long[], idx, val_PART1, val_PART2, long[], idx]
+                        ret.add(new InsnNode(Opcodes.POP2));                          // [long[], idx, val_PART1, val_PART2]
+                        ret.add(new InsnNode(Opcodes.LASTORE));                       // []
+                    }
                     longsCounter--;
                     break;
                 case Type.DOUBLE:
                     ret.add(DebugGenerators.debugMarker(markerType, "Popping/storing double at " + i + " to storage index " + doublesCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, doublesVar.getIndex()));  // [val_PART1, val_PART2, double[]]
-                    ret.add(new LdcInsnNode(doublesCounter));                        // [val_PART1, val_PART2, double[], idx]
-                    ret.add(new InsnNode(Opcodes.DUP2_X2));                          // [double[], idx, val_PART1, val_PART2, double[], idx]
-                    ret.add(new InsnNode(Opcodes.POP2));                             // [double[], idx, val_PART1, val_PART2]
-                    ret.add(new InsnNode(Opcodes.DASTORE));                          // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                          // [val_PART1, val_PART2, frame]
+                        ret.add(new InsnNode(Opcodes.DUP_X2));                                                 // [frame, val_PART1, val_PART2, frame]
+                        ret.add(new InsnNode(Opcodes.POP));                                                    // [frame, val_PART1, val_PART2]
+                        ret.add(FrameStateGenerators.putField(storageVars, Type.DOUBLE_TYPE, doublesCounter)); // []
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, doublesVar.getIndex()));   // [val_PART1, val_PART2, double[]]
+                        ret.add(new LdcInsnNode(doublesCounter));                         // [val_PART1, val_PART2, double[], idx]
+                        ret.add(new InsnNode(Opcodes.DUP2_X2));                           // [double[], idx, val_PART1, val_PART2, double[], idx]
+                        ret.add(new InsnNode(Opcodes.POP2));                              // [double[], idx, val_PART1, val_PART2]
+                        ret.add(new InsnNode(Opcodes.DASTORE));                           // []
+                    }
                     doublesCounter--;
                     break;
                 case Type.ARRAY:
                 case Type.OBJECT:
                     ret.add(DebugGenerators.debugMarker(markerType, "Popping/storing object at " + i + " to storage index " + objectsCounter));
-                    ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex())); // [val, object[]]
-                    ret.add(new InsnNode(Opcodes.SWAP));                            // [object[], val]
-                    ret.add(new LdcInsnNode(objectsCounter));                       // [object[], val, idx]
-                    ret.add(new InsnNode(Opcodes.SWAP));                            // [object[], idx, val]
-                    ret.add(new InsnNode(Opcodes.AASTORE));                         // []
+                    if (usingFrameClass) {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                     // [val, frame]
+                        ret.add(new InsnNode(Opcodes.SWAP));                                              // [frame, val]
+                        ret.add(FrameStateGenerators.putField(storageVars, OBJECT_TYPE, objectsCounter)); // []
+                    } else {
+                        ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex())); // [val, object[]]
+                        ret.add(new InsnNode(Opcodes.SWAP));                            // [object[], val]
+                        ret.add(new LdcInsnNode(objectsCounter));                       // [object[], val, idx]
+                        ret.add(new InsnNode(Opcodes.SWAP));                            // [object[], idx, val]
+                        ret.add(new InsnNode(Opcodes.AASTORE));                         // []
+                    }
                     objectsCounter--;
                     break;
                 case Type.METHOD:
@@ -58,6 +58,12 @@ final class PackStateGenerators {
         Validate.notNull(containerVar);
         Validate.notNull(localsStorageVars);
         Validate.notNull(operandStackStorageVars);
+        Validate.isTrue(localsStorageVars.isUsingFrameClass() == operandStackStorageVars.isUsingFrameClass());
+        
+        // If saving to a frame class, the container is the frame class instance -- the locals and operand stack are already in it
+        if (localsStorageVars.isUsingFrameClass()) {
+            return DebugGenerators.debugMarker(markerType, "Nothing to pack (saved directly in to frame)");
+        }
         
         VariableTable.Variable localsIntsVar = localsStorageVars.getIntStorageVar();
         VariableTable.Variable localsFloatsVar = localsStorageVars.getFloatStorageVar();
@@ -186,6 +192,11 @@ final class PackStateGenerators {
         Validate.notNull(containerVar);
         Validate.notNull(localsStorageVars);
         
+        // If restoring from a frame class, the container is the frame class instance -- the locals are loaded directly from it
+        if (localsStorageVars.isUsingFrameClass()) {
+            return DebugGenerators.debugMarker(markerType, "Nothing to unpack (loaded directly from frame)");
+        }
+        
         VariableTable.Variable localsIntsVar = localsStorageVars.getIntStorageVar();
         VariableTable.Variable localsFloatsVar = localsStorageVars.getFloatStorageVar();
         VariableTable.Variable localsLongsVar = localsStorageVars.getLongStorageVar();
@@ -273,6 +284,11 @@ final class PackStateGenerators {
         Validate.notNull(containerVar);
         Validate.notNull(operandStackStorageVars);
         
+        // If restoring from a frame class, the container is the frame class instance -- the operand stack is loaded directly from it
+        if (operandStackStorageVars.isUsingFrameClass()) {
+            return DebugGenerators.debugMarker(markerType, "Nothing to unpack (loaded directly from frame)");
+        }
+        
         VariableTable.Variable stackIntsVar = operandStackStorageVars.getIntStorageVar();
         VariableTable.Variable stackFloatsVar = operandStackStorageVars.getFloatStorageVar();
         VariableTable.Variable stackLongsVar = operandStackStorageVars.getLongStorageVar();
@@ -16,6 +16,7 @@
  */
 package com.as.suspension.instrumenter;
 
+import com.as.suspension.user.FrameStorage;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -42,14 +43,26 @@ final class PerformInstrumentationPass implements InstrumentationPass {
         Validate.validState(classNode.methods.containsAll(state.methodAttributes().keySet()));
 
 
+        // Generate the frame classes for the methods we're about to instrument (if enabled) -- these get written out as extra files
+        // alongside the instrumented class
+        if (state.instrumentationSettings().isGenerateFrameClasses()) {
+            for (MethodAttributes methodAttrs : state.methodAttributes().values()) {
+                String frameClassName = FrameStateGenerators.getFrameClassName(methodAttrs.getSignature());
+                state.extraFiles().put(
+                        getNameWithoutPackage(frameClassName) + ".class",
+                        FrameStateGenerators.generateFrameClass(classNode, methodAttrs));
+            }
+        }
+
+
         // Instrument the methods based on the analysis we did in previous passes
         MethodInstrumenter instrumenter = new MethodInstrumenter();
         for (Entry<MethodNode, MethodAttributes> method : state.methodAttributes().entrySet()) {            
             MethodNode methodNode = method.getKey();
             MethodAttributes methodAttrs = method.getValue();
 
-            // Instrument
-            instrumenter.instrument(classNode, methodNode, methodAttrs);
+            // Instrument -- any helper methods added to the class need to get written out along with the instrumented methods
+            state.addedMethods().addAll(instrumenter.instrument(classNode, methodNode, methodAttrs));
         }
 
 
@@ -61,5 +74,28 @@ final class PerformInstrumentationPass implements InstrumentationPass {
                 null,
                 InternalFields.INSTRUMENTED_MARKER_FIELD_VALUE);
         classNode.fields.add(instrumentedMarkerField);
+
+        // Add the "frame classes" marker field to this class if frame classes were generated, so the serializer/deserializer know to
+        // convert to/from them
+        if (state.instrumentationSettings().isGenerateFrameClasses()) {
+            FieldNode frameClassesMarkerField = new FieldNode(
+                    InternalFields.INSTRUMENTED_FRAME_CLASSES_FIELD_ACCESS,
+                    FrameStorage.MARKER_FIELD_NAME,
+                    InternalFields.INSTRUMENTED_FRAME_CLASSES_FIELD_TYPE.getDescriptor(),
+                    null,
+                    InternalFields.INSTRUMENTED_FRAME_CLASSES_FIELD_VALUE);
+            classNode.fields.add(frameClassesMarkerField);
+        }
+    }
+
+    private static String getNameWithoutPackage(String internalClassName) {
+        Validate.notNull(internalClassName);
+
+        int idx = internalClassName.lastIndexOf('/');
+        if (idx == -1) {
+            return internalClassName;
+        }
+
+        return internalClassName.substring(idx + 1);
     }
 }
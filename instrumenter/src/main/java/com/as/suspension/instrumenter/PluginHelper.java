@@ -16,15 +16,40 @@
  */
 package com.as.suspension.instrumenter;
 
+import com.as.suspension.instrumenter.asm.ClassInformationRepository;
+import com.as.suspension.instrumenter.asm.CompositeClassInformationRepository;
+import com.as.suspension.instrumenter.asm.FileSystemClassInformationRepository;
+import com.as.suspension.instrumenter.asm.JrtClassInformationRepository;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.ClassReader;
 
 /**
  * Helper class for use by build system plugins.
@@ -72,9 +97,77 @@ public final class PluginHelper {
         return ret;
     }
 
+    /**
+     * Creates an {@link Instrumenter} for classes compiled against some classpath and JDK. Equivalent to calling...
+     * <pre>
+     * createInstrumenter(classpath, jdkLibsDirectory, null);
+     * </pre>
+     * @param classpath classpath JARs and folders for the classes being instrumented (not including the JDK)
+     * @param jdkLibsDirectory JDK libs directory (e.g. {@code ${java.home}/lib})
+     * @return new instrumenter (must be closed once instrumentation is done)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IOException if classes in the classpath could not be loaded up
+     */
+    public static Instrumenter createInstrumenter(List<File> classpath, File jdkLibsDirectory) throws IOException {
+        return createInstrumenter(classpath, jdkLibsDirectory, null);
+    }
+
+    /**
+     * Creates an {@link Instrumenter} for classes compiled against some classpath and JDK. If the JDK is modular (JDK 9 or later), its
+     * classes are read directly out of its module image (see {@link JrtClassInformationRepository}). Otherwise, the JARs in its libs
+     * directory are added to the classpath.
+     * <p>
+     * If {@code hierarchyCacheDirectory} is set, the class hierarchy information of each JAR is cached in that directory so that later
+     * runs (including runs in other processes / builds) don't have to re-read JARs that haven't changed. The directory may be shared.
+     * @param classpath classpath JARs and folders for the classes being instrumented (not including the JDK)
+     * @param jdkLibsDirectory JDK libs directory (e.g. {@code ${java.home}/lib})
+     * @param hierarchyCacheDirectory directory to cache JAR class hierarchy information in ({@code null} to disable caching)
+     * @return new instrumenter (must be closed once instrumentation is done, so that the JARs it reads from are closed)
+     * @throws NullPointerException if any argument other than {@code hierarchyCacheDirectory} is {@code null} or contains {@code null}
+     * @throws IOException if classes in the classpath could not be loaded up
+     */
+    public static Instrumenter createInstrumenter(List<File> classpath, File jdkLibsDirectory, File hierarchyCacheDirectory)
+            throws IOException {
+        Validate.notNull(classpath);
+        Validate.notNull(jdkLibsDirectory);
+        Validate.noNullElements(classpath);
+
+        File javaHome = jdkLibsDirectory.getAbsoluteFile().getParentFile();
+        if (javaHome != null && JrtClassInformationRepository.isModular(javaHome)) {
+            FileSystemClassInformationRepository classpathRepo = createClassInformationRepository(classpath, hierarchyCacheDirectory);
+            ClassInformationRepository jdkRepo;
+            try {
+                jdkRepo = JrtClassInformationRepository.create(javaHome);
+            } catch (IOException | RuntimeException e) {
+                try {
+                    classpathRepo.close();
+                } catch (IOException ioe) {
+                    e.addSuppressed(ioe);
+                }
+                throw e;
+            }
+            ClassInformationRepository repo = new CompositeClassInformationRepository(Arrays.asList(classpathRepo, jdkRepo));
+            return new Instrumenter(repo);
+        }
+
+        List<File> combinedClasspath = new ArrayList<>(classpath);
+        combinedClasspath.addAll(FileUtils.listFiles(jdkLibsDirectory, new String[]{"jar"}, true));
+        return new Instrumenter(createClassInformationRepository(combinedClasspath, hierarchyCacheDirectory));
+    }
+
+    private static FileSystemClassInformationRepository createClassInformationRepository(List<File> classpath, File cacheDirectory)
+            throws IOException {
+        return cacheDirectory == null
+                ? FileSystemClassInformationRepository.create(classpath)
+                : FileSystemClassInformationRepository.create(classpath, cacheDirectory);
+    }
+
     /**
      * Instruments class files and generates detail files. Detail files are placed alongside destination class files -- they have the same
-     * name but the extension will be changed to {@code .coroutinesinfo}.
+     * name but the extension will be changed to {@code .coroutinesinfo}. This method is equivalent to calling...
+     * <pre>
+     * instrument(instrumenter, settings, srcDstMapping, 1, logger);
+     * </pre>
      * @param instrumenter instrumenter
      * @param settings instrumentation settings
      * @param srcDstMapping class files to instrument mapped to destination files where the final instrumented results will be placed
@@ -85,41 +178,446 @@ public final class PluginHelper {
      */
     public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, Map<File, File> srcDstMapping,
             Consumer<String> logger) throws IOException {
+        instrument(instrumenter, settings, srcDstMapping, 1, logger);
+    }
+
+    /**
+     * Instruments class files and generates detail files. Detail files are placed alongside destination class files -- they have the same
+     * name but the extension will be changed to {@code .coroutinesinfo}.
+     * <p>
+     * If {@code workerCount} is greater than 1, classes are instrumented concurrently on that many threads. The {@link Instrumenter} passed
+     * in must be backed by a thread-safe {@link com.as.suspension.instrumenter.asm.ClassInformationRepository} in this case (the one
+     * created by {@link Instrumenter#Instrumenter(java.util.List)} is). Regardless of the number of workers, classes are processed in
+     * the order of their source paths: destination files are written and messages are logged in that order, on the invoking thread, and
+     * the first class that fails stops processing (no files for classes after it are written).
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDstMapping class files to instrument mapped to destination files where the final instrumented results will be placed
+     * @param workerCount number of threads to instrument classes on
+     * @param logger logger to dump messages to (if any)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if a source class file doesn't exist, or if {@code workerCount < 1}
+     * @throws IOException on IO error
+     */
+    public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, Map<File, File> srcDstMapping,
+            int workerCount, Consumer<String> logger) throws IOException {
         Validate.notNull(instrumenter);
+        Validate.notNull(settings);
         Validate.notNull(srcDstMapping);
         Validate.notNull(logger);
+        Validate.isTrue(workerCount >= 1);
 
-        for (Entry<File, File> e : srcDstMapping.entrySet()) {
-            File inputFile = e.getKey();
-            File outputFile = e.getValue();
-            File outputDir = outputFile.getParentFile();
-
-            Validate.notNull(inputFile);
-            Validate.notNull(outputFile);
-            Validate.isTrue(inputFile.isFile());
-            // output file may not exists or it may exist (e.g. if we're writing out to the same location)
-
-            byte[] input = FileUtils.readFileToByteArray(inputFile);
-            
-            InstrumentationResult result = instrumenter.instrument(input, settings);
-            
-            byte[] output = result.getInstrumentedClass();
-            Map<String, byte[]> extraOutputs = result.getExtraFiles();
-            
-            if (input.length == output.length) { // condition that determines if no instrumentation happened
+        List<Entry<File, File>> entries = sortedEntries(srcDstMapping);
+        SuspendAnalysis suspendAnalysis = createSuspendAnalysis(settings, entries, Collections.emptyMap());
+        instrumentEntries(instrumenter, settings, suspendAnalysis, entries, Collections.emptyMap(), workerCount, logger,
+                (entry, fileResult) -> { });
+    }
+
+    /**
+     * Instruments class files and generates detail files, skipping class files that haven't changed since the last time this method was
+     * invoked with the same state file. Detail files are placed alongside destination class files -- they have the same name but the
+     * extension will be changed to {@code .coroutinesinfo}.
+     * <p>
+     * The state file records a hash of each source class file, a hash of what was written to its destination, and the class's direct
+     * supertypes. A class file gets instrumented again if...
+     * <ul>
+     * <li>its contents don't match what was recorded.</li>
+     * <li>it was instrumented but its destination file is missing or doesn't match what was recorded.</li>
+     * <li>one of its supertypes (directly or indirectly) is also in {@code srcDstMapping} and is getting instrumented again.</li>
+     * <li>the instrumentation settings or the instrumenter code (see {@link Instrumenter#getCodeFingerprint() }) changed (everything
+     * gets instrumented again).</li>
+     * <li>non-suspending calls are being pruned (see {@link InstrumentationSettings#isPruneNonSuspendingCalls() }) and the set of methods
+     * that never suspend changed (everything gets instrumented again).</li>
+     * </ul>
+     * Changes to classes that aren't in {@code srcDstMapping} (e.g. classes in dependency JARs) aren't detected -- delete the state file to
+     * force everything to be instrumented again. Entries for class files no longer in {@code srcDstMapping} are dropped from the state
+     * file.
+     * <p>
+     * If a class file is instrumented in place (its source and destination are the same file), a copy of the original uninstrumented class
+     * file is kept in a directory next to the state file (same path as the state file with {@code .pristine} appended). When that class
+     * file needs to be instrumented again but hasn't changed (e.g. one of its supertypes changed), it gets instrumented again from that
+     * copy rather than from the already instrumented file on disk. Copies for class files that are no longer instrumented in place are
+     * removed. The state file is deleted before any destination files are written and re-written once everything has been processed, so a
+     * failure part way through causes the next invocation to instrument everything again.
+     * <p>
+     * Other than the above, this method behaves the same as
+     * {@link #instrument(Instrumenter, InstrumentationSettings, Map, int, Consumer) }.
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDstMapping class files to instrument mapped to destination files where the final instrumented results will be placed
+     * @param stateFile file to track state in between invocations (should not be in a directory that's being instrumented or packaged)
+     * @param workerCount number of threads to instrument classes on
+     * @param logger logger to dump messages to (if any)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if a source class file doesn't exist, or if {@code workerCount < 1}
+     * @throws IOException on IO error
+     */
+    public static void instrumentIncrementally(Instrumenter instrumenter, InstrumentationSettings settings, Map<File, File> srcDstMapping,
+            File stateFile, int workerCount, Consumer<String> logger) throws IOException {
+        Validate.notNull(instrumenter);
+        Validate.notNull(settings);
+        Validate.notNull(srcDstMapping);
+        Validate.notNull(stateFile);
+        Validate.notNull(logger);
+        Validate.isTrue(workerCount >= 1);
+
+        List<Entry<File, File>> entries = sortedEntries(srcDstMapping);
+
+        // Class files instrumented in place get overwritten, so the original (uninstrumented) class files are copied to a pristine
+        // directory as they're written out. Each copy is named by the hash of the instrumented class file it was replaced by -- if a
+        // class file on disk has a copy, it's one that was instrumented by a previous run and the copy is what should be read instead.
+        File pristineDir = new File(stateFile.getPath() + ".pristine");
+        Map<File, File> pristineFiles = new HashMap<>();
+        Map<File, String> inputHashes = new HashMap<>();
+        for (Entry<File, File> e : entries) {
+            File srcFile = e.getKey();
+            Validate.isTrue(srcFile.isFile());
+
+            byte[] input = FileUtils.readFileToByteArray(srcFile);
+            if (srcFile.equals(e.getValue())) {
+                File pristineFile = new File(pristineDir, sha256Hex(input) + ".class");
+                if (pristineFile.isFile()) {
+                    pristineFiles.put(srcFile, pristineFile);
+                    input = FileUtils.readFileToByteArray(pristineFile);
+                }
+            }
+            inputHashes.put(srcFile, sha256Hex(input));
+        }
+
+        // If non-suspending calls are being pruned, whether a call site gets pruned depends on classes other than the one its in. Rather
+        // than tracking which classes call in to which, include the analysis results in the fingerprint so that everything gets
+        // instrumented again if they change.
+        SuspendAnalysis suspendAnalysis = createSuspendAnalysis(settings, entries, pristineFiles);
+        String fingerprint = settings + " " + Instrumenter.getCodeFingerprint()
+                + (suspendAnalysis != null ? " " + suspendAnalysis.fingerprint() : "");
+        IncrementalState oldState = IncrementalState.load(stateFile, fingerprint);
+        IncrementalState newState = new IncrementalState(fingerprint);
+
+        // Find classes that changed since the last run
+        Map<String, List<String>> superTypesByClass = new HashMap<>();
+        Map<File, String> classNamesBySrc = new HashMap<>();
+        Set<String> changedClasses = new HashSet<>();
+        Set<File> changedSrcFiles = new HashSet<>();
+        Set<File> keptPristineFiles = new HashSet<>();
+        for (Entry<File, File> e : entries) {
+            File srcFile = e.getKey();
+            File dstFile = e.getValue();
+
+            IncrementalState.Record record = oldState.get(srcFile);
+            if (isUnchanged(record, dstFile, inputHashes.get(srcFile))) {
+                newState.put(srcFile, record);
+                superTypesByClass.put(record.getClassName(), record.getSuperTypes());
+                classNamesBySrc.put(srcFile, record.getClassName());
+                if (pristineFiles.containsKey(srcFile)) {
+                    keptPristineFiles.add(pristineFiles.get(srcFile));
+                }
                 continue;
             }
 
-            FileUtils.writeByteArrayToFile(outputFile, output);
-            for (Entry<String, byte[]> extraOutput : extraOutputs.entrySet()) {
-                File extraFile = new File(outputDir, extraOutput.getKey());
-                byte[] extraData = extraOutput.getValue();
-                FileUtils.writeByteArrayToFile(extraFile, extraData);
+            changedSrcFiles.add(srcFile);
+            ClassReader cr;
+            try {
+                cr = new ClassReader(readInput(srcFile, pristineFiles));
+            } catch (RuntimeException re) {
+                continue; // not a valid class -- leave it to the instrumenter to complain about
+            }
+            superTypesByClass.put(cr.getClassName(), readSuperTypes(cr));
+            classNamesBySrc.put(srcFile, cr.getClassName());
+            changedClasses.add(cr.getClassName());
+        }
+
+        // Find unchanged classes that have changed supertypes (directly or indirectly) -- these need to be instrumented again as well
+        Map<String, Boolean> dirtyCache = new HashMap<>();
+        List<Entry<File, File>> dirtyEntries = new ArrayList<>();
+        for (Entry<File, File> e : entries) {
+            String className = classNamesBySrc.get(e.getKey());
+            if (changedSrcFiles.contains(e.getKey()) || isDirty(className, superTypesByClass, changedClasses, dirtyCache, new HashSet<>())) {
+                dirtyEntries.add(e);
+            }
+        }
+
+        logger.accept("Incremental instrumentation: " + dirtyEntries.size() + " of " + entries.size() + " class files need processing");
+
+        Files.deleteIfExists(stateFile.toPath());
+        instrumentEntries(instrumenter, settings, suspendAnalysis, dirtyEntries, pristineFiles, workerCount, logger, (entry, fileResult) -> {
+            ClassReader cr = new ClassReader(fileResult.input); // will always be a valid class if it got through the instrumenter
+            String inputHash = sha256Hex(fileResult.input);
+            String outputHash = fileResult.instrumented ? sha256Hex(fileResult.output) : null;
+            IncrementalState.Record record = new IncrementalState.Record(entry.getValue(), inputHash, outputHash, cr.getClassName(),
+                    readSuperTypes(cr));
+            newState.put(entry.getKey(), record);
+
+            // Called before the destination gets written, so the original is never lost if instrumenting in place
+            if (outputHash != null && entry.getKey().equals(entry.getValue())) {
+                File pristineFile = new File(pristineDir, outputHash + ".class");
+                FileUtils.writeByteArrayToFile(pristineFile, fileResult.input);
+                keptPristineFiles.add(pristineFile);
+            }
+        });
+        newState.save(stateFile);
+
+        File[] pristineDirFiles = pristineDir.listFiles();
+        if (pristineDirFiles != null) {
+            for (File pristineFile : pristineDirFiles) {
+                if (!keptPristineFiles.contains(pristineFile)) {
+                    Files.delete(pristineFile.toPath());
+                }
+            }
+            if (keptPristineFiles.isEmpty()) {
+                Files.delete(pristineDir.toPath());
             }
-            
-            logger.accept("Instrumenting " + inputFile.getAbsolutePath()
-                    + " (" + input.length + " bytes -> " + output.length + " bytes)"
-                    + (extraOutputs.isEmpty() ? "" : " with extra files " + extraOutputs.keySet()));
+        }
+    }
+
+    /**
+     * Given a set of class files, finds the ones that directly or indirectly extend/implement one of the classes in {@code classNames}.
+     * Only the hierarchy between the class files passed in is considered (e.g. if {@code A extends B} and {@code B extends C}, but
+     * {@code B} isn't in {@code classFiles}, {@code A} won't be considered a subtype of {@code C}). Useful for figuring out which classes
+     * need to be instrumented again when some classes change.
+     * @param classFiles class files to search through
+     * @param classNames internal names of classes to search for subtypes of
+     * @return class files in {@code classFiles} that are subtypes of a class in {@code classNames} (not including class files for the
+     * classes in {@code classNames} themselves)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if any file in {@code classFiles} isn't a valid class file
+     * @throws IOException on IO error
+     */
+    public static Set<File> findSubtypeClassFiles(Collection<File> classFiles, Set<String> classNames) throws IOException {
+        Validate.notNull(classFiles);
+        Validate.notNull(classNames);
+        Validate.noNullElements(classFiles);
+        Validate.noNullElements(classNames);
+
+        Map<String, List<String>> superTypesByClass = new HashMap<>();
+        Map<File, String> classNamesByFile = new HashMap<>();
+        for (File classFile : classFiles) {
+            ClassReader cr;
+            try {
+                cr = new ClassReader(FileUtils.readFileToByteArray(classFile));
+            } catch (RuntimeException re) {
+                throw new IllegalArgumentException("Not a valid class file: " + classFile, re);
+            }
+            superTypesByClass.put(cr.getClassName(), readSuperTypes(cr));
+            classNamesByFile.put(classFile, cr.getClassName());
+        }
+
+        Set<File> ret = new HashSet<>();
+        Map<String, Boolean> dirtyCache = new HashMap<>();
+        for (Entry<File, String> e : classNamesByFile.entrySet()) {
+            String className = e.getValue();
+            if (!classNames.contains(className) && isDirty(className, superTypesByClass, classNames, dirtyCache, new HashSet<>())) {
+                ret.add(e.getKey());
+            }
+        }
+        return ret;
+    }
+
+    private static List<Entry<File, File>> sortedEntries(Map<File, File> srcDstMapping) {
+        List<Entry<File, File>> entries = new ArrayList<>(srcDstMapping.entrySet());
+        for (Entry<File, File> e : entries) {
+            Validate.notNull(e.getKey());
+            Validate.notNull(e.getValue());
+        }
+        entries.sort(Comparator.comparing(e -> e.getKey().getPath()));
+        return entries;
+    }
+
+    private static boolean isUnchanged(IncrementalState.Record record, File dstFile, String inputHash) throws IOException {
+        if (record == null || !record.getDstFile().equals(dstFile) || !inputHash.equals(record.getInputHash())) {
+            return false;
+        }
+
+        String outputHash = record.getOutputHash();
+        if (outputHash == null) { // wasn't instrumented last time (nothing written to destination)
+            return true;
+        }
+
+        return dstFile.isFile()
+                && outputHash.equals(sha256Hex(FileUtils.readFileToByteArray(dstFile)));
+    }
+
+    private static List<String> readSuperTypes(ClassReader cr) {
+        List<String> superTypes = new ArrayList<>();
+        if (cr.getSuperName() != null) {
+            superTypes.add(cr.getSuperName());
+        }
+        superTypes.addAll(Arrays.asList(cr.getInterfaces()));
+        return superTypes;
+    }
+
+    private static boolean isDirty(String className, Map<String, List<String>> superTypesByClass, Set<String> changedClasses,
+            Map<String, Boolean> dirtyCache, Set<String> visiting) {
+        if (className == null) {
+            return true;
+        }
+        if (changedClasses.contains(className)) {
+            return true;
+        }
+
+        Boolean cached = dirtyCache.get(className);
+        if (cached != null) {
+            return cached;
+        }
+
+        List<String> superTypes = superTypesByClass.get(className);
+        if (superTypes == null || !visiting.add(className)) { // not one of ours (e.g. from a JAR), or a cycle (bad class hierarchy)
+            return false;
+        }
+
+        boolean dirty = false;
+        for (String superType : superTypes) {
+            if (isDirty(superType, superTypesByClass, changedClasses, dirtyCache, visiting)) {
+                dirty = true;
+                break;
+            }
+        }
+        dirtyCache.put(className, dirty);
+        return dirty;
+    }
+
+    private static SuspendAnalysis createSuspendAnalysis(InstrumentationSettings settings, List<Entry<File, File>> entries,
+            Map<File, File> pristineFiles) throws IOException {
+        if (!settings.isPruneNonSuspendingCalls()) {
+            return null;
+        }
+
+        Iterable<byte[]> classFiles = () -> entries.stream().map(e -> {
+            try {
+                return readInput(e.getKey(), pristineFiles);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }).iterator();
+        try {
+            return SuspendAnalysis.create(classFiles);
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+    }
+
+    private static void instrumentEntries(Instrumenter instrumenter, InstrumentationSettings settings, SuspendAnalysis suspendAnalysis,
+            List<Entry<File, File>> entries, Map<File, File> pristineFiles, int workerCount, Consumer<String> logger,
+            WriteListener writeListener) throws IOException {
+        if (workerCount == 1 || entries.size() <= 1) {
+            for (Entry<File, File> e : entries) {
+                FileResult fileResult = instrumentFile(instrumenter, settings, suspendAnalysis, e.getKey(), pristineFiles);
+                writeListener.beforeWrite(e, fileResult);
+                writeFile(fileResult, e.getValue(), logger);
+            }
+            return;
+        }
+
+        // Keep a bounded window of classes in flight so that results for classes that finish early don't pile up in memory while waiting
+        // for their turn to be written out.
+        int maxInFlight = workerCount * 4;
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount, new WorkerThreadFactory());
+        try {
+            Deque<Future<FileResult>> inFlight = new ArrayDeque<>(maxInFlight);
+            Iterator<Entry<File, File>> submitIt = entries.iterator();
+            Iterator<Entry<File, File>> writeIt = entries.iterator();
+            while (writeIt.hasNext()) {
+                while (submitIt.hasNext() && inFlight.size() < maxInFlight) {
+                    File inputFile = submitIt.next().getKey();
+                    inFlight.addLast(executor.submit(
+                            () -> instrumentFile(instrumenter, settings, suspendAnalysis, inputFile, pristineFiles)));
+                }
+
+                FileResult fileResult = waitFor(inFlight.removeFirst());
+                Entry<File, File> e = writeIt.next();
+                writeListener.beforeWrite(e, fileResult);
+                writeFile(fileResult, e.getValue(), logger);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static FileResult instrumentFile(Instrumenter instrumenter, InstrumentationSettings settings, SuspendAnalysis suspendAnalysis,
+            File inputFile, Map<File, File> pristineFiles) throws IOException {
+        Validate.isTrue(inputFile.isFile());
+        // output file may not exists or it may exist (e.g. if we're writing out to the same location)
+
+        byte[] input = readInput(inputFile, pristineFiles);
+        InstrumentationResult result = instrumenter.instrument(input, settings, suspendAnalysis);
+        return new FileResult(inputFile, input, result);
+    }
+
+    private static byte[] readInput(File inputFile, Map<File, File> pristineFiles) throws IOException {
+        File pristineFile = pristineFiles.get(inputFile);
+        return FileUtils.readFileToByteArray(pristineFile != null ? pristineFile : inputFile);
+    }
+
+    private static void writeFile(FileResult fileResult, File outputFile, Consumer<String> logger) throws IOException {
+        File inputFile = fileResult.inputFile;
+        int inputLength = fileResult.input.length;
+        byte[] output = fileResult.output;
+        Map<String, byte[]> extraOutputs = fileResult.extraOutputs;
+        File outputDir = outputFile.getParentFile();
+
+        if (!fileResult.instrumented) {
+            return;
+        }
+
+        FileUtils.writeByteArrayToFile(outputFile, output);
+        for (Entry<String, byte[]> extraOutput : extraOutputs.entrySet()) {
+            File extraFile = new File(outputDir, extraOutput.getKey());
+            byte[] extraData = extraOutput.getValue();
+            FileUtils.writeByteArrayToFile(extraFile, extraData);
+        }
+
+        logger.accept("Instrumenting " + inputFile.getAbsolutePath()
+                + " (" + inputLength + " bytes -> " + output.length + " bytes)"
+                + (extraOutputs.isEmpty() ? "" : " with extra files " + extraOutputs.keySet()));
+    }
+
+    private static FileResult waitFor(Future<FileResult> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for instrumentation", ie);
+        } catch (ExecutionException ee) {
+            // rethrow the original exception so callers see the same exceptions they'd see if instrumentation was done serially
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static final class FileResult {
+        private final File inputFile;
+        private final byte[] input;
+        private final byte[] output;
+        private final Map<String, byte[]> extraOutputs;
+        private final boolean instrumented;
+
+        FileResult(File inputFile, byte[] input, InstrumentationResult result) {
+            this.inputFile = inputFile;
+            this.input = input;
+            this.output = result.getInstrumentedClass();
+            this.extraOutputs = result.getExtraFiles();
+            this.instrumented = !Arrays.equals(input, output); // instrumenter returns the input as-is if no instrumentation happened
+        }
+    }
+
+    private interface WriteListener {
+        void beforeWrite(Entry<File, File> entry, FileResult fileResult) throws IOException;
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "coroutines-instrumenter-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 
@@ -144,4 +642,52 @@ public final class PluginHelper {
         Map<File, File> srcDstMapping = mapPaths(srcDir, dstDir);
         instrument(instrumenter, settings, srcDstMapping, logger);
     }
+
+    /**
+     * Instruments class files and generates detail files. This method is equivalent to calling...
+     * <pre>
+     * Map&lt;File, File&gt; srcDstMapping = mapPaths(srcDir, dstDir);
+     * instrument(instrumenter, settings, srcDstMapping, workerCount, logger);
+     * </pre>
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDir source directory
+     * @param dstDir destination directory
+     * @param workerCount number of threads to instrument classes on
+     * @param logger logger to dump messages to (if any)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if either of the paths passed in are not directories (or if a file in {@code srcDir} was removed
+     * while this method is executing), or if {@code workerCount < 1}
+     * @throws IOException on IO error
+     */
+    public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, File srcDir, File dstDir,
+            int workerCount, Consumer<String> logger) throws IOException {
+        Map<File, File> srcDstMapping = mapPaths(srcDir, dstDir);
+        instrument(instrumenter, settings, srcDstMapping, workerCount, logger);
+    }
+
+    /**
+     * Instruments class files and generates detail files, skipping class files that haven't changed since the last invocation. This method
+     * is equivalent to calling...
+     * <pre>
+     * Map&lt;File, File&gt; srcDstMapping = mapPaths(srcDir, dstDir);
+     * instrumentIncrementally(instrumenter, settings, srcDstMapping, stateFile, workerCount, logger);
+     * </pre>
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDir source directory
+     * @param dstDir destination directory
+     * @param stateFile file to track state in between invocations (should not be inside of {@code srcDir} or {@code dstDir})
+     * @param workerCount number of threads to instrument classes on
+     * @param logger logger to dump messages to (if any)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if either of the paths passed in are not directories (or if a file in {@code srcDir} was removed
+     * while this method is executing), or if {@code workerCount < 1}
+     * @throws IOException on IO error
+     */
+    public static void instrumentIncrementally(Instrumenter instrumenter, InstrumentationSettings settings, File srcDir, File dstDir,
+            File stateFile, int workerCount, Consumer<String> logger) throws IOException {
+        Map<File, File> srcDstMapping = mapPaths(srcDir, dstDir);
+        instrumentIncrementally(instrumenter, settings, srcDstMapping, stateFile, workerCount, logger);
+    }
 }
@@ -23,9 +23,10 @@ import org.objectweb.asm.Type;
 final class StorageContainerVariables {
     private final VariableTable.Variable containerVar;
     
+    // If frame classes are being generated, the container is the frame class instance itself
     StorageContainerVariables(VariableTable.Variable containerVar) {
         Validate.notNull(containerVar);
-        Validate.isTrue(containerVar.getType().equals(Type.getType(Object[].class)));
+        Validate.isTrue(containerVar.getType().equals(Type.getType(Object[].class)) || containerVar.getType().getSort() == Type.OBJECT);
 
         this.containerVar = containerVar;
     }
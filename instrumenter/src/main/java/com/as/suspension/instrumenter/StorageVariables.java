@@ -17,6 +17,7 @@
 package com.as.suspension.instrumenter;
 
 import com.as.suspension.instrumenter.asm.VariableTable;
+import com.as.suspension.user.FrameStorage;
 import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.Type;
 
@@ -26,6 +27,8 @@ final class StorageVariables {
     private final VariableTable.Variable floatStorageVar;
     private final VariableTable.Variable doubleStorageVar;
     private final VariableTable.Variable objectStorageVar;
+    private final VariableTable.Variable frameStorageVar;
+    private final char frameSection;
     
     StorageVariables(
             VariableTable.Variable intStorageVar,
@@ -45,6 +48,26 @@ final class StorageVariables {
         this.floatStorageVar = floatStorageVar;
         this.doubleStorageVar = doubleStorageVar;
         this.objectStorageVar = objectStorageVar;
+        this.frameStorageVar = null;
+        this.frameSection = 0;
+    }
+
+    // Everything gets saved directly in to the fields of a generated frame class (see FrameStorage for the field naming), so there are no
+    // storage arrays -- the frame var is shared between the locals and the operand stack, the section identifies which fields are whose
+    StorageVariables(
+            VariableTable.Variable frameStorageVar,
+            char frameSection) {
+        Validate.notNull(frameStorageVar);
+        Validate.isTrue(frameStorageVar.getType().getSort() == Type.OBJECT);
+        Validate.isTrue(frameSection == FrameStorage.LOCALS_SECTION || frameSection == FrameStorage.OPERANDS_SECTION);
+        
+        this.intStorageVar = null;
+        this.longStorageVar = null;
+        this.floatStorageVar = null;
+        this.doubleStorageVar = null;
+        this.objectStorageVar = null;
+        this.frameStorageVar = frameStorageVar;
+        this.frameSection = frameSection;
     }
 
     public VariableTable.Variable getIntStorageVar() {
@@ -66,4 +89,16 @@ final class StorageVariables {
     public VariableTable.Variable getObjectStorageVar() {
         return objectStorageVar;
     }
+
+    public VariableTable.Variable getFrameStorageVar() {
+        return frameStorageVar;
+    }
+
+    public char getFrameSection() {
+        return frameSection;
+    }
+
+    public boolean isUsingFrameClass() {
+        return frameStorageVar != null;
+    }
 }
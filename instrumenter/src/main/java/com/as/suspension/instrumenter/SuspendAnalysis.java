@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter;
+
+import com.as.suspension.user.SuspendableContext;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodInsnNode;
+
+/**
+ * Whole-program analysis that finds methods which take a {@link SuspendableContext} but can never suspend, either directly or through the
+ * methods they call. Calls to such methods don't need to be treated as continuation points, and such methods don't need to be instrumented
+ * at all. This is commonly the case for helper methods that take in the {@link SuspendableContext} only to pass it along.
+ * <p>
+ * The analysis is conservative. A method is considered as possibly suspending if it...
+ * <ul>
+ * <li>invokes {@link SuspendableContext#suspend() }.</li>
+ * <li>is abstract or native.</li>
+ * <li>passes a {@link SuspendableContext} to an invokedynamic instruction or an interface method.</li>
+ * <li>passes a {@link SuspendableContext} to a method that can be overridden (not static, private, or final, and in a class that isn't
+ * final).</li>
+ * <li>passes a {@link SuspendableContext} to a method that wasn't part of the analysis.</li>
+ * <li>passes a {@link SuspendableContext} to a method that possibly suspends.</li>
+ * </ul>
+ * Only the classes given to {@link #create(java.lang.Iterable) } are part of the analysis. The results are only valid for those classes
+ * -- if any of them change, the analysis needs to be re-run and every class that was instrumented using the old results needs to be
+ * instrumented again.
+ * @author Kasra Faghihi
+ */
+public final class SuspendAnalysis {
+    private static final String CONTINUATION_INTERNAL_NAME = Type.getInternalName(SuspendableContext.class);
+    private static final String CONTINUATION_DESCRIPTOR = Type.getDescriptor(SuspendableContext.class);
+    // Matches the same way as SearchUtils.findInvocationsOf() -- owner and descriptor
+    private static final String SUSPEND_DESCRIPTOR = Type.getMethodDescriptor(Type.VOID_TYPE);
+
+    private final Map<String, ClassSummary> classes;
+    private final Set<String> nonSuspendingMethods;
+
+    private SuspendAnalysis(Map<String, ClassSummary> classes, Set<String> nonSuspendingMethods) {
+        this.classes = classes;
+        this.nonSuspendingMethods = nonSuspendingMethods;
+    }
+
+    /**
+     * Runs the analysis on a set of classes.
+     * @param classFiles contents of the class files to analyze
+     * @return analysis results
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if any of the class files can't be parsed
+     */
+    public static SuspendAnalysis create(Iterable<byte[]> classFiles) {
+        Validate.notNull(classFiles);
+
+        // Summarize classes. Only the header of classes that don't reference SuspendableContext is needed (to resolve invocations through
+        // their hierarchy), so their methods aren't scanned.
+        Map<String, ClassSummary> classes = new HashMap<>();
+        for (byte[] classFile : classFiles) {
+            Validate.notNull(classFile);
+            ClassReader cr;
+            try {
+                cr = new ClassReader(classFile);
+            } catch (RuntimeException re) {
+                throw new IllegalArgumentException("Unable to parse class file", re);
+            }
+            ClassSummary classSummary = new ClassSummary(cr.getClassName(), cr.getSuperName(), cr.getAccess());
+            if (Instrumenter.mayNeedInstrumentation(classFile)) {
+                cr.accept(new SummaryClassVisitor(classSummary), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            }
+            classes.putIfAbsent(classSummary.name, classSummary); // same as a classpath -- if duplicates, first one wins
+        }
+
+        // Link up invocations. Any method that has an invocation that can't be resolved is possibly suspending.
+        Set<String> possiblySuspending = new HashSet<>();
+        Map<String, List<String>> callers = new HashMap<>();
+        for (ClassSummary classSummary : classes.values()) {
+            for (MethodSummary methodSummary : classSummary.methods.values()) {
+                String key = classSummary.name + '.' + methodSummary.nameAndDesc;
+                if (methodSummary.suspends) {
+                    possiblySuspending.add(key);
+                }
+                for (Invocation invocation : methodSummary.invocations) {
+                    String calleeKey = resolve(classes, invocation.opcode, invocation.owner, invocation.nameAndDesc);
+                    if (calleeKey == null) {
+                        possiblySuspending.add(key);
+                    } else {
+                        callers.computeIfAbsent(calleeKey, x -> new ArrayList<>()).add(key);
+                    }
+                }
+            }
+        }
+
+        // Anything that invokes a possibly suspending method is also possibly suspending
+        Deque<String> queue = new ArrayDeque<>(possiblySuspending);
+        while (!queue.isEmpty()) {
+            String key = queue.removeFirst();
+            for (String callerKey : callers.getOrDefault(key, Collections.emptyList())) {
+                if (possiblySuspending.add(callerKey)) {
+                    queue.addLast(callerKey);
+                }
+            }
+        }
+
+        Set<String> nonSuspendingMethods = new HashSet<>();
+        for (ClassSummary classSummary : classes.values()) {
+            for (MethodSummary methodSummary : classSummary.methods.values()) {
+                String key = classSummary.name + '.' + methodSummary.nameAndDesc;
+                if (!possiblySuspending.contains(key)) {
+                    nonSuspendingMethods.add(key);
+                }
+            }
+        }
+
+        return new SuspendAnalysis(classes, nonSuspendingMethods);
+    }
+
+    /**
+     * Checks to see if a method was proven to never suspend.
+     * @param owner internal name of the class that the method is declared in
+     * @param name method name
+     * @param desc method descriptor
+     * @return {@code true} if the method was analyzed and never suspends, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public boolean isNonSuspendingMethod(String owner, String name, String desc) {
+        Validate.notNull(owner);
+        Validate.notNull(name);
+        Validate.notNull(desc);
+        return nonSuspendingMethods.contains(owner + '.' + name + desc);
+    }
+
+    // Returns true if the invocation always goes to a method that was proven to never suspend
+    boolean isNonSuspendingInvocation(MethodInsnNode methodInsnNode) {
+        Validate.notNull(methodInsnNode);
+        String key = resolve(classes, methodInsnNode.getOpcode(), methodInsnNode.owner, methodInsnNode.name + methodInsnNode.desc);
+        return key != null && nonSuspendingMethods.contains(key);
+    }
+
+    // Identifies the results of this analysis -- different results may cause different instrumentation output
+    String fingerprint() {
+        StringBuilder sb = new StringBuilder();
+        for (String key : new TreeSet<>(nonSuspendingMethods)) {
+            sb.append(key).append('\n');
+        }
+        return sha256Hex(sb.toString());
+    }
+
+    // Resolves an invocation to the method it'll always end up calling, or null if it can't be determined (e.g. method can be overridden
+    // or part of the hierarchy wasn't analyzed)
+    private static String resolve(Map<String, ClassSummary> classes, int opcode, String owner, String nameAndDesc) {
+        if (opcode == Opcodes.INVOKEINTERFACE) {
+            return null;
+        }
+
+        ClassSummary ownerSummary = classes.get(owner);
+        ClassSummary current = ownerSummary;
+        MethodSummary methodSummary = null;
+        while (current != null) {
+            methodSummary = current.methods.get(nameAndDesc);
+            if (methodSummary != null) {
+                break;
+            }
+            if (opcode == Opcodes.INVOKESPECIAL && nameAndDesc.startsWith("<init>(")) {
+                return null; // constructors aren't inherited
+            }
+            current = current.superName == null ? null : classes.get(current.superName);
+        }
+
+        if (methodSummary == null) {
+            return null; // not found in analyzed classes (may be declared in some part of the hierarchy that wasn't analyzed)
+        }
+
+        boolean isStatic = (methodSummary.access & Opcodes.ACC_STATIC) != 0;
+        if ((opcode == Opcodes.INVOKESTATIC) != isStatic) {
+            return null; // would fail with IncompatibleClassChangeError
+        }
+
+        if (opcode == Opcodes.INVOKEVIRTUAL) {
+            boolean overridable = (methodSummary.access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL)) == 0
+                    && (ownerSummary.access & Opcodes.ACC_FINAL) == 0;
+            if (overridable) {
+                return null;
+            }
+        }
+
+        return current.name + '.' + nameAndDesc;
+    }
+
+    private static boolean passesContinuation(String desc) {
+        if (!desc.contains(CONTINUATION_DESCRIPTOR)) { // quick check to avoid parsing the descriptor
+            return false;
+        }
+        return Arrays.asList(Type.getArgumentTypes(desc)).contains(Type.getType(CONTINUATION_DESCRIPTOR));
+    }
+
+    private static final class ClassSummary {
+        private final String name;
+        private final String superName;
+        private final int access;
+        private final Map<String, MethodSummary> methods = new HashMap<>(); // only methods that take in a SuspendableContext
+
+        ClassSummary(String name, String superName, int access) {
+            this.name = name;
+            this.superName = superName;
+            this.access = access;
+        }
+    }
+
+    private static final class MethodSummary {
+        private final String nameAndDesc;
+        private final int access;
+        private final List<Invocation> invocations = new ArrayList<>(); // only invocations that pass in a SuspendableContext
+        private boolean suspends;
+
+        MethodSummary(String nameAndDesc, int access) {
+            this.nameAndDesc = nameAndDesc;
+            this.access = access;
+        }
+    }
+
+    private static final class Invocation {
+        private final int opcode;
+        private final String owner;
+        private final String nameAndDesc;
+
+        Invocation(int opcode, String owner, String nameAndDesc) {
+            this.opcode = opcode;
+            this.owner = owner;
+            this.nameAndDesc = nameAndDesc;
+        }
+    }
+
+    private static final class SummaryClassVisitor extends ClassVisitor {
+        private final ClassSummary classSummary;
+
+        SummaryClassVisitor(ClassSummary classSummary) {
+            super(Opcodes.ASM5);
+            this.classSummary = classSummary;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            if (!passesContinuation(desc)) {
+                return null;
+            }
+
+            MethodSummary methodSummary = new MethodSummary(name + desc, access);
+            methodSummary.suspends = (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0;
+            classSummary.methods.put(methodSummary.nameAndDesc, methodSummary);
+
+            return new MethodVisitor(Opcodes.ASM5) {
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                    if (CONTINUATION_INTERNAL_NAME.equals(owner) && SUSPEND_DESCRIPTOR.equals(desc)) {
+                        methodSummary.suspends = true;
+                    } else if (passesContinuation(desc)) {
+                        methodSummary.invocations.add(new Invocation(opcode, owner, name + desc));
+                    }
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+                    if (passesContinuation(desc)) {
+                        methodSummary.suspends = true;
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter.asm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Memoizes hierarchy walks performed against a {@link ClassInformationRepository}. Frame computation and method analysis ask the same
+ * questions about the same handful of types over and over (e.g. what's the common superclass of two types, is one type assignable to
+ * another), and each of those questions requires walking up the hierarchy of the types involved. This class keeps the results of those
+ * walks around so that they only happen once per type (or pair of types).
+ * <p>
+ * One instance is shared by everything that uses the same repository (see {@link #of(ClassInformationRepository) }). Instances don't hold
+ * on to the repository they belong to, so they're discarded once their repository is no longer in use. Results are only cached if the
+ * walk succeeds -- if the repository is missing a class, the same failure happens again on the next request.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+final class ClassHierarchyCache {
+    private static final Map<ClassInformationRepository, ClassHierarchyCache> CACHES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ConcurrentMap<String, List<String>> superClassChains = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> superClassSets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> flattenedHierarchies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> commonSuperClasses = new ConcurrentHashMap<>();
+
+    private ClassHierarchyCache() {
+        // do nothing
+    }
+
+    /**
+     * Gets the cache for a repository, creating it if it doesn't exist.
+     * @param repo repository
+     * @return cache for {@code repo}
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    static ClassHierarchyCache of(ClassInformationRepository repo) {
+        Validate.notNull(repo);
+        return CACHES.computeIfAbsent(repo, x -> new ClassHierarchyCache());
+    }
+
+    /**
+     * Gets the superclass chain of a type, starting with the type itself and ending with {@link Object}.
+     * @param repo repository this cache belongs to
+     * @param type internal name of type
+     * @return superclass chain of {@code type} (unmodifiable)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code repo} is missing information for {@code type} or one of its superclasses
+     */
+    List<String> getSuperClassChain(ClassInformationRepository repo, String type) {
+        Validate.notNull(repo);
+        Validate.notNull(type);
+
+        List<String> ret = superClassChains.get(type);
+        if (ret != null) {
+            return ret;
+        }
+
+        ret = new ArrayList<>();
+        String currentType = type;
+        while (true) {
+            ret.add(currentType);
+
+            ClassInformation classHierarchy = repo.getInformation(currentType); // must return a result
+            Validate.isTrue(classHierarchy != null, "No parent found for %s", currentType);
+            if (classHierarchy.getSuperClassName() == null) {
+                break;
+            }
+
+            currentType = classHierarchy.getSuperClassName();
+        }
+
+        ret = Collections.unmodifiableList(ret);
+        List<String> existing = superClassChains.putIfAbsent(type, ret); // another thread may have beaten us to it
+        return existing == null ? ret : existing;
+    }
+
+    /**
+     * Gets the flattened hierarchy of a type: the type itself, its superclasses, and the interfaces directly implemented by it and each of
+     * its superclasses (superinterfaces of those interfaces are not included).
+     * @param repo repository this cache belongs to
+     * @param type internal name of type
+     * @return flattened hierarchy of {@code type} (unmodifiable)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code repo} is missing information for {@code type} or one of its superclasses
+     */
+    Set<String> getFlattenedHierarchy(ClassInformationRepository repo, String type) {
+        Validate.notNull(repo);
+        Validate.notNull(type);
+
+        Set<String> ret = flattenedHierarchies.get(type);
+        if (ret != null) {
+            return ret;
+        }
+
+        ret = new HashSet<>();
+        for (String superClass : getSuperClassChain(repo, type)) {
+            ret.add(superClass);
+            ret.addAll(repo.getInformation(superClass).getInterfaces());
+        }
+
+        ret = Collections.unmodifiableSet(ret);
+        Set<String> existing = flattenedHierarchies.putIfAbsent(type, ret);
+        return existing == null ? ret : existing;
+    }
+
+    /**
+     * Gets the closest superclass shared by two types.
+     * @param repo repository this cache belongs to
+     * @param type1 internal name of a type
+     * @param type2 internal name of another type
+     * @return internal name of closest common superclass of {@code type1} and {@code type2}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code repo} is missing information for either type or one of their superclasses
+     */
+    String getCommonSuperClass(ClassInformationRepository repo, String type1, String type2) {
+        Validate.notNull(repo);
+        Validate.notNull(type1);
+        Validate.notNull(type2);
+
+        ConcurrentMap<String, String> type1CommonSuperClasses = commonSuperClasses.computeIfAbsent(type1,
+                x -> new ConcurrentHashMap<>());
+        String ret = type1CommonSuperClasses.get(type2);
+        if (ret != null) {
+            return ret;
+        }
+
+        ret = "java/lang/Object"; // is this correct behaviour? shouldn't both type1 and type2 ultimately contain Object?
+        Set<String> type2SuperClasses = getSuperClassSet(repo, type2);
+        for (String type1SuperClass : getSuperClassChain(repo, type1)) {
+            if (type2SuperClasses.contains(type1SuperClass)) {
+                ret = type1SuperClass;
+                break;
+            }
+        }
+
+        type1CommonSuperClasses.putIfAbsent(type2, ret);
+        return ret;
+    }
+
+    private Set<String> getSuperClassSet(ClassInformationRepository repo, String type) {
+        Set<String> ret = superClassSets.get(type);
+        if (ret != null) {
+            return ret;
+        }
+
+        ret = Collections.unmodifiableSet(new HashSet<>(getSuperClassChain(repo, type)));
+        Set<String> existing = superClassSets.putIfAbsent(type, ret);
+        return existing == null ? ret : existing;
+    }
+}
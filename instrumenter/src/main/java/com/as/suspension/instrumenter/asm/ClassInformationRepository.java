@@ -19,6 +19,9 @@ package com.as.suspension.instrumenter.asm;
 /**
  * Class information repository. Used by overridden ASM classes (e.g. {@link SimpleClassWriter}) to access information about classes
  * (e.g. used to derive the common super class between two classes).
+ * <p>
+ * Implementations handed to an {@link com.as.suspension.instrumenter.Instrumenter} that instruments classes concurrently (e.g.
+ * {@link com.as.suspension.instrumenter.PluginHelper} running with more than 1 worker) must be safe to query from multiple threads.
  * @author Kasra Faghihi
  */
 public interface ClassInformationRepository {
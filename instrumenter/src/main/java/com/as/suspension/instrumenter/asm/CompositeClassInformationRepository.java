@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter.asm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Provides information on classes by querying other {@link ClassInformationRepository}s in order, returning the first match. For example,
+ * a {@link FileSystemClassInformationRepository} for an application's classpath followed by a {@link JrtClassInformationRepository} for
+ * the JDK's classes.
+ * <p>
+ * Closing this repository closes each of the repositories it queries that is {@link Closeable}.
+ * <p>
+ * This class is thread-safe so long as the repositories it queries are thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class CompositeClassInformationRepository implements ClassInformationRepository, Closeable {
+    private final List<ClassInformationRepository> repos;
+
+    /**
+     * Constructs a {@link CompositeClassInformationRepository} object. This repository takes ownership of {@code repos}: those that are
+     * {@link Closeable} get closed when this repository is closed.
+     * @param repos repositories to query (in order of priority)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     */
+    public CompositeClassInformationRepository(List<ClassInformationRepository> repos) {
+        Validate.notNull(repos);
+        Validate.noNullElements(repos);
+        this.repos = Collections.unmodifiableList(new ArrayList<>(repos));
+    }
+
+    @Override
+    public ClassInformation getInformation(String internalClassName) {
+        Validate.notNull(internalClassName);
+
+        for (ClassInformationRepository repo : repos) {
+            ClassInformation ci = repo.getInformation(internalClassName);
+            if (ci != null) {
+                return ci;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes each of the repositories this repository queries that is {@link Closeable}.
+     * @throws IOException if an IO error occurs while closing a repository (all repositories are closed regardless)
+     */
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (ClassInformationRepository repo : repos) {
+            if (!(repo instanceof Closeable)) {
+                continue;
+            }
+
+            try {
+                ((Closeable) repo).close();
+            } catch (IOException ioe) {
+                if (exception == null) {
+                    exception = ioe;
+                } else {
+                    exception.addSuppressed(ioe);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
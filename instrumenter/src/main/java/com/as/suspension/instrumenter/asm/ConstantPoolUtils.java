@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter.asm;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Utility class to provide common functionality for scanning the constant pool of a raw class file. Unlike {@link SearchUtils}, nothing
+ * here requires the class to be parsed in to a tree first.
+ * @author Kasra Faghihi
+ */
+public final class ConstantPoolUtils {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int CONSTANT_POOL_COUNT_OFFSET = 8;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private ConstantPoolUtils() {
+        // do nothing
+    }
+
+    /**
+     * Checks to see if any UTF8 entry in a class file's constant pool contains some text. For example, checking for
+     * {@code Lcom/as/suspension/user/SuspendableContext;} will find any class that has a field or a method that references
+     * {@link com.as.suspension.user.SuspendableContext} in its descriptor.
+     * <p>
+     * This method is conservative: if {@code classFile} is malformed or uses a constant pool entry type this method doesn't know about, it
+     * returns {@code true} (callers are expected to do a full parse of the class in that case, which will report the actual problem).
+     * @param classFile class file contents
+     * @param text text to search for (must be ASCII)
+     * @return {@code false} if no UTF8 constant pool entry in {@code classFile} contains {@code text}, {@code true} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code text} is empty or contains non-ASCII characters
+     */
+    public static boolean mayContainUtf8(byte[] classFile, String text) {
+        Validate.notNull(classFile);
+        Validate.notNull(text);
+        Validate.isTrue(!text.isEmpty());
+        Validate.isTrue(StandardCharsets.US_ASCII.newEncoder().canEncode(text)); // modified UTF-8 of ASCII is the ASCII bytes themselves
+
+        byte[] needle = text.getBytes(StandardCharsets.US_ASCII);
+
+        if (classFile.length < CONSTANT_POOL_COUNT_OFFSET + 2 || readInt(classFile, 0) != MAGIC) {
+            return true;
+        }
+
+        int count = readUnsignedShort(classFile, CONSTANT_POOL_COUNT_OFFSET);
+        int offset = CONSTANT_POOL_COUNT_OFFSET + 2;
+        for (int i = 1; i < count; i++) {
+            if (offset >= classFile.length) {
+                return true;
+            }
+
+            if (classFile[offset] == CONSTANT_UTF8 && offset + 3 <= classFile.length) {
+                int start = offset + 3;
+                int end = start + readUnsignedShort(classFile, offset + 1);
+                if (end <= classFile.length && contains(classFile, start, end, needle)) {
+                    return true;
+                }
+            }
+
+            int size = entrySize(classFile, offset);
+            if (size == -1) {
+                return true; // truncated or unknown tag, can't tell where next entry starts
+            }
+            if (classFile[offset] == CONSTANT_LONG || classFile[offset] == CONSTANT_DOUBLE) {
+                i++; // 8-byte constants take up 2 slots in the constant pool
+            }
+
+            offset += size;
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the name, superclass, interfaces, and interface flag out of a class file. Unlike {@link org.objectweb.asm.ClassReader}, this
+     * method doesn't reject class files with versions newer than what ASM supports (e.g. JDK classes on newer JDKs), since the parts of the
+     * class file it reads haven't changed between versions.
+     * @param classFile class file contents
+     * @return class information
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code classFile} is malformed
+     */
+    public static ClassInformation readClassInformation(byte[] classFile) {
+        Validate.notNull(classFile);
+        Validate.isTrue(classFile.length >= CONSTANT_POOL_COUNT_OFFSET + 2 && readInt(classFile, 0) == MAGIC, "Not a class file");
+
+        int count = readUnsignedShort(classFile, CONSTANT_POOL_COUNT_OFFSET);
+        int[] entryOffsets = new int[count];
+        int offset = CONSTANT_POOL_COUNT_OFFSET + 2;
+        for (int i = 1; i < count; i++) {
+            Validate.isTrue(offset < classFile.length, "Truncated constant pool");
+            entryOffsets[i] = offset;
+            int size = entrySize(classFile, offset);
+            Validate.isTrue(size != -1, "Bad constant pool entry at %d", offset);
+            if (classFile[offset] == CONSTANT_LONG || classFile[offset] == CONSTANT_DOUBLE) {
+                i++; // 8-byte constants take up 2 slots in the constant pool
+            }
+            offset += size;
+        }
+
+        Validate.isTrue(offset + 8 <= classFile.length, "Truncated class header");
+        int access = readUnsignedShort(classFile, offset);
+        String name = readClassName(classFile, entryOffsets, readUnsignedShort(classFile, offset + 2));
+        int superIdx = readUnsignedShort(classFile, offset + 4);
+        String superName = superIdx == 0 ? null : readClassName(classFile, entryOffsets, superIdx);
+        int interfaceCount = readUnsignedShort(classFile, offset + 6);
+        Validate.isTrue(offset + 8 + interfaceCount * 2 <= classFile.length, "Truncated interfaces");
+        List<String> interfaces = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(readClassName(classFile, entryOffsets, readUnsignedShort(classFile, offset + 8 + i * 2)));
+        }
+
+        return new ClassInformation(name, superName, interfaces, (access & Opcodes.ACC_INTERFACE) != 0);
+    }
+
+    private static String readClassName(byte[] classFile, int[] entryOffsets, int classIdx) {
+        Validate.isTrue(classIdx > 0 && classIdx < entryOffsets.length && classFile[entryOffsets[classIdx]] == CONSTANT_CLASS,
+                "Bad class reference %d", classIdx);
+        int utf8Idx = readUnsignedShort(classFile, entryOffsets[classIdx] + 1);
+        Validate.isTrue(utf8Idx > 0 && utf8Idx < entryOffsets.length && classFile[entryOffsets[utf8Idx]] == CONSTANT_UTF8,
+                "Bad UTF8 reference %d", utf8Idx);
+        int utf8Offset = entryOffsets[utf8Idx];
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(classFile, utf8Offset + 1, classFile.length - utf8Offset - 1))) {
+            return dis.readUTF(); // reads u2 length followed by modified UTF-8, same as the class file format
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Bad UTF8 entry " + utf8Idx, ioe);
+        }
+    }
+
+    // returns size of constant pool entry at offset, or -1 if the entry is truncated or has an unknown tag
+    private static int entrySize(byte[] classFile, int offset) {
+        int size;
+        switch (classFile[offset]) {
+            case CONSTANT_UTF8:
+                if (offset + 3 > classFile.length) {
+                    return -1;
+                }
+                size = 3 + readUnsignedShort(classFile, offset + 1);
+                break;
+            case CONSTANT_CLASS:
+            case CONSTANT_STRING:
+            case CONSTANT_METHOD_TYPE:
+            case CONSTANT_MODULE:
+            case CONSTANT_PACKAGE:
+                size = 3;
+                break;
+            case CONSTANT_METHOD_HANDLE:
+                size = 4;
+                break;
+            case CONSTANT_INTEGER:
+            case CONSTANT_FLOAT:
+            case CONSTANT_FIELDREF:
+            case CONSTANT_METHODREF:
+            case CONSTANT_INTERFACE_METHODREF:
+            case CONSTANT_NAME_AND_TYPE:
+            case CONSTANT_DYNAMIC:
+            case CONSTANT_INVOKE_DYNAMIC:
+                size = 5;
+                break;
+            case CONSTANT_LONG:
+            case CONSTANT_DOUBLE:
+                size = 9;
+                break;
+            default:
+                return -1;
+        }
+        return offset + size <= classFile.length ? size : -1;
+    }
+
+    private static boolean contains(byte[] data, int start, int end, byte[] needle) {
+        int last = end - needle.length;
+        outer:
+        for (int i = start; i <= last; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (data[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8)
+                | (data[offset + 3] & 0xFF);
+    }
+}
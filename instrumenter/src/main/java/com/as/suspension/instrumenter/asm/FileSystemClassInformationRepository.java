@@ -17,24 +17,58 @@
 package com.as.suspension.instrumenter.asm;
 
 import static com.as.suspension.instrumenter.asm.InternalUtils.getClassInformation;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
-import java.util.Map;
-import org.apache.commons.compress.archivers.jar.JarArchiveEntry;
-import org.apache.commons.compress.archivers.jar.JarArchiveInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
 
 /**
  * Provides information on classes contained within JARs and folders.
+ * <p>
+ * Adding a classpath only indexes the names of the class files it contains (for JARs, only the JAR's central directory is read). A class
+ * file is only parsed the first time information for that class is requested, after which the result is kept for subsequent requests.
+ * JARs added to this repository are kept open until this repository is closed, after which classes that haven't been parsed yet can no
+ * longer be read. Since class files are read on demand, an IO error while reading one is thrown from
+ * {@link #getInformation(java.lang.String) } as an {@link UncheckedIOException} (errors opening a JAR or listing a folder are still thrown
+ * when the classpath is added).
+ * <p>
+ * Optionally, a cache directory can be supplied. If supplied, the class hierarchy information of each JAR is written to an index file in
+ * that directory the first time that JAR is added, and subsequent additions of that JAR (including those in other processes) read the
+ * index file rather than the JAR itself. An index file is ignored (and rewritten) if the JAR's size or last modified time have changed.
+ * Folders are never cached.
+ * <p>
+ * This class is thread-safe. A single instance may be queried (and added to) concurrently, such as when classes are being instrumented in
+ * parallel.
  * @author Kasra Faghihi
  */
-public final class FileSystemClassInformationRepository implements ClassInformationRepository {
-    private final Map<String, ClassInformation> hierarchyMap = new HashMap<>();
+public final class FileSystemClassInformationRepository implements ClassInformationRepository, Closeable {
+    private final ConcurrentMap<String, ClassSource> index = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ClassInformation> hierarchyMap = new ConcurrentHashMap<>();
+    private final List<ZipFile> openJars = new ArrayList<>(); // guarded by openJars
+    private final JarIndexCache jarIndexCache;
+
+    /**
+     * Constructs an empty {@link FileSystemClassInformationRepository} object.
+     */
+    public FileSystemClassInformationRepository() {
+        jarIndexCache = null;
+    }
+
+    private FileSystemClassInformationRepository(File cacheDirectory) {
+        jarIndexCache = new JarIndexCache(cacheDirectory);
+    }
 
     /**
      * Constructs a {@link FileSystemClassInformationRepository} object and loads it up with the classes in a classpath.
@@ -46,15 +80,69 @@ public final class FileSystemClassInformationRepository implements ClassInformat
     public static FileSystemClassInformationRepository create(List<File> initialClasspath) throws IOException {
         Validate.notNull(initialClasspath);
         Validate.noNullElements(initialClasspath);
-        FileSystemClassInformationRepository repo = new FileSystemClassInformationRepository();
-        repo.addClasspath(initialClasspath);
+        return populate(new FileSystemClassInformationRepository(), initialClasspath);
+    }
+
+    /**
+     * Constructs a {@link FileSystemClassInformationRepository} object and loads it up with the classes in a classpath, caching the class
+     * hierarchy information of JARs in a directory.
+     * @param initialClasspath classpath to scan for class information (can be JAR files and/or folders)
+     * @param cacheDirectory directory to store JAR index files in (created if it doesn't exist)
+     * @return newly created {@link FileSystemClassInformationRepository} object
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null} elements
+     * @throws IOException if an IO error occurs
+     */
+    public static FileSystemClassInformationRepository create(List<File> initialClasspath, File cacheDirectory) throws IOException {
+        Validate.notNull(initialClasspath);
+        Validate.notNull(cacheDirectory);
+        Validate.noNullElements(initialClasspath);
+        return populate(new FileSystemClassInformationRepository(cacheDirectory), initialClasspath);
+    }
+
+    private static FileSystemClassInformationRepository populate(FileSystemClassInformationRepository repo, List<File> initialClasspath)
+            throws IOException {
+        try {
+            repo.addClasspath(initialClasspath);
+        } catch (IOException | RuntimeException e) {
+            try {
+                repo.close(); // don't leak the JARs that were opened before the failure
+            } catch (IOException ioe) {
+                e.addSuppressed(ioe);
+            }
+            throw e;
+        }
         return repo;
     }
     
     @Override
     public ClassInformation getInformation(String internalClassName) {
         Validate.notNull(internalClassName);
-        return hierarchyMap.get(internalClassName);
+
+        ClassInformation ci = hierarchyMap.get(internalClassName);
+        if (ci != null) {
+            return ci;
+        }
+
+        ClassSource source = index.get(internalClassName);
+        if (source == null) {
+            return null;
+        }
+
+        try {
+            ci = source.load();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to read class " + internalClassName, ioe);
+        }
+
+        if (!ci.getName().equals(internalClassName)) {
+            // class file isn't at the path its name says it should be at (e.g. a JAR's META-INF/versions entries), so it isn't actually
+            // accessible under this name
+            index.remove(internalClassName, source);
+            return null;
+        }
+
+        ClassInformation existing = hierarchyMap.putIfAbsent(internalClassName, ci); // another thread may have beaten us to it
+        return existing == null ? ci : existing;
     }
 
     /**
@@ -67,9 +155,9 @@ public final class FileSystemClassInformationRepository implements ClassInformat
     public void addIndividual(String className, ClassInformation classInformation) {
         Validate.notNull(className);
         Validate.notNull(classInformation);
-        Validate.isTrue(!hierarchyMap.containsKey(className));
         
-        hierarchyMap.put(className, classInformation);
+        ClassSource existing = index.putIfAbsent(className, () -> classInformation);
+        Validate.isTrue(existing == null);
     }
 
     /**
@@ -96,41 +184,92 @@ public final class FileSystemClassInformationRepository implements ClassInformat
     private void addDirectory(File directory) throws IOException {
         Validate.notNull(directory);
         Validate.isTrue(directory.isDirectory());
+        Path directoryPath = directory.toPath();
         for (File file : FileUtils.listFiles(directory, new String[] {"class"}, true)) {
             if (!file.getName().endsWith(".class")) {
                 continue;
             }
-            
-            try (InputStream is = new FileInputStream(file)) {
-                populateSuperClassMapping(is);
-            }
+
+            String path = directoryPath.relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+            index.putIfAbsent(toClassName(path), () -> {
+                try (InputStream is = new FileInputStream(file)) {
+                    return getClassInformation(is);
+                }
+            });
         }
     }
 
     private void addJar(File file) throws IOException {
         Validate.notNull(file);
         Validate.isTrue(file.isFile());
-        try (FileInputStream fis = new FileInputStream(file);
-                JarArchiveInputStream jais = new JarArchiveInputStream(fis)) {
-            JarArchiveEntry entry;
-            while ((entry = jais.getNextJarEntry()) != null) {
+        if (jarIndexCache != null) {
+            jarIndexCache.index(file, (name, supplier) -> index.putIfAbsent(name, supplier::get));
+            return;
+        }
+
+        ZipFile zipFile = new ZipFile(file); // kept open (until this repository is closed) so that class files can be read out on demand
+        boolean indexed = false;
+        try {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
                 if (!entry.getName().endsWith(".class") || entry.isDirectory()) {
                     continue;
                 }
 
-                populateSuperClassMapping(jais);
+                ClassSource existing = index.putIfAbsent(toClassName(entry.getName()), () -> {
+                    try (InputStream is = zipFile.getInputStream(entry)) {
+                        return getClassInformation(is);
+                    }
+                });
+                indexed |= existing == null;
+            }
+        } finally {
+            if (indexed) {
+                synchronized (openJars) {
+                    openJars.add(zipFile);
+                }
+            } else {
+                zipFile.close(); // nothing references this JAR, so there's no reason to keep it open
             }
         }
     }
-    
-    private void populateSuperClassMapping(final InputStream is) throws IOException {
-        ClassInformation ci = getClassInformation(is);
-        
-        if (hierarchyMap.containsKey(ci.getName())) {
-            // duplicate encounter, ignore
-            return;
+
+    /**
+     * Closes the JARs held open by this repository. Information for classes that were already requested remains available, but classes in
+     * those JARs that haven't been requested yet can no longer be read. Calling this method more than once has no effect.
+     * @throws IOException if an IO error occurs while closing a JAR (all JARs are closed regardless)
+     */
+    @Override
+    public void close() throws IOException {
+        List<ZipFile> jars;
+        synchronized (openJars) {
+            jars = new ArrayList<>(openJars);
+            openJars.clear();
         }
 
-        hierarchyMap.put(ci.getName(), ci);
+        IOException exception = null;
+        for (ZipFile jar : jars) {
+            try {
+                jar.close();
+            } catch (IOException ioe) {
+                if (exception == null) {
+                    exception = ioe;
+                } else {
+                    exception.addSuppressed(ioe);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private static String toClassName(String path) {
+        return path.substring(0, path.length() - ".class".length());
+    }
+
+    private interface ClassSource {
+        ClassInformation load() throws IOException;
     }
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter.asm;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+/**
+ * Utility class to provide common functionality for stack map frames.
+ * @author Kasra Faghihi
+ */
+public final class FrameUtils {
+    private static final int MAX_STACK_SIZE = 65535;
+
+    private FrameUtils() {
+        // do nothing
+    }
+
+    /**
+     * Regenerates the stack map frames of a single method in place. Any existing {@link FrameNode}s in the method are removed and replaced
+     * with expanded ({@link Opcodes#F_NEW}) frames derived from running {@link SimpleVerifier} over the method, so frames for the rest of
+     * the class can be left as-is rather than having {@link org.objectweb.asm.ClassWriter#COMPUTE_FRAMES} recompute all of them.
+     * <p>
+     * {@link SimpleVerifier} doesn't distinguish between initialized and uninitialized objects, and ASM won't drop unreachable code for us
+     * unless it's computing frames itself. As such, this method gives up (returning {@code false}) if...
+     * <ul>
+     * <li>the method is a constructor.</li>
+     * <li>a frame is needed at a point where an object has been created but its constructor hasn't been invoked yet.</li>
+     * <li>the method has unreachable code.</li>
+     * <li>the method fails analysis.</li>
+     * </ul>
+     * The method's existing frames may have already been removed at that point, so the caller is expected to fall back to
+     * {@link org.objectweb.asm.ClassWriter#COMPUTE_FRAMES} (which ignores existing frames).
+     * @param repo repository to use for deriving class details
+     * @param owner internal name of the class that {@code methodNode} belongs to
+     * @param methodNode method to regenerate frames for
+     * @return {@code true} if frames were regenerated, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static boolean recomputeFrames(ClassInformationRepository repo, String owner, MethodNode methodNode) {
+        Validate.notNull(repo);
+        Validate.notNull(owner);
+        Validate.notNull(methodNode);
+
+        InsnList insnList = methodNode.instructions;
+        if (insnList.size() == 0) {
+            return true; // abstract or native, nothing to do
+        }
+        if ("<init>".equals(methodNode.name)) {
+            return false; // uninitializedThis isn't tracked
+        }
+
+        // Analyze method -- frames are stripped out before analysis so that the indices returned by the analyzer line up with the final
+        // instruction list (minus the frames we're about to add)
+        List<FrameNode> existingFrames = new ArrayList<>();
+        for (AbstractInsnNode insnNode = insnList.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+            if (insnNode instanceof FrameNode) {
+                existingFrames.add((FrameNode) insnNode);
+            }
+        }
+        existingFrames.forEach(insnList::remove);
+
+        // Instrumentation adds locals and stack items without updating maxLocals/maxStack (ClassWriter.COMPUTE_MAXS takes care of that
+        // when writing), but the analyzer needs them to be big enough -- locals are sized exactly, stack is grown until analysis succeeds
+        methodNode.maxLocals = Math.max(methodNode.maxLocals, calculateMaxLocals(methodNode));
+        Frame<BasicValue>[] frames;
+        while (true) {
+            try {
+                frames = new Analyzer<>(new SimpleVerifier(repo)).analyze(owner, methodNode);
+                break;
+            } catch (AnalyzerException ae) {
+                if (!(ae.getCause() instanceof IndexOutOfBoundsException) || methodNode.maxStack >= MAX_STACK_SIZE) {
+                    return false;
+                }
+                methodNode.maxStack = Math.min(MAX_STACK_SIZE, Math.max(methodNode.maxStack * 2, 8));
+            }
+        }
+
+        // Find labels that are branched to
+        Set<LabelNode> targets = new HashSet<>();
+        for (TryCatchBlockNode tryCatchBlockNode : methodNode.tryCatchBlocks) {
+            targets.add(tryCatchBlockNode.handler);
+        }
+        for (AbstractInsnNode insnNode = insnList.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+            if (insnNode instanceof JumpInsnNode) {
+                targets.add(((JumpInsnNode) insnNode).label);
+            } else if (insnNode instanceof TableSwitchInsnNode) {
+                targets.add(((TableSwitchInsnNode) insnNode).dflt);
+                targets.addAll(((TableSwitchInsnNode) insnNode).labels);
+            } else if (insnNode instanceof LookupSwitchInsnNode) {
+                targets.add(((LookupSwitchInsnNode) insnNode).dflt);
+                targets.addAll(((LookupSwitchInsnNode) insnNode).labels);
+            }
+        }
+
+        // Figure out where frames are needed (first real instruction after a branch target, or after an instruction that doesn't fall
+        // through) and generate them
+        List<AbstractInsnNode> frameLocations = new ArrayList<>();
+        List<FrameNode> newFrames = new ArrayList<>();
+        boolean frameNeeded = false;
+        int uninitializedCount = 0;
+        AbstractInsnNode[] insns = insnList.toArray();
+        for (int i = 0; i < insns.length; i++) {
+            AbstractInsnNode insnNode = insns[i];
+            if (insnNode.getOpcode() == -1) { // label, line number, etc..
+                if (insnNode instanceof LabelNode && targets.contains(insnNode)) {
+                    frameNeeded = true;
+                }
+                continue;
+            }
+
+            if (frames[i] == null) { // unreachable
+                return false;
+            }
+
+            if (frameNeeded) {
+                if (uninitializedCount != 0) {
+                    return false;
+                }
+                frameLocations.add(insnNode);
+                newFrames.add(toFrameNode(frames[i]));
+            }
+
+            int opcode = insnNode.getOpcode();
+            if (opcode == Opcodes.NEW) {
+                uninitializedCount++;
+            } else if (opcode == Opcodes.INVOKESPECIAL && "<init>".equals(((MethodInsnNode) insnNode).name)) {
+                uninitializedCount--;
+            }
+            frameNeeded = !fallsThrough(opcode);
+        }
+
+        for (int i = 0; i < frameLocations.size(); i++) {
+            insnList.insertBefore(frameLocations.get(i), newFrames.get(i));
+        }
+
+        return true;
+    }
+
+    private static int calculateMaxLocals(MethodNode methodNode) {
+        int maxLocals = Type.getArgumentsAndReturnSizes(methodNode.desc) >> 2; // includes 'this'
+        if ((methodNode.access & Opcodes.ACC_STATIC) != 0) {
+            maxLocals--;
+        }
+        for (AbstractInsnNode insnNode = methodNode.instructions.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+            if (insnNode instanceof VarInsnNode) {
+                int opcode = insnNode.getOpcode();
+                int size = opcode == Opcodes.LLOAD || opcode == Opcodes.DLOAD || opcode == Opcodes.LSTORE || opcode == Opcodes.DSTORE ? 2 : 1;
+                maxLocals = Math.max(maxLocals, ((VarInsnNode) insnNode).var + size);
+            } else if (insnNode instanceof IincInsnNode) {
+                maxLocals = Math.max(maxLocals, ((IincInsnNode) insnNode).var + 1);
+            }
+        }
+        return maxLocals;
+    }
+
+    private static boolean fallsThrough(int opcode) {
+        switch (opcode) {
+            case Opcodes.GOTO:
+            case Opcodes.JSR:
+            case Opcodes.RET:
+            case Opcodes.TABLESWITCH:
+            case Opcodes.LOOKUPSWITCH:
+            case Opcodes.IRETURN:
+            case Opcodes.LRETURN:
+            case Opcodes.FRETURN:
+            case Opcodes.DRETURN:
+            case Opcodes.ARETURN:
+            case Opcodes.RETURN:
+            case Opcodes.ATHROW:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static FrameNode toFrameNode(Frame<BasicValue> frame) {
+        List<Object> locals = new ArrayList<>();
+        int usedLocals = 0;
+        for (int i = 0; i < frame.getLocals(); i++) {
+            BasicValue value = frame.getLocal(i);
+            Object type = toFrameType(value);
+            locals.add(type);
+            if (type != Opcodes.TOP) {
+                usedLocals = locals.size(); // trailing TOPs get trimmed
+            }
+            if (value.getSize() == 2) {
+                i++; // longs/doubles take up 1 entry in an expanded frame, but take up 2 slots
+            }
+        }
+        locals = locals.subList(0, usedLocals);
+
+        List<Object> stack = new ArrayList<>();
+        for (int i = 0; i < frame.getStackSize(); i++) {
+            stack.add(toFrameType(frame.getStack(i)));
+        }
+
+        return new FrameNode(Opcodes.F_NEW, locals.size(), locals.toArray(), stack.size(), stack.toArray());
+    }
+
+    private static Object toFrameType(BasicValue value) {
+        Type type = value.getType();
+        if (type == null) {
+            return Opcodes.TOP;
+        }
+
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+            case Type.BYTE:
+            case Type.CHAR:
+            case Type.SHORT:
+            case Type.INT:
+                return Opcodes.INTEGER;
+            case Type.FLOAT:
+                return Opcodes.FLOAT;
+            case Type.LONG:
+                return Opcodes.LONG;
+            case Type.DOUBLE:
+                return Opcodes.DOUBLE;
+            case Type.ARRAY:
+                return type.getDescriptor();
+            case Type.OBJECT:
+                return "null".equals(type.getInternalName()) ? Opcodes.NULL : type.getInternalName();
+            default:
+                return Opcodes.TOP;
+        }
+    }
+}
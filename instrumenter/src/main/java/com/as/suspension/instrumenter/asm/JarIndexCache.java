@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter.asm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * On-disk cache of the class hierarchy information contained in JARs. Each JAR gets its own index file in the cache directory, holding
+ * the name, superclass, interfaces, and interface flag of every class in the JAR. Index files are keyed on the JAR's absolute path, and are
+ * only used if the JAR's size and last modified time match what was recorded when the index was written.
+ * <p>
+ * Index files are memory-mapped when read. Only class names are decoded up front -- the rest of a class's details are decoded from the
+ * mapped file the first time they're requested. Index files are written to a temporary file and moved in to place, so multiple processes
+ * can safely share the same cache directory.
+ * @author Kasra Faghihi
+ */
+final class JarIndexCache {
+    private static final int MAGIC = 0x43484331; // CHC1
+    private static final int NO_SUPERCLASS = 0xFFFF;
+
+    private final File cacheDirectory;
+
+    JarIndexCache(File cacheDirectory) {
+        Validate.notNull(cacheDirectory);
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Indexes the classes in a JAR, using the cached index if it's up-to-date and creating/replacing it otherwise.
+     * @param jar JAR to index
+     * @param indexer invoked with the name of each class in the JAR along with a supplier that provides its information
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an IO error occurs while reading the JAR (IO errors while reading/writing the cache are ignored)
+     */
+    void index(File jar, BiConsumer<String, Supplier<ClassInformation>> indexer) throws IOException {
+        Validate.notNull(jar);
+        Validate.notNull(indexer);
+
+        String path = jar.getAbsolutePath();
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        File indexFile = new File(cacheDirectory, sha256Hex(path) + ".idx");
+
+        ByteBuffer buffer = map(indexFile);
+        if (buffer != null && readIndex(buffer, path, size, lastModified, indexer)) {
+            return;
+        }
+
+        List<ClassInformation> classInfos = readJar(jar);
+        for (ClassInformation ci : classInfos) {
+            indexer.accept(ci.getName(), () -> ci);
+        }
+        writeIndex(indexFile, path, size, lastModified, classInfos);
+    }
+
+    private static ByteBuffer map(File indexFile) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size()); // mapping stays valid after channel is closed
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    private static boolean readIndex(ByteBuffer buffer, String path, long size, long lastModified,
+            BiConsumer<String, Supplier<ClassInformation>> indexer) {
+        // Validate header and class names before handing anything off to the indexer, so a truncated/corrupt index file results in the
+        // JAR being read instead of being partially indexed
+        List<String> names;
+        List<Integer> offsets;
+        try {
+            if (buffer.getInt() != MAGIC
+                    || !path.equals(readString(buffer))
+                    || buffer.getLong() != size
+                    || buffer.getLong() != lastModified) {
+                return false;
+            }
+
+            int count = buffer.getInt();
+            names = new ArrayList<>(count);
+            offsets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                offsets.add(buffer.position());
+                buffer.get(); // interface flag
+                names.add(readString(buffer));
+                skipString(buffer); // superclass
+                int interfaceCount = buffer.getShort() & 0xFFFF;
+                for (int j = 0; j < interfaceCount; j++) {
+                    skipString(buffer);
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            int offset = offsets.get(i);
+            indexer.accept(name, () -> readRecord(buffer, offset));
+        }
+        return true;
+    }
+
+    private static ClassInformation readRecord(ByteBuffer buffer, int offset) {
+        ByteBuffer recordBuffer = buffer.duplicate(); // position is per-buffer, so this is safe to do from multiple threads
+        recordBuffer.position(offset);
+        boolean interfaceMarker = recordBuffer.get() != 0;
+        String name = readString(recordBuffer);
+        String superName = readString(recordBuffer);
+        int interfaceCount = recordBuffer.getShort() & 0xFFFF;
+        List<String> interfaces = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(readString(recordBuffer));
+        }
+        return new ClassInformation(name, superName, interfaces, interfaceMarker);
+    }
+
+    private static List<ClassInformation> readJar(File jar) throws IOException {
+        List<ClassInformation> ret = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(".class") || entry.isDirectory()) {
+                    continue;
+                }
+
+                byte[] classFile;
+                try (InputStream is = zipFile.getInputStream(entry)) {
+                    classFile = IOUtils.toByteArray(is);
+                }
+
+                ClassInformation ci;
+                try {
+                    ci = ConstantPoolUtils.readClassInformation(classFile);
+                } catch (IllegalArgumentException iae) {
+                    continue; // not a valid class file, nothing can reference it
+                }
+
+                String expectedName = entry.getName().substring(0, entry.getName().length() - ".class".length());
+                if (ci.getName().equals(expectedName)) { // skip classes that aren't where their name says (e.g. META-INF/versions)
+                    ret.add(ci);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private void writeIndex(File indexFile, String path, long size, long lastModified, List<ClassInformation> classInfos) {
+        try {
+            Files.createDirectories(cacheDirectory.toPath());
+            File tempFile = File.createTempFile(indexFile.getName(), ".tmp", cacheDirectory);
+            try {
+                try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tempFile.toPath()));
+                        DataOutputStream dos = new DataOutputStream(os)) {
+                    dos.writeInt(MAGIC);
+                    writeString(dos, path);
+                    dos.writeLong(size);
+                    dos.writeLong(lastModified);
+                    dos.writeInt(classInfos.size());
+                    for (ClassInformation ci : classInfos) {
+                        dos.writeByte(ci.isInterface() ? 1 : 0);
+                        writeString(dos, ci.getName());
+                        writeString(dos, ci.getSuperClassName());
+                        dos.writeShort(ci.getInterfaces().size());
+                        for (String interfaceName : ci.getInterfaces()) {
+                            writeString(dos, interfaceName);
+                        }
+                    }
+                }
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        } catch (IOException ioe) {
+            // do nothing -- failing to write the cache shouldn't fail indexing, the JAR will be read again next time
+        }
+    }
+
+    private static void writeString(DataOutputStream dos, String str) throws IOException {
+        if (str == null) {
+            dos.writeShort(NO_SUPERCLASS);
+            return;
+        }
+        byte[] data = str.getBytes(StandardCharsets.UTF_8);
+        Validate.isTrue(data.length < NO_SUPERCLASS); // class names are limited to 65535 bytes by the class file format anyways
+        dos.writeShort(data.length);
+        dos.write(data);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int len = buffer.getShort() & 0xFFFF;
+        if (len == NO_SUPERCLASS) {
+            return null;
+        }
+        byte[] data = new byte[len];
+        buffer.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int len = buffer.getShort() & 0xFFFF;
+        if (len != NO_SUPERCLASS) {
+            buffer.position(buffer.position() + len);
+        }
+    }
+}
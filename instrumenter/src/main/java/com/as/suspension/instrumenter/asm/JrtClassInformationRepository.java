@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter.asm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Provides information on the classes of a modular JDK (JDK 9 or later), read from its module image through the {@code jrt:/} filesystem.
+ * Modular JDKs don't ship the JARs that {@link FileSystemClassInformationRepository} would otherwise be pointed to (e.g.
+ * {@code ${java.home}/lib/rt.jar}).
+ * <p>
+ * Creating this repository only indexes which modules each package is in (the image's {@code /packages} directory). A class file is only
+ * read the first time information for that class is requested, after which the result is kept for subsequent requests. The JDK being read
+ * doesn't have to be the JDK that's running: if the running JDK doesn't provide the {@code jrt:/} filesystem (JDK 8), the
+ * {@code lib/jrt-fs.jar} of the JDK being read is used to provide it.
+ * <p>
+ * The {@code jrt:/} filesystem (and the classloader over {@code lib/jrt-fs.jar}, if one was needed) stays open until this repository is
+ * closed, after which classes that haven't been read yet can no longer be read.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class JrtClassInformationRepository implements ClassInformationRepository, Closeable {
+    private static final URI JRT_URI = URI.create("jrt:/");
+
+    private final FileSystem fileSystem;
+    private final URLClassLoader providerClassLoader; // null if the running JDK provides jrt:/
+    private final Map<String, List<String>> modulesByPackage; // package internal name (e.g. java/lang) -> modules containing that package
+    private final ConcurrentMap<String, ClassInformation> hierarchyMap = new ConcurrentHashMap<>();
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    private JrtClassInformationRepository(FileSystem fileSystem, URLClassLoader providerClassLoader) throws IOException {
+        this.fileSystem = fileSystem;
+        this.providerClassLoader = providerClassLoader;
+
+        Map<String, List<String>> index = new HashMap<>();
+        try (DirectoryStream<Path> packageDirs = Files.newDirectoryStream(fileSystem.getPath("/packages"))) {
+            for (Path packageDir : packageDirs) {
+                String packageName = packageDir.getFileName().toString().replace('.', '/');
+                List<String> modules = new ArrayList<>(1);
+                try (DirectoryStream<Path> moduleLinks = Files.newDirectoryStream(packageDir)) {
+                    for (Path moduleLink : moduleLinks) {
+                        modules.add(moduleLink.getFileName().toString());
+                    }
+                }
+                index.put(packageName, Collections.unmodifiableList(modules));
+            }
+        }
+        this.modulesByPackage = Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * Checks if a JDK is modular (JDK 9 or later), meaning that its classes can be read through this repository.
+     * @param javaHome home directory of the JDK/JRE (e.g. the {@code java.home} system property)
+     * @return {@code true} if {@code javaHome} contains a module image, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static boolean isModular(File javaHome) {
+        Validate.notNull(javaHome);
+        return new File(javaHome, "lib/modules").isFile();
+    }
+
+    /**
+     * Constructs a {@link JrtClassInformationRepository} object for the classes of a modular JDK.
+     * @param javaHome home directory of the JDK/JRE (e.g. the {@code java.home} system property)
+     * @return newly created {@link JrtClassInformationRepository} object
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code javaHome} isn't a modular JDK (see {@link #isModular(java.io.File) })
+     * @throws IOException if an IO error occurs
+     */
+    public static JrtClassInformationRepository create(File javaHome) throws IOException {
+        Validate.notNull(javaHome);
+        Validate.isTrue(isModular(javaHome), "Not a modular JDK: %s", javaHome);
+
+        Map<String, String> env = Collections.singletonMap("java.home", javaHome.getAbsolutePath());
+        FileSystem fileSystem = null;
+        URLClassLoader providerClassLoader = null;
+        try {
+            try {
+                fileSystem = FileSystems.newFileSystem(JRT_URI, env); // running JDK provides jrt:/ (JDK 9+)
+            } catch (ProviderNotFoundException pnfe) {
+                // running JDK doesn't provide jrt:/ (JDK 8) -- load the provider from the JDK being read
+                File jrtFsJar = new File(javaHome, "lib/jrt-fs.jar");
+                Validate.isTrue(jrtFsJar.isFile(), "Missing jrt-fs.jar in %s", javaHome);
+                providerClassLoader = new URLClassLoader(new URL[] { toUrl(jrtFsJar) }, null);
+                fileSystem = FileSystems.newFileSystem(JRT_URI, Collections.emptyMap(), providerClassLoader);
+            }
+            return new JrtClassInformationRepository(fileSystem, providerClassLoader);
+        } catch (IOException | RuntimeException e) {
+            try {
+                close(fileSystem, providerClassLoader); // don't leak the filesystem / classloader that were opened before the failure
+            } catch (IOException ioe) {
+                e.addSuppressed(ioe);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the {@code jrt:/} filesystem (and the classloader over {@code lib/jrt-fs.jar}, if one was needed). Information for classes
+     * that were already requested remains available, but classes that haven't been requested yet can no longer be read. Calling this
+     * method more than once has no effect.
+     * @throws IOException if an IO error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        close(fileSystem, providerClassLoader);
+    }
+
+    private static void close(FileSystem fileSystem, URLClassLoader providerClassLoader) throws IOException {
+        try {
+            if (fileSystem != null && fileSystem.isOpen()) {
+                fileSystem.close();
+            }
+        } finally {
+            if (providerClassLoader != null) {
+                providerClassLoader.close();
+            }
+        }
+    }
+
+    @Override
+    public ClassInformation getInformation(String internalClassName) {
+        Validate.notNull(internalClassName);
+
+        ClassInformation ci = hierarchyMap.get(internalClassName);
+        if (ci != null) {
+            return ci;
+        }
+        if (missing.contains(internalClassName)) {
+            return null;
+        }
+
+        int packageSeparatorIdx = internalClassName.lastIndexOf('/');
+        List<String> modules = packageSeparatorIdx == -1
+                ? null
+                : modulesByPackage.get(internalClassName.substring(0, packageSeparatorIdx));
+        if (modules != null) {
+            for (String module : modules) {
+                Path classPath = fileSystem.getPath("/modules", module, internalClassName + ".class");
+                byte[] classFile;
+                try {
+                    classFile = Files.readAllBytes(classPath);
+                } catch (NoSuchFileException nsfe) {
+                    continue; // package is split across modules, or class doesn't exist
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException("Unable to read class " + internalClassName, ioe);
+                }
+
+                ci = ConstantPoolUtils.readClassInformation(classFile);
+                ClassInformation existing = hierarchyMap.putIfAbsent(internalClassName, ci); // another thread may have beaten us to it
+                return existing == null ? ci : existing;
+            }
+        }
+
+        missing.add(internalClassName);
+        return null;
+    }
+
+    private static URL toUrl(File file) {
+        try {
+            return file.toURI().toURL();
+        } catch (MalformedURLException murle) {
+            throw new IllegalStateException(murle); // should never happen
+        }
+    }
+}
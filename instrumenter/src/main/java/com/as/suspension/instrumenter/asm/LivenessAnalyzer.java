@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter.asm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Computes which local variable slots are live (may be read before being overwritten) at each instruction of a method.
+ * @author Kasra Faghihi
+ */
+public final class LivenessAnalyzer {
+
+    private LivenessAnalyzer() {
+        // do nothing
+    }
+
+    /**
+     * Compute the local variable slots that are live right before each instruction in a method executes. A slot is live if there exists
+     * some path from that instruction that reads the slot before writing to it. Paths through exception handlers are taken in to account:
+     * anything live at the start of a handler is considered live at every instruction that handler covers.
+     * <p>
+     * Method must not contain JSR/RET instructions.
+     * @param methodNode method to analyze
+     * @return array of same length as {@code methodNode.instructions}, where each element is the set of local variable slots that are live
+     * right before the instruction at that index
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if method contains JSR/RET instructions
+     */
+    public static BitSet[] computeLiveLocals(MethodNode methodNode) {
+        Validate.notNull(methodNode);
+
+        InsnList insnList = methodNode.instructions;
+        int insnCount = insnList.size();
+
+        // Build up successors + use/def sets for each instruction
+        @SuppressWarnings("unchecked")
+        List<Integer>[] successors = new List[insnCount];
+        @SuppressWarnings("unchecked")
+        List<Integer>[] handlers = new List[insnCount];
+        BitSet[] uses = new BitSet[insnCount];
+        BitSet[] defs = new BitSet[insnCount];
+        for (int i = 0; i < insnCount; i++) {
+            AbstractInsnNode insnNode = insnList.get(i);
+            successors[i] = new ArrayList<>();
+            handlers[i] = new ArrayList<>();
+            uses[i] = new BitSet();
+            defs[i] = new BitSet();
+
+            int opcode = insnNode.getOpcode();
+            Validate.isTrue(opcode != Opcodes.JSR && opcode != Opcodes.RET, "JSR/RET instructions not allowed");
+
+            switch (insnNode.getType()) {
+                case AbstractInsnNode.VAR_INSN: {
+                    int var = ((VarInsnNode) insnNode).var;
+                    switch (opcode) {
+                        case Opcodes.ILOAD:
+                        case Opcodes.FLOAD:
+                        case Opcodes.ALOAD:
+                        case Opcodes.LLOAD:
+                        case Opcodes.DLOAD:
+                            uses[i].set(var);
+                            break;
+                        case Opcodes.ISTORE:
+                        case Opcodes.FSTORE:
+                        case Opcodes.ASTORE:
+                            defs[i].set(var);
+                            break;
+                        case Opcodes.LSTORE:
+                        case Opcodes.DSTORE:
+                            defs[i].set(var);
+                            defs[i].set(var + 1); // wide types take up 2 slots, whatever was in the 2nd slot gets clobbered as well
+                            break;
+                        default:
+                            throw new IllegalStateException(); // should never happen
+                    }
+                    successors[i].add(i + 1);
+                    break;
+                }
+                case AbstractInsnNode.IINC_INSN:
+                    uses[i].set(((IincInsnNode) insnNode).var); // reads then writes, so it's a use
+                    successors[i].add(i + 1);
+                    break;
+                case AbstractInsnNode.JUMP_INSN:
+                    successors[i].add(insnList.indexOf(((JumpInsnNode) insnNode).label));
+                    if (opcode != Opcodes.GOTO) {
+                        successors[i].add(i + 1);
+                    }
+                    break;
+                case AbstractInsnNode.TABLESWITCH_INSN: {
+                    TableSwitchInsnNode switchNode = (TableSwitchInsnNode) insnNode;
+                    successors[i].add(insnList.indexOf(switchNode.dflt));
+                    for (LabelNode labelNode : switchNode.labels) {
+                        successors[i].add(insnList.indexOf(labelNode));
+                    }
+                    break;
+                }
+                case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+                    LookupSwitchInsnNode switchNode = (LookupSwitchInsnNode) insnNode;
+                    successors[i].add(insnList.indexOf(switchNode.dflt));
+                    for (LabelNode labelNode : switchNode.labels) {
+                        successors[i].add(insnList.indexOf(labelNode));
+                    }
+                    break;
+                }
+                default:
+                    switch (opcode) {
+                        case Opcodes.IRETURN:
+                        case Opcodes.LRETURN:
+                        case Opcodes.FRETURN:
+                        case Opcodes.DRETURN:
+                        case Opcodes.ARETURN:
+                        case Opcodes.RETURN:
+                        case Opcodes.ATHROW:
+                            break; // no successors
+                        default:
+                            successors[i].add(i + 1); // includes labels/line numbers/frames (opcode == -1)
+                            break;
+                    }
+                    break;
+            }
+
+            // Last instruction has nothing to fall through to (should be an unconditional branch/return/throw anyways)
+            successors[i].remove(Integer.valueOf(insnCount));
+        }
+
+        // Exception edges -- if an instruction is covered by a handler, it can jump to that handler at any point
+        for (TryCatchBlockNode tryCatchBlockNode : methodNode.tryCatchBlocks) {
+            int startIdx = insnList.indexOf(tryCatchBlockNode.start);
+            int endIdx = insnList.indexOf(tryCatchBlockNode.end);
+            int handlerIdx = insnList.indexOf(tryCatchBlockNode.handler);
+            for (int i = startIdx; i < endIdx; i++) {
+                handlers[i].add(handlerIdx);
+            }
+        }
+
+        // Standard backwards dataflow, iterate until nothing changes...
+        //   liveOut[i] = union of liveIn[s] for each successor s
+        //   liveIn[i] = uses[i] + (liveOut[i] - defs[i]) + union of liveIn[h] for each handler h covering i
+        //
+        // Exception edges are treated as if they come before the instruction's defs take effect: anything live at a handler is live-in
+        // for every instruction it covers, regardless of what that instruction writes.
+        BitSet[] liveIn = new BitSet[insnCount];
+        for (int i = 0; i < insnCount; i++) {
+            liveIn[i] = new BitSet();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = insnCount - 1; i >= 0; i--) {
+                BitSet newLiveIn = new BitSet();
+                for (int successor : successors[i]) {
+                    newLiveIn.or(liveIn[successor]);
+                }
+                newLiveIn.andNot(defs[i]);
+                newLiveIn.or(uses[i]);
+                for (int handler : handlers[i]) {
+                    newLiveIn.or(liveIn[handler]);
+                }
+
+                if (!newLiveIn.equals(liveIn[i])) {
+                    liveIn[i] = newLiveIn;
+                    changed = true;
+                }
+            }
+        }
+
+        return liveIn;
+    }
+}
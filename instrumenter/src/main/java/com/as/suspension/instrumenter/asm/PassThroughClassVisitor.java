@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter.asm;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.TypePath;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeAnnotationNode;
+
+/**
+ * A {@link ClassVisitor} that writes out a modified {@link ClassNode} while copying over any methods that weren't modified as-is from the
+ * original class. When the {@link ClassReader} that the {@link ClassNode} was read from is the same one that drives this visitor, and the
+ * visitor being delegated to is a {@link org.objectweb.asm.ClassWriter} created from that same {@link ClassReader}, ASM copies the bytecode
+ * of each method this visitor passes through directly (no parsing, no re-serialization, no frame/max computation).
+ * <p>
+ * Everything other than the methods themselves (class header, fields, annotations, attributes, inner classes, etc..) is taken from the
+ * {@link ClassNode}, so modifications made to those parts of the {@link ClassNode} are preserved. Modified methods are taken from the
+ * {@link ClassNode} and written out after all unmodified methods.
+ * @author Kasra Faghihi
+ */
+public final class PassThroughClassVisitor extends ClassVisitor {
+
+    private final ClassNode classNode;
+    private final Set<MethodNode> modifiedMethodNodes;
+    private final Set<String> modifiedMethodKeys;
+
+    /**
+     * Constructs a {@link PassThroughClassVisitor} object.
+     * @param classNode modified class
+     * @param modifiedMethodNodes methods in {@code classNode} that were modified (or added)
+     * @param cv visitor to delegate to (should be a {@link org.objectweb.asm.ClassWriter} created from the original {@link ClassReader})
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if {@code modifiedMethodNodes} contains methods that aren't in {@code classNode}
+     */
+    public PassThroughClassVisitor(ClassNode classNode, Set<MethodNode> modifiedMethodNodes, ClassVisitor cv) {
+        super(Opcodes.ASM5, cv);
+        Validate.notNull(classNode);
+        Validate.notNull(modifiedMethodNodes);
+        Validate.notNull(cv);
+        Validate.noNullElements(modifiedMethodNodes);
+        Validate.isTrue(classNode.methods.containsAll(modifiedMethodNodes));
+
+        this.classNode = classNode;
+        this.modifiedMethodNodes = modifiedMethodNodes;
+        this.modifiedMethodKeys = new HashSet<>();
+        for (MethodNode methodNode : modifiedMethodNodes) {
+            modifiedMethodKeys.add(methodNode.name + methodNode.desc);
+        }
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        // Ignore what's read from the original class and write out what's in the class node instead
+        super.visit(classNode.version, classNode.access, classNode.name, classNode.signature, classNode.superName,
+                classNode.interfaces.toArray(new String[classNode.interfaces.size()]));
+
+        if (classNode.sourceFile != null || classNode.sourceDebug != null) {
+            super.visitSource(classNode.sourceFile, classNode.sourceDebug);
+        }
+        if (classNode.outerClass != null) {
+            super.visitOuterClass(classNode.outerClass, classNode.outerMethod, classNode.outerMethodDesc);
+        }
+        acceptAnnotations(classNode.visibleAnnotations, true);
+        acceptAnnotations(classNode.invisibleAnnotations, false);
+        acceptTypeAnnotations(classNode.visibleTypeAnnotations, true);
+        acceptTypeAnnotations(classNode.invisibleTypeAnnotations, false);
+        if (classNode.attrs != null) {
+            classNode.attrs.forEach(super::visitAttribute);
+        }
+        classNode.innerClasses.forEach(icn -> icn.accept(cv));
+        classNode.fields.forEach(fn -> fn.accept(cv));
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+        // do nothing -- written out from class node in visit()
+    }
+
+    @Override
+    public void visitOuterClass(String owner, String name, String desc) {
+        // do nothing -- written out from class node in visit()
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+        return null; // written out from class node in visit()
+    }
+
+    @Override
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String desc, boolean visible) {
+        return null; // written out from class node in visit()
+    }
+
+    @Override
+    public void visitAttribute(Attribute attr) {
+        // do nothing -- written out from class node in visit()
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        // do nothing -- written out from class node in visit()
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        return null; // written out from class node in visit()
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        if (modifiedMethodKeys.contains(name + desc)) {
+            return null; // written out from class node in visitEnd()
+        }
+
+        // Passing along the exact arguments that were read is what lets ClassReader detect that it can copy the method as-is
+        return super.visitMethod(access, name, desc, signature, exceptions);
+    }
+
+    @Override
+    public void visitEnd() {
+        for (MethodNode methodNode : classNode.methods) {
+            if (modifiedMethodNodes.contains(methodNode)) {
+                methodNode.accept(cv);
+            }
+        }
+        super.visitEnd();
+    }
+
+    private void acceptAnnotations(List<AnnotationNode> annotationNodes, boolean visible) {
+        if (annotationNodes == null) {
+            return;
+        }
+        for (AnnotationNode annotationNode : annotationNodes) {
+            annotationNode.accept(super.visitAnnotation(annotationNode.desc, visible));
+        }
+    }
+
+    private void acceptTypeAnnotations(List<TypeAnnotationNode> annotationNodes, boolean visible) {
+        if (annotationNodes == null) {
+            return;
+        }
+        for (TypeAnnotationNode annotationNode : annotationNodes) {
+            annotationNode.accept(super.visitTypeAnnotation(annotationNode.typeRef, annotationNode.typePath, annotationNode.desc, visible));
+        }
+    }
+}
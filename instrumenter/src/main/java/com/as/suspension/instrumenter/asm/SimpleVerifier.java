@@ -27,6 +27,7 @@ import org.objectweb.asm.Type;
  */
 public final class SimpleVerifier extends org.objectweb.asm.tree.analysis.SimpleVerifier {
     private final ClassInformationRepository repo;
+    private final ClassHierarchyCache hierarchyCache;
     
     /**
      * Constructs a {@link SimpleVerifier} object.
@@ -39,6 +40,7 @@ public final class SimpleVerifier extends org.objectweb.asm.tree.analysis.Simple
         Validate.notNull(repo);
         
         this.repo = repo;
+        this.hierarchyCache = ClassHierarchyCache.of(repo);
     }
     
     @Override
@@ -54,7 +56,7 @@ public final class SimpleVerifier extends org.objectweb.asm.tree.analysis.Simple
 
     @Override
     protected boolean isAssignableFrom(Type t, Type u) {
-        return TypeUtils.isAssignableFrom(repo, t, u);
+        return TypeUtils.isAssignableFrom(repo, hierarchyCache, t, u);
     }
     
     @Override
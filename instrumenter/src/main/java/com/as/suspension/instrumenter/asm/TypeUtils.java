@@ -16,7 +16,6 @@
  */
 package com.as.suspension.instrumenter.asm;
 
-import java.util.LinkedHashSet;
 import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.Type;
 
@@ -25,6 +24,8 @@ import org.objectweb.asm.Type;
  * @author Kasra Faghihi
  */
 public final class TypeUtils {
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
+
     private TypeUtils() {
         // do nothing
     }
@@ -39,6 +40,8 @@ public final class TypeUtils {
      * that SimpleVerifier will treat any interface instance as if it were an {@link Object} instance. That means that, for example, an
      * {@link Object} is assignable to a {@link Comparable} (Comparable = Object) in the eyes of ASM's SimpleVerifier. Why this is the case
      * has never been explained.
+     * <p>
+     * Hierarchies walked by this method are cached and shared with everything else using the same {@link ClassInformationRepository}.
      * @param repo repository to use for deriving class details
      * @param t type being assigned from
      * @param u type being assigned to
@@ -48,16 +51,31 @@ public final class TypeUtils {
         Validate.notNull(repo);
         Validate.notNull(t);
         Validate.notNull(u);
+
+        return isAssignableFrom(repo, ClassHierarchyCache.of(repo), t, u);
+    }
+
+    static boolean isAssignableFrom(ClassInformationRepository repo, ClassHierarchyCache hierarchyCache, Type t, Type u) {
+        Validate.notNull(repo);
+        Validate.notNull(hierarchyCache);
+        Validate.notNull(t);
+        Validate.notNull(u);
         
         if (t.equals(u)) {
             return true;
         }
 
+        // Anything that isn't a primitive can be assigned to Object -- no need to look up u's hierarchy (it may not even be available, e.g.
+        // classes generated by the instrumenter itself)
+        if (t.equals(OBJECT_TYPE) && (u.getSort() == Type.OBJECT || u.getSort() == Type.ARRAY)) {
+            return true;
+        }
+
         if (t.getSort() == Type.OBJECT && u.getSort() == Type.OBJECT) {
             // Both are objects, check hierarchy for both to see if assignable
             // e.g. you're allowed to do Number = Integer
             // e.g. you're allowed to do Serializable = Object, this seems counter-intuative but it is what ASM does
-            return isObjectTypeAssignableFrom(repo, t, u);
+            return isObjectTypeAssignableFrom(repo, hierarchyCache, t, u);
         } else if (t.getSort() == Type.ARRAY && u.getSort() == Type.ARRAY) {
             // Both are arrays
             if (t.getDimensions() == u.getDimensions()) {
@@ -71,7 +89,7 @@ public final class TypeUtils {
                     // e.g. you're not allowed to do Serializable[][] = Object[][] because of false being passed in to method below...
                     //      we only want to resolve interfaces to object if we aren't dealing with arrays (see first if block at top of this
                     //      method)
-                    return isArrayElementTypeAssignableFrom(repo, tElem, uElem);
+                    return isArrayElementTypeAssignableFrom(repo, hierarchyCache, tElem, uElem);
                 } else if (tElem.getSort() != Type.OBJECT && uElem.getSort() != Type.OBJECT) {
                     // If dimensions are equal and both element types are primitives, check that both are equal to see if assignable
                     // e.g. you're allowed to do int[][] = int[][]
@@ -112,8 +130,10 @@ public final class TypeUtils {
         return false;
     }
     
-    private static boolean isObjectTypeAssignableFrom(ClassInformationRepository repo, Type t, Type u) {
+    private static boolean isObjectTypeAssignableFrom(ClassInformationRepository repo, ClassHierarchyCache hierarchyCache, Type t,
+            Type u) {
         Validate.notNull(repo);
+        Validate.notNull(hierarchyCache);
         Validate.notNull(t);
         Validate.notNull(u);
         Validate.isTrue(t.getSort() == Type.OBJECT);
@@ -126,12 +146,13 @@ public final class TypeUtils {
             t = Type.getType(Object.class);
         }
 
-        LinkedHashSet<String> hierarchy = flattenHierarchy(repo, u.getInternalName());
-        return hierarchy.contains(t.getInternalName());
+        return hierarchyCache.getFlattenedHierarchy(repo, u.getInternalName()).contains(t.getInternalName());
     }
 
-    private static boolean isArrayElementTypeAssignableFrom(ClassInformationRepository repo, Type t, Type u) {
+    private static boolean isArrayElementTypeAssignableFrom(ClassInformationRepository repo, ClassHierarchyCache hierarchyCache, Type t,
+            Type u) {
         Validate.notNull(repo);
+        Validate.notNull(hierarchyCache);
         Validate.notNull(t);
         Validate.notNull(u);
         Validate.isTrue(t.getSort() == Type.OBJECT);
@@ -140,33 +161,6 @@ public final class TypeUtils {
         ClassInformation ci = repo.getInformation(t.getInternalName());
         Validate.isTrue(ci != null, "Unable to find class information for %s", t);
 
-        LinkedHashSet<String> hierarchy = flattenHierarchy(repo, u.getInternalName());
-        return hierarchy.contains(t.getInternalName());
-    }
-
-    private static LinkedHashSet<String> flattenHierarchy(ClassInformationRepository repo, String type) {
-        Validate.notNull(repo);
-        Validate.notNull(type);
-        
-        LinkedHashSet<String> ret = new LinkedHashSet<>();
-        
-        String currentType = type;
-        while (true) {
-            ret.add(currentType);
-            
-            ClassInformation classHierarchy = repo.getInformation(currentType); // must return a result
-            Validate.isTrue(classHierarchy != null, "No parent found for %s", currentType);
-            if (classHierarchy.getSuperClassName() == null) {
-                break;
-            }
-            
-            for (String interfaceType : classHierarchy.getInterfaces()) {
-                ret.add(interfaceType);
-            }
-            
-            currentType = classHierarchy.getSuperClassName();
-        }
-        
-        return ret;
+        return hierarchyCache.getFlattenedHierarchy(repo, u.getInternalName()).contains(t.getInternalName());
     }
 }
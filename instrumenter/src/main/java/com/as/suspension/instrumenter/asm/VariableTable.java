@@ -60,10 +60,12 @@ public final class VariableTable {
             argVars.add(0, new Variable(objectType, 0, true));
         }
         
+        // Longs and doubles take up 2 slots in the local variables table, so the index of an argument isn't necessarily its position
         Type[] argTypes = methodType.getArgumentTypes();
+        int idx = isStatic ? 0 : 1;
         for (int i = 0; i < argTypes.length; i++) {
-            int idx = isStatic ? i : i + 1;
             argVars.add(new Variable(argTypes[i], idx, true));
+            idx += argTypes[i].getSize();
         }
     }
 
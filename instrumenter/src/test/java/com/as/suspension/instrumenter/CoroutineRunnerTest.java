@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter;
+
+import com.as.suspension.instrumenter.generators.DebugGenerators.MarkerType;
+import com.as.suspension.instrumenter.testhelpers.TestUtils;
+import com.as.suspension.user.ArgumentFrame;
+import com.as.suspension.user.CoroutineReader;
+import com.as.suspension.user.CoroutineRunner;
+import com.as.suspension.user.CoroutineWriter;
+import com.as.suspension.user.SerializedState;
+import com.as.suspension.user.Suspendable;
+import com.as.suspension.user.SuspendableContext;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import static org.apache.commons.lang3.reflect.ConstructorUtils.invokeConstructor;
+import static org.apache.commons.lang3.reflect.FieldUtils.readField;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public final class CoroutineRunnerTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void mustMakeArgumentsAvailableForDurationOfExecute() throws Exception {
+        ArgumentRecordingSuspendable suspendable = new ArgumentRecordingSuspendable(4);
+        CoroutineRunner runner = new CoroutineRunner(suspendable);
+
+        assertTrue(runner.execute("a", 1));
+        assertTrue(runner.execute());
+        assertTrue(runner.execute((Object[]) null));
+        assertFalse(runner.execute("b"));
+
+        assertEquals(4, suspendable.arguments.size());
+        assertArrayEquals(new Object[] {"a", 1}, suspendable.arguments.get(0));
+        assertArrayEquals(new Object[0], suspendable.arguments.get(1));
+        assertArrayEquals(new Object[0], suspendable.arguments.get(2));
+        assertArrayEquals(new Object[] {"b"}, suspendable.arguments.get(3));
+    }
+
+    @Test
+    public void mustNotRetainArgumentsAfterExecute() throws Exception {
+        ArgumentRecordingSuspendable suspendable = new ArgumentRecordingSuspendable(2);
+        CoroutineRunner runner = new CoroutineRunner(suspendable);
+        assertTrue(runner.execute("a"));
+
+        thrown.expect(IllegalStateException.class);
+        suspendable.lastContext.getArguments();
+    }
+
+    @Test
+    public void mustNotRetainArgumentsAfterExecuteThrows() throws Exception {
+        ArgumentRecordingSuspendable suspendable = new ArgumentRecordingSuspendable(2);
+        suspendable.throwOnCycle = 1;
+        CoroutineRunner runner = new CoroutineRunner(suspendable);
+        try {
+            runner.execute("a");
+        } catch (RuntimeException re) {
+            // expected
+        }
+
+        thrown.expect(IllegalStateException.class);
+        suspendable.lastContext.getArguments();
+    }
+
+    @Test
+    public void mustPassArgumentsAfterSerializationRoundTrip() throws Exception {
+        CoroutineWriter writer = new CoroutineWriter();
+        CoroutineReader reader = new CoroutineReader();
+        CoroutineRunner runner = new CoroutineRunner(new ArgumentRecordingSuspendable(3));
+
+        assertTrue(runner.execute("a"));
+        runner = reader.read(writer.write(runner));
+        assertTrue(runner.execute("b", 2));
+        runner = reader.read(writer.write(runner));
+        assertFalse(runner.execute());
+
+        ArgumentRecordingSuspendable deserializedSuspendable = (ArgumentRecordingSuspendable) runner.getSuspendable();
+        assertEquals(3, deserializedSuspendable.arguments.size());
+        assertArrayEquals(new Object[] {"a"}, deserializedSuspendable.arguments.get(0));
+        assertArrayEquals(new Object[] {"b", 2}, deserializedSuspendable.arguments.get(1));
+        assertArrayEquals(new Object[0], deserializedSuspendable.arguments.get(2));
+    }
+
+    @Test
+    public void mustNotSerializeArguments() throws Exception {
+        CoroutineRunner runner = new CoroutineRunner(new ArgumentRecordingSuspendable(3));
+        assertTrue(runner.execute("a"));
+
+        SerializedState state = new CoroutineWriter().deconstruct(runner);
+        assertTrue(state.getArgumentFrames().isEmpty());
+    }
+
+    @Test
+    public void mustRunInstrumentedCoroutineWithArgumentsAcrossSerializationRoundTrips() throws Exception {
+        // See SerializationTest for why this runs on a separate thread with the context classloader set
+        try (URLClassLoader classLoader = TestUtils.loadClassesInZipResourceAndInstrument(SharedConstants.NORMAL_INVOKE_TEST + ".zip",
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true))) {
+            ArrayBlockingQueue<Throwable> threadResult = new ArrayBlockingQueue<>(1);
+            Thread thread = new Thread(() -> {
+                try {
+                    Class<Suspendable> cls = (Class<Suspendable>) classLoader.loadClass(SharedConstants.NORMAL_INVOKE_TEST);
+                    CoroutineRunner runner = new CoroutineRunner(invokeConstructor(cls, new StringBuilder()));
+                    CoroutineWriter writer = new CoroutineWriter();
+                    CoroutineReader reader = new CoroutineReader();
+
+                    // arguments aren't serializable -- writing would fail if they were being held on to
+                    for (int i = 0; i < 10; i++) {
+                        assertTrue(runner.execute(i, new Object() { }));
+                        runner = reader.read(writer.write(runner));
+                    }
+                    assertFalse(runner.execute(new Object() { }));
+
+                    StringBuilder builder = (StringBuilder) readField(runner.getSuspendable(), "builder", true);
+                    assertEquals("started\n0\n1\n2\n3\n4\n5\n6\n7\n8\n9\n", builder.toString());
+                } catch (AssertionError | Exception e) {
+                    threadResult.add(e);
+                }
+            });
+            thread.setContextClassLoader(classLoader);
+            thread.start();
+            thread.join();
+
+            Throwable t = threadResult.peek();
+            if (t instanceof Exception) {
+                throw (Exception) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void mustIgnoreArgumentFramesInDeprecatedSerializedStateConstructor() throws Exception {
+        ArgumentRecordingSuspendable suspendable = new ArgumentRecordingSuspendable(1);
+        List<ArgumentFrame> argumentFrames = Arrays.asList(new ArgumentFrame("a"), new ArgumentFrame());
+        SerializedState state = new SerializedState(suspendable, "context", new SerializedState.VersionedFrame[0], argumentFrames);
+
+        assertEquals(suspendable, state.getSuspendable());
+        assertEquals("context", state.getContext());
+        assertEquals(0, state.getFrames().length);
+        assertTrue(state.getArgumentFrames().isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void mustExposeCurrentArgumentsThroughDeprecatedArgumentFrames() throws Exception {
+        ArgumentRecordingSuspendable suspendable = new ArgumentRecordingSuspendable(2);
+        CoroutineRunner runner = new CoroutineRunner(suspendable);
+        assertTrue(runner.execute("a", "b"));
+
+        assertEquals(1, suspendable.argumentFrames.size());
+        assertArrayEquals(new Object[] {"a", "b"}, suspendable.argumentFrames.get(0).getArgs());
+        assertTrue(suspendable.lastContext.getArgumentFrames().isEmpty());
+
+        suspendable.lastContext.setArgumentFrames(Arrays.asList(new ArgumentFrame("x"), new ArgumentFrame("y")));
+        assertArrayEquals(new Object[] {"y"}, suspendable.lastContext.getArguments());
+    }
+
+    // Hand-written equivalent of what the instrumenter generates for a method that calls suspend() with no locals worth saving (same as
+    // the ones in CoroutineSchedulerTest). Records the arguments it sees on each cycle.
+    private static final class ArgumentRecordingSuspendable implements Suspendable {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxCycles;
+        private final ArrayList<Object[]> arguments = new ArrayList<>();
+        private transient List<ArgumentFrame> argumentFrames;
+        private transient SuspendableContext lastContext;
+        private int throwOnCycle = -1;
+
+        ArgumentRecordingSuspendable(int maxCycles) {
+            this.maxCycles = maxCycles;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void run(SuspendableContext ctx) {
+            if (ctx.getMode() == SuspendableContext.MODE_LOADING) {
+                ctx.setMode(SuspendableContext.MODE_NORMAL);
+            }
+
+            lastContext = ctx;
+            arguments.add(ctx.getArguments().clone());
+            argumentFrames = ctx.getArgumentFrames();
+            if (arguments.size() == throwOnCycle) {
+                throw new IllegalStateException();
+            }
+            if (arguments.size() < maxCycles) {
+                ctx.setMode(SuspendableContext.MODE_SAVING);
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter;
+
+import com.as.suspension.instrumenter.testhelpers.TestUtils;
+import com.as.suspension.user.CoroutineRunner;
+import com.as.suspension.user.CoroutineScheduler;
+import com.as.suspension.user.Suspendable;
+import com.as.suspension.user.SuspendableContext;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import static org.apache.commons.lang3.reflect.ConstructorUtils.invokeConstructor;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class CoroutineSchedulerTest {
+
+    private final List<Throwable> uncaught = Collections.synchronizedList(new ArrayList<>());
+    private Thread.UncaughtExceptionHandler oldHandler;
+    private CoroutineScheduler scheduler;
+
+    @Before
+    public void before() {
+        // workers don't have their own handler, so throwables from dropped runners end up at the default handler
+        oldHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> uncaught.add(e));
+    }
+
+    @After
+    public void after() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        Thread.setDefaultUncaughtExceptionHandler(oldHandler);
+    }
+
+    @Test(timeout = 30000L)
+    public void mustRunInstrumentedCoroutinesToCompletion() throws Exception {
+        try (URLClassLoader classLoader = TestUtils.loadClassesInZipResourceAndInstrument(SharedConstants.NORMAL_INVOKE_TEST + ".zip")) {
+            Class<Suspendable> cls = (Class<Suspendable>) classLoader.loadClass(SharedConstants.NORMAL_INVOKE_TEST);
+
+            scheduler = new CoroutineScheduler(4);
+            StringBuilder[] builders = new StringBuilder[50];
+            for (int i = 0; i < builders.length; i++) {
+                builders[i] = new StringBuilder();
+                scheduler.spawn(invokeConstructor(cls, builders[i]));
+            }
+            scheduler.drain();
+
+            for (StringBuilder builder : builders) {
+                assertEquals("started\n0\n1\n2\n3\n4\n5\n6\n7\n8\n9\n", builder.toString());
+            }
+            assertEquals(0, scheduler.size());
+            assertTrue(uncaught.isEmpty());
+        }
+    }
+
+    @Test(timeout = 30000L)
+    public void mustDrainWhenAllRunnersFinish() throws Exception {
+        scheduler = new CoroutineScheduler(4);
+        RecordingSuspendable[] suspendables = new RecordingSuspendable[1000];
+        for (int i = 0; i < suspendables.length; i++) {
+            suspendables[i] = new RecordingSuspendable("" + i, 20, null);
+            scheduler.spawn(suspendables[i]);
+        }
+        scheduler.drain();
+
+        for (RecordingSuspendable suspendable : suspendables) {
+            assertEquals(20, suspendable.cycles);
+        }
+        assertEquals(0, scheduler.size());
+        assertTrue(uncaught.isEmpty());
+    }
+
+    @Test(timeout = 30000L)
+    public void mustRequeueSuspendedRunnersBehindRunnersAlreadyQueued() throws Exception {
+        scheduler = new CoroutineScheduler(1);
+
+        // Block the only worker so that everything spawned after is queued up in spawn order before any of it runs
+        CountDownLatch blockerStarted = new CountDownLatch(1);
+        CountDownLatch releaseBlocker = new CountDownLatch(1);
+        scheduler.spawn((Suspendable) ctx -> {
+            blockerStarted.countDown();
+            try {
+                releaseBlocker.await();
+            } catch (InterruptedException ie) {
+                throw new IllegalStateException(ie);
+            }
+        });
+        blockerStarted.await();
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        scheduler.spawn(new RecordingSuspendable("a", 3, order));
+        scheduler.spawn(new RecordingSuspendable("b", 3, order));
+        scheduler.spawn(new RecordingSuspendable("c", 3, order));
+        releaseBlocker.countDown();
+        scheduler.drain();
+
+        assertEquals(Arrays.asList("a", "b", "c", "a", "b", "c", "a", "b", "c"), order);
+    }
+
+    @Test(timeout = 30000L)
+    public void mustDropRunnerThatThrowsExceptionAndKeepRunningOthers() throws Exception {
+        scheduler = new CoroutineScheduler(1);
+        RecordingSuspendable before = new RecordingSuspendable("before", 5, null);
+        RecordingSuspendable after = new RecordingSuspendable("after", 5, null);
+        scheduler.spawn(before);
+        scheduler.spawn(new ThrowingSuspendable(2, new IllegalStateException("fail")));
+        scheduler.spawn(after);
+        scheduler.drain();
+
+        assertEquals(5, before.cycles);
+        assertEquals(5, after.cycles);
+        assertEquals(0, scheduler.size());
+        assertEquals(1, uncaught.size());
+        assertEquals("fail", uncaught.get(0).getCause().getMessage()); // CoroutineRunner wraps it in a CoroutineException
+    }
+
+    @Test(timeout = 30000L)
+    public void mustNotHangDrainWhenRunnerThrowsError() throws Exception {
+        scheduler = new CoroutineScheduler(1);
+        AssertionError error = new AssertionError("fail");
+        scheduler.spawn(new ThrowingSuspendable(2, error));
+        scheduler.drain();
+
+        // the worker must still be alive and accounting must still be correct
+        RecordingSuspendable after = new RecordingSuspendable("after", 5, null);
+        scheduler.spawn(after);
+        scheduler.drain();
+
+        assertEquals(5, after.cycles);
+        assertEquals(0, scheduler.size());
+        assertEquals(Arrays.asList(error), uncaught);
+    }
+
+    @Test(timeout = 30000L)
+    public void mustNotCountParkedRunnersWhenDraining() throws Exception {
+        scheduler = new CoroutineScheduler(2);
+        ParkingSuspendable suspendable = new ParkingSuspendable();
+        CoroutineRunner runner = scheduler.spawn(suspendable);
+        scheduler.drain();
+
+        assertEquals(1, suspendable.cycles);
+        assertEquals(1, scheduler.size());
+
+        assertTrue(scheduler.unpark(runner));
+        scheduler.drain();
+
+        assertEquals(2, suspendable.cycles);
+        assertEquals(0, scheduler.size());
+        assertFalse(scheduler.unpark(runner));
+    }
+
+    @Test(timeout = 30000L)
+    public void mustReturnUnfinishedRunnersOnShutdown() throws Exception {
+        scheduler = new CoroutineScheduler(1);
+        CoroutineRunner runner = scheduler.spawn(new ParkingSuspendable());
+        scheduler.drain();
+
+        List<?> unfinished = scheduler.shutdown();
+        scheduler = null;
+
+        assertEquals(1, unfinished.size());
+        assertSame(runner, unfinished.get(0));
+    }
+
+    // Hand-written equivalents of what the instrumenter generates for a method that calls suspend() with no locals worth saving (same as
+    // the ones in CoroutineSchedulerBenchmark).
+    private static final class RecordingSuspendable implements Suspendable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final int maxCycles;
+        private final List<String> order;
+        private volatile int cycles;
+
+        RecordingSuspendable(String name, int maxCycles, List<String> order) {
+            this.name = name;
+            this.maxCycles = maxCycles;
+            this.order = order;
+        }
+
+        @Override
+        public void run(SuspendableContext ctx) {
+            if (ctx.getMode() == SuspendableContext.MODE_LOADING) {
+                ctx.setMode(SuspendableContext.MODE_NORMAL);
+            }
+
+            if (order != null) {
+                order.add(name);
+            }
+            cycles++;
+            if (cycles < maxCycles) {
+                ctx.setMode(SuspendableContext.MODE_SAVING);
+            }
+        }
+    }
+
+    private static final class ThrowingSuspendable implements Suspendable {
+        private static final long serialVersionUID = 1L;
+
+        private final int throwOnCycle;
+        private final Throwable throwable;
+        private int cycles;
+
+        ThrowingSuspendable(int throwOnCycle, Throwable throwable) {
+            this.throwOnCycle = throwOnCycle;
+            this.throwable = throwable;
+        }
+
+        @Override
+        public void run(SuspendableContext ctx) {
+            if (ctx.getMode() == SuspendableContext.MODE_LOADING) {
+                ctx.setMode(SuspendableContext.MODE_NORMAL);
+            }
+
+            cycles++;
+            if (cycles == throwOnCycle) {
+                if (throwable instanceof Error) {
+                    throw (Error) throwable;
+                }
+                throw (RuntimeException) throwable;
+            }
+            ctx.setMode(SuspendableContext.MODE_SAVING);
+        }
+    }
+
+    // Parks itself on the first cycle, finishes on the second
+    private static final class ParkingSuspendable implements Suspendable {
+        private static final long serialVersionUID = 1L;
+
+        private volatile int cycles;
+
+        @Override
+        public void run(SuspendableContext ctx) {
+            if (ctx.getMode() == SuspendableContext.MODE_LOADING) {
+                ctx.setMode(SuspendableContext.MODE_NORMAL);
+            }
+
+            cycles++;
+            if (cycles == 1) {
+                CoroutineScheduler.parkCurrent();
+                ctx.setMode(SuspendableContext.MODE_SAVING);
+            }
+        }
+    }
+}
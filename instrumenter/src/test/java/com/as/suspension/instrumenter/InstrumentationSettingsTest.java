@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter;
+
+import com.as.suspension.instrumenter.generators.DebugGenerators.MarkerType;
+import org.apache.commons.lang3.SerializationUtils;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public final class InstrumentationSettingsTest {
+
+    @Test
+    public void mustLeaveOptionalSettingsDisabledByDefault() {
+        InstrumentationSettings settings = new InstrumentationSettings.Builder(MarkerType.CONSTANT, true, false).build();
+
+        assertEquals(MarkerType.CONSTANT, settings.getMarkerType());
+        assertTrue(settings.isDebugMode());
+        assertFalse(settings.isAutoSerializable());
+        assertFalse(settings.isPruneNonSuspendingCalls());
+        assertFalse(settings.isOutlineSaveBlocks());
+        assertFalse(settings.isReuseStorageArrays());
+        assertFalse(settings.isGenerateFrameClasses());
+        assertEquals(new InstrumentationSettings(MarkerType.CONSTANT, true, false).toString(), settings.toString());
+    }
+
+    @Test
+    public void mustSetOptionalSettings() {
+        InstrumentationSettings settings = new InstrumentationSettings.Builder(MarkerType.NONE, false, true)
+                .pruneNonSuspendingCalls(true)
+                .outlineSaveBlocks(true)
+                .reuseStorageArrays(true)
+                .generateFrameClasses(true)
+                .build();
+
+        assertTrue(settings.isPruneNonSuspendingCalls());
+        assertTrue(settings.isOutlineSaveBlocks());
+        assertTrue(settings.isReuseStorageArrays());
+        assertTrue(settings.isGenerateFrameClasses());
+    }
+
+    @Test
+    public void mustSurviveSerialization() {
+        // The Gradle plugin hands settings over to its workers as a single serialized object
+        InstrumentationSettings settings = new InstrumentationSettings.Builder(MarkerType.STDOUT, false, true)
+                .outlineSaveBlocks(true)
+                .generateFrameClasses(true)
+                .build();
+
+        InstrumentationSettings copy = SerializationUtils.clone(settings);
+
+        assertEquals(settings.toString(), copy.toString());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void mustFailOnNullMarkerType() {
+        new InstrumentationSettings.Builder(null, false, true);
+    }
+}
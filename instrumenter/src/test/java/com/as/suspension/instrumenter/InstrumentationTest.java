@@ -25,12 +25,17 @@ import com.as.suspension.user.SuspendableContext;
 import com.as.suspension.user.Suspendable;
 import com.as.suspension.user.CoroutineRunner;
 import com.as.suspension.user.MethodState;
+import com.as.suspension.user.FrameStorage;
 import java.io.File;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 import static org.apache.commons.lang3.reflect.ConstructorUtils.invokeConstructor;
 import static org.apache.commons.lang3.reflect.FieldUtils.readField;
 import static org.apache.commons.lang3.reflect.MethodUtils.invokeStaticMethod;
@@ -38,12 +43,17 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
 public final class InstrumentationTest {
 
@@ -144,6 +154,45 @@ public final class InstrumentationTest {
         performCountTest(SharedConstants.EMPTY_CONTINUATION_POINT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
     }
 
+    @Test
+    public void mustProperlySuspendWithEmptyContinuationPointsWhenPruningNonSuspendingCalls() throws Exception {
+        performCountTest(SharedConstants.EMPTY_CONTINUATION_POINT_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).pruneNonSuspendingCalls(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenPruningNonSuspendingCalls() throws Exception {
+        performCountTest(SharedConstants.COMPLEX_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).pruneNonSuspendingCalls(true).build());
+    }
+
+    @Test
+    public void mustDropNonSuspendingCallSitesWhenPruningNonSuspendingCalls() throws Exception {
+        String testClass = SharedConstants.EMPTY_CONTINUATION_POINT_INVOKE_TEST;
+        Map<String, Integer> cpCounts = getContinuationPointCounts(testClass, new InstrumentationSettings(MarkerType.NONE, false, true));
+        Map<String, Integer> prunedCpCounts = getContinuationPointCounts(testClass,
+                new InstrumentationSettings.Builder(MarkerType.NONE, false, true).pruneNonSuspendingCalls(true).build());
+
+        // echo() calls doNothingContinuationPoint() (which never suspends) and then suspend() -- only the call to suspend() must remain a
+        // continuation point, and doNothingContinuationPoint() itself must not be instrumented
+        assertEquals(2, (int) cpCounts.get("echo"));
+        assertEquals(1, (int) prunedCpCounts.get("echo"));
+        assertEquals(cpCounts.get("run"), prunedCpCounts.get("run"));
+        assertFalse(prunedCpCounts.containsKey("doNothingContinuationPoint"));
+    }
+
+    @Test
+    public void mustNotDropSuspendingCallSitesWhenPruningNonSuspendingCalls() throws Exception {
+        String testClass = SharedConstants.COMPLEX_TEST;
+        Map<String, Integer> cpCounts = getContinuationPointCounts(testClass, new InstrumentationSettings(MarkerType.NONE, false, true));
+        Map<String, Integer> prunedCpCounts = getContinuationPointCounts(testClass,
+                new InstrumentationSettings.Builder(MarkerType.NONE, false, true).pruneNonSuspendingCalls(true).build());
+
+        // every call in this class can end up suspending, so nothing must get pruned
+        assertEquals(4, cpCounts.size());
+        assertEquals(cpCounts, prunedCpCounts);
+    }
+
     // Mix of many tests in to a single coroutine
     @Test
     public void mustProperlySuspendInNonTrivialCoroutine() throws Exception {
@@ -151,6 +200,181 @@ public final class InstrumentationTest {
     }
 
 
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenOutliningSaveBlocks() throws Exception {
+        performCountTest(SharedConstants.COMPLEX_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).outlineSaveBlocks(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesWhenOutliningSaveBlocks() throws Exception {
+        performCountTest(SharedConstants.BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).outlineSaveBlocks(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithNullTypeInLocalVariableTableWhenOutliningSaveBlocks() throws Exception {
+        performCountTest(SharedConstants.NULL_TYPE_IN_LOCAL_VARIABLE_TABLE_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).outlineSaveBlocks(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenReusingStorageArrays() throws Exception {
+        performCountTest(SharedConstants.COMPLEX_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).reuseStorageArrays(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenReusingStorageArraysAndOutliningSaveBlocks() throws Exception {
+        performCountTest(SharedConstants.COMPLEX_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true)
+                        .outlineSaveBlocks(true)
+                        .reuseStorageArrays(true)
+                        .build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesWhenReusingStorageArrays() throws Exception {
+        performCountTest(SharedConstants.BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).reuseStorageArrays(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithNullTypeInLocalVariableTableWhenReusingStorageArrays() throws Exception {
+        performCountTest(SharedConstants.NULL_TYPE_IN_LOCAL_VARIABLE_TABLE_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).reuseStorageArrays(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenGeneratingFrameClasses() throws Exception {
+        performCountTest(SharedConstants.COMPLEX_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).generateFrameClasses(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenGeneratingFrameClassesAndOutliningSaveBlocksAndReusingStorageArrays()
+            throws Exception {
+        performCountTest(SharedConstants.COMPLEX_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true)
+                        .outlineSaveBlocks(true)
+                        .reuseStorageArrays(true)
+                        .generateFrameClasses(true)
+                        .build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesWhenGeneratingFrameClasses() throws Exception {
+        performCountTest(SharedConstants.BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).generateFrameClasses(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesWhenGeneratingFrameClassesAndOutliningSaveBlocks() throws Exception {
+        performCountTest(SharedConstants.BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true)
+                        .outlineSaveBlocks(true)
+                        .generateFrameClasses(true)
+                        .build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnLongsWhenGeneratingFrameClasses() throws Exception {
+        performCountTest(SharedConstants.LONG_RETURN_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).generateFrameClasses(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnDoublesWhenGeneratingFrameClasses() throws Exception {
+        performDoubleCountTest(SharedConstants.DOUBLE_RETURN_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).generateFrameClasses(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithNullTypeInLocalVariableTableWhenGeneratingFrameClasses() throws Exception {
+        performCountTest(SharedConstants.NULL_TYPE_IN_LOCAL_VARIABLE_TABLE_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).generateFrameClasses(true).build());
+    }
+
+    @Test
+    public void mustSaveInToFrameClassesWhenGeneratingFrameClasses() throws Exception {
+        MethodState[] states = captureMethodStatesAcrossCycles(
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).generateFrameClasses(true).build());
+        for (MethodState state : states) {
+            assertNull(state.getData());
+            assertNotNull(state.getFrame());
+            assertEquals(FrameStorage.getFrameClassName(state.getClassName(), state.getMethodId()), state.getFrame().getClass().getName());
+        }
+    }
+
+    @Test
+    public void mustReuseMethodStateWhenSuspendingAgainFromSameContinuationPoint() throws Exception {
+        // run() invokes echo() in a loop and echo() suspends, so run() gets restored and saved again at the same point on every cycle
+        // while echo() is a new invocation on every cycle
+        MethodState[] reusedStates = captureMethodStatesAcrossCycles(
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).reuseStorageArrays(true).build());
+        assertSame(reusedStates[0], reusedStates[2]);
+        assertSame(reusedStates[0].getData(), reusedStates[2].getData());
+        assertNotSame(reusedStates[1], reusedStates[3]);
+
+        MethodState[] newStates = captureMethodStatesAcrossCycles(new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        assertNotSame(newStates[0], newStates[2]);
+        assertNotSame(newStates[1], newStates[3]);
+    }
+
+    private MethodState[] captureMethodStatesAcrossCycles(InstrumentationSettings settings) throws Exception {
+        StringBuilder builder = new StringBuilder();
+
+        try (URLClassLoader classLoader = TestUtils.loadClassesInZipResourceAndInstrument(SharedConstants.BASIC_TYPE_INVOKE_TEST + ".zip",
+                settings)) {
+            Class<Suspendable> cls = (Class<Suspendable>) classLoader.loadClass(SharedConstants.BASIC_TYPE_INVOKE_TEST);
+            Suspendable suspendable = invokeConstructor(cls, builder);
+
+            CoroutineRunner runner = new CoroutineRunner(suspendable);
+            SuspendableContext suspendableContext = (SuspendableContext) readField(runner, "suspendableContext", true);
+
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertEquals(2, suspendableContext.getSize());
+            MethodState firstRunState = suspendableContext.getSaved(0);
+            MethodState firstEchoState = suspendableContext.getSaved(1);
+
+            assertTrue(runner.execute());
+            assertEquals(2, suspendableContext.getSize());
+            MethodState secondRunState = suspendableContext.getSaved(0);
+            MethodState secondEchoState = suspendableContext.getSaved(1);
+
+            assertEquals("started\n0\n1\n2\n", builder.toString());
+            assertEquals(firstRunState.getContinuationPoint(), secondRunState.getContinuationPoint());
+            return new MethodState[] { firstRunState, firstEchoState, secondRunState, secondEchoState };
+        }
+    }
+
+    @Test
+    public void mustMoveSaveBlocksInToHelperMethodsWhenOutliningSaveBlocks() throws Exception {
+        byte[] classContent = TestUtils.readZipFromResource(SharedConstants.COMPLEX_TEST + ".zip")
+                .get(SharedConstants.COMPLEX_TEST + ".class");
+        Instrumenter instrumenter = new Instrumenter(TestUtils.getClasspath());
+
+        ClassNode inlinedClassNode = readClassNode(instrumenter.instrument(classContent,
+                new InstrumentationSettings(MarkerType.NONE, false, true)).getInstrumentedClass());
+        ClassNode outlinedClassNode = readClassNode(instrumenter.instrument(classContent,
+                new InstrumentationSettings.Builder(MarkerType.NONE, false, true).outlineSaveBlocks(true).build()).getInstrumentedClass());
+
+        List<MethodNode> helperMethodNodes = outlinedClassNode.methods.stream()
+                .filter(x -> x.name.startsWith(InternalFields.INSTRUMENTED_SAVE_METHOD_PREFIX))
+                .collect(Collectors.toList());
+        assertFalse(helperMethodNodes.isEmpty());
+        assertTrue(helperMethodNodes.stream().allMatch(x -> x.access == InternalFields.INSTRUMENTED_SAVE_METHOD_ACCESS));
+        assertEquals(inlinedClassNode.methods.size() + helperMethodNodes.size(), outlinedClassNode.methods.size());
+
+        for (MethodNode inlinedMethodNode : inlinedClassNode.methods) {
+            MethodNode outlinedMethodNode = outlinedClassNode.methods.stream()
+                    .filter(x -> x.name.equals(inlinedMethodNode.name) && x.desc.equals(inlinedMethodNode.desc))
+                    .findAny().get();
+            assertTrue(outlinedMethodNode.instructions.size() <= inlinedMethodNode.instructions.size());
+        }
+    }
+
     @Test
     public void mustProperlySuspendInNonTrivialCoroutineWhenDebugModeSet() throws Exception {
         performCountTest(SharedConstants.COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, true, true));
@@ -260,18 +484,17 @@ public final class InstrumentationTest {
 
         assertTrue(hit);
         
-        MethodState firstPointer = (MethodState) readField(suspendableContext, "firstPointer", true);
-        MethodState nextLoadPointer = (MethodState) readField(suspendableContext, "nextLoadPointer", true);
-        MethodState nextUnloadPointer = (MethodState) readField(suspendableContext, "nextUnloadPointer", true);
-        MethodState firstCutpointPointer = (MethodState) readField(suspendableContext, "firstCutpointPointer", true);
+        MethodState[] frames = (MethodState[]) readField(suspendableContext, "frames", true);
+        int nextLoadIdx = (int) readField(suspendableContext, "nextLoadIdx", true);
+        int nextUnloadIdx = (int) readField(suspendableContext, "nextUnloadIdx", true);
+        int cutpointCount = (int) readField(suspendableContext, "cutpointCount", true);
         assertEquals(2, suspendableContext.getSize());
         assertNotNull(suspendableContext.getSaved(0));
         assertNotNull(suspendableContext.getSaved(1));
-        assertNotNull(firstPointer);
-        assertNotNull(nextLoadPointer);
-        assertTrue(firstPointer == nextLoadPointer);
-        assertNull(nextUnloadPointer);
-        assertNull(firstCutpointPointer);
+        assertNotNull(frames[0]);
+        assertEquals(0, nextLoadIdx);
+        assertEquals(-1, nextUnloadIdx);
+        assertEquals(0, cutpointCount);
     }
 
     private void performCountTest(String testClass, InstrumentationSettings settings) throws Exception {
@@ -444,6 +667,27 @@ public final class InstrumentationTest {
     
     @Test
     public void mustKeepTrackOfSynchronizedBlocks() throws Exception {
+        performMonitorTrackingTest(new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+    }
+
+    @Test
+    public void mustKeepTrackOfSynchronizedBlocksWhenOutliningSaveBlocks() throws Exception {
+        performMonitorTrackingTest(new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).outlineSaveBlocks(true).build());
+    }
+
+    @Test
+    public void mustKeepTrackOfSynchronizedBlocksWhenReusingStorageArrays() throws Exception {
+        performMonitorTrackingTest(new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).reuseStorageArrays(true).build());
+    }
+
+    @Test
+    public void mustKeepTrackOfSynchronizedBlocksWhenGeneratingFrameClasses() throws Exception {
+        performMonitorTrackingTest(new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true)
+                .generateFrameClasses(true)
+                .build());
+    }
+
+    private void performMonitorTrackingTest(InstrumentationSettings settings) throws Exception {
         LinkedList<String> tracker = new LinkedList<>();
         
         // mon1/mon2/mon3 all point to different objects that are logically equivalent but different objects. Tracking should ignore logical
@@ -454,7 +698,8 @@ public final class InstrumentationTest {
         Object mon3 = new ArrayList<>();
 
         // All we're testing here is tracking. It's difficult to test to see if monitors were re-entered/exited.
-        try (URLClassLoader classLoader = TestUtils.loadClassesInZipResourceAndInstrument(SharedConstants.MONITOR_INVOKE_TEST + ".zip")) {
+        try (URLClassLoader classLoader = TestUtils.loadClassesInZipResourceAndInstrument(SharedConstants.MONITOR_INVOKE_TEST + ".zip",
+                settings)) {
             Class<Suspendable> cls = (Class<Suspendable>) classLoader.loadClass(SharedConstants.MONITOR_INVOKE_TEST);
             Suspendable suspendable = invokeConstructor(cls, tracker, mon1, mon2, mon3);
 
@@ -490,4 +735,34 @@ public final class InstrumentationTest {
             assertFalse(runner.execute()); // suspendable finished executing here
         }
     }
+
+    // Instruments a test class and reads the number of continuation points in each instrumented method out of its .coroutinesinfo file
+    private static Map<String, Integer> getContinuationPointCounts(String testClass, InstrumentationSettings settings) throws Exception {
+        byte[] classContent = TestUtils.readZipFromResource(testClass + ".zip").get(testClass + ".class");
+        SuspendAnalysis suspendAnalysis = SuspendAnalysis.create(Arrays.asList(classContent));
+
+        InstrumentationResult result;
+        try (Instrumenter instrumenter = new Instrumenter(TestUtils.getClasspath())) {
+            result = instrumenter.instrument(classContent, settings, suspendAnalysis);
+        }
+
+        String info = new String(result.getExtraFiles().get(testClass + ".coroutinesinfo"), StandardCharsets.UTF_8);
+        Map<String, Integer> ret = new TreeMap<>();
+        String methodName = null;
+        for (String line : info.split("\n")) {
+            if (line.startsWith("Method Name: ")) {
+                methodName = line.substring("Method Name: ".length());
+                ret.put(methodName, 0);
+            } else if (line.startsWith("SuspendableContext Point ID: ")) {
+                ret.put(methodName, ret.get(methodName) + 1);
+            }
+        }
+        return ret;
+    }
+
+    private static ClassNode readClassNode(byte[] classData) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classData).accept(classNode, 0);
+        return classNode;
+    }
 }
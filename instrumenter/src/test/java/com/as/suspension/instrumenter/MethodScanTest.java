@@ -0,0 +1,71 @@
+package com.as.suspension.instrumenter;
+
+import com.as.suspension.instrumenter.asm.SearchUtils;
+import com.as.suspension.instrumenter.testhelpers.TestUtils;
+import com.as.suspension.user.SuspendableContext;
+import java.lang.reflect.Method;
+import java.util.Map;
+import org.apache.commons.lang3.reflect.MethodUtils;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodNode;
+
+public final class MethodScanTest {
+
+    private static final Type CONTINUATION_CLASS_TYPE = Type.getType(SuspendableContext.class);
+    private static final Method CONTINUATION_SUSPEND_METHOD = MethodUtils.getAccessibleMethod(SuspendableContext.class, "suspend");
+
+    @Test
+    public void mustMatchSearchUtilsResults() throws Exception {
+        int pointCount = 0;
+        for (String zip : new String[] {"ExceptionSuspendTest.zip", "MonitorInvokeTest.zip", "ComplexTest.zip", "NormalInvokeTest.zip"}) {
+            Map<String, ClassNode> classNodes = TestUtils.readZipResourcesAsClassNodes(zip);
+            for (ClassNode classNode : classNodes.values()) {
+                for (MethodNode methodNode : classNode.methods) {
+                    pointCount += checkMethod(methodNode);
+                }
+            }
+        }
+        assertTrue(pointCount > 0);
+    }
+
+    private static int checkMethod(MethodNode methodNode) {
+        MethodScan scan = MethodScan.scan(methodNode, CONTINUATION_SUSPEND_METHOD, CONTINUATION_CLASS_TYPE);
+
+        assertEquals(SearchUtils.findInvocationsOf(methodNode.instructions, CONTINUATION_SUSPEND_METHOD),
+                scan.getSuspendInvocations());
+        assertEquals(SearchUtils.findInvocationsWithParameter(methodNode.instructions, CONTINUATION_CLASS_TYPE),
+                scan.getContinuationInvocations());
+        assertEquals(SearchUtils.searchForOpcodes(methodNode.instructions, Opcodes.MONITORENTER, Opcodes.MONITOREXIT),
+                scan.getMonitorInstructions());
+        assertFalse(scan.isJsrFound());
+
+        int pointCount = 0;
+        for (AbstractInsnNode insnNode : methodNode.instructions.toArray()) {
+            if (!scan.getSuspendInvocations().contains(insnNode)
+                    && !scan.getContinuationInvocations().contains(insnNode)
+                    && !scan.getMonitorInstructions().contains(insnNode)) {
+                continue;
+            }
+
+            assertEquals(methodNode.instructions.indexOf(insnNode), scan.getIndex(insnNode));
+
+            LineNumberNode lineNumberNode = SearchUtils.findLineNumberForInstruction(methodNode.instructions, insnNode);
+            assertEquals(lineNumberNode != null ? lineNumberNode.line : null, scan.getLineNumber(insnNode));
+
+            boolean withinTryCatch = !SearchUtils.findTryCatchBlockNodesEncompassingInstruction(methodNode.instructions,
+                    methodNode.tryCatchBlocks, insnNode).isEmpty();
+            assertEquals(withinTryCatch, scan.isWithinTryCatch(insnNode));
+
+            pointCount++;
+        }
+        return pointCount;
+    }
+}
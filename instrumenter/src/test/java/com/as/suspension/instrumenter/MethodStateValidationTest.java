@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter;
+
+import com.as.suspension.user.MethodState;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public final class MethodStateValidationTest {
+
+    @Test
+    public void mustRetryClassThatWasMissingOnceMissExpires() throws Exception {
+        ToggleClassLoader classLoader = new ToggleClassLoader("missing.Target");
+
+        try {
+            MethodState.isValid(classLoader, "missing.Target", 0, 0);
+            fail();
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+
+        classLoader.visible = true;
+        Thread.sleep(1500L); // misses are cached for 1 second
+
+        assertFalse(MethodState.isValid(classLoader, "missing.Target", 0, 0)); // found, but has no continuation points
+    }
+
+    // Only finds the target class once it's made visible (hands back an unrelated class for it, which is enough for validation)
+    private static final class ToggleClassLoader extends ClassLoader {
+        private final String targetName;
+        private volatile boolean visible;
+
+        ToggleClassLoader(String targetName) {
+            super(null);
+            this.targetName = targetName;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (visible && name.equals(targetName)) {
+                return Object.class;
+            }
+            throw new ClassNotFoundException(name);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter;
+
+import com.as.suspension.instrumenter.generators.DebugGenerators.MarkerType;
+import com.as.suspension.instrumenter.testhelpers.TestUtils;
+import com.as.suspension.user.CoroutineRunner;
+import com.as.suspension.user.Suspendable;
+import com.as.suspension.user.SuspendableContext;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+public final class PluginHelperTest {
+
+    private static final int CLASS_COUNT = 32;
+
+    private File srcDir;
+    private File serialDstDir;
+    private File parallelDstDir;
+    private Instrumenter instrumenter;
+
+    @Before
+    public void before() throws Exception {
+        srcDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        serialDstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        parallelDstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            String name = "pluginhelpertest/Generated" + i;
+            FileUtils.writeByteArrayToFile(new File(srcDir, name + ".class"), generateSuspendableClass(name));
+        }
+        FileUtils.writeByteArrayToFile(new File(srcDir, "pluginhelpertest/Plain.class"), generatePlainClass("pluginhelpertest/Plain"));
+
+        List<File> classpath = TestUtils.getClasspath();
+        classpath.add(srcDir);
+        instrumenter = new Instrumenter(classpath);
+    }
+
+    @After
+    public void after() throws Exception {
+        FileUtils.deleteDirectory(srcDir);
+        FileUtils.deleteDirectory(serialDstDir);
+        FileUtils.deleteDirectory(parallelDstDir);
+    }
+
+    @Test
+    public void mustProduceSameOutputAndLogOrderWhenInstrumentingInParallel() throws Exception {
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true);
+
+        List<String> serialLog = new ArrayList<>();
+        PluginHelper.instrument(instrumenter, settings, srcDir, serialDstDir, 1, serialLog::add);
+
+        List<String> parallelLog = new ArrayList<>();
+        PluginHelper.instrument(instrumenter, settings, srcDir, parallelDstDir, 4, parallelLog::add);
+
+        assertEquals(CLASS_COUNT, serialLog.size()); // Plain doesn't get instrumented so it doesn't get logged
+        assertEquals(serialLog, parallelLog);
+
+        Collection<File> serialFiles = FileUtils.listFiles(serialDstDir, null, true);
+        Collection<File> parallelFiles = FileUtils.listFiles(parallelDstDir, null, true);
+        assertEquals(serialFiles.size(), parallelFiles.size());
+        for (File serialFile : serialFiles) {
+            String relativePath = serialDstDir.toPath().relativize(serialFile.toPath()).toString();
+            File parallelFile = new File(parallelDstDir, relativePath);
+            assertArrayEquals(FileUtils.readFileToByteArray(serialFile), FileUtils.readFileToByteArray(parallelFile));
+        }
+    }
+
+    @Test
+    public void mustReportFirstFailureInSourceOrderWhenInstrumentingInParallel() throws Exception {
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true);
+
+        File brokenFile = new File(srcDir, "pluginhelpertest/Generated1.class");
+        FileUtils.writeByteArrayToFile(brokenFile, new byte[] { 1, 2, 3 });
+
+        List<String> parallelLog = new ArrayList<>();
+        try {
+            PluginHelper.instrument(instrumenter, settings, srcDir, parallelDstDir, 4, parallelLog::add);
+            fail();
+        } catch (RuntimeException re) {
+            // expected
+        }
+
+        // Classes are processed in path order: Generated0 then Generated1 (broken) -- nothing after Generated1 should have been written
+        assertEquals(1, parallelLog.size());
+        assertTrue(parallelLog.get(0).contains("Generated0.class"));
+        assertEquals(1, FileUtils.listFiles(parallelDstDir, new String[] {"class"}, true).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailOnInvalidWorkerCount() throws Exception {
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true);
+        PluginHelper.instrument(instrumenter, settings, srcDir, serialDstDir, 0, Arrays.asList()::add);
+    }
+
+    @Test
+    public void mustSkipUnchangedClassesWhenInstrumentingIncrementally() throws Exception {
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true);
+        File stateFile = new File(serialDstDir.getParentFile(), serialDstDir.getName() + ".state");
+        try {
+            List<String> log = new ArrayList<>();
+            PluginHelper.instrumentIncrementally(instrumenter, settings, srcDir, serialDstDir, stateFile, 1, log::add);
+            assertEquals(CLASS_COUNT + 1, log.size()); // summary + every suspendable class
+            assertTrue(log.get(0).contains((CLASS_COUNT + 1) + " of " + (CLASS_COUNT + 1)));
+
+            log.clear();
+            PluginHelper.instrumentIncrementally(instrumenter, settings, srcDir, serialDstDir, stateFile, 1, log::add);
+            assertEquals(1, log.size());
+            assertTrue(log.get(0).contains("0 of " + (CLASS_COUNT + 1)));
+
+            // Change a class and remove the instrumented version of another -- only those 2 should get instrumented again
+            FileUtils.writeByteArrayToFile(new File(srcDir, "pluginhelpertest/Generated3.class"),
+                    generateSuspendableClass("pluginhelpertest/Generated3", "java/lang/Object", 7));
+            FileUtils.forceDelete(new File(serialDstDir, "pluginhelpertest/Generated5.class"));
+
+            log.clear();
+            PluginHelper.instrumentIncrementally(instrumenter, settings, srcDir, serialDstDir, stateFile, 1, log::add);
+            assertEquals(3, log.size());
+            assertTrue(log.get(0).contains("2 of " + (CLASS_COUNT + 1)));
+            assertTrue(log.get(1).contains("Generated3.class"));
+            assertTrue(log.get(2).contains("Generated5.class"));
+
+            // Different settings -- everything should get instrumented again
+            InstrumentationSettings otherSettings = new InstrumentationSettings(MarkerType.NONE, false, true);
+            log.clear();
+            PluginHelper.instrumentIncrementally(instrumenter, otherSettings, srcDir, serialDstDir, stateFile, 1, log::add);
+            assertTrue(log.get(0).contains((CLASS_COUNT + 1) + " of " + (CLASS_COUNT + 1)));
+        } finally {
+            FileUtils.deleteQuietly(stateFile);
+        }
+    }
+
+    @Test
+    public void mustReinstrumentSubclassesOfChangedClassesWhenInstrumentingIncrementallyInPlace() throws Exception {
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true);
+        File stateFile = new File(srcDir.getParentFile(), srcDir.getName() + ".state");
+        try {
+            FileUtils.writeByteArrayToFile(new File(srcDir, "pluginhelpertest/Sub.class"),
+                    generateSuspendableClass("pluginhelpertest/Sub", "pluginhelpertest/Plain", 42));
+            FileUtils.writeByteArrayToFile(new File(srcDir, "pluginhelpertest/SubSub.class"),
+                    generateSuspendableClass("pluginhelpertest/SubSub", "pluginhelpertest/Sub", 42));
+
+            List<String> log = new ArrayList<>();
+            PluginHelper.instrumentIncrementally(instrumenter, settings, srcDir, srcDir, stateFile, 4, log::add);
+            assertEquals(CLASS_COUNT + 3, log.size()); // summary + every suspendable class
+
+            log.clear();
+            PluginHelper.instrumentIncrementally(instrumenter, settings, srcDir, srcDir, stateFile, 4, log::add);
+            assertEquals(1, log.size());
+            assertTrue(log.get(0).contains("0 of " + (CLASS_COUNT + 3)));
+
+            // Change Plain -- Sub and SubSub extend from it so they need to be processed again
+            FileUtils.writeByteArrayToFile(new File(srcDir, "pluginhelpertest/Plain.class"),
+                    generateSuspendableClass("pluginhelpertest/Plain", "java/lang/Object", 1));
+
+            log.clear();
+            PluginHelper.instrumentIncrementally(instrumenter, settings, srcDir, srcDir, stateFile, 4, log::add);
+            assertEquals(4, log.size()); // summary + Plain/Sub/SubSub instrumented again from their original class files
+            assertTrue(log.get(0).contains("3 of " + (CLASS_COUNT + 3)));
+            assertTrue(log.get(1).contains("Plain.class"));
+            assertTrue(log.get(2).contains("Sub.class"));
+            assertTrue(log.get(3).contains("SubSub.class"));
+            assertSuspendsOnce(srcDir, "pluginhelpertest.Plain", "pluginhelpertest.Sub", "pluginhelpertest.SubSub");
+
+            // Change settings -- everything needs to be instrumented again from the original class files, not the instrumented ones
+            InstrumentationSettings newSettings = new InstrumentationSettings(MarkerType.NONE, false, true);
+            File subFile = new File(srcDir, "pluginhelpertest/Sub.class");
+            File subSubFile = new File(srcDir, "pluginhelpertest/SubSub.class");
+            byte[] oldSubData = FileUtils.readFileToByteArray(subFile);
+            byte[] oldSubSubData = FileUtils.readFileToByteArray(subSubFile);
+
+            log.clear();
+            PluginHelper.instrumentIncrementally(instrumenter, newSettings, srcDir, srcDir, stateFile, 4, log::add);
+            assertEquals(CLASS_COUNT + 4, log.size()); // summary + every class
+            assertTrue(log.get(0).contains((CLASS_COUNT + 3) + " of " + (CLASS_COUNT + 3)));
+
+            byte[] newSubData = FileUtils.readFileToByteArray(subFile);
+            byte[] newSubSubData = FileUtils.readFileToByteArray(subSubFile);
+            assertFalse(Arrays.equals(oldSubData, newSubData));
+            assertFalse(Arrays.equals(oldSubSubData, newSubSubData));
+            assertArrayEquals(
+                    instrumenter.instrument(generateSuspendableClass("pluginhelpertest/Sub", "pluginhelpertest/Plain", 42), newSettings)
+                            .getInstrumentedClass(),
+                    newSubData);
+            assertArrayEquals(
+                    instrumenter.instrument(generateSuspendableClass("pluginhelpertest/SubSub", "pluginhelpertest/Sub", 42), newSettings)
+                            .getInstrumentedClass(),
+                    newSubSubData);
+            assertSuspendsOnce(srcDir, "pluginhelpertest.Plain", "pluginhelpertest.Sub", "pluginhelpertest.SubSub");
+        } finally {
+            FileUtils.deleteQuietly(stateFile);
+            FileUtils.deleteQuietly(new File(stateFile.getPath() + ".pristine"));
+        }
+    }
+
+    @Test
+    public void mustRemovePristineCopiesWhenNoLongerInstrumentingInPlace() throws Exception {
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true);
+        File stateFile = new File(srcDir.getParentFile(), srcDir.getName() + ".state");
+        File pristineDir = new File(stateFile.getPath() + ".pristine");
+        try {
+            PluginHelper.instrumentIncrementally(instrumenter, settings, srcDir, srcDir, stateFile, 4, x -> { });
+            assertEquals(CLASS_COUNT, pristineDir.list().length); // one per instrumented class
+
+            FileUtils.cleanDirectory(srcDir);
+            FileUtils.writeByteArrayToFile(new File(srcDir, "pluginhelpertest/Plain.class"), generatePlainClass("pluginhelpertest/Plain"));
+            PluginHelper.instrumentIncrementally(instrumenter, settings, srcDir, srcDir, stateFile, 4, x -> { });
+            assertFalse(pristineDir.exists());
+        } finally {
+            FileUtils.deleteQuietly(stateFile);
+            FileUtils.deleteQuietly(pristineDir);
+        }
+    }
+
+    @Test
+    public void mustFindSubtypeClassFiles() throws Exception {
+        File subFile = new File(srcDir, "pluginhelpertest/Sub.class");
+        File subSubFile = new File(srcDir, "pluginhelpertest/SubSub.class");
+        FileUtils.writeByteArrayToFile(subFile, generateSuspendableClass("pluginhelpertest/Sub", "pluginhelpertest/Plain", 42));
+        FileUtils.writeByteArrayToFile(subSubFile, generateSuspendableClass("pluginhelpertest/SubSub", "pluginhelpertest/Sub", 42));
+
+        Collection<File> classFiles = FileUtils.listFiles(srcDir, new String[] {"class"}, true);
+        assertEquals(new HashSet<>(Arrays.asList(subFile, subSubFile)),
+                PluginHelper.findSubtypeClassFiles(classFiles, Collections.singleton("pluginhelpertest/Plain")));
+        assertEquals(Collections.singleton(subSubFile),
+                PluginHelper.findSubtypeClassFiles(classFiles, Collections.singleton("pluginhelpertest/Sub")));
+        assertEquals(Collections.emptySet(),
+                PluginHelper.findSubtypeClassFiles(classFiles, Collections.singleton("pluginhelpertest/Generated0")));
+    }
+
+    @Test
+    public void mustFingerprintInstrumenterCode() {
+        String fingerprint = Instrumenter.getCodeFingerprint();
+
+        assertTrue(fingerprint, fingerprint.matches("[0-9a-f]{64}")); // tests run with the instrumenter in a classes folder, so it's hashed
+        assertEquals(fingerprint, Instrumenter.getCodeFingerprint());
+    }
+
+    private static void assertSuspendsOnce(File classDir, String... classNames) throws Exception {
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] { classDir.toURI().toURL() }, PluginHelperTest.class.getClassLoader())) {
+            for (String className : classNames) {
+                Suspendable suspendable = (Suspendable) classLoader.loadClass(className).newInstance();
+                CoroutineRunner runner = new CoroutineRunner(suspendable);
+                assertTrue(runner.execute());
+                assertFalse(runner.execute());
+            }
+        }
+    }
+
+    private static byte[] generateSuspendableClass(String name) {
+        return generateSuspendableClass(name, "java/lang/Object", 42);
+    }
+
+    private static byte[] generateSuspendableClass(String name, String superName, int value) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName,
+                new String[] { Type.getInternalName(Suspendable.class) });
+        generateConstructor(cw, superName);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", Type.getMethodDescriptor(Type.VOID_TYPE,
+                Type.getType(SuspendableContext.class)), null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(value);
+        mv.visitVarInsn(Opcodes.ISTORE, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(SuspendableContext.class), "suspend", "()V", false);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] generatePlainClass(String name) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        generateConstructor(cw, "java/lang/Object");
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void generateConstructor(ClassWriter cw, String superName) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+}
@@ -25,6 +25,8 @@ import com.as.suspension.user.Suspendable;
 import com.as.suspension.user.CoroutineReader;
 import com.as.suspension.user.CoroutineRunner;
 import com.as.suspension.user.CoroutineWriter;
+import com.as.suspension.user.SerializedState.FrameInterceptPoint;
+import com.as.suspension.user.SerializedState.FrameUpdatePoint;
 import java.net.URLClassLoader;
 import java.util.concurrent.ArrayBlockingQueue;
 import static org.apache.commons.lang3.reflect.ConstructorUtils.invokeConstructor;
@@ -97,7 +99,39 @@ public final class SerializationTest {
         performIntCountTest(SharedConstants.EMPTY_CONTINUATION_POINT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
     }
 
+    @Test
+    public void mustProperlySuspendWithCompactSerializer() throws Exception {
+        performIntCountTest(SharedConstants.BASIC_TYPE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                new CoroutineWriter(new CoroutineWriter.CompactCoroutineSerializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]),
+                new CoroutineReader(new CoroutineReader.CompactCoroutineDeserializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]));
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesWhenGeneratingFrameClasses() throws Exception {
+        performIntCountTest(SharedConstants.BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).generateFrameClasses(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnDoublesWhenGeneratingFrameClasses() throws Exception {
+        performDoubleCountTest(SharedConstants.DOUBLE_RETURN_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).generateFrameClasses(true).build());
+    }
+
+    @Test
+    public void mustProperlySuspendWithCompactSerializerWhenGeneratingFrameClasses() throws Exception {
+        performIntCountTest(SharedConstants.BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings.Builder(MarkerType.CONSTANT, false, true).generateFrameClasses(true).build(),
+                new CoroutineWriter(new CoroutineWriter.CompactCoroutineSerializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]),
+                new CoroutineReader(new CoroutineReader.CompactCoroutineDeserializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]));
+    }
+
     private void performIntCountTest(String testClass, InstrumentationSettings settings) throws Exception {
+        performIntCountTest(testClass, settings, new CoroutineWriter(), new CoroutineReader());
+    }
+
+    private void performIntCountTest(String testClass, InstrumentationSettings settings, CoroutineWriter writer, CoroutineReader reader)
+            throws Exception {
         // This test is being wrapped in a new thread where the thread's context classlaoder is being set to the classloader of the zip
         // we're dynamically loading. We need to do this being ObjectInputStream uses the system classloader by default, not the thread's
         // classloader. CoroutineReader has been modified to use the thread's classloader if the system's classloader fails.
@@ -111,20 +145,20 @@ public final class SerializationTest {
                     // Create and run original for a few cycles
                     CoroutineRunner runner = new CoroutineRunner(suspendable);
 
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertFalse((runner = writeReadExecute(runner)).execute()); // suspendable finished executing here
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertFalse((runner = writeReadExecute(runner, writer, reader)).execute()); // suspendable finished executing here
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
+                    assertTrue((runner = writeReadExecute(runner, writer, reader)).execute());
 
                     // Assert everything continued fine with deserialized version
                     Object deserializedCoroutine = readField(runner, "suspendable", true);
@@ -167,8 +201,12 @@ public final class SerializationTest {
     }
 
     private CoroutineRunner writeReadExecute(CoroutineRunner runner) {
-        byte[] data = new CoroutineWriter().write(runner);
-        CoroutineRunner reconstructedRunner = new CoroutineReader().read(data);
+        return writeReadExecute(runner, new CoroutineWriter(), new CoroutineReader());
+    }
+
+    private CoroutineRunner writeReadExecute(CoroutineRunner runner, CoroutineWriter writer, CoroutineReader reader) {
+        byte[] data = writer.write(runner);
+        CoroutineRunner reconstructedRunner = reader.read(data);
         return reconstructedRunner;
     }
 
@@ -0,0 +1,170 @@
+package com.as.suspension.instrumenter;
+
+import com.as.suspension.instrumenter.generators.DebugGenerators.MarkerType;
+import com.as.suspension.instrumenter.testhelpers.TestUtils;
+import com.as.suspension.user.SuspendableContext;
+import java.util.Arrays;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+public final class SuspendAnalysisTest {
+
+    private static final String CONT_NAME = Type.getInternalName(SuspendableContext.class);
+    private static final String CONT_DESC = "(" + Type.getDescriptor(SuspendableContext.class) + ")V";
+
+    @Test
+    public void mustIdentifyMethodsThatNeverSuspend() {
+        SuspendAnalysis analysis = SuspendAnalysis.create(Arrays.asList(generateHelpers(0), generateHelpers(Opcodes.ACC_FINAL)));
+
+        for (String owner : new String[] {"Helpers", "FinalHelpers"}) {
+            assertTrue(analysis.isNonSuspendingMethod(owner, "empty", CONT_DESC));
+            assertTrue(analysis.isNonSuspendingMethod(owner, "passAlong", CONT_DESC));
+            assertTrue(analysis.isNonSuspendingMethod(owner, "recursive", CONT_DESC));
+            assertTrue(analysis.isNonSuspendingMethod(owner, "overridable", CONT_DESC));
+            assertFalse(analysis.isNonSuspendingMethod(owner, "suspends", CONT_DESC));
+            assertFalse(analysis.isNonSuspendingMethod(owner, "callsSuspends", CONT_DESC));
+            assertFalse(analysis.isNonSuspendingMethod(owner, "callsUnknown", CONT_DESC));
+        }
+
+        // Invoking overridable() is only fine if the class is final
+        assertFalse(analysis.isNonSuspendingMethod("Helpers", "callsOverridable", CONT_DESC));
+        assertTrue(analysis.isNonSuspendingMethod("FinalHelpers", "callsOverridable", CONT_DESC));
+    }
+
+    @Test
+    public void mustOnlyPruneInvocationsThatAlwaysGoToNonSuspendingMethod() {
+        SuspendAnalysis analysis = SuspendAnalysis.create(Arrays.asList(generateHelpers(0)));
+
+        assertTrue(analysis.isNonSuspendingInvocation(invoke(Opcodes.INVOKESTATIC, "Helpers", "empty")));
+        assertFalse(analysis.isNonSuspendingInvocation(invoke(Opcodes.INVOKESTATIC, "Helpers", "suspends")));
+        assertFalse(analysis.isNonSuspendingInvocation(invoke(Opcodes.INVOKEVIRTUAL, "Helpers", "overridable")));
+        assertFalse(analysis.isNonSuspendingInvocation(invoke(Opcodes.INVOKEVIRTUAL, "Helpers", "empty"))); // static mismatch
+        assertFalse(analysis.isNonSuspendingInvocation(invoke(Opcodes.INVOKESTATIC, "Unknown", "empty")));
+    }
+
+    @Test
+    public void mustChangeFingerprintWhenResultsChange() {
+        SuspendAnalysis analysis1 = SuspendAnalysis.create(Arrays.asList(generateHelpers(0)));
+        SuspendAnalysis analysis2 = SuspendAnalysis.create(Arrays.asList(generateHelpers(0)));
+        SuspendAnalysis analysis3 = SuspendAnalysis.create(Arrays.asList(generateHelpers(Opcodes.ACC_FINAL)));
+
+        assertEquals(analysis1.fingerprint(), analysis2.fingerprint());
+        assertNotEquals(analysis1.fingerprint(), analysis3.fingerprint());
+    }
+
+    @Test
+    public void mustLeaveNonSuspendingMethodsUninstrumented() throws Exception {
+        Map<String, byte[]> classes = TestUtils.readZipFromResource(SharedConstants.EMPTY_CONTINUATION_POINT_INVOKE_TEST + ".zip");
+        byte[] input = classes.get(SharedConstants.EMPTY_CONTINUATION_POINT_INVOKE_TEST + ".class");
+        SuspendAnalysis analysis = SuspendAnalysis.create(Arrays.asList(input));
+        Instrumenter instrumenter = new Instrumenter(TestUtils.getClasspath());
+
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, false, false);
+        InstrumentationSettings pruneSettings = new InstrumentationSettings.Builder(MarkerType.NONE, false, false)
+                .pruneNonSuspendingCalls(true)
+                .build();
+        ClassNode original = readClass(input);
+        ClassNode instrumented = readClass(instrumenter.instrument(input, settings, analysis).getInstrumentedClass());
+        ClassNode pruned = readClass(instrumenter.instrument(input, pruneSettings, analysis).getInstrumentedClass());
+
+        // doNothingContinuationPoint() never suspends, so echo() no longer treats the call to it as a continuation point
+        assertTrue(analysis.isNonSuspendingMethod(original.name, "doNothingContinuationPoint", CONT_DESC));
+        assertFalse(analysis.isNonSuspendingMethod(original.name, "echo", "(" + Type.getDescriptor(SuspendableContext.class) + "I)V"));
+        assertEquals(size(original, "doNothingContinuationPoint"), size(pruned, "doNothingContinuationPoint"));
+        assertTrue(size(pruned, "echo") < size(instrumented, "echo"));
+
+        // Without pruning, doNothingContinuationPoint() gets invoked a second time when echo() restores its state. With pruning, echo()
+        // has no save/restore block for that call, so the original invocation is the only one.
+        assertEquals(2, countInvocations(instrumented, "echo", "doNothingContinuationPoint"));
+        assertEquals(1, countInvocations(pruned, "echo", "doNothingContinuationPoint"));
+    }
+
+    private static int countInvocations(ClassNode classNode, String methodName, String invokedMethodName) {
+        for (MethodNode methodNode : classNode.methods) {
+            if (methodNode.name.equals(methodName)) {
+                int count = 0;
+                for (AbstractInsnNode insnNode : methodNode.instructions.toArray()) {
+                    if (insnNode instanceof MethodInsnNode && ((MethodInsnNode) insnNode).name.equals(invokedMethodName)) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+        }
+        throw new IllegalArgumentException(methodName);
+    }
+
+    private static MethodInsnNode invoke(int opcode, String owner, String name) {
+        return new MethodInsnNode(opcode, owner, name, CONT_DESC, false);
+    }
+
+    private static ClassNode readClass(byte[] data) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(data).accept(classNode, 0);
+        return classNode;
+    }
+
+    private static int size(ClassNode classNode, String methodName) {
+        for (MethodNode methodNode : classNode.methods) {
+            if (methodNode.name.equals(methodName)) {
+                return methodNode.instructions.size();
+            }
+        }
+        throw new IllegalArgumentException(methodName);
+    }
+
+    private static byte[] generateHelpers(int classAccess) {
+        String name = (classAccess & Opcodes.ACC_FINAL) != 0 ? "FinalHelpers" : "Helpers";
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER | classAccess, name, null, "java/lang/Object", null);
+
+        generateMethod(cw, Opcodes.ACC_STATIC, "empty");
+        generateMethod(cw, Opcodes.ACC_STATIC, "passAlong", Opcodes.INVOKESTATIC, name, "empty");
+        generateMethod(cw, Opcodes.ACC_STATIC, "recursive", Opcodes.INVOKESTATIC, name, "recursive");
+        generateMethod(cw, 0, "overridable");
+        generateMethod(cw, Opcodes.ACC_STATIC, "suspends", Opcodes.INVOKEVIRTUAL, CONT_NAME, "suspend");
+        generateMethod(cw, Opcodes.ACC_STATIC, "callsSuspends", Opcodes.INVOKESTATIC, name, "suspends");
+        generateMethod(cw, Opcodes.ACC_STATIC, "callsUnknown", Opcodes.INVOKESTATIC, "Unknown", "empty");
+        generateMethod(cw, 0, "callsOverridable", Opcodes.INVOKEVIRTUAL, name, "overridable");
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void generateMethod(ClassWriter cw, int access, String name, Object ... invocation) {
+        boolean isStatic = (access & Opcodes.ACC_STATIC) != 0;
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | access, name, CONT_DESC, null, null);
+        mv.visitCode();
+        if (invocation.length > 0) {
+            int opcode = (int) invocation[0];
+            String owner = (String) invocation[1];
+            String invokedName = (String) invocation[2];
+            if (owner.equals(CONT_NAME)) {
+                mv.visitVarInsn(Opcodes.ALOAD, isStatic ? 0 : 1);
+                mv.visitMethodInsn(opcode, owner, invokedName, "()V", false);
+            } else {
+                if (opcode != Opcodes.INVOKESTATIC) {
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                }
+                mv.visitVarInsn(Opcodes.ALOAD, isStatic ? 0 : 1);
+                mv.visitMethodInsn(opcode, owner, invokedName, CONT_DESC, false);
+            }
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+}
@@ -56,7 +56,7 @@ public final class VersioningTest {
 
             CoroutineReader reader = new CoroutineReader(
                     new FrameInterceptPoint[]{
-                        new FrameInterceptPoint(SharedConstants.INTERCEPT_TEST, -926730864, 0, (frame, mode) -> {
+                        new FrameInterceptPoint(SharedConstants.INTERCEPT_TEST, -169089367, 0, (frame, mode) -> {
                             assertEquals(READ, mode);
 
                             int[] varInts = frame.getVariables().getInts();
@@ -103,7 +103,7 @@ public final class VersioningTest {
             CoroutineReader reader = new CoroutineReader();
             CoroutineWriter writer = new CoroutineWriter(
                     new FrameInterceptPoint[]{
-                        new FrameInterceptPoint(SharedConstants.INTERCEPT_TEST, -926730864, 0, (frame, mode) -> {
+                        new FrameInterceptPoint(SharedConstants.INTERCEPT_TEST, -169089367, 0, (frame, mode) -> {
                             assertEquals(WRITE, mode);
 
                             int[] varInts = frame.getVariables().getInts();
@@ -170,14 +170,14 @@ public final class VersioningTest {
         runWrapped(SharedConstants.UPDATE_TEST_MODIFIED, (classLoader) -> {
             Class<Suspendable> cls = (Class<Suspendable>) classLoader.loadClass(SharedConstants.UPDATE_TEST);
 
-            FrameUpdatePoint updateEchoPoint = new FrameUpdatePoint(SharedConstants.UPDATE_TEST, -526669244, 0, (frame, mode) -> {
+            FrameUpdatePoint updateEchoPoint = new FrameUpdatePoint(SharedConstants.UPDATE_TEST, -1941369450, 0, (frame, mode) -> {
                 Object[] varObjects =  frame.getVariables().getObjects();
                 
                 varObjects = Arrays.copyOf(varObjects, 4);
                 varObjects[3] = "_";
                 
                 return frame
-                        .withMethodId(-1238526627)
+                        .withMethodId(1715150145)
                         .withObjectVariables(varObjects);
             });
             CoroutineReader reader = new CoroutineReader(new FrameUpdatePoint[] { updateEchoPoint });
@@ -204,16 +204,16 @@ public final class VersioningTest {
 
             assertTrue(runner.execute());
 
-            // This adds a frame for -526669244 -- remember that the original frame is also saved. So if we read to the original version
+            // This adds a frame for -1941369450 -- remember that the original frame is also saved. So if we read to the original version
             // it will load up what this upgrader computes and returns, but if we read to the modified version it will load up what was
             // PASSED IN to this upgrader.
-            FrameUpdatePoint downgradeEchoPoint = new FrameUpdatePoint(SharedConstants.UPDATE_TEST, -1238526627, 0, (frame, mode) -> {
+            FrameUpdatePoint downgradeEchoPoint = new FrameUpdatePoint(SharedConstants.UPDATE_TEST, 1715150145, 0, (frame, mode) -> {
                 Object[] varObjects =  frame.getVariables().getObjects();
                 
                 varObjects = Arrays.copyOf(varObjects, 3); // trim the last item
                 
                 return frame
-                        .withMethodId(-526669244)
+                        .withMethodId(-1941369450)
                         .withObjectVariables(varObjects);
             });
             CoroutineWriter writer = new CoroutineWriter(new FrameUpdatePoint[] { downgradeEchoPoint });
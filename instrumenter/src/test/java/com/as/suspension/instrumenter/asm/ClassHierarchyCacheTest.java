@@ -0,0 +1,54 @@
+package com.as.suspension.instrumenter.asm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public final class ClassHierarchyCacheTest {
+
+    @Test
+    public void mustShareCacheForSameRepository() {
+        ClassInformationRepository repo1 = new ClassLoaderClassInformationRepository(getClass().getClassLoader());
+        ClassInformationRepository repo2 = new ClassLoaderClassInformationRepository(getClass().getClassLoader());
+
+        assertSame(ClassHierarchyCache.of(repo1), ClassHierarchyCache.of(repo1));
+        assertNotSame(ClassHierarchyCache.of(repo1), ClassHierarchyCache.of(repo2));
+    }
+
+    @Test
+    public void mustWalkHierarchyOnlyOnce() {
+        AtomicInteger lookups = new AtomicInteger();
+        FileSystemClassInformationRepository backingRepo = new FileSystemClassInformationRepository();
+        backingRepo.addIndividual("java/lang/Object", new ClassInformation("java/lang/Object", null, Collections.emptyList(), false));
+        backingRepo.addIndividual("I", new ClassInformation("I", "java/lang/Object", Collections.emptyList(), true));
+        backingRepo.addIndividual("A", new ClassInformation("A", "java/lang/Object", Collections.singletonList("I"), false));
+        backingRepo.addIndividual("B", new ClassInformation("B", "A", Collections.emptyList(), false));
+        backingRepo.addIndividual("C", new ClassInformation("C", "A", Collections.emptyList(), false));
+        ClassInformationRepository repo = internalClassName -> {
+            lookups.incrementAndGet();
+            return backingRepo.getInformation(internalClassName);
+        };
+        ClassHierarchyCache cache = ClassHierarchyCache.of(repo);
+
+        List<String> chain = cache.getSuperClassChain(repo, "B");
+        assertEquals(Arrays.asList("B", "A", "java/lang/Object"), chain);
+        assertEquals("A", cache.getCommonSuperClass(repo, "B", "C"));
+        Set<String> hierarchy = cache.getFlattenedHierarchy(repo, "B");
+        assertTrue(hierarchy.contains("I"));
+        assertFalse(hierarchy.contains("C"));
+
+        int lookupsAfterFirstPass = lookups.get();
+        assertSame(chain, cache.getSuperClassChain(repo, "B"));
+        assertEquals("A", cache.getCommonSuperClass(repo, "B", "C"));
+        assertSame(hierarchy, cache.getFlattenedHierarchy(repo, "B"));
+        assertEquals(lookupsAfterFirstPass, lookups.get());
+    }
+}
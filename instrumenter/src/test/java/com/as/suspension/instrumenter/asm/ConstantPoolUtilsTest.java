@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter.asm;
+
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public final class ConstantPoolUtilsTest {
+
+    private static final String TEXT = "Lcom/as/suspension/user/SuspendableContext;";
+
+    @Test
+    public void mustFindTextInMethodDescriptor() {
+        byte[] classFile = generateClass("(" + TEXT + ")V");
+        assertTrue(ConstantPoolUtils.mayContainUtf8(classFile, TEXT));
+    }
+
+    @Test
+    public void mustNotFindTextWhenAbsent() {
+        byte[] classFile = generateClass("(Ljava/lang/String;)V");
+        assertFalse(ConstantPoolUtils.mayContainUtf8(classFile, TEXT));
+    }
+
+    @Test
+    public void mustFindTextAfterEightByteConstants() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "Test", null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "test", "()V", null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(123456789012L); // these get added to the constant pool before the method below's descriptor
+        mv.visitInsn(Opcodes.POP2);
+        mv.visitLdcInsn(1.5d);
+        mv.visitInsn(Opcodes.POP2);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "run", "(" + TEXT + ")V", null, null).visitEnd();
+        cw.visitEnd();
+
+        assertTrue(ConstantPoolUtils.mayContainUtf8(cw.toByteArray(), TEXT));
+    }
+
+    @Test
+    public void mustBeConservativeOnMalformedClass() {
+        byte[] classFile = generateClass("(Ljava/lang/String;)V");
+        assertTrue(ConstantPoolUtils.mayContainUtf8(Arrays.copyOf(classFile, 20), TEXT));
+        assertTrue(ConstantPoolUtils.mayContainUtf8(new byte[] { 1, 2, 3 }, TEXT));
+    }
+
+    @Test
+    public void mustReadClassInformationRegardlessOfClassVersion() {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "pkg/Test", null, "java/lang/Object",
+                new String[] { "java/io/Serializable", "java/lang/Runnable" });
+        cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "L", "J", null, 123456789012L).visitEnd();
+        cw.visitEnd();
+        byte[] classFile = cw.toByteArray();
+        classFile[7] = 61; // bump major version to Java 17 -- ASM 5 refuses to read this, but the header hasn't changed
+
+        ClassInformation ci = ConstantPoolUtils.readClassInformation(classFile);
+        assertEquals("pkg/Test", ci.getName());
+        assertEquals("java/lang/Object", ci.getSuperClassName());
+        assertEquals(Arrays.asList("java/io/Serializable", "java/lang/Runnable"), ci.getInterfaces());
+        assertTrue(ci.isInterface());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToReadClassInformationOnMalformedClass() {
+        byte[] classFile = generateClass("(Ljava/lang/String;)V");
+        ConstantPoolUtils.readClassInformation(Arrays.copyOf(classFile, 20));
+    }
+
+    private static byte[] generateClass(String methodDesc) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER | Opcodes.ACC_ABSTRACT, "Test", null, "java/lang/Object", null);
+        cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "run", methodDesc, null, null).visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -1,13 +1,24 @@
 package com.as.suspension.instrumenter.asm;
 
 import com.as.suspension.instrumenter.testhelpers.TestUtils;
+import com.as.suspension.instrumenter.testhelpers.TestUtils.JarEntry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.apache.commons.io.FileUtils;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 
 public final class FileSystemClassInformationRepositoryTest {
     
@@ -19,7 +30,8 @@ public final class FileSystemClassInformationRepositoryTest {
     }
     
     @AfterClass
-    public static void afterClass() {
+    public static void afterClass() throws Exception {
+        repo.close();
         repo = null;
     }
 
@@ -71,4 +83,134 @@ public final class FileSystemClassInformationRepositoryTest {
         assertNull(info);
     }
     
+    @Test
+    public void mustKeepOriginalWhenDuplicateClassEncountered() throws Exception {
+        File jar1 = TestUtils.createJar(new JarEntry("dup/A.class", generateClass("dup/A", "java/lang/Number")));
+        File jar2 = TestUtils.createJar(new JarEntry("dup/A.class", generateClass("dup/A", "java/lang/Thread")));
+        FileSystemClassInformationRepository localRepo = FileSystemClassInformationRepository.create(Arrays.asList(jar1, jar2));
+
+        ClassInformation info = localRepo.getInformation("dup/A");
+
+        assertEquals("java/lang/Number", info.getSuperClassName());
+    }
+
+    @Test
+    public void mustFailToGetClassInformationForClassAtWrongPath() throws Exception {
+        File jar = TestUtils.createJar(new JarEntry("META-INF/versions/9/dup/A.class", generateClass("dup/A", "java/lang/Number")));
+        FileSystemClassInformationRepository localRepo = FileSystemClassInformationRepository.create(Collections.singletonList(jar));
+
+        assertNull(localRepo.getInformation("dup/A"));
+        assertNull(localRepo.getInformation("META-INF/versions/9/dup/A"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToAddIndividualClassAlreadyOnClasspath() throws Exception {
+        File jar = TestUtils.createJar(new JarEntry("dup/A.class", generateClass("dup/A", "java/lang/Number")));
+        FileSystemClassInformationRepository localRepo = FileSystemClassInformationRepository.create(Collections.singletonList(jar));
+
+        localRepo.addIndividual("dup/A", new ClassInformation("dup/A", "java/lang/Object", Collections.emptyList(), false));
+    }
+
+    @Test
+    public void mustGetSameClassInformationWhenCached() throws Exception {
+        File jar = TestUtils.createJar(
+                new JarEntry("cache/A.class", generateClass("cache/A", "java/lang/Number")),
+                new JarEntry("cache/I.class", generateInterface("cache/I", "java/lang/Runnable", "java/io/Serializable")),
+                new JarEntry("META-INF/versions/9/cache/B.class", generateClass("cache/B", "java/lang/Object")));
+        File cacheDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            for (int i = 0; i < 2; i++) { // first pass writes the index, second pass reads it
+                FileSystemClassInformationRepository localRepo = FileSystemClassInformationRepository.create(
+                        Collections.singletonList(jar), cacheDir);
+                assertEquals(1, cacheDir.listFiles().length);
+
+                ClassInformation infoA = localRepo.getInformation("cache/A");
+                assertEquals("java/lang/Number", infoA.getSuperClassName());
+                assertTrue(infoA.getInterfaces().isEmpty());
+                assertFalse(infoA.isInterface());
+
+                ClassInformation infoI = localRepo.getInformation("cache/I");
+                assertEquals("java/lang/Object", infoI.getSuperClassName());
+                assertEquals(Arrays.asList("java/lang/Runnable", "java/io/Serializable"), infoI.getInterfaces());
+                assertTrue(infoI.isInterface());
+
+                assertNull(localRepo.getInformation("cache/B"));
+                assertNull(localRepo.getInformation("META-INF/versions/9/cache/B"));
+            }
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void mustReadCachedClassInformationUntilJarModified() throws Exception {
+        File jar = TestUtils.createJar(new JarEntry("cache/A.class", generateClass("cache/A", "java/lang/Number")));
+        File replacementJar = TestUtils.createJar(new JarEntry("cache/A.class", generateClass("cache/A", "java/lang/Thread")));
+        assertEquals(jar.length(), replacementJar.length()); // superclass names are the same length
+        File cacheDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            FileSystemClassInformationRepository localRepo = FileSystemClassInformationRepository.create(
+                    Collections.singletonList(jar), cacheDir);
+            assertEquals("java/lang/Number", localRepo.getInformation("cache/A").getSuperClassName());
+
+            // Same path, size, and modification time -- cached information is used even though the JAR's contents changed
+            long lastModified = jar.lastModified();
+            Files.copy(replacementJar.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            assertTrue(jar.setLastModified(lastModified));
+            localRepo = FileSystemClassInformationRepository.create(Collections.singletonList(jar), cacheDir);
+            assertEquals("java/lang/Number", localRepo.getInformation("cache/A").getSuperClassName());
+
+            // Modification time changed -- cache is invalidated and JAR is re-read
+            assertTrue(jar.setLastModified(lastModified + 10000L));
+            localRepo = FileSystemClassInformationRepository.create(Collections.singletonList(jar), cacheDir);
+            assertEquals("java/lang/Thread", localRepo.getInformation("cache/A").getSuperClassName());
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void mustKeepClassInformationAlreadyReadAfterClose() throws Exception {
+        File jar = TestUtils.createJar(
+                new JarEntry("close/A.class", generateClass("close/A", "java/lang/Number")),
+                new JarEntry("close/B.class", generateClass("close/B", "java/lang/Thread")));
+        FileSystemClassInformationRepository localRepo = FileSystemClassInformationRepository.create(Collections.singletonList(jar));
+        assertEquals("java/lang/Number", localRepo.getInformation("close/A").getSuperClassName());
+
+        localRepo.close();
+        localRepo.close(); // no-op
+
+        assertEquals("java/lang/Number", localRepo.getInformation("close/A").getSuperClassName());
+        try {
+            localRepo.getInformation("close/B"); // JAR was closed before this was ever read
+            fail();
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void mustFailToCreateWhenJarIsCorrupt() throws Exception {
+        File goodJar = TestUtils.createJar(new JarEntry("corrupt/A.class", generateClass("corrupt/A", "java/lang/Number")));
+        File badJar = File.createTempFile(getClass().getSimpleName(), ".jar");
+        badJar.deleteOnExit();
+        FileUtils.writeByteArrayToFile(badJar, new byte[] { 1, 2, 3, 4 });
+
+        FileSystemClassInformationRepository.create(Arrays.asList(goodJar, badJar));
+    }
+
+    private static byte[] generateInterface(String name, String ... interfaces) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, name, null, "java/lang/Object",
+                interfaces);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] generateClass(String name, String superName) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
 }
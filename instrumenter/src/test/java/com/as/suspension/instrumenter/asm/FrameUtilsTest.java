@@ -0,0 +1,98 @@
+package com.as.suspension.instrumenter.asm;
+
+import java.lang.reflect.Method;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+public final class FrameUtilsTest {
+
+    private static final ClassInformationRepository REPO = new ClassLoaderClassInformationRepository(FrameUtilsTest.class.getClassLoader());
+
+    @Test
+    public void mustRegenerateFramesThatPassVerification() throws Exception {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "FrameTest", null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "sum", "(I)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        Label loopStart = new Label();
+        Label loopEnd = new Label();
+        mv.visitLdcInsn(0L);                   // long total = 0L;
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+        mv.visitLabel(loopStart);              // while (count > 0) {
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitJumpInsn(Opcodes.IFLE, loopEnd);
+        mv.visitVarInsn(Opcodes.LLOAD, 1);     //     total += count;
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitInsn(Opcodes.I2L);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+        mv.visitIincInsn(0, -1);               //     count--;
+        mv.visitJumpInsn(Opcodes.GOTO, loopStart);
+        mv.visitLabel(loopEnd);                // }
+        mv.visitVarInsn(Opcodes.LLOAD, 1);     // return Long.valueOf(total);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;", false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(cw.toByteArray()).accept(classNode, ClassReader.EXPAND_FRAMES);
+        MethodNode methodNode = classNode.methods.get(0);
+        methodNode.maxLocals = 0; // shouldn't matter, should get recalculated
+        methodNode.maxStack = 0;
+
+        assertTrue(FrameUtils.recomputeFrames(REPO, classNode.name, methodNode));
+
+        ClassWriter outCw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classNode.accept(outCw);
+        byte[] classData = outCw.toByteArray();
+
+        Class<?> cls = new ClassLoader(FrameUtilsTest.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass("FrameTest", classData, 0, classData.length);
+            }
+        }.define();
+        Method method = cls.getMethod("sum", int.class);
+        assertEquals(55L, method.invoke(null, 10));
+    }
+
+    @Test
+    public void mustGiveUpWhenFrameNeededWithUninitializedObjectOnStack() throws Exception {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "FrameTest", null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "box", "(Z)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        Label falseLabel = new Label();
+        Label endLabel = new Label();
+        mv.visitTypeInsn(Opcodes.NEW, "java/lang/Integer"); // return new Integer(flag ? 1 : 0);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitJumpInsn(Opcodes.IFEQ, falseLabel);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+        mv.visitLabel(falseLabel);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitLabel(endLabel);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Integer", "<init>", "(I)V", false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(cw.toByteArray()).accept(classNode, ClassReader.EXPAND_FRAMES);
+        MethodNode methodNode = classNode.methods.get(0);
+
+        assertFalse(FrameUtils.recomputeFrames(REPO, classNode.name, methodNode));
+    }
+}
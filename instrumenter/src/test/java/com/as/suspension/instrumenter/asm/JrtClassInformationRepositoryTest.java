@@ -0,0 +1,84 @@
+package com.as.suspension.instrumenter.asm;
+
+import java.io.File;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class JrtClassInformationRepositoryTest {
+    
+    private JrtClassInformationRepository repo;
+    
+    @Before
+    public void setUp() throws Exception {
+        File javaHome = new File(System.getProperty("java.home"));
+        assumeTrue("Not running on a modular JDK", JrtClassInformationRepository.isModular(javaHome));
+        repo = JrtClassInformationRepository.create(javaHome);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (repo != null) {
+            repo.close();
+        }
+    }
+
+    @Test
+    public void mustGetClassInformationForObject() {
+        ClassInformation info = repo.getInformation("java/lang/Object");
+        
+        assertEquals("java/lang/Object", info.getName());
+        assertNull(info.getSuperClassName());
+        assertTrue(info.getInterfaces().isEmpty());
+        assertFalse(info.isInterface());
+    }
+
+    @Test
+    public void mustGetClassInformationForRunnableFuture() {
+        ClassInformation info = repo.getInformation("java/util/concurrent/RunnableFuture");
+        
+        assertEquals("java/lang/Object", info.getSuperClassName());
+        assertEquals(2, info.getInterfaces().size());
+        assertTrue(info.getInterfaces().contains("java/lang/Runnable"));
+        assertTrue(info.getInterfaces().contains("java/util/concurrent/Future"));
+        assertTrue(info.isInterface());
+    }
+
+    @Test
+    public void mustGetClassInformationForClassOutsideOfBaseModule() {
+        ClassInformation info = repo.getInformation("java/sql/Connection");
+        
+        assertTrue(info.getInterfaces().contains("java/sql/Wrapper"));
+        assertTrue(info.getInterfaces().contains("java/lang/AutoCloseable"));
+        assertTrue(info.isInterface());
+    }
+
+    @Test
+    public void mustReturnNullForMissingClasses() {
+        assertNull(repo.getInformation("java/lang/DoesNotExist"));
+        assertNull(repo.getInformation("fake/pkg/DoesNotExist"));
+        assertNull(repo.getInformation("DoesNotExist"));
+    }
+
+    @Test
+    public void mustKeepClassInformationAlreadyReadAfterClose() throws Exception {
+        assertEquals("java/lang/Number", repo.getInformation("java/lang/Integer").getSuperClassName());
+
+        repo.close();
+        repo.close(); // no-op
+
+        assertEquals("java/lang/Number", repo.getInformation("java/lang/Integer").getSuperClassName());
+        try {
+            repo.getInformation("java/lang/Long"); // filesystem was closed before this was ever read
+            fail();
+        } catch (RuntimeException re) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.instrumenter.asm;
+
+import java.util.BitSet;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+public final class LivenessAnalyzerTest {
+
+    @Test
+    public void mustNotMarkOverwrittenOrUnreadSlotsAsLive() {
+        MethodNode methodNode = new MethodNode(Opcodes.ACC_STATIC, "test", "(I)I", null, null);
+        methodNode.instructions.add(new InsnNode(Opcodes.ICONST_0));        // 0
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ISTORE, 0));    // 1 (overwrites arg)
+        methodNode.instructions.add(new InsnNode(Opcodes.ICONST_1));        // 2
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ISTORE, 1));    // 3 (never read)
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ILOAD, 0));     // 4
+        methodNode.instructions.add(new InsnNode(Opcodes.IRETURN));         // 5
+
+        BitSet[] live = LivenessAnalyzer.computeLiveLocals(methodNode);
+
+        assertEquals(bits(), live[0]);
+        assertEquals(bits(), live[1]);
+        assertEquals(bits(0), live[2]);
+        assertEquals(bits(0), live[3]);
+        assertEquals(bits(0), live[4]);
+        assertEquals(bits(), live[5]);
+    }
+
+    @Test
+    public void mustPropagateLivenessAroundLoops() {
+        LabelNode loopLabel = new LabelNode();
+        LabelNode exitLabel = new LabelNode();
+        MethodNode methodNode = new MethodNode(Opcodes.ACC_STATIC, "test", "(II)I", null, null);
+        methodNode.instructions.add(loopLabel);                                     // 0
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ILOAD, 0));             // 1
+        methodNode.instructions.add(new JumpInsnNode(Opcodes.IFEQ, exitLabel));     // 2
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ILOAD, 1));             // 3
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ISTORE, 0));            // 4
+        methodNode.instructions.add(new JumpInsnNode(Opcodes.GOTO, loopLabel));     // 5
+        methodNode.instructions.add(exitLabel);                                     // 6
+        methodNode.instructions.add(new InsnNode(Opcodes.ICONST_0));                // 7
+        methodNode.instructions.add(new InsnNode(Opcodes.IRETURN));                 // 8
+
+        BitSet[] live = LivenessAnalyzer.computeLiveLocals(methodNode);
+
+        assertEquals(bits(0, 1), live[0]);
+        assertEquals(bits(1), live[4]); // slot 1 is read on the next iteration
+        assertEquals(bits(0, 1), live[5]);
+        assertEquals(bits(), live[6]);
+    }
+
+    @Test
+    public void mustKeepSlotsReadByExceptionHandlersLiveThroughoutTryBlock() {
+        LabelNode startLabel = new LabelNode();
+        LabelNode endLabel = new LabelNode();
+        LabelNode handlerLabel = new LabelNode();
+        MethodNode methodNode = new MethodNode(Opcodes.ACC_STATIC, "test", "(I)I", null, null);
+        methodNode.instructions.add(startLabel);                                    // 0
+        methodNode.instructions.add(new InsnNode(Opcodes.ICONST_0));                // 1
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ISTORE, 0));            // 2
+        methodNode.instructions.add(new InsnNode(Opcodes.ICONST_0));                // 3
+        methodNode.instructions.add(new InsnNode(Opcodes.IRETURN));                 // 4
+        methodNode.instructions.add(endLabel);                                      // 5
+        methodNode.instructions.add(handlerLabel);                                  // 6
+        methodNode.instructions.add(new InsnNode(Opcodes.POP));                     // 7
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ILOAD, 0));             // 8
+        methodNode.instructions.add(new InsnNode(Opcodes.IRETURN));                 // 9
+        methodNode.tryCatchBlocks.add(new TryCatchBlockNode(startLabel, endLabel, handlerLabel, null));
+
+        BitSet[] live = LivenessAnalyzer.computeLiveLocals(methodNode);
+
+        assertEquals(bits(0), live[1]);
+        assertEquals(bits(0), live[2]); // store doesn't kill the slot, the handler may still see the old value
+        assertEquals(bits(0), live[3]);
+        assertEquals(bits(0), live[6]);
+        assertEquals(bits(), live[9]);
+    }
+
+    @Test
+    public void mustKillBothSlotsOfWideStores() {
+        MethodNode methodNode = new MethodNode(Opcodes.ACC_STATIC, "test", "(II)J", null, null);
+        methodNode.instructions.add(new InsnNode(Opcodes.LCONST_0));        // 0
+        methodNode.instructions.add(new VarInsnNode(Opcodes.LSTORE, 0));    // 1
+        methodNode.instructions.add(new VarInsnNode(Opcodes.LLOAD, 0));     // 2
+        methodNode.instructions.add(new InsnNode(Opcodes.LRETURN));         // 3
+
+        BitSet[] live = LivenessAnalyzer.computeLiveLocals(methodNode);
+
+        assertEquals(bits(), live[0]);
+        assertEquals(bits(), live[1]);
+        assertEquals(bits(0), live[2]);
+    }
+
+    private static BitSet bits(int ... indexes) {
+        BitSet ret = new BitSet();
+        for (int index : indexes) {
+            ret.set(index);
+        }
+        return ret;
+    }
+}
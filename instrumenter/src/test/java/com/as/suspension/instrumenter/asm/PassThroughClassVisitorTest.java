@@ -0,0 +1,80 @@
+package com.as.suspension.instrumenter.asm;
+
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+public final class PassThroughClassVisitorTest {
+
+    @Test
+    public void mustCopyUnmodifiedMethodsAsIsAndWriteModifiedPartsFromClassNode() {
+        ClassWriter origCw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        origCw.visit(Opcodes.V1_4, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "Test", null, "java/lang/Object", null);
+        MethodVisitor mv = origCw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "untouched", "()V", null, null);
+        mv.visitCode();
+        Label subroutine = new Label();
+        mv.visitJumpInsn(Opcodes.JSR, subroutine);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitLabel(subroutine);
+        mv.visitVarInsn(Opcodes.ASTORE, 0);
+        mv.visitVarInsn(Opcodes.RET, 0);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = origCw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "touched", "()I", null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        origCw.visitEnd();
+
+        // SimpleClassNode inlines JSRs, so if the untouched method was written out from the class node it would no longer have a JSR
+        ClassReader cr = new ClassReader(origCw.toByteArray());
+        ClassNode classNode = new SimpleClassNode();
+        cr.accept(classNode, 0);
+
+        MethodNode touchedMethodNode = classNode.methods.stream().filter(mn -> mn.name.equals("touched")).findAny().get();
+        touchedMethodNode.instructions.insert(new InsnNode(Opcodes.NOP));
+        classNode.interfaces.add("java/io/Serializable");
+        classNode.fields.add(new FieldNode(Opcodes.ACC_PRIVATE, "added", "I", null, null));
+
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS);
+        cr.accept(new PassThroughClassVisitor(classNode, Collections.singleton(touchedMethodNode), cw), 0);
+
+        ClassNode outClassNode = new ClassNode();
+        new ClassReader(cw.toByteArray()).accept(outClassNode, 0);
+
+        assertEquals(Collections.singletonList("java/io/Serializable"), outClassNode.interfaces);
+        assertEquals(1, outClassNode.fields.size());
+        assertEquals("added", outClassNode.fields.get(0).name);
+        assertEquals(2, outClassNode.methods.size());
+
+        MethodNode outUntouchedMethodNode = outClassNode.methods.stream().filter(mn -> mn.name.equals("untouched")).findAny().get();
+        assertTrue(containsOpcode(outUntouchedMethodNode, Opcodes.JSR));
+
+        MethodNode outTouchedMethodNode = outClassNode.methods.stream().filter(mn -> mn.name.equals("touched")).findAny().get();
+        assertEquals(Opcodes.NOP, outTouchedMethodNode.instructions.getFirst().getOpcode());
+        assertFalse(containsOpcode(outTouchedMethodNode, Opcodes.JSR));
+    }
+
+    private static boolean containsOpcode(MethodNode methodNode, int opcode) {
+        for (AbstractInsnNode insnNode = methodNode.instructions.getFirst(); insnNode != null; insnNode = insnNode.getNext()) {
+            if (insnNode.getOpcode() == opcode) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
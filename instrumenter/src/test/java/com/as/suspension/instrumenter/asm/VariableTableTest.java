@@ -73,6 +73,18 @@ public final class VariableTableTest {
         assertTrue(var.isUsed());
     }
 
+    @Test
+    public void mustAccountForWideParametersWhenAccessingParameter() {
+        // Augment stub method before testing
+        methodNode.desc = Type.getMethodDescriptor(Type.VOID_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.INT_TYPE);
+        
+        VariableTable fixture = new VariableTable(classNode, methodNode);
+        
+        assertEquals(fixture.getArgument(1).getIndex(), 1);
+        assertEquals(fixture.getArgument(2).getIndex(), 3);
+        assertEquals(fixture.getArgument(3).getIndex(), 5);
+    }
+
     @Test
     public void mustBeAbleToAcquireExtraVariable() {
         VariableTable fixture = new VariableTable(classNode, methodNode);
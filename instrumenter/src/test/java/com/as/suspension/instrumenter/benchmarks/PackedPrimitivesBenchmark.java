@@ -0,0 +1,124 @@
+package com.as.suspension.instrumenter.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public final class PackedPrimitivesBenchmark {
+    private static final int ROUNDS = 10000000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final Random RANDOM = new Random();
+
+    // Compares saving and restoring a frame that holds a mix of primitive types (the case packing was meant to help with) when...
+    //   1. each primitive type goes in to its own array (what the instrumenter generates)
+    //   2. all primitives are packed in to a single long[] (floats/doubles stored as their raw bits)
+    //
+    // The packed primitives option was removed from the instrumenter based on these results -- keep this around so that the numbers can
+    // be re-checked if storage layout is revisited. See StateStorageStyleBenchmark for a comparison of other ways that state could be
+    // stored.
+    //
+    // HERE ARE THE RESULTS OF THIS TEST ON JAVA8 (after warmup)
+    // Each primitives type in its own array:[52, 53, 53, 52, 54]
+    // All primitives packed in to a long[]:[60, 58, 68, 60, 60]
+    //
+    // Packing is consistently a bit slower: fewer arrays get allocated, but the conversions to/from long (and the raw bit conversions for
+    // floats/doubles) cost more than what's saved. Frames that don't mix primitive types (the common case) wouldn't gain anything to begin
+    // with.
+    public static void main(String[] args) {
+        long startTime;
+        long endTime;
+        long sink = 0L;
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += testTypedArrays();
+            sink += testPackedArray();
+        }
+
+        List<Long> diffTimes1 = new ArrayList<>();
+        List<Long> diffTimes2 = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            startTime = System.currentTimeMillis();
+            sink += testTypedArrays();
+            endTime = System.currentTimeMillis();
+            diffTimes1.add(endTime - startTime);
+
+            startTime = System.currentTimeMillis();
+            sink += testPackedArray();
+            endTime = System.currentTimeMillis();
+            diffTimes2.add(endTime - startTime);
+        }
+
+        System.out.println("Each primitives type in its own array:" + diffTimes1);
+        System.out.println("All primitives packed in to a long[]:" + diffTimes2);
+        System.out.println("(ignore) " + sink);
+    }
+
+    private static long testTypedArrays() {
+        int i1 = RANDOM.nextInt();
+        int i2 = RANDOM.nextInt();
+        long l1 = RANDOM.nextLong();
+        float f1 = RANDOM.nextFloat();
+        double d1 = RANDOM.nextDouble();
+        Object o1 = "ffffffffffffffff";
+
+        long sink = 0L;
+        for (int num = 0; num < ROUNDS; num++) {
+            // save
+            int[] intHolder = new int[2];
+            long[] longHolder = new long[1];
+            float[] floatHolder = new float[1];
+            double[] doubleHolder = new double[1];
+            Object[] objHolder = new Object[1];
+            intHolder[0] = i1;
+            intHolder[1] = i2;
+            longHolder[0] = l1;
+            floatHolder[0] = f1;
+            doubleHolder[0] = d1;
+            objHolder[0] = o1;
+
+            // load
+            i1 = intHolder[1] + num;
+            i2 = intHolder[0];
+            l1 = longHolder[0] + num;
+            f1 = floatHolder[0] + 1.0f;
+            d1 = doubleHolder[0] + 1.0;
+            o1 = objHolder[0];
+
+            sink += i1 + i2 + l1 + (long) f1 + (long) d1 + o1.hashCode();
+        }
+        return sink;
+    }
+
+    private static long testPackedArray() {
+        int i1 = RANDOM.nextInt();
+        int i2 = RANDOM.nextInt();
+        long l1 = RANDOM.nextLong();
+        float f1 = RANDOM.nextFloat();
+        double d1 = RANDOM.nextDouble();
+        Object o1 = "ffffffffffffffff";
+
+        long sink = 0L;
+        for (int num = 0; num < ROUNDS; num++) {
+            // save
+            long[] primitiveHolder = new long[5];
+            Object[] objHolder = new Object[1];
+            primitiveHolder[0] = i1;
+            primitiveHolder[1] = i2;
+            primitiveHolder[2] = l1;
+            primitiveHolder[3] = Float.floatToRawIntBits(f1);
+            primitiveHolder[4] = Double.doubleToRawLongBits(d1);
+            objHolder[0] = o1;
+
+            // load
+            i1 = (int) primitiveHolder[1] + num;
+            i2 = (int) primitiveHolder[0];
+            l1 = primitiveHolder[2] + num;
+            f1 = Float.intBitsToFloat((int) primitiveHolder[3]) + 1.0f;
+            d1 = Double.longBitsToDouble(primitiveHolder[4]) + 1.0;
+            o1 = objHolder[0];
+
+            sink += i1 + i2 + l1 + (long) f1 + (long) d1 + o1.hashCode();
+        }
+        return sink;
+    }
+}
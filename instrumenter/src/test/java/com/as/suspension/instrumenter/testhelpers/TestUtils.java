@@ -16,8 +16,10 @@
  */
 package com.as.suspension.instrumenter.testhelpers;
 
+import com.as.suspension.instrumenter.InstrumentationResult;
 import com.as.suspension.instrumenter.Instrumenter;
 import com.as.suspension.instrumenter.InstrumentationSettings;
+import com.as.suspension.instrumenter.SuspendAnalysis;
 import com.as.suspension.instrumenter.asm.SimpleClassWriter;
 import com.as.suspension.instrumenter.asm.FileSystemClassInformationRepository;
 import com.as.suspension.instrumenter.asm.SimpleClassNode;
@@ -32,6 +34,7 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +52,8 @@ import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.SimpleRemapper;
 import org.objectweb.asm.tree.ClassNode;
 
 /**
@@ -116,15 +121,41 @@ public final class TestUtils {
         List<File> classpath = getClasspath();
         classpath.add(originalJarFile);
         
-        // Instrument classes and write out new jar
-        Instrumenter instrumenter = new Instrumenter(classpath);
-        List<JarEntry> instrumentedJarEntries = new ArrayList<>(classContents.size());
+        // Apply modifications and analyze classes (analysis is only used if non-suspending calls are being pruned)
+        Map<String, byte[]> modifiedClassContents = new LinkedHashMap<>();
         for (Entry<String, byte[]> entry : classContents.entrySet()) {
             byte[] content = entry.getValue();
             if (entry.getKey().endsWith(".class")) {
-                content = instrumenter.instrument(classModifier.apply(content), settings).getInstrumentedClass();
+                content = classModifier.apply(content);
+            }
+            modifiedClassContents.put(entry.getKey(), content);
+        }
+        SuspendAnalysis suspendAnalysis = !settings.isPruneNonSuspendingCalls() ? null
+                : SuspendAnalysis.create(modifiedClassContents.entrySet().stream()
+                        .filter(e -> e.getKey().endsWith(".class"))
+                        .map(e -> e.getValue())
+                        .collect(Collectors.toList()));
+        
+        // Instrument classes and write out new jar
+        List<JarEntry> instrumentedJarEntries = new ArrayList<>(classContents.size());
+        try (Instrumenter instrumenter = new Instrumenter(classpath)) {
+            for (Entry<String, byte[]> entry : modifiedClassContents.entrySet()) {
+                byte[] content = entry.getValue();
+                if (entry.getKey().endsWith(".class")) {
+                    InstrumentationResult result = instrumenter.instrument(content, settings, suspendAnalysis);
+                    content = result.getInstrumentedClass();
+                
+                    // Extra class files (e.g. generated frame classes) need to be loadable alongside the instrumented class
+                    int pkgIdx = entry.getKey().lastIndexOf('/');
+                    String pkgPath = pkgIdx == -1 ? "" : entry.getKey().substring(0, pkgIdx + 1);
+                    for (Entry<String, byte[]> extraFile : result.getExtraFiles().entrySet()) {
+                        if (extraFile.getKey().endsWith(".class")) {
+                            instrumentedJarEntries.add(new JarEntry(pkgPath + extraFile.getKey(), extraFile.getValue()));
+                        }
+                    }
+                }
+                instrumentedJarEntries.add(new JarEntry(entry.getKey(), content));
             }
-            instrumentedJarEntries.add(new JarEntry(entry.getKey(), content));
         }
         File instrumentedJarFile = createJar(instrumentedJarEntries.toArray(new JarEntry[0]));
         
@@ -221,13 +252,28 @@ public final class TestUtils {
                 ZipArchiveInputStream zais = new ZipArchiveInputStream(is)) {
             ZipArchiveEntry entry;
             while ((entry = zais.getNextZipEntry()) != null) {
-                ret.put(entry.getName(), IOUtils.toByteArray(zais));
+                byte[] data = IOUtils.toByteArray(zais);
+                if (entry.getName().endsWith(".class")) {
+                    data = remapLegacyUserClasses(data);
+                }
+                ret.put(entry.getName(), data);
             }
         }
         
         return ret;
     }
     
+    private static byte[] remapLegacyUserClasses(byte[] data) {
+        Map<String, String> mapping = new HashMap<>();
+        mapping.put("com/offbynull/coroutines/user/Coroutine", "com/as/suspension/user/Suspendable");
+        mapping.put("com/offbynull/coroutines/user/Continuation", "com/as/suspension/user/SuspendableContext");
+        mapping.put("com/offbynull/coroutines/user/CoroutineRunner", "com/as/suspension/user/CoroutineRunner");
+        ClassReader cr = new ClassReader(data);
+        ClassWriter cw = new ClassWriter(0);
+        cr.accept(new ClassRemapper(cw, new SimpleRemapper(mapping)), 0);
+        return cw.toByteArray();
+    }
+
     /**
      * Loads up a resource from the classpath as a byte array.
      * @param path path of resource
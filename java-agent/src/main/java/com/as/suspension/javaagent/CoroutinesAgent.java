@@ -19,13 +19,21 @@ package com.as.suspension.javaagent;
 import com.as.suspension.instrumenter.InstrumentationResult;
 import com.as.suspension.instrumenter.InstrumentationSettings;
 import com.as.suspension.instrumenter.Instrumenter;
+import com.as.suspension.instrumenter.asm.ClassInformation;
+import com.as.suspension.instrumenter.asm.ClassInformationRepository;
 import com.as.suspension.instrumenter.asm.ClassResourceClassInformationRepository;
 import com.as.suspension.instrumenter.generators.DebugGenerators.MarkerType;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.nio.file.Paths;
 import java.security.ProtectionDomain;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Java Agent that instruments coroutines.
@@ -39,6 +47,10 @@ public final class CoroutinesAgent {
     
     /**
      * Java agent premain.
+     * <p>
+     * Arguments are passed in as comma-separated key-value pairs (e.g. {@code markerType=NONE,debugMode=false}). Supported keys are
+     * {@code markerType}, {@code debugMode}, {@code autoSerializable}, and {@code cacheDirectory}. If {@code cacheDirectory} is set,
+     * instrumentation results are stored in that directory and reused by subsequent runs.
      * @param agentArgs args passed in to agent
      * @param inst instrumentation for agent
      * @throws NullPointerException if {@code inst} is {@code null}
@@ -52,6 +64,7 @@ public final class CoroutinesAgent {
         MarkerType markerType = MarkerType.NONE;
         boolean debugMode = false;
         boolean autoSerializable = true;
+        String cacheDirectory = null;
         if (agentArgs != null && !agentArgs.isEmpty()) {
             String[] splitArgs = agentArgs.split(",");
             for (String splitArg : splitArgs) {
@@ -90,28 +103,40 @@ public final class CoroutinesAgent {
                             throw new IllegalArgumentException("Unable to parse debug mode -- must be true or false");
                         }
                         break;                        
+                    case "cacheDirectory":
+                        if (val.isEmpty()) {
+                            throw new IllegalArgumentException("Unable to parse cache directory -- must not be empty");
+                        }
+                        cacheDirectory = val;
+                        break;
                     default:
                         throw new IllegalArgumentException("Unrecognized arg passed to Coroutines Java agent: " + keyVal);
                 }
             }
         }
         
-        inst.addTransformer(new CoroutinesClassFileTransformer(markerType, debugMode, autoSerializable));
+        InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable);
+        InstrumentationCache cache = cacheDirectory == null ? null : new InstrumentationCache(Paths.get(cacheDirectory), settings);
+        inst.addTransformer(new CoroutinesClassFileTransformer(settings, cache));
     }
     
     private static final class CoroutinesClassFileTransformer implements ClassFileTransformer {
-        private final MarkerType markerType;
-        private final boolean debugMode;
-        private final boolean autoSerializable;
+        private final InstrumentationSettings settings;
+        private final InstrumentationCache cache; // null if caching is disabled
+        
+        // Instrumenters are cached per classloader so that class information read out of a classloader's resources gets reused across
+        // all classes that classloader loads. Keys are weak so that classloaders can still be unloaded -- the values must never strongly
+        // reference their key, which is why CachingClassInformationRepository holds on to its classloader through a weak reference.
+        private final Map<ClassLoader, Instrumenter> instrumenters;
 
-        CoroutinesClassFileTransformer(MarkerType markerType, boolean debugMode, boolean autoSerializable) {
-            if (markerType == null) {
+        CoroutinesClassFileTransformer(InstrumentationSettings settings, InstrumentationCache cache) {
+            if (settings == null) {
                 throw new NullPointerException();
             }
 
-            this.markerType = markerType;
-            this.debugMode = debugMode;
-            this.autoSerializable = autoSerializable;
+            this.settings = settings;
+            this.cache = cache;
+            this.instrumenters = new WeakHashMap<>();
         }
 
         @Override
@@ -135,16 +160,103 @@ public final class CoroutinesAgent {
             
 //            System.out.println(className + " " + (loader == null));
             
+            // If class doesn't reference SuspendableContext anywhere, don't attempt instrumentation (this is a cheap constant pool scan that
+            // filters out the vast majority of classes without parsing them)
+            if (!Instrumenter.mayNeedInstrumentation(classfileBuffer)) {
+                return null;
+            }
+            
+            // If a cache was configured and it has an entry for this class, use it
+            String cacheKey = null;
+            if (cache != null) {
+                cacheKey = cache.key(classfileBuffer);
+                byte[] cached = cache.read(cacheKey);
+                if (cached != null) {
+                    return cached.length == 0 ? null : cached; // empty entry means class doesn't need to be instrumented
+                }
+            }
+            
             try {
-                InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable);
-                Instrumenter instrumenter = new Instrumenter(new ClassResourceClassInformationRepository(loader));
+                Instrumenter instrumenter = getInstrumenter(loader);
                 InstrumentationResult result = instrumenter.instrument(classfileBuffer, settings);
-                return result.getInstrumentedClass();
+                byte[] output = result.getInstrumentedClass();
+                boolean instrumented = !Arrays.equals(output, classfileBuffer);
+                if (cache != null) {
+                    cache.write(cacheKey, instrumented ? output : new byte[0]);
+                }
+                return instrumented ? output : null;
             } catch (Throwable e) {
                 System.err.println("FAILED TO INSTRUMENT: " + e);
                 return null;
             }
         }
+
+        private Instrumenter getInstrumenter(ClassLoader loader) {
+            synchronized (instrumenters) {
+                Instrumenter instrumenter = instrumenters.get(loader);
+                if (instrumenter == null) {
+                    instrumenter = new Instrumenter(new CachingClassInformationRepository(loader));
+                    instrumenters.put(loader, instrumenter);
+                }
+                return instrumenter;
+            }
+        }
         
     }
+
+    // Misses are only cached for MISSING_EXPIRY_NANOS. A class that can't be found through a classloader now may become visible to it later
+    // on (e.g. classes that get generated or defined at runtime), and it shouldn't be treated as missing forever.
+    static final class CachingClassInformationRepository implements ClassInformationRepository {
+        static final long MISSING_EXPIRY_NANOS = 1000000000L;
+
+        private final WeakReference<ClassLoader> classLoaderRef;
+        private final ConcurrentMap<String, ClassInformation> found;
+        private final ConcurrentMap<String, Long> missing; // class name -> expiry time (System.nanoTime() based)
+
+        CachingClassInformationRepository(ClassLoader classLoader) {
+            if (classLoader == null) {
+                throw new NullPointerException();
+            }
+
+            this.classLoaderRef = new WeakReference<>(classLoader);
+            this.found = new ConcurrentHashMap<>();
+            this.missing = new ConcurrentHashMap<>();
+        }
+
+        @Override
+        public ClassInformation getInformation(String internalClassName) {
+            if (internalClassName == null) {
+                throw new NullPointerException();
+            }
+
+            ClassInformation ci = found.get(internalClassName);
+            if (ci != null) {
+                return ci;
+            }
+            Long missingExpiryTime = missing.get(internalClassName);
+            if (missingExpiryTime != null) {
+                if (System.nanoTime() - missingExpiryTime < 0L) {
+                    return null;
+                }
+                missing.remove(internalClassName, missingExpiryTime);
+            }
+
+            // Classloader is strongly reachable for as long as it's loading a class (it gets passed in to transform()), so this should
+            // only ever be null if this repository is somehow used after its classloader has been unloaded.
+            ClassLoader classLoader = classLoaderRef.get();
+            if (classLoader == null) {
+                return null;
+            }
+
+            // If multiple threads are loading classes through the same classloader, they may end up reading the same resource at the same
+            // time. That's fine -- the results will be equivalent.
+            ci = new ClassResourceClassInformationRepository(classLoader).getInformation(internalClassName);
+            if (ci == null) {
+                missing.put(internalClassName, System.nanoTime() + MISSING_EXPIRY_NANOS);
+            } else {
+                found.putIfAbsent(internalClassName, ci);
+            }
+            return ci;
+        }
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.javaagent;
+
+import com.as.suspension.instrumenter.InstrumentationSettings;
+import com.as.suspension.instrumenter.Instrumenter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * On-disk cache of instrumentation results, shared between JVM runs (and between JVMs running concurrently).
+ * <p>
+ * Entries are keyed by a SHA-256 hash of the instrumenter code (see {@link Instrumenter#getCodeFingerprint() }), the instrumentation
+ * settings, and the original class file. An entry is either the instrumented class file or an empty file (meaning that the class didn't
+ * need to be instrumented). Entries are written to a temporary file and atomically moved in to place, so readers never see partially
+ * written entries. If multiple JVMs write the same entry at the same time, the contents are identical so it doesn't matter which one wins.
+ * <p>
+ * IO errors are never propagated -- a cache that can't be read from or written to behaves as if it were empty.
+ * @author Kasra Faghihi
+ */
+final class InstrumentationCache {
+    private final Path directory;
+    private final byte[] keyPrefix;
+
+    InstrumentationCache(Path directory, InstrumentationSettings settings) {
+        this(directory, Instrumenter.getCodeFingerprint(), settings);
+    }
+
+    InstrumentationCache(Path directory, String version, InstrumentationSettings settings) {
+        if (directory == null || version == null || settings == null) {
+            throw new NullPointerException();
+        }
+
+        this.directory = directory;
+        this.keyPrefix = (version + '\u0000' + settings + '\u0000').getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the cache key for a class file.
+     * @param input class file contents
+     * @return cache key
+     */
+    String key(byte[] input) {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(keyPrefix);
+        digest.update(input);
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Read a cache entry.
+     * @param key cache key
+     * @return {@code null} if there is no entry for {@code key}, an empty array if the entry says the class doesn't need to be instrumented,
+     * or the instrumented class file otherwise
+     */
+    byte[] read(String key) {
+        try {
+            return Files.readAllBytes(pathFor(key));
+        } catch (IOException | RuntimeException e) {
+            return null; // includes entry not existing
+        }
+    }
+
+    /**
+     * Write a cache entry.
+     * @param key cache key
+     * @param output instrumented class file, or an empty array if the class doesn't need to be instrumented
+     */
+    void write(String key, byte[] output) {
+        Path file = pathFor(key);
+        Path dir = file.getParent();
+        Path tempFile = null;
+        try {
+            Files.createDirectories(dir);
+            tempFile = Files.createTempFile(dir, key, ".tmp");
+            Files.write(tempFile, output);
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            tempFile = null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("FAILED TO CACHE: " + e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ioe) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
+    private Path pathFor(String key) {
+        // Split in to subdirectories so that no single directory ends up with tens of thousands of entries
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2) + ".class");
+    }
+}
@@ -1,21 +1,41 @@
 package com.as.suspension.javaagent;
 
+import com.as.suspension.user.Suspendable;
+import com.as.suspension.user.SuspendableContext;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.ArgumentCaptor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
@@ -70,6 +90,105 @@ public class CoroutinesAgentTest {
         assertTrue(outputContent.length > inputContent.length);
     }
 
+    @Test
+    public void mustInstrumentClassesConcurrentlyForSameClassLoader() throws Exception {
+        Instrumentation inst = mock(Instrumentation.class);
+        String agentArgs = null;
+        
+        CoroutinesAgent.premain(agentArgs, inst);
+        
+        ArgumentCaptor<ClassFileTransformer> captor = ArgumentCaptor.forClass(ClassFileTransformer.class);
+        verify(inst).addTransformer(captor.capture());
+        
+        ClassFileTransformer tranformer = captor.getValue();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                String className = "AgentGenerated" + i;
+                byte[] inputContent = generateSuspendableClass(className);
+                results.add(executor.submit(() -> {
+                    byte[] outputContent = tranformer.transform(
+                            getClass().getClassLoader(),
+                            className,
+                            null,
+                            null,
+                            inputContent);
+                    return outputContent != null && outputContent.length > inputContent.length;
+                }));
+            }
+            
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void mustReuseCachedInstrumentationResults() throws Exception {
+        File cacheDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            String agentArgs = "cacheDirectory=" + cacheDir.getAbsolutePath();
+            byte[] inputContent = generateSuspendableClass("AgentCached");
+            
+            // First "JVM run" populates the cache
+            Instrumentation inst1 = mock(Instrumentation.class);
+            CoroutinesAgent.premain(agentArgs, inst1);
+            ArgumentCaptor<ClassFileTransformer> captor1 = ArgumentCaptor.forClass(ClassFileTransformer.class);
+            verify(inst1).addTransformer(captor1.capture());
+            byte[] outputContent1 = captor1.getValue().transform(getClass().getClassLoader(), "AgentCached", null, null, inputContent);
+            
+            Collection<File> cacheFiles = FileUtils.listFiles(cacheDir, new String[] {"class"}, true);
+            assertEquals(1, cacheFiles.size());
+            assertArrayEquals(outputContent1, FileUtils.readFileToByteArray(cacheFiles.iterator().next()));
+            
+            // Second "JVM run" pulls from the cache -- overwrite the entry to prove that it's what ends up getting returned
+            byte[] fakeCachedContent = new byte[] { 1, 2, 3 };
+            FileUtils.writeByteArrayToFile(cacheFiles.iterator().next(), fakeCachedContent);
+            
+            Instrumentation inst2 = mock(Instrumentation.class);
+            CoroutinesAgent.premain(agentArgs, inst2);
+            ArgumentCaptor<ClassFileTransformer> captor2 = ArgumentCaptor.forClass(ClassFileTransformer.class);
+            verify(inst2).addTransformer(captor2.capture());
+            byte[] outputContent2 = captor2.getValue().transform(getClass().getClassLoader(), "AgentCached", null, null, inputContent);
+            
+            assertArrayEquals(fakeCachedContent, outputContent2);
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void mustCacheClassesThatDontNeedInstrumentation() throws Exception {
+        File cacheDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            String agentArgs = "cacheDirectory=" + cacheDir.getAbsolutePath();
+            
+            // References SuspendableContext (so it makes it past the constant pool scan) but has no methods that need instrumentation
+            ClassWriter cw = new ClassWriter(0);
+            cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "AgentNotInstrumented", null, "java/lang/Object", null);
+            cw.visitField(Opcodes.ACC_PUBLIC, "ctx", Type.getDescriptor(SuspendableContext.class), null, null).visitEnd();
+            cw.visitEnd();
+            byte[] inputContent = cw.toByteArray();
+            
+            Instrumentation inst = mock(Instrumentation.class);
+            CoroutinesAgent.premain(agentArgs, inst);
+            ArgumentCaptor<ClassFileTransformer> captor = ArgumentCaptor.forClass(ClassFileTransformer.class);
+            verify(inst).addTransformer(captor.capture());
+            byte[] outputContent = captor.getValue().transform(getClass().getClassLoader(), "AgentNotInstrumented", null, null,
+                    inputContent);
+            
+            assertNull(outputContent);
+            Collection<File> cacheFiles = FileUtils.listFiles(cacheDir, new String[] {"class"}, true);
+            assertEquals(1, cacheFiles.size());
+            assertEquals(0L, cacheFiles.iterator().next().length());
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
     @Test
     public void mustFailIfDebugTypeIncorrect() throws Exception {
         Instrumentation inst = mock(Instrumentation.class);
@@ -106,6 +225,20 @@ public class CoroutinesAgentTest {
         CoroutinesAgent.premain(agentArgs, inst);
     }
     
+    @Test
+    public void mustRetryClassThatWasMissingOnceMissExpires() throws Exception {
+        ToggleClassLoader classLoader = new ToggleClassLoader("generated/Target", generateSuspendableClass("generated/Target"));
+        CoroutinesAgent.CachingClassInformationRepository repo = new CoroutinesAgent.CachingClassInformationRepository(classLoader);
+
+        assertNull(repo.getInformation("generated/Target"));
+
+        classLoader.visible = true;
+        assertNull(repo.getInformation("generated/Target")); // miss is still cached
+        Thread.sleep(1500L); // misses are cached for 1 second
+
+        assertNotNull(repo.getInformation("generated/Target"));
+    }
+    
     private Map<String, byte[]> readZipFromResource(String path) throws IOException {
         ClassLoader cl = ClassLoader.getSystemClassLoader();
         URL url = cl.getResource(path);
@@ -123,4 +256,43 @@ public class CoroutinesAgentTest {
         
         return ret;
     }
+
+    private static byte[] generateSuspendableClass(String name) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object",
+                new String[] { Type.getInternalName(Suspendable.class) });
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", Type.getMethodDescriptor(Type.VOID_TYPE,
+                Type.getType(SuspendableContext.class)), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(SuspendableContext.class), "suspend", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    // Only exposes the target class's resource once it's made visible (e.g. a class that gets generated at runtime)
+    private static final class ToggleClassLoader extends ClassLoader {
+        private final String targetName;
+        private final byte[] targetData;
+        private volatile boolean visible;
+
+        ToggleClassLoader(String targetName, byte[] targetData) {
+            super(null);
+            this.targetName = targetName;
+            this.targetData = targetData;
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            if (visible && name.equals(targetName + ".class")) {
+                return new ByteArrayInputStream(targetData);
+            }
+            return null;
+        }
+    }
 }
@@ -23,7 +23,6 @@ import com.as.suspension.instrumenter.generators.DebugGenerators.MarkerType;
 import java.io.File;
 import java.util.List;
 import java.util.stream.Collectors;
-import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
@@ -50,6 +49,30 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
     
     @Parameter(property = "coroutines.autoSerializable", defaultValue = "true")
     private boolean autoSerializable;
+    
+    @Parameter(property = "coroutines.pruneNonSuspendingCalls", defaultValue = "false")
+    private boolean pruneNonSuspendingCalls;
+    
+    @Parameter(property = "coroutines.outlineSaveBlocks", defaultValue = "false")
+    private boolean outlineSaveBlocks;
+    
+    @Parameter(property = "coroutines.reuseStorageArrays", defaultValue = "false")
+    private boolean reuseStorageArrays;
+    
+    @Parameter(property = "coroutines.generateFrameClasses", defaultValue = "false")
+    private boolean generateFrameClasses;
+    
+    @Parameter(property = "coroutines.workerCount", defaultValue = "1")
+    private int workerCount;
+
+    @Parameter(property = "coroutines.incremental", defaultValue = "false")
+    private boolean incremental;
+
+    @Parameter(defaultValue = "${project.build.directory}/coroutines-state", required = true)
+    private File incrementalStateDirectory;
+
+    @Parameter(property = "coroutines.hierarchyCacheDirectory")
+    private File hierarchyCacheDirectory;
 
     /**
      * Instruments all classes in a path recursively.
@@ -60,11 +83,20 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
      */
     protected final void instrumentPath(Log log, List<String> classpath, File path)
             throws MojoExecutionException {
-        try {
-            Instrumenter instrumenter = getInstrumenter(log, classpath);
-            InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable);
+        try (Instrumenter instrumenter = getInstrumenter(log, classpath)) {
+            InstrumentationSettings settings = new InstrumentationSettings.Builder(markerType, debugMode, autoSerializable)
+                    .pruneNonSuspendingCalls(pruneNonSuspendingCalls)
+                    .outlineSaveBlocks(outlineSaveBlocks)
+                    .reuseStorageArrays(reuseStorageArrays)
+                    .generateFrameClasses(generateFrameClasses)
+                    .build();
 
-            PluginHelper.instrument(instrumenter, settings, path, path, log::info);
+            if (incremental) {
+                File stateFile = new File(incrementalStateDirectory, path.getName() + ".state");
+                PluginHelper.instrumentIncrementally(instrumenter, settings, path, path, stateFile, workerCount, log::info);
+            } else {
+                PluginHelper.instrument(instrumenter, settings, path, path, workerCount, log::info);
+            }
         } catch (Exception ex) {
             throw new MojoExecutionException("Unable to get compile classpath elements", ex);
         }
@@ -74,7 +106,7 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
      * Creates an {@link Instrumenter} instance.
      * @param log maven logger
      * @param classpath classpath for classes being instrumented
-     * @return a new {@link Instrumenter}
+     * @return a new {@link Instrumenter} (must be closed)
      * @throws MojoExecutionException if any exception occurs
      */
     private Instrumenter getInstrumenter(Log log, List<String> classpath) throws MojoExecutionException {
@@ -83,10 +115,12 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
             log.debug("Getting compile classpath");
             classpathFiles = classpath
                     .stream().map(x -> new File(x)).collect(Collectors.toList());
-            log.debug("Getting bootstrap classpath");
-            classpathFiles.addAll(FileUtils.listFiles(new File(jdkLibsDirectory), new String[]{"jar"}, true));
 
-            log.debug("Classpath for instrumentation is as follows: " + classpathFiles);
+            log.debug("Classpath for instrumentation is as follows: " + classpathFiles + " (plus JDK classes from " + jdkLibsDirectory
+                    + ")");
+            if (hierarchyCacheDirectory != null) {
+                log.debug("Caching classpath hierarchy information in " + hierarchyCacheDirectory);
+            }
         } catch (Exception ex) {
             throw new MojoExecutionException("Unable to get compile classpath elements", ex);
         }
@@ -94,7 +128,7 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
         log.debug("Creating instrumenter...");
 
         try {
-            return new Instrumenter(classpathFiles);
+            return PluginHelper.createInstrumenter(classpathFiles, new File(jdkLibsDirectory), hierarchyCacheDirectory);
         } catch (Exception ex) {
             throw new MojoExecutionException("Unable to create instrumenter", ex);
         }
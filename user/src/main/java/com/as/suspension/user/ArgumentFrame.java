@@ -1,25 +1,56 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
 package com.as.suspension.user;
 
-
 import java.io.Serializable;
 
 /**
- * @author 11192
+ * Arguments passed in to a single call to {@link CoroutineRunner#execute(java.lang.Object[]) }.
+ * @author Kasra Faghihi
+ * @deprecated arguments are no longer retained between calls to {@link CoroutineRunner#execute(java.lang.Object[]) } or serialized, use
+ * {@link SuspendableContext#getArguments() } to get the arguments for the current call
  */
-public class ArgumentFrame implements Serializable{
+@Deprecated
+public class ArgumentFrame implements Serializable {
     private static final long serialVersionUID = 84581514L;
 
     private Object[] args;
 
-    public ArgumentFrame(Object... args){
+    /**
+     * Constructs a {@link ArgumentFrame} object.
+     * @param args arguments
+     */
+    public ArgumentFrame(Object... args) {
         this.args = args;
     }
 
+    /**
+     * Get the arguments.
+     * @return arguments
+     */
     public Object[] getArgs() {
         return args;
     }
 
-    public boolean hasArgs(){
+    /**
+     * Checks if there are any arguments.
+     * @return {@code true} if there's at least one argument, {@code false} otherwise
+     */
+    public boolean hasArgs() {
         return args.length != 0;
     }
 }
@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.user;
+
+import com.as.suspension.user.SerializedState.Data;
+import com.as.suspension.user.SerializedState.Frame;
+import com.as.suspension.user.SerializedState.VersionedFrame;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link SerializedState}. Shared by {@link CoroutineWriter.CompactCoroutineSerializer} and
+ * {@link CoroutineReader.CompactCoroutineDeserializer}.
+ * @author Kasra Faghihi
+ */
+final class CompactSerializedStateFormat {
+    
+    // Layout...
+    //   int       magic
+    //   byte      version
+    //   varint    string count, followed by each string (varint length + chars)
+    //   varint    object table length, followed by the bytes produced by ObjectCodec.encode() for the object table
+    //   varint    suspendable (object ref)
+    //   varint    context (object ref)
+    //   varint    versioned frame count, and for each versioned frame...
+    //     varint    frame count, and for each frame...
+    //       varint    class name (string ref)
+    //       int       method id
+    //       varint    continuation point id
+    //       data      variables
+    //       data      operands
+    //
+    // data is...
+    //   varint+raw  ints, floats, longs, doubles (length followed by raw big-endian values)
+    //   varint+refs objects (length followed by object refs)
+    //   varint+raw  continuation indexes
+    //
+    // Object refs are indexes in to the object table + 1 (0 is reserved for null). The object table contains each user object exactly once
+    // (by identity), so shared references stay shared once decoded. It's handed off to the ObjectCodec as a single array. Primitive
+    // arrays never go through the codec.
+    private static final int MAGIC = 0xC0C0CAFE;
+    private static final byte VERSION = 1;
+
+    private CompactSerializedStateFormat() {
+        // do nothing
+    }
+    
+    static byte[] write(SerializedState serializedState, ObjectCodec codec) {
+        if (serializedState == null || codec == null) {
+            throw new NullPointerException();
+        }
+
+        VersionedFrame[] versionedFrames = serializedState.getFrames();
+
+        // Build string table + object table
+        Map stringTable = new HashMap();
+        List strings = new ArrayList();
+        Map objectTable = new IdentityHashMap();
+        List objects = new ArrayList();
+
+        int suspendableRef = intern(objectTable, objects, serializedState.getSuspendable());
+        int contextRef = intern(objectTable, objects, serializedState.getContext());
+
+        int[][] classNameRefs = new int[versionedFrames.length][];
+        Frame[][] frames = new Frame[versionedFrames.length][];
+        for (int i = 0; i < versionedFrames.length; i++) {
+            frames[i] = versionedFrames[i].getFrames();
+            classNameRefs[i] = new int[frames[i].length];
+            for (int j = 0; j < frames[i].length; j++) {
+                Frame frame = frames[i][j];
+                if (frame.getMonitors().length > 0) {
+                    throw new IllegalArgumentException("Monitors not allowed in compact serializer");
+                }
+                
+                String className = frame.getClassName();
+                Integer ref = (Integer) stringTable.get(className);
+                if (ref == null) {
+                    ref = Integer.valueOf(strings.size());
+                    stringTable.put(className, ref);
+                    strings.add(className);
+                }
+                classNameRefs[i][j] = ref.intValue();
+                
+                internAll(objectTable, objects, frame.getVariables().getObjects());
+                internAll(objectTable, objects, frame.getOperands().getObjects());
+            }
+        }
+        
+        byte[] encodedObjects = codec.encode(objects.toArray());
+        
+        
+        // Write
+        Output out = new Output(256 + encodedObjects.length);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        
+        out.writeVarint(strings.size());
+        for (int i = 0; i < strings.size(); i++) {
+            out.writeString((String) strings.get(i));
+        }
+        
+        out.writeVarint(encodedObjects.length);
+        out.writeBytes(encodedObjects);
+        
+        out.writeVarint(suspendableRef);
+        out.writeVarint(contextRef);
+
+        out.writeVarint(frames.length);
+        for (int i = 0; i < frames.length; i++) {
+            out.writeVarint(frames[i].length);
+            for (int j = 0; j < frames[i].length; j++) {
+                Frame frame = frames[i][j];
+                out.writeVarint(classNameRefs[i][j]);
+                out.writeInt(frame.getMethodId());
+                out.writeVarint(frame.getContinuationPointId());
+                writeData(out, objectTable, frame.getVariables());
+                writeData(out, objectTable, frame.getOperands());
+            }
+        }
+        
+        return out.toByteArray();
+    }
+    
+    static SerializedState read(byte[] data, ObjectCodec codec) {
+        if (data == null || codec == null) {
+            throw new NullPointerException();
+        }
+
+        try {
+            Input in = new Input(data);
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Bad magic");
+            }
+            if (in.readByte() != VERSION) {
+                throw new IllegalArgumentException("Unsupported version");
+            }
+            
+            String[] strings = new String[in.readLength(1)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readString();
+            }
+            
+            byte[] encodedObjects = in.readBytes(in.readLength(1));
+            Object[] objects = codec.decode(encodedObjects);
+            
+            Object suspendable = resolve(objects, in.readVarint());
+            Object context = resolve(objects, in.readVarint());
+            
+            VersionedFrame[] versionedFrames = new VersionedFrame[in.readLength(1)];
+            for (int i = 0; i < versionedFrames.length; i++) {
+                Frame[] frames = new Frame[in.readLength(1)];
+                for (int j = 0; j < frames.length; j++) {
+                    String className = strings[in.readVarint()];
+                    int methodId = in.readInt();
+                    int continuationPointId = in.readVarint();
+                    Data variables = readData(in, objects);
+                    Data operands = readData(in, objects);
+                    frames[j] = new Frame(className, methodId, continuationPointId, new Object[0], variables, operands);
+                }
+                versionedFrames[i] = new VersionedFrame(frames);
+            }
+            
+            if (!in.isFinished()) {
+                throw new IllegalArgumentException("Trailing data");
+            }
+            
+            return new SerializedState((Suspendable) suspendable, context, versionedFrames);
+        } catch (ArrayIndexOutOfBoundsException aioobe) {
+            throw new IllegalArgumentException(aioobe);
+        } catch (NegativeArraySizeException nase) {
+            throw new IllegalArgumentException(nase);
+        } catch (ClassCastException cce) {
+            throw new IllegalArgumentException(cce);
+        }
+    }
+    
+    private static void writeData(Output out, Map objectTable, Data data) {
+        int[] ints = data.getInts();
+        out.writeVarint(ints.length);
+        for (int i = 0; i < ints.length; i++) {
+            out.writeInt(ints[i]);
+        }
+        
+        float[] floats = data.getFloats();
+        out.writeVarint(floats.length);
+        for (int i = 0; i < floats.length; i++) {
+            out.writeInt(Float.floatToRawIntBits(floats[i]));
+        }
+        
+        long[] longs = data.getLongs();
+        out.writeVarint(longs.length);
+        for (int i = 0; i < longs.length; i++) {
+            out.writeLong(longs[i]);
+        }
+
+        double[] doubles = data.getDoubles();
+        out.writeVarint(doubles.length);
+        for (int i = 0; i < doubles.length; i++) {
+            out.writeLong(Double.doubleToRawLongBits(doubles[i]));
+        }
+
+        Object[] objects = data.getObjects();
+        out.writeVarint(objects.length);
+        for (int i = 0; i < objects.length; i++) {
+            out.writeVarint(objects[i] == null ? 0 : ((Integer) objectTable.get(objects[i])).intValue());
+        }
+        
+        int[] continuationIndexes = data.getContinuationIndexes();
+        out.writeVarint(continuationIndexes.length);
+        for (int i = 0; i < continuationIndexes.length; i++) {
+            out.writeVarint(continuationIndexes[i]);
+        }
+    }
+    
+    private static Data readData(Input in, Object[] objectTable) {
+        int[] ints = new int[in.readLength(4)];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = in.readInt();
+        }
+        
+        float[] floats = new float[in.readLength(4)];
+        for (int i = 0; i < floats.length; i++) {
+            floats[i] = Float.intBitsToFloat(in.readInt());
+        }
+        
+        long[] longs = new long[in.readLength(8)];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = in.readLong();
+        }
+        
+        double[] doubles = new double[in.readLength(8)];
+        for (int i = 0; i < doubles.length; i++) {
+            doubles[i] = Double.longBitsToDouble(in.readLong());
+        }
+        
+        Object[] objects = new Object[in.readLength(1)];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = resolve(objectTable, in.readVarint());
+        }
+        
+        int[] continuationIndexes = new int[in.readLength(1)];
+        for (int i = 0; i < continuationIndexes.length; i++) {
+            continuationIndexes[i] = in.readVarint();
+        }
+        
+        return new Data(ints, floats, longs, doubles, objects, continuationIndexes);
+    }
+    
+    private static int intern(Map objectTable, List objects, Object obj) {
+        if (obj == null) {
+            return 0;
+        }
+        
+        Integer ref = (Integer) objectTable.get(obj);
+        if (ref == null) {
+            objects.add(obj);
+            ref = Integer.valueOf(objects.size()); // +1 because 0 is reserved for null
+            objectTable.put(obj, ref);
+        }
+        return ref.intValue();
+    }
+    
+    private static void internAll(Map objectTable, List objects, Object[] objs) {
+        for (int i = 0; i < objs.length; i++) {
+            intern(objectTable, objects, objs[i]);
+        }
+    }
+    
+    private static Object resolve(Object[] objectTable, int ref) {
+        return ref == 0 ? null : objectTable[ref - 1];
+    }
+    
+    
+    
+    
+    private static final class Output {
+        private byte[] buffer;
+        private int size;
+
+        Output(int initialCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+        
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeVarint(int value) {
+            if (value < 0) {
+                throw new IllegalStateException(); // should never happen, only used for sizes/indexes
+            }
+
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            int len = value.length();
+            writeVarint(len);
+            ensureCapacity(len * 2);
+            for (int i = 0; i < len; i++) {
+                char ch = value.charAt(i);
+                buffer[size++] = (byte) (ch >>> 8);
+                buffer[size++] = (byte) ch;
+            }
+        }
+
+        void writeBytes(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, buffer, size, value.length);
+            size += value.length;
+        }
+
+        byte[] toByteArray() {
+            byte[] ret = new byte[size];
+            System.arraycopy(buffer, 0, ret, 0, size);
+            return ret;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                int newCapacity = Math.max(buffer.length * 2, size + extra);
+                byte[] newBuffer = new byte[newCapacity];
+                System.arraycopy(buffer, 0, newBuffer, 0, size);
+                buffer = newBuffer;
+            }
+        }
+    }
+
+    // ArrayIndexOutOfBoundsException gets thrown if reading past the end, callers translate it to IllegalArgumentException
+    private static final class Input {
+        private final byte[] buffer;
+        private int position;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() {
+            return buffer[position++];
+        }
+
+        int readInt() {
+            return ((buffer[position++] & 0xFF) << 24)
+                    | ((buffer[position++] & 0xFF) << 16)
+                    | ((buffer[position++] & 0xFF) << 8)
+                    | (buffer[position++] & 0xFF);
+        }
+
+        long readLong() {
+            long high = readInt() & 0xFFFFFFFFL;
+            long low = readInt() & 0xFFFFFFFFL;
+            return (high << 32) | low;
+        }
+
+        int readVarint() {
+            int ret = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = buffer[position++];
+                ret |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (ret < 0) {
+                        throw new IllegalArgumentException("Bad varint");
+                    }
+                    return ret;
+                }
+            }
+            throw new IllegalArgumentException("Bad varint");
+        }
+
+        // Reads a length, making sure that there are enough bytes left for that many elements. This keeps corrupt input from causing
+        // huge allocations.
+        int readLength(int minBytesPerElement) {
+            int len = readVarint();
+            if (len > (buffer.length - position) / minBytesPerElement) {
+                throw new IllegalArgumentException("Bad length");
+            }
+            return len;
+        }
+
+        String readString() {
+            int len = readLength(2);
+            char[] chars = new char[len];
+            for (int i = 0; i < len; i++) {
+                chars[i] = (char) (((buffer[position++] & 0xFF) << 8) | (buffer[position++] & 0xFF));
+            }
+            return new String(chars);
+        }
+
+        byte[] readBytes(int len) {
+            byte[] ret = new byte[len];
+            System.arraycopy(buffer, position, ret, 0, len);
+            position += len;
+            return ret;
+        }
+
+        boolean isFinished() {
+            return position == buffer.length;
+        }
+    }
+}
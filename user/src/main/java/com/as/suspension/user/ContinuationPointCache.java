@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.user;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Caches the lookups done by {@link MethodState#isValid(java.lang.ClassLoader, java.lang.String, int, int) }. Loading a class and scanning
+ * it for an identifying field only happens the first time a class is encountered (per classloader). After that, checking a method
+ * ID/continuation point ID combination is a hash lookup. Whether or not a class was instrumented to use generated frame classes (see
+ * {@link FrameStorage}) is picked up during the same scan.
+ * @author Kasra Faghihi
+ */
+final class ContinuationPointCache {
+    // Java 1.5 doesn't have ClassValue, so the caches are WeakHashMaps keyed on classloader/class. Weak keys make sure that we don't keep
+    // classloaders around after they've been discarded.
+    //
+    // classloader -> (class name -> WeakReference(class) or Missing). Classes are held weakly because a class found through a classloader
+    // may belong to a parent classloader, and that shouldn't keep the parent around either.
+    //
+    // Misses are only cached for MISSING_EXPIRY_NANOS. They're cached at all because resolving with no classloader tries this class's
+    // classloader before the context classloader, and that first lookup misses every time if the class is only visible to the context
+    // classloader. They expire because a class that can't be found now may become loadable later on.
+    private static final Map CLASSES = new WeakHashMap();
+    // class -> ClassDetails
+    private static final Map CLASS_DETAILS = new WeakHashMap();
+    private static final Object LOCK = new Object();
+    
+    private static final long MISSING_EXPIRY_NANOS = 1000000000L;
+
+    private ContinuationPointCache() {
+        // do nothing
+    }
+
+    static boolean isValid(ClassLoader classLoader, String className, int methodId, int continuationPointId) {
+        Class cls = resolveClass(classLoader, className);
+        return getClassDetails(cls).continuationPoints.contains(Long.valueOf(toKey(methodId, continuationPointId)));
+    }
+
+    static Class getFrameClass(ClassLoader classLoader, String className, int methodId) {
+        Class cls = resolveClass(classLoader, className);
+        if (!getClassDetails(cls).frameClasses) {
+            return null;
+        }
+
+        // Frame classes are generated alongside the class they're for, so they should always be visible to that class's classloader
+        String frameClassName = FrameStorage.getFrameClassName(className, methodId);
+        Class frameCls = findClass(cls.getClassLoader(), frameClassName);
+        if (frameCls == null) {
+            throw new IllegalStateException("Frame class this state is being deserialized for is missing: " + frameClassName);
+        }
+
+        return frameCls;
+    }
+
+    private static Class resolveClass(ClassLoader classLoader, String className) {
+        Class cls;
+        if (classLoader == null) {
+            // Try to find the class from this object's classloader, then from this Thread's classloader
+            cls = findClass(MethodState.class.getClassLoader(), className);
+            if (cls == null) {
+                cls = findClass(Thread.currentThread().getContextClassLoader(), className);
+            }
+        } else {
+            // Try to find the class the classloader provided
+            cls = findClass(classLoader, className);
+        }
+
+        if (cls == null) {
+            throw new IllegalStateException("Class this state is being deserialized for is missing: " + className);
+        }
+
+        return cls;
+    }
+    
+    private static Class findClass(ClassLoader classLoader, String className) {
+        if (classLoader == null) {
+            return null;
+        }
+        
+        Map classes;
+        synchronized (LOCK) {
+            classes = (Map) CLASSES.get(classLoader);
+            if (classes == null) {
+                classes = new HashMap();
+                CLASSES.put(classLoader, classes);
+            }
+            
+            Object cached = classes.get(className);
+            if (cached instanceof Missing) {
+                if (System.nanoTime() - ((Missing) cached).expiryTime < 0L) {
+                    return null;
+                }
+            } else if (cached != null) {
+                Class cls = (Class) ((WeakReference) cached).get();
+                if (cls != null) {
+                    return cls;
+                }
+            }
+        }
+        
+        // Not cached (or was cached but got unloaded, or the miss expired), load it outside of the lock -- loading may trigger static initializers / other
+        // classloading
+        Class cls;
+        try {
+            cls = classLoader.loadClass(className);
+        } catch (ClassNotFoundException cnfe) {
+            cls = null;
+        }
+        
+        Object entry = cls == null ? (Object) new Missing(System.nanoTime() + MISSING_EXPIRY_NANOS) : new WeakReference(cls);
+        synchronized (LOCK) {
+            classes.put(className, entry);
+        }
+        
+        return cls;
+    }
+    
+    private static ClassDetails getClassDetails(Class cls) {
+        synchronized (LOCK) {
+            ClassDetails classDetails = (ClassDetails) CLASS_DETAILS.get(cls);
+            if (classDetails != null) {
+                return classDetails;
+            }
+        }
+
+        // Scan the identifying fields outside of the lock
+        Set continuationPoints = new HashSet();
+        boolean frameClasses = false;
+        Field[] fields = cls.getDeclaredFields();
+        for (int i = 0; i < fields.length; i++) {
+            String name = fields[i].getName();
+            if (FrameStorage.MARKER_FIELD_NAME.equals(name)) {
+                frameClasses = true;
+                continue;
+            }
+
+            Long key = parseIdentifyingFieldName(name);
+            if (key != null) {
+                continuationPoints.add(key);
+            }
+        }
+        
+        ClassDetails classDetails = new ClassDetails(continuationPoints, frameClasses);
+        synchronized (LOCK) {
+            CLASS_DETAILS.put(cls, classDetails);
+        }
+
+        return classDetails;
+    }
+    
+    // Reverse of MethodState.getIdentifyingFieldName()
+    private static Long parseIdentifyingFieldName(String name) {
+        if (!name.startsWith(MethodState.IDENTIFYING_FIELD_PREFIX)) {
+            return null;
+        }
+        
+        String ids = name.substring(MethodState.IDENTIFYING_FIELD_PREFIX.length());
+        int splitIdx = ids.indexOf('_');
+        if (splitIdx == -1) {
+            return null;
+        }
+
+        try {
+            int methodId = Integer.parseInt(ids.substring(0, splitIdx).replace('N', '-'));
+            int continuationPointId = Integer.parseInt(ids.substring(splitIdx + 1).replace('N', '-'));
+            return Long.valueOf(toKey(methodId, continuationPointId));
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+    
+    private static long toKey(int methodId, int continuationPointId) {
+        return ((long) methodId << 32) | (continuationPointId & 0xFFFFFFFFL);
+    }
+    
+    private static final class Missing {
+        private final long expiryTime; // System.nanoTime() based
+
+        private Missing(long expiryTime) {
+            this.expiryTime = expiryTime;
+        }
+    }
+
+    private static final class ClassDetails {
+        // set of Longs, each of which is a method ID and continuation point ID combination (see toKey())
+        private final Set continuationPoints;
+        private final boolean frameClasses;
+
+        private ClassDetails(Set continuationPoints, boolean frameClasses) {
+            this.continuationPoints = continuationPoints;
+            this.frameClasses = frameClasses;
+        }
+    }
+}
@@ -25,7 +25,6 @@ import java.io.OptionalDataException;
 import java.io.Serializable;
 import java.io.StreamCorruptedException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -150,15 +149,12 @@ public final class CoroutineReader {
 
         Object context = state.getContext();
 
-        List<ArgumentFrame> argFrames = state.getArgumentFrames();
-
         SerializedState.VersionedFrame[] versionedFrames = state.getFrames();
 
         Suspendable suspendable = state.getSuspendable();
         SuspendableContext cn = new SuspendableContext();
         cn.setMode(SuspendableContext.MODE_SAVING);
         cn.setContext(context);
-        cn.setArgumentFrames(argFrames);
 
         for (int i = versionedFrames.length - 1; i >= 0; i--) {
             SerializedState.VersionedFrame versionedFrame = versionedFrames[i];
@@ -200,7 +196,15 @@ public final class CoroutineReader {
             placeContinuationReferences(variables.getContinuationIndexes(), (Object[]) frameData[4], cn);
             placeContinuationReferences(operands.getContinuationIndexes(), (Object[]) frameData[9], cn);
             
-            MethodState methodState = new MethodState(className, methodId, continuationPoint, frameData, lockState);
+            // If the method was instrumented to save in to a generated frame class, convert to that layout
+            MethodState methodState;
+            Class frameClass = ContinuationPointCache.getFrameClass(null, className, methodId);
+            if (frameClass != null) {
+                Object methodFrame = FrameStorage.toFrame(frameClass, continuationPoint, frameData);
+                methodState = new MethodState(className, methodId, continuationPoint, methodFrame, lockState);
+            } else {
+                methodState = new MethodState(className, methodId, continuationPoint, frameData, lockState);
+            }
 
             
             
@@ -320,4 +324,38 @@ public final class CoroutineReader {
         }
         //CHECKSTYLE.ON:JavadocMethod
     }
+
+    /**
+     * Implementation of {@link CoroutineDeserializer} that reads in the compact binary format written by
+     * {@link CoroutineWriter.CompactCoroutineSerializer}. The {@link ObjectCodec} used must be equivalent to the one used to write the data.
+     */
+    public static final class CompactCoroutineDeserializer implements CoroutineDeserializer {
+        private final ObjectCodec codec;
+
+        /**
+         * Constructs a {@link CompactCoroutineDeserializer} object. Equivalent to calling
+         * {@code new CompactCoroutineDeserializer(new ObjectCodec.DefaultObjectCodec())}.
+         */
+        public CompactCoroutineDeserializer() {
+            this(new ObjectCodec.DefaultObjectCodec());
+        }
+
+        /**
+         * Constructs a {@link CompactCoroutineDeserializer} object.
+         * @param codec codec used to decode user objects
+         * @throws NullPointerException if any argument is {@code null}
+         */
+        public CompactCoroutineDeserializer(ObjectCodec codec) {
+            if (codec == null) {
+                throw new NullPointerException();
+            }
+            this.codec = codec;
+        }
+        
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        public SerializedState deserialize(byte[] data) {
+            return CompactSerializedStateFormat.read(data, codec);
+        }
+        //CHECKSTYLE.ON:JavadocMethod
+    }
 }
@@ -17,7 +17,6 @@
 package com.as.suspension.user;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 
 /**
  * Used to execute a {@link Suspendable}. All {@link Suspendable}s must be executed through this class.
@@ -25,6 +24,8 @@ import java.util.ArrayList;
  */
 public final class CoroutineRunner implements Serializable {
     private static final long serialVersionUID = 5L;
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
     
     private Suspendable suspendable;
     private SuspendableContext suspendableContext;
@@ -56,22 +57,46 @@ public final class CoroutineRunner implements Serializable {
      * return {@code false}.
      * <p>
      * Calling this method again after the suspendable has finished executing will restart the suspendable.
+     * <p>
+     * Equivalent to calling {@link #execute(java.lang.Object[]) } with no arguments, but doesn't allocate an argument array.
+     * @return {@code false} if execution has completed (the method has return), {@code true} if execution was suspended.
+     * @throws CoroutineException an exception occurred during execution of this suspendable, the saved execution stack and object state may
+     * be out of sync at this point (meaning that unless you know what you're doing, you should not call {@link CoroutineRunner#execute() }
+     * again)
+     */
+    public boolean execute() {
+        return executeWith(NO_ARGUMENTS);
+    }
+
+    /**
+     * Starts/resumes execution of this suspendable, making {@code args} available to it via {@link SuspendableContext#getArguments() }. If
+     * the suspendable being executed reaches a suspension point (meaning that the method calls {@link SuspendableContext#suspend() }), this
+     * method will return {@code true}. If the suspendable has finished executing, this method will return {@code false}.
+     * <p>
+     * Arguments are only available to the suspendable for the duration of this call. They aren't retained afterwards and they aren't
+     * serialized.
+     * <p>
+     * Calling this method again after the suspendable has finished executing will restart the suspendable.
+     * @param args arguments to make available to the suspendable ({@code null} is treated as no arguments)
      * @return {@code false} if execution has completed (the method has return), {@code true} if execution was suspended.
      * @throws CoroutineException an exception occurred during execution of this suspendable, the saved execution stack and object state may
      * be out of sync at this point (meaning that unless you know what you're doing, you should not call {@link CoroutineRunner#execute() }
      * again)
      */
     public boolean execute(Object... args) {
+        return executeWith(args == null ? NO_ARGUMENTS : args);
+    }
+
+    private boolean executeWith(Object[] args) {
         try {
-            if(suspendableContext.getArgumentFrames() == null){
-                suspendableContext.setArgumentFrames(new ArrayList<ArgumentFrame>());
-            }
-            suspendableContext.getArgumentFrames().add(new ArgumentFrame(args));
+            suspendableContext.setArguments(args);
             suspendable.run(suspendableContext);
             suspendableContext.successExecutionCycle();
         } catch (Exception e) {
             suspendableContext.failedExecutionCycle();
             throw new CoroutineException("Exception thrown during execution", e);
+        } finally {
+            suspendableContext.setArguments(null); // don't hold on to arguments once this call is done with them
         }
         
         // if mode was not set to SAVING after return, it means the method finished executing
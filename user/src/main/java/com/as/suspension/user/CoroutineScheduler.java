@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.user;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Multiplexes many {@link CoroutineRunner}s over a fixed number of worker threads.
+ * <p>
+ * Each worker owns a deque of runners. A worker takes runners from the head of its own deque and, when its deque is empty, steals half of
+ * the runners sitting at the tail of another worker's deque. A runner that suspends is put back on the tail of the deque of the worker
+ * that ran it, so a coroutine tends to stay on the same core.
+ * <p>
+ * A coroutine that is waiting on something can call {@link #parkCurrent() } right before it suspends. Once it suspends, it won't be
+ * scheduled again until someone calls {@link #unpark(com.as.suspension.user.CoroutineRunner) } on its runner.
+ * <p>
+ * If a runner throws an exception (or error), it's dropped from this scheduler and the throwable is passed to the uncaught exception handler
+ * of the worker thread (the worker itself keeps going).
+ * @author Kasra Faghihi
+ */
+public final class CoroutineScheduler {
+    private static final ThreadLocal CURRENT_ENTRY = new ThreadLocal();
+
+    private static final int STATE_QUEUED = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_PARKED = 2;
+    private static final int STATE_FINISHED = 3;
+
+    private static final int SPIN_TRIES = 16;
+    private static final long MAX_BACKOFF_NANOS = 1000000L;
+
+    private final Worker[] workers;
+    private final ConcurrentHashMap entries; // runner -> entry, for all runners that haven't finished
+
+    private final AtomicInteger nextWorkerIdx = new AtomicInteger();
+    private final AtomicInteger queuedCount = new AtomicInteger();  // entries sitting in deques
+    private final AtomicInteger idleCount = new AtomicInteger();    // workers waiting on idleLock
+    private final AtomicInteger activeCount = new AtomicInteger();  // entries that are queued or running (not parked / not finished)
+
+    private final Object idleLock = new Object();
+    private final Object drainLock = new Object();
+
+    private volatile boolean running;
+
+    /**
+     * Constructs a {@link CoroutineScheduler} object with one worker per available processor. Equivalent to calling
+     * {@code new CoroutineScheduler(Runtime.getRuntime().availableProcessors())}.
+     */
+    public CoroutineScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a {@link CoroutineScheduler} object. Worker threads are daemon threads and are started right away.
+     * @param workerCount number of worker threads
+     * @throws IllegalArgumentException if {@code workerCount <= 0}
+     */
+    public CoroutineScheduler(int workerCount) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.entries = new ConcurrentHashMap();
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i);
+        }
+
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Schedules a runner. If called from within a coroutine being run by this scheduler, the runner is put on the current worker's deque.
+     * Otherwise the runner is handed to the workers in round-robin order.
+     * @param runner runner to schedule
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code runner} is already scheduled with this scheduler
+     * @throws IllegalStateException if this scheduler has been shutdown
+     */
+    public void spawn(CoroutineRunner runner) {
+        if (runner == null) {
+            throw new NullPointerException();
+        }
+        if (!running) {
+            throw new IllegalStateException("Scheduler shutdown");
+        }
+
+        Entry entry = new Entry(runner);
+        if (entries.putIfAbsent(runner, entry) != null) {
+            throw new IllegalArgumentException("Runner already scheduled");
+        }
+
+        activeCount.incrementAndGet();
+        enqueue(entry, pickWorker());
+    }
+
+    /**
+     * Schedules a runner for a suspendable. Equivalent to calling {@code spawn(new CoroutineRunner(suspendable))}.
+     * @param suspendable suspendable to run
+     * @return runner that was created for {@code suspendable}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if this scheduler has been shutdown
+     */
+    public CoroutineRunner spawn(Suspendable suspendable) {
+        CoroutineRunner runner = new CoroutineRunner(suspendable);
+        spawn(runner);
+        return runner;
+    }
+
+    /**
+     * Marks the coroutine currently being run by this thread as parked. Once the coroutine suspends, it won't be scheduled again until
+     * {@link #unpark(com.as.suspension.user.CoroutineRunner) } is called for its runner.
+     * <p>
+     * Similar to {@link java.util.concurrent.locks.LockSupport}, each runner has a permit. If
+     * {@link #unpark(com.as.suspension.user.CoroutineRunner) } was called while the runner wasn't parked, the permit is consumed and this
+     * method does nothing (the coroutine will be scheduled again as normal once it suspends).
+     * <p>
+     * This must be called from within a coroutine running on a {@link CoroutineScheduler}, right before calling
+     * {@link SuspendableContext#suspend() }.
+     * @throws IllegalStateException if the calling thread isn't running a coroutine for a {@link CoroutineScheduler}
+     */
+    public static void parkCurrent() {
+        Entry entry = (Entry) CURRENT_ENTRY.get();
+        if (entry == null) {
+            throw new IllegalStateException("Not running in a scheduler");
+        }
+
+        synchronized (entry) {
+            if (entry.permit) {
+                entry.permit = false;
+            } else {
+                entry.parkRequested = true;
+            }
+        }
+    }
+
+    /**
+     * Reschedules a parked runner. If the runner isn't parked, it's given a permit that cancels its next call to {@link #parkCurrent() }.
+     * @param runner runner to reschedule
+     * @return {@code true} if {@code runner} was parked and has been rescheduled, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public boolean unpark(CoroutineRunner runner) {
+        if (runner == null) {
+            throw new NullPointerException();
+        }
+
+        Entry entry = (Entry) entries.get(runner);
+        if (entry == null) {
+            return false;
+        }
+
+        synchronized (entry) {
+            if (entry.parkRequested) {
+                // it's running right now and asked to be parked -- cancel it, it'll get requeued as soon as it suspends
+                entry.parkRequested = false;
+                return false;
+            }
+            if (entry.state != STATE_PARKED) {
+                entry.permit = true;
+                return false;
+            }
+            if (!running) {
+                return false;
+            }
+            entry.state = STATE_QUEUED;
+        }
+
+        activeCount.incrementAndGet();
+        enqueue(entry, pickWorker());
+        return true;
+    }
+
+    /**
+     * Blocks until no more runners are queued or running. Runners that are parked don't count.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void drain() throws InterruptedException {
+        synchronized (drainLock) {
+            while (activeCount.get() != 0 && running) {
+                drainLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Stops the workers and waits for them to exit. Runners that are mid-execution are allowed to finish their current execution cycle.
+     * @return runners that haven't finished executing (queued and parked runners)
+     * @throws InterruptedException if interrupted while waiting for the workers to exit
+     */
+    public List shutdown() throws InterruptedException {
+        running = false;
+        synchronized (idleLock) {
+            idleLock.notifyAll();
+        }
+        synchronized (drainLock) {
+            drainLock.notifyAll();
+        }
+
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i] != Thread.currentThread()) {
+                workers[i].join();
+            }
+        }
+
+        List ret = new ArrayList(entries.size());
+        for (Iterator it = entries.keySet().iterator(); it.hasNext();) {
+            ret.add(it.next());
+        }
+        entries.clear();
+        return ret;
+    }
+
+    /**
+     * Get the number of runners this scheduler is tracking (queued, running, and parked).
+     * @return number of runners that haven't finished
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private Worker pickWorker() {
+        Entry current = (Entry) CURRENT_ENTRY.get();
+        Thread thread = Thread.currentThread();
+        if (current != null && thread instanceof Worker && ((Worker) thread).getScheduler() == this) {
+            return (Worker) thread;
+        }
+
+        int idx = (nextWorkerIdx.getAndIncrement() & Integer.MAX_VALUE) % workers.length;
+        return workers[idx];
+    }
+
+    private void enqueue(Entry entry, Worker worker) {
+        // Increment before pushing and check for idle workers after -- the idle worker does the reverse (increments idle count before
+        // checking the queued count), so at least one of the two always sees the other's write and a wakeup is never lost.
+        queuedCount.incrementAndGet();
+        worker.deque.pushLast(entry);
+        if (idleCount.get() > 0) {
+            synchronized (idleLock) {
+                idleLock.notify();
+            }
+        }
+    }
+
+    private void step(Entry entry) {
+        CoroutineRunner runner = entry.runner;
+
+        synchronized (entry) {
+            entry.state = STATE_RUNNING;
+        }
+
+        boolean suspended;
+        CURRENT_ENTRY.set(entry);
+        try {
+            suspended = runner.execute();
+        } catch (Throwable t) {
+            // catch errors as well -- if this worker died here, the runner would never be accounted for and drain() would block forever
+            finish(entry);
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+            return;
+        } finally {
+            CURRENT_ENTRY.set(null);
+        }
+
+        if (!suspended) {
+            finish(entry);
+            return;
+        }
+
+        boolean parked;
+        synchronized (entry) {
+            parked = entry.parkRequested;
+            entry.parkRequested = false;
+            entry.state = parked ? STATE_PARKED : STATE_QUEUED;
+        }
+
+        if (parked) {
+            deactivate();
+        } else {
+            enqueue(entry, (Worker) Thread.currentThread());
+        }
+    }
+
+    private void finish(Entry entry) {
+        synchronized (entry) {
+            entry.state = STATE_FINISHED;
+        }
+        entries.remove(entry.runner);
+        deactivate();
+    }
+
+    private void deactivate() {
+        if (activeCount.decrementAndGet() == 0) {
+            synchronized (drainLock) {
+                drainLock.notifyAll();
+            }
+        }
+    }
+
+    private Entry steal(Worker thief) {
+        int len = workers.length;
+        int start = thief.idx + 1;
+        for (int i = 0; i < len - 1; i++) {
+            Worker victim = workers[(start + i) % len];
+            Entry entry = victim.deque.stealHalfInto(thief.deque);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    // Returns false without waiting if the queued count is non-zero -- the work is in flight (counted but not yet pushed, or in the middle of
+    // being stolen), so the caller should back off and scan again.
+    private boolean awaitWork() throws InterruptedException {
+        synchronized (idleLock) {
+            if (queuedCount.get() != 0) {
+                return false;
+            }
+
+            idleCount.incrementAndGet();
+            try {
+                while (running && queuedCount.get() == 0) {
+                    idleLock.wait();
+                }
+            } finally {
+                idleCount.decrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    private static void backOff(int misses) {
+        if (misses < SPIN_TRIES) {
+            Thread.yield();
+        } else {
+            int shift = Math.min(misses - SPIN_TRIES, 20);
+            LockSupport.parkNanos(Math.min(MAX_BACKOFF_NANOS, 1000L << shift));
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final int idx;
+        private final EntryDeque deque;
+
+        Worker(int idx) {
+            super("CoroutineScheduler-worker-" + idx);
+            this.idx = idx;
+            this.deque = new EntryDeque();
+            setDaemon(true);
+        }
+
+        CoroutineScheduler getScheduler() {
+            return CoroutineScheduler.this;
+        }
+
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        public void run() {
+            try {
+                int misses = 0;
+                while (running) {
+                    Entry entry = deque.pollFirst();
+                    if (entry == null) {
+                        entry = steal(this);
+                    }
+
+                    if (entry == null) {
+                        if (awaitWork()) {
+                            misses = 0;
+                        } else {
+                            backOff(misses);
+                            misses++;
+                        }
+                        continue;
+                    }
+
+                    misses = 0;
+                    queuedCount.decrementAndGet();
+                    step(entry);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        //CHECKSTYLE.ON:JavadocMethod
+    }
+
+    private static final class Entry {
+        private final CoroutineRunner runner;
+        private int state;
+        private boolean parkRequested;
+        private boolean permit;
+
+        Entry(CoroutineRunner runner) {
+            this.runner = runner;
+            this.state = STATE_QUEUED;
+        }
+    }
+
+    // Circular array deque. The owning worker polls from the head and pushes to the tail, thieves take from the tail. Locking is plain
+    // synchronized -- each operation only holds the lock for a handful of array accesses and is almost never contended, since a worker only
+    // touches another worker's deque when its own deque is empty.
+    private static final class EntryDeque {
+        private Entry[] items = new Entry[16];
+        private int head;
+        private int size;
+
+        synchronized void pushLast(Entry entry) {
+            if (size == items.length) {
+                Entry[] newItems = new Entry[items.length * 2];
+                for (int i = 0; i < size; i++) {
+                    newItems[i] = items[(head + i) % items.length];
+                }
+                items = newItems;
+                head = 0;
+            }
+            items[(head + size) % items.length] = entry;
+            size++;
+        }
+
+        synchronized Entry pollFirst() {
+            if (size == 0) {
+                return null;
+            }
+            Entry ret = items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            size--;
+            return ret;
+        }
+
+        // Moves the newer half of this deque in to dst and returns one of them for immediate execution (or null if this deque was empty).
+        Entry stealHalfInto(EntryDeque dst) {
+            Entry[] stolen;
+            synchronized (this) {
+                if (size == 0) {
+                    return null;
+                }
+                int count = (size + 1) / 2;
+                stolen = new Entry[count];
+                for (int i = count - 1; i >= 0; i--) {
+                    int tailIdx = (head + size - 1) % items.length;
+                    stolen[i] = items[tailIdx];
+                    items[tailIdx] = null;
+                    size--;
+                }
+            }
+
+            // never hold both locks at the same time -- two workers stealing from each other would deadlock
+            for (int i = 1; i < stolen.length; i++) {
+                dst.pushLast(stolen[i]);
+            }
+            return stolen[0];
+        }
+    }
+}
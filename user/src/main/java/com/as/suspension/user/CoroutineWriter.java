@@ -28,7 +28,6 @@ import java.io.NotSerializableException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -146,10 +145,9 @@ public final class CoroutineWriter {
         int size = cn.getSize();
         VersionedFrame[] frames = new VersionedFrame[size];
 
-        MethodState currentMethodState = cn.getSaved(0);
-        
-        int idx = 0;
-        while (currentMethodState != null) {
+        for (int idx = 0; idx < size; idx++) {
+            MethodState currentMethodState = cn.getSaved(idx);
+
             // Pull out information from MethoState. We should never modify MethodState values, they will be copied by the Data
             // constructor before being passed to the user for further modification.
             String className = currentMethodState.getClassName();
@@ -158,17 +156,27 @@ public final class CoroutineWriter {
             
             LockState monitors = currentMethodState.getLockState();
             
-            int[] intVars = ((int[]) currentMethodState.getData()[0]);
-            float[] floatVars = ((float[]) currentMethodState.getData()[1]);
-            long[] longVars = ((long[]) currentMethodState.getData()[2]);
-            double[] doubleVars = ((double[]) currentMethodState.getData()[3]);
-            Object[] objectVars = ((Object[]) currentMethodState.getData()[4]);
+            // If the method was instrumented to save in to a generated frame class, convert to the default layout (creates new arrays, so
+            // this doesn't modify MethodState either).
+            Object[] data;
+            Object frame = currentMethodState.getFrame();
+            if (frame != null) {
+                data = FrameStorage.toTypedData(frame, continuationPoint);
+            } else {
+                data = currentMethodState.getData();
+            }
+            
+            int[] intVars = ((int[]) data[0]);
+            float[] floatVars = ((float[]) data[1]);
+            long[] longVars = ((long[]) data[2]);
+            double[] doubleVars = ((double[]) data[3]);
+            Object[] objectVars = ((Object[]) data[4]);
             
-            int[] intOperands = ((int[]) currentMethodState.getData()[5]);
-            float[] floatOperands = ((float[]) currentMethodState.getData()[6]);
-            long[] longOperands = ((long[]) currentMethodState.getData()[7]);
-            double[] doubleOperands = ((double[]) currentMethodState.getData()[8]);
-            Object[] objectOperands = ((Object[]) currentMethodState.getData()[9]);
+            int[] intOperands = ((int[]) data[5]);
+            float[] floatOperands = ((float[]) data[6]);
+            long[] longOperands = ((long[]) data[7]);
+            double[] doubleOperands = ((double[]) data[8]);
+            Object[] objectOperands = ((Object[]) data[9]);
 
 
             // Clone the object[] buffers because we need to remove references to the SuspendableContext object for this suspendable.
@@ -209,15 +217,11 @@ public final class CoroutineWriter {
                     interceptersMap,
                     serializedFrame);
             frames[idx] = versionedFrame;
-            idx++;
-
-            currentMethodState = currentMethodState.getNext();
         }
         
         Object context = cn.getContext();
-        List<ArgumentFrame> argFrames = cn.getArgumentFrames();
         
-        return new SerializedState(suspendable, context, frames, argFrames);
+        return new SerializedState(suspendable, context, frames);
     }
 
     private int[] clearContinuationReferences(Object[] objects, SuspendableContext cn) {
@@ -318,4 +322,48 @@ public final class CoroutineWriter {
         }
         //CHECKSTYLE.ON:JavadocMethod
     }
+
+    /**
+     * Implementation of {@link CoroutineSerializer} that uses a compact binary format. Primitive values in the local variables table /
+     * operand stack are written out directly and class names are only written out once. Only the user objects (the suspendable, the
+     * context, and objects in the local variables table / operand stack) are passed to an {@link ObjectCodec}, and they're passed as a
+     * single batch.
+     * <p>
+     * Output must be read back in using {@link CoroutineReader.CompactCoroutineDeserializer} with an equivalent {@link ObjectCodec}. This
+     * implementation has the following restrictions...
+     * <ol>
+     * <li>Serialization will fail if you have any synchronized blocks (monitor locks).</li>
+     * <li>The user objects must be encodable by the {@link ObjectCodec} used (for the default codec, they must implement
+     * {@link Serializable}).</li>
+     * </ol>
+     */
+    public static final class CompactCoroutineSerializer implements CoroutineSerializer {
+        private final ObjectCodec codec;
+
+        /**
+         * Constructs a {@link CompactCoroutineSerializer} object. Equivalent to calling
+         * {@code new CompactCoroutineSerializer(new ObjectCodec.DefaultObjectCodec())}.
+         */
+        public CompactCoroutineSerializer() {
+            this(new ObjectCodec.DefaultObjectCodec());
+        }
+
+        /**
+         * Constructs a {@link CompactCoroutineSerializer} object.
+         * @param codec codec used to encode user objects
+         * @throws NullPointerException if any argument is {@code null}
+         */
+        public CompactCoroutineSerializer(ObjectCodec codec) {
+            if (codec == null) {
+                throw new NullPointerException();
+            }
+            this.codec = codec;
+        }
+        
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        public byte[] serialize(SerializedState serializedState) {
+            return CompactSerializedStateFormat.write(serializedState, codec);
+        }
+        //CHECKSTYLE.ON:JavadocMethod
+    }
 }
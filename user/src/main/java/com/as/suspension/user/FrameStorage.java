@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.user;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Do not use -- for internal use only.
+ * <p>
+ * Converts {@link MethodState} frames to and from the default storage layout.
+ * <p>
+ * Classes instrumented to generate frame classes get a frame class per instrumented method (see
+ * {@link #getFrameClassName(java.lang.String, int) }). Rather than saving the local variables table and operand stack in to storage
+ * arrays, the instrumented method saves them directly in to the fields of an instance of its frame class. There's one field per storage
+ * array index (see {@link #getFieldName(char, char, int) }), so the fields are the union of what every continuation point in the method
+ * needs. How many of each are used at a specific continuation point is stored as a constant in the frame class (see
+ * {@link #SIZES_FIELD_NAME}).
+ * @author Kasra Faghihi
+ */
+public final class FrameStorage {
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Name of the field inserted in to classes that were instrumented to generate frame classes.
+     */
+    public static final String MARKER_FIELD_NAME = "__COROUTINES_FRAME_CLASSES";
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Name of the constant in a frame class that holds the number of fields used at each continuation point. Each continuation point (in
+     * order) is a comma-delimited list of 10 numbers: ints, floats, longs, doubles, and objects in the local variables table, followed by
+     * the same for the operand stack. Continuation points are delimited by semicolons.
+     */
+    public static final String SIZES_FIELD_NAME = "__COROUTINES_FRAME_SIZES";
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Section identifier for fields that hold the local variables table.
+     */
+    public static final char LOCALS_SECTION = 'l';
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Section identifier for fields that hold the operand stack.
+     */
+    public static final char OPERANDS_SECTION = 's';
+
+    // Number of arrays in the default storage layout -- int/float/long/double/Object arrays for the local variables table, followed by the
+    // same for the operand stack
+    private static final int TYPED_DATA_LENGTH = 10;
+    // Same order as the default storage layout -- 'L' is used for objects
+    private static final char[] TYPES = new char[] { 'I', 'F', 'J', 'D', 'L' };
+
+    private static final String FRAME_CLASS_SUFFIX = "$__COROUTINES_FRAME_";
+
+    // frame class -> FrameLayout (weak keys so frame classes can get unloaded)
+    private static final Map LAYOUTS = new WeakHashMap();
+    private static final Object LOCK = new Object();
+
+    private FrameStorage() {
+        // do nothing
+    }
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Get the name of the frame class generated for a method.
+     * @param className name of owner (class) for method
+     * @param methodId method id
+     * @return frame class name
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static String getFrameClassName(String className, int methodId) {
+        if (className == null) {
+            throw new NullPointerException();
+        }
+
+        return className + FRAME_CLASS_SUFFIX + Integer.toString(methodId).replace('-', 'N');
+    }
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Get the name of a field in a frame class.
+     * @param section {@link #LOCALS_SECTION} or {@link #OPERANDS_SECTION}
+     * @param type type descriptor character ({@code 'I'}, {@code 'F'}, {@code 'J'}, {@code 'D'}), or {@code 'L'} for objects
+     * @param index storage array index the field is for
+     * @return field name
+     * @throws IllegalArgumentException if {@code section} or {@code type} aren't one of the values listed above, or if {@code index} is
+     * negative
+     */
+    public static String getFieldName(char section, char type, int index) {
+        if (section != LOCALS_SECTION && section != OPERANDS_SECTION) {
+            throw new IllegalArgumentException();
+        }
+        if (type != 'I' && type != 'F' && type != 'J' && type != 'D' && type != 'L') {
+            throw new IllegalArgumentException();
+        }
+        if (index < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        return new StringBuffer().append(section).append(type).append(index).toString();
+    }
+
+    static Object[] toTypedData(Object frame, int continuationPoint) {
+        if (frame == null) {
+            throw new NullPointerException();
+        }
+
+        FrameLayout layout = getLayout(frame.getClass());
+        if (continuationPoint < 0 || continuationPoint >= layout.sizes.length) {
+            throw new IllegalArgumentException();
+        }
+
+        int[] sizes = layout.sizes[continuationPoint];
+        Object[] typedData = new Object[TYPED_DATA_LENGTH];
+        try {
+            for (int i = 0; i < typedData.length; i++) {
+                typedData[i] = readFields(frame, layout.fields[i], TYPES[i % TYPES.length], sizes[i]);
+            }
+        } catch (IllegalAccessException iae) {
+            throw new IllegalStateException("Unable to read frame class fields: " + frame.getClass().getName(), iae);
+        }
+
+        return typedData;
+    }
+
+    static Object toFrame(Class frameClass, int continuationPoint, Object[] typedData) {
+        if (frameClass == null || typedData == null) {
+            throw new NullPointerException();
+        }
+        if (typedData.length != TYPED_DATA_LENGTH) {
+            throw new IllegalArgumentException();
+        }
+
+        FrameLayout layout = getLayout(frameClass);
+        if (continuationPoint < 0 || continuationPoint >= layout.sizes.length) {
+            throw new IllegalArgumentException();
+        }
+
+        Object frame;
+        try {
+            frame = frameClass.newInstance();
+            for (int i = 0; i < typedData.length; i++) {
+                writeFields(frame, layout.fields[i], TYPES[i % TYPES.length], typedData[i]);
+            }
+        } catch (InstantiationException ie) {
+            throw new IllegalStateException("Unable to create frame class: " + frameClass.getName(), ie);
+        } catch (IllegalAccessException iae) {
+            throw new IllegalStateException("Unable to write frame class fields: " + frameClass.getName(), iae);
+        }
+
+        return frame;
+    }
+
+    private static Object readFields(Object frame, Field[] fields, char type, int size) throws IllegalAccessException {
+        // Instrumented code leaves storage arrays that would be empty as null, so do the same here
+        if (size == 0) {
+            return null;
+        }
+
+        switch (type) {
+            case 'I': {
+                int[] ret = new int[size];
+                for (int i = 0; i < size; i++) {
+                    ret[i] = fields[i].getInt(frame);
+                }
+                return ret;
+            }
+            case 'F': {
+                float[] ret = new float[size];
+                for (int i = 0; i < size; i++) {
+                    ret[i] = fields[i].getFloat(frame);
+                }
+                return ret;
+            }
+            case 'J': {
+                long[] ret = new long[size];
+                for (int i = 0; i < size; i++) {
+                    ret[i] = fields[i].getLong(frame);
+                }
+                return ret;
+            }
+            case 'D': {
+                double[] ret = new double[size];
+                for (int i = 0; i < size; i++) {
+                    ret[i] = fields[i].getDouble(frame);
+                }
+                return ret;
+            }
+            case 'L': {
+                Object[] ret = new Object[size];
+                for (int i = 0; i < size; i++) {
+                    ret[i] = fields[i].get(frame);
+                }
+                return ret;
+            }
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+    }
+
+    private static void writeFields(Object frame, Field[] fields, char type, Object array) throws IllegalAccessException {
+        if (array == null) {
+            return; // nothing was stored, leave the fields as their defaults
+        }
+
+        switch (type) {
+            case 'I': {
+                int[] values = (int[]) array;
+                validateLength(values.length, fields);
+                for (int i = 0; i < values.length; i++) {
+                    fields[i].setInt(frame, values[i]);
+                }
+                break;
+            }
+            case 'F': {
+                float[] values = (float[]) array;
+                validateLength(values.length, fields);
+                for (int i = 0; i < values.length; i++) {
+                    fields[i].setFloat(frame, values[i]);
+                }
+                break;
+            }
+            case 'J': {
+                long[] values = (long[]) array;
+                validateLength(values.length, fields);
+                for (int i = 0; i < values.length; i++) {
+                    fields[i].setLong(frame, values[i]);
+                }
+                break;
+            }
+            case 'D': {
+                double[] values = (double[]) array;
+                validateLength(values.length, fields);
+                for (int i = 0; i < values.length; i++) {
+                    fields[i].setDouble(frame, values[i]);
+                }
+                break;
+            }
+            case 'L': {
+                Object[] values = (Object[]) array;
+                validateLength(values.length, fields);
+                for (int i = 0; i < values.length; i++) {
+                    fields[i].set(frame, values[i]);
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+    }
+
+    private static void validateLength(int length, Field[] fields) {
+        if (length > fields.length) {
+            throw new IllegalArgumentException("Storage array larger than what frame class can hold: " + length + " vs " + fields.length);
+        }
+    }
+
+    private static FrameLayout getLayout(Class frameClass) {
+        synchronized (LOCK) {
+            FrameLayout layout = (FrameLayout) LAYOUTS.get(frameClass);
+            if (layout != null) {
+                return layout;
+            }
+        }
+
+        // Scan the frame class outside of the lock
+        FrameLayout layout;
+        try {
+            layout = scanLayout(frameClass);
+        } catch (NoSuchFieldException nsfe) {
+            throw new IllegalStateException("Frame class missing field: " + frameClass.getName(), nsfe);
+        } catch (IllegalAccessException iae) {
+            throw new IllegalStateException("Unable to read frame class sizes: " + frameClass.getName(), iae);
+        } catch (RuntimeException re) { // e.g. NumberFormatException
+            throw new IllegalStateException("Unable to parse frame class sizes: " + frameClass.getName(), re);
+        }
+
+        synchronized (LOCK) {
+            LAYOUTS.put(frameClass, layout);
+        }
+
+        return layout;
+    }
+
+    private static FrameLayout scanLayout(Class frameClass) throws NoSuchFieldException, IllegalAccessException {
+        String sizesStr = (String) frameClass.getField(SIZES_FIELD_NAME).get(null);
+
+        String[] continuationPointsStrs = sizesStr.length() == 0 ? new String[0] : sizesStr.split(";");
+        int[][] sizes = new int[continuationPointsStrs.length][];
+        int[] maxSizes = new int[TYPED_DATA_LENGTH];
+        for (int i = 0; i < continuationPointsStrs.length; i++) {
+            String[] sizeStrs = continuationPointsStrs[i].split(",");
+            if (sizeStrs.length != TYPED_DATA_LENGTH) {
+                throw new IllegalArgumentException();
+            }
+
+            sizes[i] = new int[TYPED_DATA_LENGTH];
+            for (int j = 0; j < sizeStrs.length; j++) {
+                sizes[i][j] = Integer.parseInt(sizeStrs[j]);
+                maxSizes[j] = Math.max(maxSizes[j], sizes[i][j]);
+            }
+        }
+
+        Field[][] fields = new Field[TYPED_DATA_LENGTH][];
+        for (int i = 0; i < fields.length; i++) {
+            char section = i < TYPES.length ? LOCALS_SECTION : OPERANDS_SECTION;
+            char type = TYPES[i % TYPES.length];
+            fields[i] = new Field[maxSizes[i]];
+            for (int j = 0; j < fields[i].length; j++) {
+                fields[i][j] = frameClass.getField(getFieldName(section, type, j));
+            }
+        }
+
+        return new FrameLayout(sizes, fields);
+    }
+
+    private static final class FrameLayout {
+        // continuation point -> number of fields used for each storage array (same order as the default storage layout)
+        private final int[][] sizes;
+        // storage array (same order as the default storage layout) -> fields for that storage array
+        private final Field[][] fields;
+
+        private FrameLayout(int[][] sizes, Field[][] fields) {
+            this.sizes = sizes;
+            this.fields = fields;
+        }
+    }
+}
@@ -17,8 +17,6 @@
 package com.as.suspension.user;
 
 import java.io.Serializable;
-import java.util.LinkedList;
-import java.util.ListIterator;
 
 /**
  * Do not use -- for internal use only.
@@ -27,9 +25,11 @@ import java.util.ListIterator;
  * @author Kasra Faghihi
  */
 public final class LockState implements Serializable {
-    private static final long serialVersionUID = 5L;
+    private static final long serialVersionUID = 6L;
 
-    // We use a linkedlist to make sure that we retain the order of monitors as they come in. Otherwise we're going to deal with deadlock
+    private static final Object[] EMPTY = new Object[0];
+
+    // We use a stack (array + size) to make sure that we retain the order of monitors as they come in. Otherwise we're going to deal with deadlock
     // issues if we have code structured with double locks. For example, imagine the following scenario...
     //
     // Method 1:
@@ -52,7 +52,11 @@ public final class LockState implements Serializable {
     // correctly (first a and then b). Dual locking without retaining the same order = a deadlock waiting to happen.
     //
     // Long story short: it's vital that we keep the order which locks happen
-    private LinkedList monitors = new LinkedList();
+    //
+    // The array starts off empty and is only allocated on the first enter(), so methods that create a LockState but never end up
+    // entering a monitor before suspending only pay for the LockState object itself.
+    private Object[] monitors = EMPTY;
+    private int size;
 
     /**
      * Do not use -- for internal use only.
@@ -65,7 +69,13 @@ public final class LockState implements Serializable {
             throw new NullPointerException();
         }
 
-        monitors.add(monitor);
+        if (size == monitors.length) {
+            Object[] newMonitors = new Object[monitors.length == 0 ? 4 : monitors.length * 2];
+            System.arraycopy(monitors, 0, newMonitors, 0, size);
+            monitors = newMonitors;
+        }
+        monitors[size] = monitor;
+        size++;
     }
 
     /**
@@ -79,13 +89,13 @@ public final class LockState implements Serializable {
             throw new NullPointerException();
         }
 
-        // remove last
-        ListIterator it = monitors.listIterator(monitors.size());
-        while (it.hasPrevious()) {
-            Object prev = it.previous();
-            if (monitor == prev) { // Never use equals() to test equality. We always need to make sure that the objects are the same, we
-                                   // don't care if they're the objects are logically equivalent
-                it.remove();
+        // remove last -- almost always the top of the stack, since javac emits MONITOREXITs in the reverse order of MONITORENTERs
+        for (int i = size - 1; i >= 0; i--) {
+            if (monitor == monitors[i]) { // Never use equals() to test equality. We always need to make sure that the objects are the same,
+                                          // we don't care if they're the objects are logically equivalent
+                size--;
+                System.arraycopy(monitors, i + 1, monitors, i, size - i);
+                monitors[size] = null;
                 return;
             }
         }
@@ -98,6 +108,8 @@ public final class LockState implements Serializable {
      * @return monitors
      */
     public Object[] toArray() {
-        return monitors.toArray();
+        Object[] ret = new Object[size];
+        System.arraycopy(monitors, 0, ret, 0, size);
+        return ret;
     }
 }
@@ -27,15 +27,15 @@ import java.io.Serializable;
 public final class MethodState implements Serializable {
     private static final long serialVersionUID = 5L;
 
+    static final String IDENTIFYING_FIELD_PREFIX = "__COROUTINES_ID_";
+
     private final String className;
     private final int methodId;
     private final int continuationPoint;
     private final Object[] data;
+    private final Object frame;
     private final LockState lockState;
 
-    private MethodState next;
-    private MethodState previous;
-
     /**
      * Do not use -- for internal use only.
      * <p>
@@ -58,6 +58,33 @@ public final class MethodState implements Serializable {
         this.methodId = methodId;
         this.continuationPoint = continuationPoint;
         this.data = data;
+        this.frame = null;
+        this.lockState = lockState;
+    }
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Constructs a {@link MethodState} object for a method that saves its state in to a generated frame class.
+     * @param className name of owner (class) for method at which state was saved
+     * @param methodId identifier for method at which state was saved
+     * @param continuationPoint point in the method at which state was saved (does not refer to offset, just an id that's generated by the
+     * instrumenter to mark that point)
+     * @param frame instance of the method's frame class holding the locals and operand stack at the point which state was saved
+     * @param lockState monitors entered at the point which state was saved (may be {@code null})
+     */
+    public MethodState(String className, int methodId, int continuationPoint, Object frame, LockState lockState) {
+        if (continuationPoint < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (frame == null) {
+            throw new NullPointerException();
+        }
+        this.className = className;
+        this.methodId = methodId;
+        this.continuationPoint = continuationPoint;
+        this.data = null;
+        this.frame = frame;
         this.lockState = lockState;
     }
 
@@ -96,12 +123,24 @@ public final class MethodState implements Serializable {
      * Do not use -- for internal use only.
      * <p>
      * Get locals and operand stack at the point which state was saved.
-     * @return locals and operand stack at the point which state was saved
+     * @return locals and operand stack at the point which state was saved, or {@code null} if the method saves its state in to a
+     * generated frame class
      */
     public Object[] getData() {
         return data;
     }
 
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Get the frame class instance holding the locals and operand stack at the point which state was saved.
+     * @return frame class instance holding the locals and operand stack at the point which state was saved, or {@code null} if the method
+     * doesn't save its state in to a generated frame class
+     */
+    public Object getFrame() {
+        return frame;
+    }
+
     /**
      * Do not use -- for internal use only.
      * <p>
@@ -121,61 +160,14 @@ public final class MethodState implements Serializable {
     
     
     
-    /**
-     * Do not use -- for internal use only.
-     * <p>
-     * Get the next method state.
-     * @return next method state
-     */
-    MethodState getNext() {
-        return next;
-    }
-
-    /**
-     * Do not use -- for internal use only.
-     * <p>
-     * Set the next method state.
-     * @param next next method state
-     */
-    void setNext(MethodState next) {
-        this.next = next;
-        if (next != null) {
-            next.previous = this;
-        }
-    }
-
-    /**
-     * Do not use -- for internal use only.
-     * <p>
-     * Get the previous method state.
-     * @return previous method state
-     */
-    MethodState getPrevious() {
-        return previous;
-    }
-
-    /**
-     * Do not use -- for internal use only.
-     * <p>
-     * Set the previous method state.
-     * @param previous previous method state
-     */
-    void setPrevious(MethodState previous) {
-        this.previous = previous;
-        if (previous != null) {
-            previous.next = this;
-        }
-    }
-
-
-
-
-
     /**
      * Do not use -- for internal use only.
      * <p>
      * Determine if this method state is valid. Valid means that the method that this method state is for exists and the method is the
      * correct version for this method state.
+     * <p>
+     * Class lookups and the identifying fields of each class are cached (per classloader), so only the first check for a class is
+     * expensive.
      * @param classLoader class loader to use to look for the class ({@code null} will attempt to use this Object's classloader / the
      * thread's context class loader)
      * @param className class name
@@ -193,48 +185,7 @@ public final class MethodState implements Serializable {
             throw new IllegalArgumentException();
         }
 
-        Class cls = null;
-        if (classLoader == null) {
-            // Try to find the class from this object's classloader
-            try {
-                cls = MethodState.class.getClassLoader().loadClass(className);
-            } catch (ClassNotFoundException cnfe) {
-                // do nothing
-            }
-            
-            // Try to find the class from this Thread's classloader
-            if (cls == null) {
-                try {
-                    cls = Thread.currentThread().getContextClassLoader().loadClass(className);
-                } catch (ClassNotFoundException cnfe) {
-                    // do nothing
-                }
-            }
-        } else {
-            // Try to find the class the classloader provided
-            try {
-                cls = classLoader.loadClass(className);
-            } catch (ClassNotFoundException cnfe) {
-                // do nothing
-            }
-        }
-
-
-
-        if (cls == null) {
-            throw new IllegalStateException("Class this state is being deserialized for is missing: " + className);
-        }
-
-
-
-        String versionField = getIdentifyingFieldName(methodId, continuationPointId);
-        try {
-            cls.getDeclaredField(versionField);
-        } catch (NoSuchFieldException nsfe) {
-            return false;
-        }
-
-        return true;
+        return ContinuationPointCache.isValid(classLoader, className, methodId, continuationPointId);
     }
 
     /**
@@ -253,6 +204,6 @@ public final class MethodState implements Serializable {
 
         String methodIdStr = Integer.toString(methodId).replace('-', 'N');
         String continuationPointIdStr = Integer.toString(continuationPointId).replace('-', 'N');
-        return "__COROUTINES_ID_" + methodIdStr + "_" + continuationPointIdStr;
+        return IDENTIFYING_FIELD_PREFIX + methodIdStr + "_" + continuationPointIdStr;
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.as.suspension.user;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OptionalDataException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+
+/**
+ * Encodes/decodes the user objects that make up a coroutine's state (the suspendable, the context, and any objects sitting in the local
+ * variables table / operand stack of a frame). Used by {@link CoroutineWriter.CompactCoroutineSerializer} and
+ * {@link CoroutineReader.CompactCoroutineDeserializer}.
+ * <p>
+ * Objects are always passed in / expected back as a single array, so that implementations can retain object identity (e.g. the same object
+ * sitting in multiple frames should come back as the same object).
+ * @author Kasra Faghihi
+ */
+public interface ObjectCodec {
+    /**
+     * Encodes objects.
+     * @param objects objects to encode (elements may be {@code null})
+     * @return encoded objects
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to encode
+     */
+    byte[] encode(Object[] objects);
+
+    /**
+     * Decodes objects.
+     * @param data encoded objects
+     * @return decoded objects (must be the same length and order as what was originally passed in to {@link #encode(java.lang.Object[]) })
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to decode
+     */
+    Object[] decode(byte[] data);
+
+    /**
+     * Default implementation of {@link ObjectCodec} (uses Java's built-in serialization mechanism). The objects being encoded must be
+     * serializable (must implement {@link Serializable}).
+     */
+    final class DefaultObjectCodec implements ObjectCodec {
+
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        public byte[] encode(Object[] objects) {
+            if (objects == null) {
+                throw new NullPointerException();
+            }
+
+            ByteArrayOutputStream baos = null;
+            ObjectOutputStream oos = null;
+            try {
+                baos = new ByteArrayOutputStream();
+                oos = new ObjectOutputStream(baos);
+
+                oos.writeObject(objects);
+                oos.flush();
+
+                return baos.toByteArray();
+            } catch (NotSerializableException nse) {
+                throw new IllegalArgumentException(nse);
+            } catch (InvalidClassException ice) {
+                throw new IllegalArgumentException(ice);
+            } catch (IOException ioe) {
+                throw new IllegalStateException(ioe); // should never happen
+            } finally {
+                if (oos != null) {
+                    try {
+                        oos.close();
+                    } catch (IOException ioe) {
+                        // do nothing
+                    }
+                }
+                if (baos != null) {
+                    try {
+                        baos.close();
+                    } catch (IOException ioe) {
+                        // do nothing
+                    }
+                }
+            }
+        }
+
+        public Object[] decode(byte[] data) {
+            if (data == null) {
+                throw new NullPointerException();
+            }
+
+            ByteArrayInputStream bais = null;
+            ObjectInputStream ois = null;
+            try {
+                bais = new ByteArrayInputStream(data);
+                ois = new ObjectInputStream(bais) {
+                    protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                        try {
+                            return super.resolveClass(desc);
+                        } catch (ClassNotFoundException cnfe) {
+                            // Same fallback as CoroutineReader.DefaultCoroutineDeserializer -- objectinputstream only uses the system
+                            // classloader, but coroutine classes may have been loaded by some other classloader.
+                            return Thread.currentThread().getContextClassLoader().loadClass(desc.getName());
+                        }
+                    }
+                };
+
+                return (Object[]) ois.readObject();
+            } catch (StreamCorruptedException sce) {
+                throw new IllegalArgumentException(sce);
+            } catch (OptionalDataException ode) {
+                throw new IllegalArgumentException(ode);
+            } catch (InvalidClassException ice) {
+                throw new IllegalArgumentException(ice);
+            } catch (ClassNotFoundException cnfe) {
+                throw new IllegalArgumentException(cnfe);
+            } catch (ClassCastException cce) {
+                throw new IllegalArgumentException(cce);
+            } catch (IOException ioe) {
+                throw new IllegalArgumentException(ioe);
+            } finally {
+                if (ois != null) {
+                    try {
+                        ois.close();
+                    } catch (IOException ioe) {
+                        // do nothing
+                    }
+                }
+                if (bais != null) {
+                    try {
+                        bais.close();
+                    } catch (IOException ioe) {
+                        // do nothing
+                    }
+                }
+            }
+        }
+        //CHECKSTYLE.ON:JavadocMethod
+    }
+}
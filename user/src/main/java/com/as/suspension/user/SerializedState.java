@@ -19,6 +19,7 @@ package com.as.suspension.user;
 import com.as.suspension.user.SerializationUtils.FrameUpdatePointKey;
 import com.as.suspension.user.SerializationUtils.FrameUpdatePointValue;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -26,11 +27,10 @@ import java.util.List;
  * @author Kasra Faghihi
  */
 public final class SerializedState implements Serializable {
-    private static final long serialVersionUID = 5L;
+    private static final long serialVersionUID = 6L;
     
     private final Suspendable suspendable;
     private final Object context;
-    private final List<ArgumentFrame> argumentFrames;
     private final VersionedFrame[] frames; // at each frame, we can have mulitple frame states (for older/newer versions)
 
     /**
@@ -41,7 +41,7 @@ public final class SerializedState implements Serializable {
      * @throws NullPointerException if {@code frames}
      * @throws IllegalArgumentException if any elements of {@code frame} are {@code null} or are otherwise in an invalid state
      */
-    public SerializedState(Suspendable suspendable, Object context, VersionedFrame[] frames, List<ArgumentFrame> argumentFrames) {
+    public SerializedState(Suspendable suspendable, Object context, VersionedFrame[] frames) {
         if (frames == null) {
             throw new NullPointerException();
         }
@@ -49,7 +49,6 @@ public final class SerializedState implements Serializable {
         this.suspendable = suspendable;
         this.context = context;
         this.frames = (VersionedFrame[]) frames.clone();
-        this.argumentFrames = argumentFrames;
 
         try {
             validateState(); // sanity check
@@ -58,6 +57,24 @@ public final class SerializedState implements Serializable {
         }
     }
 
+    /**
+     * Constructs a {@link SerializedState} object. Equivalent to calling
+     * {@link #SerializedState(com.as.suspension.user.Suspendable, java.lang.Object, com.as.suspension.user.SerializedState.VersionedFrame[]) }
+     * -- {@code argumentFrames} is ignored.
+     * @param suspendable suspendable object
+     * @param context suspendable context
+     * @param frames method states
+     * @param argumentFrames ignored
+     * @throws NullPointerException if {@code frames}
+     * @throws IllegalArgumentException if any elements of {@code frame} are {@code null} or are otherwise in an invalid state
+     * @deprecated arguments are no longer serialized, use
+     * {@link #SerializedState(com.as.suspension.user.Suspendable, java.lang.Object, com.as.suspension.user.SerializedState.VersionedFrame[]) }
+     */
+    @Deprecated
+    public SerializedState(Suspendable suspendable, Object context, VersionedFrame[] frames, List<ArgumentFrame> argumentFrames) {
+        this(suspendable, context, frames);
+    }
+
     /**
      * Get suspendable.
      * @return suspendable
@@ -74,10 +91,6 @@ public final class SerializedState implements Serializable {
         return context;
     }
 
-    public List<ArgumentFrame> getArgumentFrames(){
-        return argumentFrames;
-    }
-
     /**
      * Get suspendable method states.
      * @return suspendable method states
@@ -86,6 +99,16 @@ public final class SerializedState implements Serializable {
         return (VersionedFrame[]) frames.clone();
     }
 
+    /**
+     * Get argument frames. Always empty.
+     * @return empty list
+     * @deprecated arguments are no longer serialized
+     */
+    @Deprecated
+    public List<ArgumentFrame> getArgumentFrames() {
+        return Collections.<ArgumentFrame>emptyList();
+    }
+
     // Because thsi class is being serialized/deserialized, we need to validate that it's correct once we deserialize it. Call this
     // method to do that.
     void validateState() {
@@ -18,6 +18,7 @@ package com.as.suspension.user;
 
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -31,7 +32,7 @@ import java.util.Random;
  * @author Kasra Faghihi
  */
 public final class SuspendableContext implements Serializable {
-    private static final long serialVersionUID = 5L;
+    private static final long serialVersionUID = 6L;
 
     /**
      * Do not use -- for internal use only.
@@ -46,16 +47,20 @@ public final class SuspendableContext implements Serializable {
      */
     public static final int MODE_LOADING = 2;
 
-    private MethodState firstPointer;
+    private static final int INITIAL_CAPACITY = 8;
 
-    private MethodState nextLoadPointer;
-    private MethodState nextUnloadPointer;
+    private MethodState[] frames = new MethodState[INITIAL_CAPACITY];
+    private int size;
 
-    private MethodState firstCutpointPointer;
+    private int nextLoadIdx;
+    private int nextUnloadIdx = -1;
+
+    private MethodState[] cutpoints = new MethodState[INITIAL_CAPACITY];
+    private int cutpointCount;
 
     private int mode = MODE_NORMAL;
     private Object context;
-    private List<ArgumentFrame> argumentFrames;
+    transient private Object[] arguments;
 
     transient private String token;
 
@@ -66,11 +71,11 @@ public final class SuspendableContext implements Serializable {
             'X', 'Y' ,'Z', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
 
     // How should method states be handled? Imagine that we started off restoring the following call chain...
-    // runA() <-- firstPointer[0]
-    //  runB() <-- firstPointer[1]
-    //   runC() <-- firstPointer[2]
-    //    runD() <-- firstPointer[3]
-    //     runE() <-- firstPointer[4]
+    // runA() <-- frames[0]
+    //  runB() <-- frames[1]
+    //   runC() <-- frames[2]
+    //    runD() <-- frames[3]
+    //     runE() <-- frames[4]
     //
     // After the restore finishes, the following happens...
     // 1. runE() finishes running and returns
@@ -92,49 +97,55 @@ public final class SuspendableContext implements Serializable {
     // PHASE1
     // ------
     // The first phase is loading. We call loadNextMethodState() to get the method state for the next method in the call chain. Pretty
-    // straight forward.. runA -> runB -> runC -> runD -> runE.
+    // straight forward.. runA -> runB -> runC -> runD -> runE. Each call bumps nextLoadIdx. Once the last frame has been handed out,
+    // nextUnloadIdx is set to point to it.
     //
     //
     // PHASE2
     // ------
     // Once things are loaded... as we leave the restored continuation points in runE() and runD(), we call unloadCurrentMethodState() to
-    // mark these method states as invalid. So after runE()+runD() return, we should be pointing to runC(). Everything after it is no longer
-    // valid...
+    // mark these method states as invalid (nextUnloadIdx gets decremented). So after runE()+runD() return, we should be pointing to runC().
+    // Everything after it is no longer valid...
     //
-    // runA() <-- firstPointer[0]
-    //  runB() <-- firstPointer[1]
-    //   runC() <-- firstPointer[2] / nextUnloadPointer
-    //    runD() <-- firstPointer[3] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
-    //     runE() <-- firstPointer[4] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
+    // runA() <-- frames[0]
+    //  runB() <-- frames[1]
+    //   runC() <-- frames[2] / nextUnloadIdx
+    //    runD() <-- frames[3] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
+    //     runE() <-- frames[4] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
     //
     //
     // PHASE3
     // ------
-    // As runX() and runY() suspend, they put their own method states as part of a NEW linked list: firstCutpointPointer. They do this by
-    // calling pushNewMethodState().
-    //   !!!WE ONLY CREATE METHOD STATES AND ADD THEM TO THIS NEW LIST AFTER THEY'RE SUSPEND! THIS IS REALLY IMPORTANT TO REMEMBER!!!
+    // As runY() and runX() suspend, they put their own method states in to a SEPARATE array: cutpoints. They do this by calling
+    // pushNewMethodState(). Since the innermost method is the first to suspend, cutpoints ends up in reverse call order.
+    //   !!!WE ONLY CREATE METHOD STATES AND ADD THEM TO THIS NEW ARRAY AFTER THEY'RE SUSPEND! THIS IS REALLY IMPORTANT TO REMEMBER!!!
     //
-    // runX() <-- firstCutpointPointer[0]
-    //  runY()  <-- firstCutpointPointer[1]
+    // runY() <-- cutpoints[0]
+    // runX() <-- cutpoints[1]
     //
     //
-    // Then, once we successfully make our way up and out of the callstack, we merge these two lists together...
-    // runA() <-- savedMethodState[0]
-    //  runB() <-- savedMethodState[1]
-    //   runC() <-- savedMethodState[2] / nextUnloadPointer
-    //    runX() <-- savedMethodState[3] / firstCutpointPointer[0]
-    //     runY() <-- savedMethodState[4] / firstCutpointPointer[1]
+    // Then, once we successfully make our way up and out of the callstack, we copy the cutpoints (in reverse) on top of whatever is still
+    // valid in frames...
+    // runA() <-- frames[0]
+    //  runB() <-- frames[1]
+    //   runC() <-- frames[2] / nextUnloadIdx
+    //    runX() <-- frames[3] / cutpoints[1]
+    //     runY() <-- frames[4] / cutpoints[0]
     //
     //
-    // Why do we use a separate list for new invocations (postCutPointMethodState)? Because if there's an uncaught exception, we
-    // still want to keep the old one exactly the way it was. That's why technically we kept runD() and runE()s method states and just
-    // shift around the pointers. It's only after we're successfuly that we "commit the changes".
+    // Why do we use a separate array for new invocations (cutpoints)? Because if there's an uncaught exception, we still want to keep the
+    // old one exactly the way it was. That's why technically we kept runD() and runE()s method states and just move around the indexes.
+    // It's only after we're successfuly that we "commit the changes".
     //
     //
     // ADDITIONAL NOTES
     // ----------------
     // These phases should always be done in order. If you don't do them in order (e.g. if you try to unloadCurrentMethodState() after
     // you've called pushNewMethodState()), things will likely not act right.
+    //
+    // Arrays are used instead of a linked list of method states so that saving/restoring doesn't have to chase pointers, and so that
+    // getSize()/getSaved() are constant time. Both arrays grow as needed but are never shrunk, meaning a coroutine that suspends repeatedly
+    // at roughly the same depth stops allocating here after the first few cycles.
 
     SuspendableContext() {
         // do nothing
@@ -170,13 +181,13 @@ public final class SuspendableContext implements Serializable {
      * @return n/a
      */
     public MethodState loadNextMethodState() {
-        MethodState ret = nextLoadPointer;
-        nextLoadPointer = nextLoadPointer.getNext();
+        MethodState ret = frames[nextLoadIdx];
+        nextLoadIdx++;
 
-        // We've reached the end of load list, so set up the 'unload' list that gets called when a method continues execution from the point
-        // where it's paused it.
-        if (nextLoadPointer == null) {
-            nextUnloadPointer = ret;
+        // We've reached the end of load list, so set up the 'unload' index that gets used when a method continues execution from the
+        // point where it's paused it.
+        if (nextLoadIdx == size) {
+            nextUnloadIdx = nextLoadIdx - 1;
         }
 
         return ret;
@@ -186,7 +197,7 @@ public final class SuspendableContext implements Serializable {
      * Do not use -- for internal use only.
      */
     public void unloadCurrentMethodState() {
-        nextUnloadPointer = nextUnloadPointer.getPrevious();
+        nextUnloadIdx--;
     }
 
     /**
@@ -194,12 +205,20 @@ public final class SuspendableContext implements Serializable {
      * @param methodState n/a
      */
     public void unloadMethodStateToBefore(MethodState methodState) {
-        // REMEMBER: methodState being passed in must be in the linkedlist starting from firstPointer
+        // REMEMBER: methodState being passed in must be in frames
 
         //if (methodState == null) {
         //    throw new NullPointerException();
         //}
-        nextUnloadPointer = methodState.getPrevious();
+
+        // Only ever hit when an exception is propagating up through a restored frame, so a scan here is fine. Scan from the top because the
+        // frame being unwound is almost always at or near the top.
+        for (int i = size - 1; i >= 0; i--) {
+            if (frames[i] == methodState) {
+                nextUnloadIdx = i - 1;
+                return;
+            }
+        }
     }
 
     /**
@@ -211,18 +230,23 @@ public final class SuspendableContext implements Serializable {
         //    throw new NullPointerException();
         //}
 
-        methodState.setNext(firstCutpointPointer);
-        firstCutpointPointer = methodState;
+        if (cutpointCount == cutpoints.length) {
+            cutpoints = grow(cutpoints, cutpointCount + 1);
+        }
+        cutpoints[cutpointCount] = methodState;
+        cutpointCount++;
     }
 
     /**
      * Do not use -- for internal use only.
      */
     public void reset() {
-        firstPointer = null;
-        nextLoadPointer = null;
-        nextUnloadPointer = null;
-        firstCutpointPointer = null;
+        clear(frames, 0, size);
+        size = 0;
+        nextLoadIdx = 0;
+        nextUnloadIdx = -1;
+        clear(cutpoints, 0, cutpointCount);
+        cutpointCount = 0;
         mode = MODE_NORMAL;
     }
 
@@ -232,15 +256,22 @@ public final class SuspendableContext implements Serializable {
     public void successExecutionCycle() {
         // FOR A PRIMER ON WHAT WE'RE DOING HERE, SEE LARGE BLOCK OF COMMENT AT BEGINNING OF CLASS
 
-        if (nextUnloadPointer != null) {
-            nextUnloadPointer.setNext(firstCutpointPointer);
-        } else {
-            firstPointer = firstCutpointPointer;
+        int keep = nextUnloadIdx + 1;       // frames up to and including nextUnloadIdx are still valid (none if nextUnloadIdx is -1)
+        int newSize = keep + cutpointCount;
+        if (newSize > frames.length) {
+            frames = grow(frames, newSize);
         }
 
-        nextLoadPointer = firstPointer;     // reset next load pointer so we load from the beginning
-        nextUnloadPointer = null;           // reset unload pointer
-        firstCutpointPointer = null;        // reset cutpoint list
+        for (int i = 0; i < cutpointCount; i++) {
+            frames[keep + i] = cutpoints[cutpointCount - 1 - i];
+        }
+        clear(frames, newSize, size);       // drop references to frames that are no longer valid
+        size = newSize;
+
+        nextLoadIdx = 0;                    // reset next load index so we load from the beginning
+        nextUnloadIdx = -1;                 // reset unload index
+        clear(cutpoints, 0, cutpointCount); // reset cutpoint array
+        cutpointCount = 0;
     }
 
     /**
@@ -249,11 +280,27 @@ public final class SuspendableContext implements Serializable {
     public void failedExecutionCycle() {
         // FOR A PRIMER ON WHAT WE'RE DOING HERE, SEE LARGE BLOCK OF COMMENT AT BEGINNING OF CLASS
 
-        nextLoadPointer = firstPointer;     // reset next load pointer so we load from the beginning
-        nextUnloadPointer = null;           // reset unload pointer
-        firstCutpointPointer = null;        // reset cutpoint list
+        nextLoadIdx = 0;                    // reset next load index so we load from the beginning
+        nextUnloadIdx = -1;                 // reset unload index
+        clear(cutpoints, 0, cutpointCount); // reset cutpoint array
+        cutpointCount = 0;
     }
 
+    private static MethodState[] grow(MethodState[] array, int minCapacity) {
+        int newCapacity = array.length * 2;
+        if (newCapacity < minCapacity) {
+            newCapacity = minCapacity;
+        }
+        MethodState[] ret = new MethodState[newCapacity];
+        System.arraycopy(array, 0, ret, 0, array.length);
+        return ret;
+    }
+
+    private static void clear(MethodState[] array, int from, int to) {
+        for (int i = from; i < to; i++) {
+            array[i] = null;
+        }
+    }
 
 
 
@@ -306,20 +353,52 @@ public final class SuspendableContext implements Serializable {
     }
 
 
-    public void setArgumentFrames(List<ArgumentFrame> argumentFrames){
-        this.argumentFrames = argumentFrames;
+    /**
+     * Get the arguments passed in to the {@link CoroutineRunner#execute(java.lang.Object[]) } call that started/resumed this execution.
+     * Arguments are only held on to for the duration of that call -- they aren't retained between calls and aren't serialized.
+     * <p>
+     * The array returned is the one that was passed in (no copy is made), so it should not be modified.
+     * @return arguments for the most recent execution (empty if none were provided)
+     * @throws IllegalStateException if the suspendable isn't currently being executed
+     */
+    public Object[] getArguments() {
+        if (arguments == null) {
+            throw new IllegalStateException("No arguments available");
+        }
+        return arguments;
     }
 
-    public List<ArgumentFrame> getArgumentFrames(){
-        return argumentFrames;
+    void setArguments(Object[] arguments) {
+        this.arguments = arguments;
     }
 
-    public Object[] getArguments(){
-        List<ArgumentFrame> argFrames = getArgumentFrames();
-        if(argFrames.size() == 0) {
-            throw new IllegalStateException("");
+    /**
+     * Set the arguments for the current execution. Only the arguments in the last element of {@code argumentFrames} are used.
+     * @param argumentFrames argument frames ({@code null} or empty to clear arguments)
+     * @deprecated arguments are set by {@link CoroutineRunner#execute(java.lang.Object[]) } for the duration of that call
+     */
+    @Deprecated
+    public void setArgumentFrames(List<ArgumentFrame> argumentFrames) {
+        if (argumentFrames == null || argumentFrames.isEmpty()) {
+            arguments = null;
+        } else {
+            arguments = argumentFrames.get(argumentFrames.size() - 1).getArgs();
         }
-        return argFrames.get(argFrames.size() - 1).getArgs();
+    }
+
+    /**
+     * Get the argument frames. Arguments are no longer retained between executions, so this only ever contains the arguments for the
+     * current execution.
+     * @return unmodifiable list containing the arguments for the current execution (empty if the suspendable isn't currently being
+     * executed)
+     * @deprecated use {@link #getArguments() }
+     */
+    @Deprecated
+    public List<ArgumentFrame> getArgumentFrames() {
+        if (arguments == null) {
+            return Collections.<ArgumentFrame>emptyList();
+        }
+        return Collections.singletonList(new ArgumentFrame(arguments));
     }
 
 
@@ -329,18 +408,11 @@ public final class SuspendableContext implements Serializable {
      * @return n/a
      */
     public MethodState getSaved(int idx) {
-        if (idx < 0) {
+        if (idx < 0 || idx >= size) {
             throw new IllegalArgumentException();
         }
 
-        MethodState state = firstPointer;
-        for (int i = 0; i < idx; i++) {
-            state = state.getNext();
-            if (state == null) {
-                throw new IllegalArgumentException();
-            }
-        }
-        return state;
+        return frames[idx];
     }
 
     /**
@@ -348,12 +420,6 @@ public final class SuspendableContext implements Serializable {
      * @return n/a
      */
     public int getSize() {
-        int ret = 0;
-        MethodState state = firstPointer;
-        while (state != null) {
-            ret++;
-            state = state.getNext();
-        }
-        return ret;
+        return size;
     }
 }